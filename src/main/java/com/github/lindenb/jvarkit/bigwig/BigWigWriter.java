@@ -0,0 +1,698 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2020 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.bigwig;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.zip.Deflater;
+
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+
+/*
+<pre>
+## Layout of the file (all numbers are little endian)
+
+header                     64 bytes
+   magic                   int 0x888FFC26
+   version                 short (4)
+   zoomLevels              short
+   chromosomeTreeOffset    long
+   fullDataOffset          long
+   fullIndexOffset         long
+   fieldCount              short (0)
+   definedFieldCount       short (0)
+   autoSqlOffset           long (0)
+   totalSummaryOffset      long
+   uncompressBufSize       int
+   extensionOffset         long (0)
+zoom headers               10 * 24 bytes are reserved, 'zoomLevels' are used
+   reductionLevel          int
+   reserved                int
+   dataOffset              long
+   indexOffset             long
+total summary              40 bytes
+   basesCovered            long
+   minVal,maxVal,sumData,sumSquares double
+chromosome B+ tree
+full data
+   sectionCount            long
+   sections                zlib compressed bedGraph sections
+full data R-tree index
+for each zoom level
+   zoomCount               int
+   zoom records            zlib compressed blocks of (chromId,start,end,validCount: int; min,max,sum,sumSquares: float)
+   R-tree index
+magic                      int
+</pre>
+
+see https://genome.ucsc.edu/goldenPath/help/bigWig.html and Kent et al. Bioinformatics 2010 26(17):2204-7
+*/
+
+/**
+ * Writes a BigWig file in one pass.
+ *
+ * Intervals must be added sorted on the order of the dictionary and on their start, and must not overlap.
+ * The data are stored as zlib-compressed bedGraph sections, indexed with a R-tree. The zoom levels are
+ * computed on the fly, spooled into temporary files and appended to the file when it is closed.
+ *
+ */
+public class BigWigWriter implements Closeable {
+	private static final int BIGWIG_MAGIC = 0x888FFC26;
+	private static final int BPT_MAGIC = 0x78CA8C91;
+	private static final int CIRTREE_MAGIC = 0x2468ACE0;
+	private static final short VERSION = 4;
+	private static final int MAX_ZOOM_LEVELS = 10;
+	private static final int ZOOM_INCREMENT = 4;
+	private static final int BLOCK_SIZE = 256;
+	private static final int ITEMS_PER_SLOT = 1024;
+	private static final int HEADER_SIZE = 64;
+	private static final int ZOOM_HEADER_SIZE = 24;
+	private static final int SUMMARY_SIZE = 40;
+	private static final int SECTION_HEADER_SIZE = 24;
+	private static final int BEDGRAPH_ITEM_SIZE = 12;
+	private static final int ZOOM_RECORD_SIZE = 32;
+	private static final byte SECTION_TYPE_BEDGRAPH = 1;
+	/** number of intervals used to guess the resolution of the first zoom level */
+	private static final int SAMPLE_SIZE = 1_000;
+
+	private final SAMSequenceDictionary dict;
+	private final FileChannel channel;
+	private final LittleEndianOutput out;
+	private final Deflater deflater = new Deflater();
+	private byte compressed[] = new byte[0];
+	private final long fullDataOffset;
+	/** current section of data */
+	private final BlockBuffer section = new BlockBuffer(SECTION_HEADER_SIZE, BEDGRAPH_ITEM_SIZE);
+	private final List<Block> dataBlocks = new ArrayList<>();
+	private int maxUncompressedSize = 0;
+	private final Summary totalSummary = new Summary();
+	/** zoom levels, null until the resolution is known */
+	private List<ZoomLevel> zoomLevels = null;
+	/** the first intervals, kept until the resolution of the zoom levels is known */
+	private final int sampleTid[] = new int[SAMPLE_SIZE];
+	private final int sampleStart[] = new int[SAMPLE_SIZE];
+	private final int sampleEnd[] = new int[SAMPLE_SIZE];
+	private final float sampleValue[] = new float[SAMPLE_SIZE];
+	private int sampleCount = 0;
+	private int prevTid = -1;
+	private int prevEnd = 0;
+	private boolean closed = false;
+
+	/** summary of the values */
+	private static class Summary {
+		long basesCovered = 0L;
+		double minVal = Double.MAX_VALUE;
+		double maxVal = -Double.MAX_VALUE;
+		double sumData = 0.0;
+		double sumSquares = 0.0;
+		void add(final int length,final float value) {
+			this.basesCovered += length;
+			this.minVal = Math.min(this.minVal, value);
+			this.maxVal = Math.max(this.maxVal, value);
+			this.sumData += value * (double)length;
+			this.sumSquares += value * (double)value * length;
+			}
+		}
+
+	/** a compressed block of data or of zoom records, used to build the R-tree */
+	private static class Block {
+		final int tid;
+		final int start;
+		final int end;
+		final long offset;
+		final long size;
+		Block(final int tid,final int start,final int end,final long offset,final long size) {
+			this.tid = tid;
+			this.start = start;
+			this.end = end;
+			this.offset = offset;
+			this.size = size;
+			}
+		}
+
+	/** little endian output, keeping track of the offset in the file */
+	private static class LittleEndianOutput {
+		private final FileChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocate(1<<16).order(ByteOrder.LITTLE_ENDIAN);
+		LittleEndianOutput(final FileChannel channel) {
+			this.channel = channel;
+			}
+		long position() throws IOException {
+			return this.channel.position() + this.buffer.position();
+			}
+		private void ensure(final int n) throws IOException {
+			if(this.buffer.remaining() < n) flush();
+			}
+		void writeByte(final int v) throws IOException {
+			ensure(1);
+			this.buffer.put((byte)v);
+			}
+		void writeShort(final int v) throws IOException {
+			ensure(2);
+			this.buffer.putShort((short)v);
+			}
+		void writeInt(final int v) throws IOException {
+			ensure(4);
+			this.buffer.putInt(v);
+			}
+		void writeLong(final long v) throws IOException {
+			ensure(8);
+			this.buffer.putLong(v);
+			}
+		void writeFloat(final float v) throws IOException {
+			ensure(4);
+			this.buffer.putFloat(v);
+			}
+		void writeDouble(final double v) throws IOException {
+			ensure(8);
+			this.buffer.putDouble(v);
+			}
+		void write(final byte array[],final int off,final int len) throws IOException {
+			if(len > this.buffer.capacity()) {
+				flush();
+				final ByteBuffer b = ByteBuffer.wrap(array, off, len);
+				while(b.hasRemaining()) this.channel.write(b);
+				return;
+				}
+			ensure(len);
+			this.buffer.put(array, off, len);
+			}
+		void writeZeros(long n) throws IOException {
+			while(n > 0L) {
+				writeByte(0);
+				n--;
+				}
+			}
+		void flush() throws IOException {
+			this.buffer.flip();
+			while(this.buffer.hasRemaining()) this.channel.write(this.buffer);
+			this.buffer.clear();
+			}
+		}
+
+	/** uncompressed content of a block: an optional header followed by items of the same contig */
+	private static class BlockBuffer {
+		final int headerSize;
+		final ByteBuffer buffer;
+		int tid = -1;
+		int start = 0;
+		int end = 0;
+		int count = 0;
+		BlockBuffer(final int headerSize,final int itemSize) {
+			this.headerSize = headerSize;
+			this.buffer = ByteBuffer.allocate(headerSize + ITEMS_PER_SLOT * itemSize).order(ByteOrder.LITTLE_ENDIAN);
+			this.buffer.position(headerSize);
+			}
+		boolean isFull() {
+			return this.count >= ITEMS_PER_SLOT;
+			}
+		boolean isEmpty() {
+			return this.count == 0;
+			}
+		/** register a new item in this block */
+		void add(final int tid,final int start,final int end) {
+			if(this.count == 0) {
+				this.tid = tid;
+				this.start = start;
+				}
+			this.end = end;
+			this.count++;
+			}
+		void clear() {
+			this.buffer.clear();
+			this.buffer.position(this.headerSize);
+			this.count = 0;
+			this.tid = -1;
+			}
+		}
+
+	/** a zoom level: summaries of the data in bins of 'reduction' bases */
+	private class ZoomLevel {
+		final int reduction;
+		final Path tmpFile;
+		final FileChannel tmpChannel;
+		final LittleEndianOutput tmpOut;
+		final BlockBuffer block = new BlockBuffer(0, ZOOM_RECORD_SIZE);
+		/** blocks, offsets are relative to the start of the temporary file */
+		final List<Block> blocks = new ArrayList<>();
+		int recordCount = 0;
+		/** current record */
+		int tid = -1;
+		int bin = -1;
+		int start = 0;
+		int end = 0;
+		final Summary summary = new Summary();
+
+		ZoomLevel(final int reduction) throws IOException {
+			this.reduction = reduction;
+			this.tmpFile = Files.createTempFile("bigwig.", ".zoom");
+			this.tmpChannel = FileChannel.open(this.tmpFile, StandardOpenOption.READ,StandardOpenOption.WRITE,StandardOpenOption.TRUNCATE_EXISTING);
+			this.tmpOut = new LittleEndianOutput(this.tmpChannel);
+			}
+
+		void add(final int tid,int start,final int end,final float value) throws IOException {
+			while(start < end) {
+				final int b = start / this.reduction;
+				final int binEnd = (int)Math.min(end, (b + 1L) * this.reduction);
+				if(tid != this.tid || b != this.bin) {
+					flushRecord();
+					this.tid = tid;
+					this.bin = b;
+					this.start = start;
+					this.summary.basesCovered = 0L;
+					this.summary.minVal = Double.MAX_VALUE;
+					this.summary.maxVal = -Double.MAX_VALUE;
+					this.summary.sumData = 0.0;
+					this.summary.sumSquares = 0.0;
+					}
+				this.end = binEnd;
+				this.summary.add(binEnd - start, value);
+				start = binEnd;
+				}
+			}
+
+		private void flushRecord() throws IOException {
+			if(this.tid < 0) return;
+			if(this.block.isFull() || (!this.block.isEmpty() && this.block.tid != this.tid)) {
+				this.blocks.add(writeBlock(this.tmpOut, this.block));
+				}
+			final ByteBuffer b = this.block.buffer;
+			b.putInt(this.tid);
+			b.putInt(this.start);
+			b.putInt(this.end);
+			b.putInt((int)this.summary.basesCovered);
+			b.putFloat((float)this.summary.minVal);
+			b.putFloat((float)this.summary.maxVal);
+			b.putFloat((float)this.summary.sumData);
+			b.putFloat((float)this.summary.sumSquares);
+			this.block.add(this.tid, this.start, this.end);
+			this.recordCount++;
+			this.tid = -1;
+			}
+
+		void finish() throws IOException {
+			flushRecord();
+			if(!this.block.isEmpty()) {
+				this.blocks.add(writeBlock(this.tmpOut, this.block));
+				}
+			this.tmpOut.flush();
+			}
+
+		void dispose() {
+			try {this.tmpChannel.close();} catch(final IOException err) {}
+			try {Files.deleteIfExists(this.tmpFile);} catch(final IOException err) {}
+			}
+		}
+
+	/**
+	 * @param path the output file
+	 * @param dict the sequence dictionary, intervals must be sorted on this dictionary
+	 */
+	public BigWigWriter(final Path path,final SAMSequenceDictionary dict) throws IOException {
+		this.dict = Objects.requireNonNull(dict, "dictionary is null");
+		if(dict.isEmpty()) throw new IllegalArgumentException("dictionary is empty");
+		this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		this.out = new LittleEndianOutput(this.channel);
+		/* header, zoom headers and summary are written when the file is closed */
+		this.out.writeZeros(HEADER_SIZE + MAX_ZOOM_LEVELS * ZOOM_HEADER_SIZE + SUMMARY_SIZE);
+		writeChromosomeTree();
+		this.fullDataOffset = this.out.position();
+		/* section count, written when the file is closed */
+		this.out.writeLong(0L);
+		}
+
+	public SAMSequenceDictionary getSequenceDictionary() {
+		return this.dict;
+		}
+
+	/** B+ tree mapping the chromosome names to their index in the dictionary */
+	private void writeChromosomeTree() throws IOException {
+		final List<SAMSequenceRecord> items = new ArrayList<>(this.dict.getSequences());
+		items.sort(Comparator.comparing(SAMSequenceRecord::getSequenceName));
+		final int itemCount = items.size();
+		final int keySize = Math.max(1, items.stream().mapToInt(S->S.getSequenceName().getBytes(StandardCharsets.US_ASCII).length).max().orElse(1));
+		final int valSize = 8;
+		final int blockSize = Math.min(BLOCK_SIZE, itemCount);
+		int levels = 1;
+		for(long n = itemCount; n > blockSize; n = (n + blockSize - 1) / blockSize) levels++;
+
+		this.out.writeInt(BPT_MAGIC);
+		this.out.writeInt(blockSize);
+		this.out.writeInt(keySize);
+		this.out.writeInt(valSize);
+		this.out.writeLong(itemCount);
+		this.out.writeLong(0L);
+
+		final long bytesInIndexBlock = 4L + blockSize * (keySize + 8L);
+		final long bytesInLeafBlock = 4L + blockSize * (keySize + (long)valSize);
+		/* non-leaf levels, from the root */
+		for(int level = levels - 1; level > 0; --level) {
+			long slotSizePer = 1L;
+			for(int i=0;i< level;i++) slotSizePer *= blockSize;
+			final long nodeSizePer = slotSizePer * blockSize;
+			final long nodeCount = (itemCount + nodeSizePer - 1) / nodeSizePer;
+			final long bytesInNextLevelBlock = (level == 1 ? bytesInLeafBlock : bytesInIndexBlock);
+			long nextChild = this.out.position() + nodeCount * bytesInIndexBlock;
+			for(long i=0; i< itemCount; i+= nodeSizePer) {
+				final int countOne = (int)Math.min(blockSize, (itemCount - i + slotSizePer - 1) / slotSizePer);
+				this.out.writeByte(0);//isLeaf
+				this.out.writeByte(0);//reserved
+				this.out.writeShort(countOne);
+				for(long j = i; j < Math.min(i + nodeSizePer, itemCount); j+= slotSizePer) {
+					writeKey(items.get((int)j).getSequenceName(), keySize);
+					this.out.writeLong(nextChild);
+					nextChild += bytesInNextLevelBlock;
+					}
+				this.out.writeZeros((blockSize - countOne) * (keySize + 8L));
+				}
+			}
+		/* leaves */
+		for(int i=0;i< itemCount;i+= blockSize) {
+			final int countOne = Math.min(blockSize, itemCount - i);
+			this.out.writeByte(1);//isLeaf
+			this.out.writeByte(0);//reserved
+			this.out.writeShort(countOne);
+			for(int j=0;j< countOne;j++) {
+				final SAMSequenceRecord ssr = items.get(i+j);
+				writeKey(ssr.getSequenceName(), keySize);
+				this.out.writeInt(ssr.getSequenceIndex());
+				this.out.writeInt(ssr.getSequenceLength());
+				}
+			this.out.writeZeros((blockSize - countOne) * (keySize + (long)valSize));
+			}
+		}
+
+	private void writeKey(final String name,final int keySize) throws IOException {
+		final byte key[] = Arrays.copyOf(name.getBytes(StandardCharsets.US_ASCII), keySize);
+		this.out.write(key, 0, key.length);
+		}
+
+	/** compress and write a block, clear the block, returns its location */
+	private Block writeBlock(final LittleEndianOutput dest,final BlockBuffer block) throws IOException {
+		final int length = block.buffer.position();
+		this.maxUncompressedSize = Math.max(this.maxUncompressedSize, length);
+		this.deflater.reset();
+		this.deflater.setInput(block.buffer.array(), 0, length);
+		this.deflater.finish();
+		int n = 0;
+		while(!this.deflater.finished()) {
+			if(n == this.compressed.length) {
+				this.compressed = Arrays.copyOf(this.compressed, Math.max(1024, this.compressed.length * 2));
+				}
+			n += this.deflater.deflate(this.compressed, n, this.compressed.length - n);
+			}
+		final long offset = dest.position();
+		dest.write(this.compressed, 0, n);
+		final Block b = new Block(block.tid, block.start, block.end, offset, n);
+		block.clear();
+		return b;
+		}
+
+	private void flushSection() throws IOException {
+		if(this.section.isEmpty()) return;
+		final ByteBuffer b = this.section.buffer;
+		b.putInt(0, this.section.tid);
+		b.putInt(4, this.section.start);
+		b.putInt(8, this.section.end);
+		b.putInt(12, 0);//itemStep
+		b.putInt(16, 0);//itemSpan
+		b.put(20, SECTION_TYPE_BEDGRAPH);
+		b.put(21, (byte)0);//reserved
+		b.putShort(22, (short)this.section.count);
+		this.dataBlocks.add(writeBlock(this.out, this.section));
+		}
+
+	/**
+	 * add an interval
+	 * @param contig contig name
+	 * @param start 0-based start
+	 * @param end 0-based end, exclusive
+	 * @param value the value
+	 */
+	public void add(final String contig,final int start,final int end,final float value) throws IOException {
+		final SAMSequenceRecord ssr = this.dict.getSequence(contig);
+		if(ssr==null) throw new IllegalArgumentException("contig "+contig+" is not in the dictionary");
+		add(ssr.getSequenceIndex(), start, end, value);
+		}
+
+	/**
+	 * add an interval
+	 * @param tid index of the contig in the dictionary
+	 * @param start 0-based start
+	 * @param end 0-based end, exclusive
+	 * @param value the value
+	 */
+	public void add(final int tid,final int start,final int end,final float value) throws IOException {
+		if(this.closed) throw new IllegalStateException("writer was closed");
+		if(tid < 0 || tid >= this.dict.size()) throw new IllegalArgumentException("bad contig index "+tid);
+		if(start < 0 || start >= end || end > this.dict.getSequence(tid).getSequenceLength()) {
+			throw new IllegalArgumentException("bad interval "+this.dict.getSequence(tid).getSequenceName()+":"+start+"-"+end);
+			}
+		if(tid < this.prevTid || (tid == this.prevTid && start < this.prevEnd)) {
+			throw new IllegalArgumentException("intervals are not sorted or overlap: got "+this.dict.getSequence(tid).getSequenceName()+":"+start+"-"+end+" after "+this.dict.getSequence(this.prevTid).getSequenceName()+":"+this.prevEnd);
+			}
+		this.prevTid = tid;
+		this.prevEnd = end;
+
+		if(this.section.isFull() || (!this.section.isEmpty() && this.section.tid != tid)) {
+			flushSection();
+			}
+		this.section.buffer.putInt(start);
+		this.section.buffer.putInt(end);
+		this.section.buffer.putFloat(value);
+		this.section.add(tid, start, end);
+		this.totalSummary.add(end - start, value);
+
+		if(this.zoomLevels == null) {
+			this.sampleTid[this.sampleCount] = tid;
+			this.sampleStart[this.sampleCount] = start;
+			this.sampleEnd[this.sampleCount] = end;
+			this.sampleValue[this.sampleCount] = value;
+			this.sampleCount++;
+			if(this.sampleCount == SAMPLE_SIZE) createZoomLevels();
+			}
+		else
+			{
+			for(final ZoomLevel zl : this.zoomLevels) zl.add(tid, start, end, value);
+			}
+		}
+
+	/** the first zoom level uses ten times the average length of the first intervals, each next level is 4 times larger */
+	private void createZoomLevels() throws IOException {
+		long sumLength = 0L;
+		for(int i=0;i< this.sampleCount;i++) sumLength += this.sampleEnd[i] - this.sampleStart[i];
+		final long avgLength = (this.sampleCount == 0 ? 1L : Math.max(1L, sumLength / this.sampleCount));
+		final long maxContigLength = this.dict.getSequences().stream().mapToLong(SAMSequenceRecord::getSequenceLength).max().orElse(1L);
+		this.zoomLevels = new ArrayList<>(MAX_ZOOM_LEVELS);
+		long reduction = avgLength * 10L;
+		while(this.zoomLevels.size() < MAX_ZOOM_LEVELS && (this.zoomLevels.isEmpty() || reduction < maxContigLength) && reduction <= Integer.MAX_VALUE) {
+			this.zoomLevels.add(new ZoomLevel((int)reduction));
+			reduction *= ZOOM_INCREMENT;
+			}
+		for(int i=0;i< this.sampleCount;i++) {
+			for(final ZoomLevel zl : this.zoomLevels) zl.add(this.sampleTid[i], this.sampleStart[i], this.sampleEnd[i], this.sampleValue[i]);
+			}
+		this.sampleCount = 0;
+		}
+
+	/** write a R-tree indexing the blocks */
+	private void writeRTree(final List<Block> blocks,final long endFileOffset) throws IOException {
+		final int itemCount = blocks.size();
+		this.out.writeInt(CIRTREE_MAGIC);
+		this.out.writeInt(BLOCK_SIZE);
+		this.out.writeLong(itemCount);
+		this.out.writeInt(itemCount == 0 ? 0 : blocks.get(0).tid);
+		this.out.writeInt(itemCount == 0 ? 0 : blocks.get(0).start);
+		this.out.writeInt(itemCount == 0 ? 0 : blocks.get(itemCount-1).tid);
+		this.out.writeInt(itemCount == 0 ? 0 : blocks.get(itemCount-1).end);
+		this.out.writeLong(endFileOffset);
+		this.out.writeInt(1);//items per slot
+		this.out.writeInt(0);//reserved
+
+		/* number of nodes in each level, level 0 are the leaves */
+		final List<Long> nodeCounts = new ArrayList<>();
+		long n = Math.max(1L, (itemCount + BLOCK_SIZE - 1) / BLOCK_SIZE);
+		nodeCounts.add(n);
+		while(n > 1L) {
+			n = (n + BLOCK_SIZE - 1) / BLOCK_SIZE;
+			nodeCounts.add(n);
+			}
+		final long leafNodeSize = 4L + BLOCK_SIZE * 32L;
+		final long indexNodeSize = 4L + BLOCK_SIZE * 24L;
+		/* offset of each level, the root is written first */
+		final long levelOffsets[] = new long[nodeCounts.size()];
+		long offset = this.out.position();
+		for(int level = nodeCounts.size()-1; level >= 0; --level) {
+			levelOffsets[level] = offset;
+			offset += nodeCounts.get(level) * (level == 0 ? leafNodeSize : indexNodeSize);
+			}
+
+		for(int level = nodeCounts.size()-1; level > 0; --level) {
+			/* number of blocks under a child of a node of this level */
+			long itemsPerChild = 1L;
+			for(int i=0;i< level;i++) itemsPerChild *= BLOCK_SIZE;
+			final long childCount = nodeCounts.get(level-1);
+			final long childSize = (level == 1 ? leafNodeSize : indexNodeSize);
+			for(long node=0; node < nodeCounts.get(level); ++node) {
+				final int countOne = (int)Math.min(BLOCK_SIZE, childCount - node * BLOCK_SIZE);
+				this.out.writeByte(0);//isLeaf
+				this.out.writeByte(0);//reserved
+				this.out.writeShort(countOne);
+				for(int j=0;j< countOne;j++) {
+					final long child = node * BLOCK_SIZE + j;
+					final Block first = blocks.get((int)(child * itemsPerChild));
+					final Block last = blocks.get((int)Math.min(itemCount, (child + 1) * itemsPerChild) - 1);
+					this.out.writeInt(first.tid);
+					this.out.writeInt(first.start);
+					this.out.writeInt(last.tid);
+					this.out.writeInt(last.end);
+					this.out.writeLong(levelOffsets[level-1] + child * childSize);
+					}
+				this.out.writeZeros((BLOCK_SIZE - countOne) * 24L);
+				}
+			}
+		/* leaves */
+		for(long node=0; node < nodeCounts.get(0); ++node) {
+			final int countOne = (int)Math.min(BLOCK_SIZE, itemCount - node * BLOCK_SIZE);
+			this.out.writeByte(1);//isLeaf
+			this.out.writeByte(0);//reserved
+			this.out.writeShort(countOne);
+			for(int j=0;j< countOne;j++) {
+				final Block b = blocks.get((int)(node * BLOCK_SIZE + j));
+				this.out.writeInt(b.tid);
+				this.out.writeInt(b.start);
+				this.out.writeInt(b.tid);
+				this.out.writeInt(b.end);
+				this.out.writeLong(b.offset);
+				this.out.writeLong(b.size);
+				}
+			this.out.writeZeros((BLOCK_SIZE - countOne) * 32L);
+			}
+		}
+
+	@Override
+	public void close() throws IOException {
+		if(this.closed) return;
+		this.closed = true;
+		try {
+			flushSection();
+			if(this.zoomLevels == null) createZoomLevels();
+
+			final long fullIndexOffset = this.out.position();
+			writeRTree(this.dataBlocks, fullIndexOffset);
+
+			final long zoomDataOffsets[] = new long[this.zoomLevels.size()];
+			final long zoomIndexOffsets[] = new long[this.zoomLevels.size()];
+			for(int i=0;i< this.zoomLevels.size();i++) {
+				final ZoomLevel zl = this.zoomLevels.get(i);
+				zl.finish();
+				zoomDataOffsets[i] = this.out.position();
+				this.out.writeInt(zl.recordCount);
+				this.out.flush();
+				/* append the temporary file */
+				final long shift = this.channel.position();
+				final long size = zl.tmpChannel.size();
+				long copied = 0L;
+				while(copied < size) {
+					copied += zl.tmpChannel.transferTo(copied, size - copied, this.channel);
+					}
+				this.channel.position(shift + size);
+				final List<Block> blocks = new ArrayList<>(zl.blocks.size());
+				for(final Block b: zl.blocks) {
+					blocks.add(new Block(b.tid, b.start, b.end, b.offset + shift, b.size));
+					}
+				zoomIndexOffsets[i] = this.out.position();
+				writeRTree(blocks, zoomIndexOffsets[i]);
+				zl.dispose();
+				}
+			this.out.writeInt(BIGWIG_MAGIC);
+			this.out.flush();
+
+			/* header */
+			final ByteBuffer b = ByteBuffer.allocate(HEADER_SIZE + MAX_ZOOM_LEVELS * ZOOM_HEADER_SIZE + SUMMARY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			b.putInt(BIGWIG_MAGIC);
+			b.putShort(VERSION);
+			b.putShort((short)this.zoomLevels.size());
+			b.putLong(HEADER_SIZE + MAX_ZOOM_LEVELS * ZOOM_HEADER_SIZE + SUMMARY_SIZE);//chromosome tree
+			b.putLong(this.fullDataOffset);
+			b.putLong(fullIndexOffset);
+			b.putShort((short)0);//fieldCount
+			b.putShort((short)0);//definedFieldCount
+			b.putLong(0L);//autoSqlOffset
+			b.putLong(HEADER_SIZE + MAX_ZOOM_LEVELS * ZOOM_HEADER_SIZE);//total summary
+			b.putInt(Math.max(this.maxUncompressedSize, SECTION_HEADER_SIZE));
+			b.putLong(0L);//extension
+			for(int i=0;i< MAX_ZOOM_LEVELS;i++) {
+				if(i < this.zoomLevels.size()) {
+					b.putInt(this.zoomLevels.get(i).reduction);
+					b.putInt(0);
+					b.putLong(zoomDataOffsets[i]);
+					b.putLong(zoomIndexOffsets[i]);
+					}
+				else
+					{
+					b.put(new byte[ZOOM_HEADER_SIZE]);
+					}
+				}
+			final boolean empty = this.totalSummary.basesCovered == 0L;
+			b.putLong(this.totalSummary.basesCovered);
+			b.putDouble(empty ? 0.0 : this.totalSummary.minVal);
+			b.putDouble(empty ? 0.0 : this.totalSummary.maxVal);
+			b.putDouble(this.totalSummary.sumData);
+			b.putDouble(this.totalSummary.sumSquares);
+			b.flip();
+			long pos = 0L;
+			while(b.hasRemaining()) pos += this.channel.write(b, pos);
+
+			/* number of sections */
+			final ByteBuffer count = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+			count.putLong(this.dataBlocks.size());
+			count.flip();
+			pos = this.fullDataOffset;
+			while(count.hasRemaining()) pos += this.channel.write(count, pos);
+			}
+		finally
+			{
+			if(this.zoomLevels!=null) {
+				for(final ZoomLevel zl : this.zoomLevels) zl.dispose();
+				}
+			this.deflater.end();
+			this.channel.close();
+			}
+		}
+	}
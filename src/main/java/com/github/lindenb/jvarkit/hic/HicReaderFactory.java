@@ -37,7 +37,11 @@ import htsjdk.samtools.seekablestream.SeekableStreamFactory;
  *
  */
 public class HicReaderFactory {
+	/** default size of the cache of decoded blocks, in bytes */
+	public static final long DEFAULT_BLOCK_CACHE_SIZE = 64L * 1024L * 1024L;
 	private ISeekableStreamFactory seekableStreamFactory= SeekableStreamFactory.getInstance();
+	private long blockCacheSize = DEFAULT_BLOCK_CACHE_SIZE;
+	private int nThreads = 1;
 	
 	public HicReaderFactory setSeekableStreamFactory(final ISeekableStreamFactory seekableStreamFactory) {
 		this.seekableStreamFactory = seekableStreamFactory;
@@ -48,9 +52,29 @@ public class HicReaderFactory {
 		return seekableStreamFactory;
 		}
 	
+	/** set the max size, in bytes, of the cache of decoded blocks. 0 to disable the cache */
+	public HicReaderFactory setBlockCacheSize(final long blockCacheSize) {
+		this.blockCacheSize = blockCacheSize;
+		return this;
+		}
+	
+	public long getBlockCacheSize() {
+		return blockCacheSize;
+		}
+	
+	/** set the number of threads decoding the blocks of a query */
+	public HicReaderFactory setNumberOfThreads(final int nThreads) {
+		this.nThreads = nThreads;
+		return this;
+		}
+	
+	public int getNumberOfThreads() {
+		return nThreads;
+		}
+	
 	public HicReader open(final String pathOrUrl) throws IOException {
 		final SeekableStream sr = getSeekableStreamFactory().getStreamFor(pathOrUrl);
-		return new HicReaderImpl(pathOrUrl, sr);
+		return new HicReaderImpl(pathOrUrl, sr, getBlockCacheSize(), getNumberOfThreads());
 		}
 	
 	}
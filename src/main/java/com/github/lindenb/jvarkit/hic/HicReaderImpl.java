@@ -53,8 +53,15 @@ package com.github.lindenb.jvarkit.hic;
 import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -62,9 +69,16 @@ import java.util.Optional;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
-import java.util.zip.InflaterInputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
 import com.github.lindenb.jvarkit.lang.Paranoid;
 import com.github.lindenb.jvarkit.lang.StringUtils;
@@ -117,15 +131,86 @@ public class HicReaderImpl implements HicReader {
 	/** fragment resolutions */
 	private final Set<Integer> fragmentResolutions;
 	
-	private static class ContactRecord
+	/** decoded blocks */
+	private final BlockCache blockCache;
+	/** number of threads decoding the blocks of a query */
+	private final int nThreads;
+	/** pool of threads decoding the blocks or null if nThreads==1 */
+	private final ExecutorService executor;
+	
+	/** the contacts of a block stored as primitive columns */
+	static class DecodedBlock
 		{
-		final int binX;
-		final int binY;
-		final float counts;
-		ContactRecord(int binX,int binY, float counts) {
-			this.binX = binX;
-			this.binY =  binY;
-			this.counts =  counts;
+		int size = 0;
+		int[] binX;
+		int[] binY;
+		float[] counts;
+		DecodedBlock(final int capacity) {
+			this.binX = new int[capacity];
+			this.binY = new int[capacity];
+			this.counts = new float[capacity];
+			}
+		void add(final int x,final int y,final float c) {
+			if(this.size==this.binX.length) {
+				final int capacity = Math.max(16, this.size*2);
+				this.binX = Arrays.copyOf(this.binX, capacity);
+				this.binY = Arrays.copyOf(this.binY, capacity);
+				this.counts = Arrays.copyOf(this.counts, capacity);
+				}
+			this.binX[this.size] = x;
+			this.binY[this.size] = y;
+			this.counts[this.size] = c;
+			this.size++;
+			}
+		/** approximate memory used by this block */
+		long getSizeInBytes() {
+			return 64L + (long)this.binX.length * (Integer.BYTES * 2 + Float.BYTES);
+			}
+		}
+	
+	private static final DecodedBlock EMPTY_BLOCK = new DecodedBlock(0);
+	
+	/** LRU cache of the decoded blocks, indexed by file position. The size is limited by the memory used by the blocks */
+	static class BlockCache
+		{
+		/** decoded blocks, the most recently used last */
+		private final Map<Long,DecodedBlock> blocks = new LinkedHashMap<>(100,0.75f,true);
+		/** sum of the sizes of the decoded blocks in 'blocks' */
+		private long sizeInBytes = 0L;
+		/** max size of 'blocks' in bytes */
+		private final long maxBytes;
+		BlockCache(final long maxBytes) {
+			this.maxBytes = Math.max(0L, maxBytes);
+			}
+		/** get a decoded block, or null */
+		synchronized DecodedBlock get(final long position) {
+			if(this.maxBytes<=0L) return null;
+			return this.blocks.get(position);
+			}
+		/** put a decoded block and remove the least recently used blocks */
+		synchronized void put(final long position,final DecodedBlock block) {
+			final long n = block.getSizeInBytes();
+			if(n > this.maxBytes) return;
+			final DecodedBlock prev = this.blocks.put(position, block);
+			if(prev!=null) this.sizeInBytes -= prev.getSizeInBytes();
+			this.sizeInBytes += n;
+			final Iterator<DecodedBlock> iter = this.blocks.values().iterator();
+			while(this.sizeInBytes > this.maxBytes && iter.hasNext()) {
+				this.sizeInBytes -= iter.next().getSizeInBytes();
+				iter.remove();
+				}
+			}
+		/** sum of the sizes of the blocks in memory */
+		synchronized long getSizeInBytes() {
+			return this.sizeInBytes;
+			}
+		/** number of blocks in memory */
+		synchronized int size() {
+			return this.blocks.size();
+			}
+		synchronized void clear() {
+			this.blocks.clear();
+			this.sizeInBytes = 0L;
 			}
 		}
 	
@@ -145,8 +230,15 @@ public class HicReaderImpl implements HicReader {
 	
 	/** called by HicReaderFactory */
 	HicReaderImpl(final Object source,final SeekableStream seekableStream) throws IOException {
+		this(source, seekableStream, HicReaderFactory.DEFAULT_BLOCK_CACHE_SIZE, 1);
+		}
+	
+	/** called by HicReaderFactory */
+	HicReaderImpl(final Object source,final SeekableStream seekableStream,final long blockCacheMaxBytes,final int nThreads) throws IOException {
 		this.source = source;
 		this.seekableStream = seekableStream;
+		this.blockCache = new BlockCache(blockCacheMaxBytes);
+		this.nThreads = Math.max(1, nThreads);
 		
 		@SuppressWarnings("resource")
 		LittleEndianInputStream lis = this.streamToEndian();
@@ -232,7 +324,17 @@ public class HicReaderImpl implements HicReader {
 
 		// 
 		
-		
+		if(this.nThreads > 1) {
+			this.executor = Executors.newFixedThreadPool(this.nThreads,R->{
+				final Thread t = new Thread(R, "hic-block-decoder");
+				t.setDaemon(true);
+				return t;
+				});
+			}
+		else
+			{
+			this.executor = null;
+			}
 		}
 	
 	
@@ -248,6 +350,8 @@ public class HicReaderImpl implements HicReader {
 	
 	@Override
 	public void close() {
+		if(this.executor!=null) this.executor.shutdownNow();
+		this.blockCache.clear();
 		CloserUtil.close(this.seekableStream);
 		}
 	
@@ -374,11 +478,13 @@ public class HicReaderImpl implements HicReader {
 			
 		 
 		  
-		  for (final Integer it:blockNumbers) {
+		  q.forEachBlock(blockNumbers, block->{
 		    // get contacts in this block
-		    for(final ContactRecord rec:q.readBlockId(it)) {     
-		      final int x = rec.binX * binsize;
-		      final int y = rec.binY * binsize;
+		    for(int i=0;i< block.size;i++) {
+		      final int binX = block.binX[i];
+		      final int binY = block.binY[i];
+		      final int x = binX * binsize;
+		      final int y = binY * binsize;
 		      
 		      if(!CoordMath.encloses(q.qInterval1.start, q.qInterval1.end, x, x)) continue;
 		      if(!CoordMath.encloses(q.qInterval2.start, q.qInterval2.end, y, y)) continue;
@@ -388,16 +494,16 @@ public class HicReaderImpl implements HicReader {
 			      if(!CoordMath.encloses(q.qInterval2.start, q.qInterval2.end, x, x)) continue;
 		      	}
 		      
-		      float c = rec.counts;
+		      float c = block.counts[i];
 		      if (!norm .equals(Normalization.NONE)) {
-				  c = (float)(c / (c1Norm[rec.binX] * c2Norm[rec.binY]));
+				  c = (float)(c / (c1Norm[binX] * c2Norm[binY]));
 			      }
 		     
 		     q.callback.reportContact(
 		    		 q.interval1.getContig(), x, x+binsize,
 		    		 q.interval2.getContig(), y, y+binsize, norm, unit, binsize, c);
 		    }
-		  }
+		  });
 			return false;
 			}
 		catch(final IOException err) {
@@ -520,76 +626,150 @@ public class HicReaderImpl implements HicReader {
 	
 	
 	
+	/** wait for a result computed in another thread */
+	private static <T> T waitFor(final Future<T> future) throws IOException {
+		try {
+			return future.get();
+			}
+		catch(final InterruptedException err) {
+			Thread.currentThread().interrupt();
+			throw new IOException(err);
+			}
+		catch(final ExecutionException err) {
+			final Throwable cause = err.getCause();
+			if(cause instanceof IOException) throw IOException.class.cast(cause);
+			if(cause instanceof RuntimeException) throw RuntimeException.class.cast(cause);
+			throw new IOException(cause);
+			}
+		}
+
+	/** send the results of the futures in order to the consumer. The futures are pulled from the iterator, so they can be submitted lazily:
+	 * at most 'maxPending' futures are waiting to be consumed */
+	static <T> void forEachInOrder(final Iterator<Future<T>> futures,final int maxPending,final Consumer<T> consumer) throws IOException {
+		final Deque<Future<T>> pending = new ArrayDeque<>();
+		try {
+			while(futures.hasNext()) {
+				pending.add(futures.next());
+				if(pending.size() >= maxPending) {
+					consumer.accept(waitFor(pending.removeFirst()));
+					}
+				}
+			while(!pending.isEmpty()) {
+				consumer.accept(waitFor(pending.removeFirst()));
+				}
+			}
+		finally
+			{
+			for(final Future<T> future:pending) future.cancel(true);
+			}
+		}
+
+	/** inflate a compressed block */
+	static ByteBuffer inflate(final byte compressedBytes[]) throws IOException {
+		final Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(compressedBytes);
+			byte buffer[] = new byte[Math.max(1024, compressedBytes.length * 4)];
+			int len = 0;
+			while(!inflater.finished()) {
+				if(len == buffer.length) {
+					buffer = Arrays.copyOf(buffer, buffer.length * 2);
+					}
+				final int n = inflater.inflate(buffer, len, buffer.length - len);
+				if(n==0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					throw new IOException("truncated compressed block");
+					}
+				len += n;
+				}
+			return ByteBuffer.wrap(buffer, 0, len).order(ByteOrder.LITTLE_ENDIAN);
+			}
+		catch(final DataFormatException err) {
+			throw new IOException(err);
+			}
+		finally
+			{
+			inflater.end();
+			}
+		}
+
 	/**
-	https://github.com/igvteam/juicebox.js/blob/55bd6c7815f9abee74368c14a9d9403d2998313f/js/hicDataset.js#L95 	 
+	https://github.com/igvteam/juicebox.js/blob/55bd6c7815f9abee74368c14a9d9403d2998313f/js/hicDataset.js#L95
 	https://github.com/igvteam/hic-straw/blob/d428ee7e6df5488dd1295b33a81eeb06adbf7a51/src/hicFile.js#L307 */
-	private List<ContactRecord> readBlock(final IndexEntry indexEntry) throws IOException {
-		debug("read block " + indexEntry); 
+	private DecodedBlock readBlock(final IndexEntry indexEntry) throws IOException {
 		if (indexEntry==null) {
-			 return Collections.emptyList();
+			 return EMPTY_BLOCK;
 		 	}
-		 debug(indexEntry);
 		 if (indexEntry.size == 0) {
-			 return Collections.emptyList();
+			 return EMPTY_BLOCK;
 		 }
+		 DecodedBlock block = this.blockCache.get(indexEntry.position);
+		 if(block!=null) return block;
+
+		 debug("read block " + indexEntry);
 		 final byte compressedBytes[] = new byte[indexEntry.size];
+		 /* the stream is shared by the threads decoding the blocks */
+		 synchronized(this.seekableStream) {
+			 seekableStream.seek(indexEntry.position);
+			 seekableStream.readFully(compressedBytes);
+		 	 }
+		 try {
+			 block = decodeBlock(inflate(compressedBytes), getVersion());
+		 	 }
+		 catch(final BufferUnderflowException err) {
+			 throw new IOException("truncated block "+indexEntry, err);
+		 	 }
+		 this.blockCache.put(indexEntry.position, block);
+		 return block;
+		 }
 
-		 seekableStream.seek(indexEntry.position);
-		 seekableStream.readFully(compressedBytes);
-		 final InflaterInputStream zipIn = new InflaterInputStream(new ByteArrayInputStream(compressedBytes));
+	/** decode an inflated block */
+	static DecodedBlock decodeBlock(final ByteBuffer bufferin,final int version) throws IOException {
+		 final int nRecords = bufferin.getInt();
+		 if(nRecords<0) throw new IOException("negative number of records "+nRecords);
+		 final DecodedBlock contactRecords = new DecodedBlock(nRecords);
 
 
-		 // create stream from buffer for ease of use
+		 if(version<7) {
+			 final int binX = bufferin.getInt();
+			 final int binY = bufferin.getInt();
+			 final float counts = bufferin.getFloat();
+             contactRecords.add(binX, binY, counts);
+		 }
 
-		 @SuppressWarnings("resource")
-		 final LittleEndianInputStream bufferin=new LittleEndianInputStream(zipIn);
-		 final int nRecords = bufferin.readInt();
-		 paranoid.assertGe(nRecords, 0);
-		 final List<ContactRecord> contactRecords = new ArrayList<>(nRecords);
 
+		 int binXOffset =bufferin.getInt();
+		 int binYOffset =bufferin.getInt();
+		 byte useShort = bufferin.get();
+		 int type = (int)bufferin.get();
 
-		 if(getVersion()<7) {
-			 final int binX = bufferin.readInt();
-			 final int binY = bufferin.readInt();
-			 final float counts = bufferin.readFloat();
-             contactRecords.add(new ContactRecord(binX, binY, counts));
-		 }
 
-		 
-		 int binXOffset =bufferin.readInt();
-		 int binYOffset =bufferin.readInt();
-		 byte useShort = bufferin.readByte();
-		 int type = (int)bufferin.readByte();
-		 
-		 
 		 switch(type) {
 		 case 1: {
 			 // List-of-rows representation
-			 short rowCount = bufferin.readShort();
+			 short rowCount = bufferin.getShort();
 			 for (int i = 0; i < rowCount; i++) {
-				 short y = bufferin.readShort();
+				 short y = bufferin.getShort();
 				 int binY = y + binYOffset;
-				 short colCount = bufferin.readShort();
+				 short colCount = bufferin.getShort();
 				 for (int j = 0; j < colCount; j++) {
-					 short x = bufferin.readShort();
+					 short x = bufferin.getShort();
 					 int binX = binXOffset + x;
 					 float counts;
 					 if (useShort == 0) { // yes this is opposite of usual
-						 short c = bufferin.readShort();
+						 short c = bufferin.getShort();
 						 counts = c;
-					 } 
+					 }
 					 else {
-						 counts = bufferin.readFloat();
+						 counts = bufferin.getFloat();
 					 }
-				 final ContactRecord record = new ContactRecord(binX,binY,counts);
-				 contactRecords.add(record);
+				 contactRecords.add(binX,binY,counts);
 				 }
 			 }
 			 break;
 		 }
 		 case 2 : { // have yet to find test file where this is true, possibly entirely deprecated
-			 int nPts = bufferin.readInt();
-			 short w = bufferin.readShort();
+			 int nPts = bufferin.getInt();
+			 short w = bufferin.getShort();
 
 			 for (int i = 0; i < nPts; i++) {
 				 //int idx = (p.y - binOffset2) * w + (p.x - binOffset1);
@@ -600,19 +780,17 @@ public class HicReaderImpl implements HicReader {
 
 				 float counts;
 				 if (useShort == 0) { // yes this is opposite of the usual
-					 short c = bufferin.readShort();
+					 short c = bufferin.getShort();
 					 if (c != Short.MIN_VALUE) {
-						 final ContactRecord record = new ContactRecord(bin1,bin2,c);
-						 contactRecords.add(record);
+						 contactRecords.add(bin1,bin2,c);
 					 }
-				 } 
+				 }
 				 else {
 
-					 counts  = bufferin.readFloat();
+					 counts  = bufferin.getFloat();
 					 if (!Float.isNaN(counts)) { // not sure this works
 						 //	  if (!Float.isNaN(counts)) {
-						 final ContactRecord record = new ContactRecord(bin1,bin2,counts);
-						 contactRecords.add(record);
+						 contactRecords.add(bin1,bin2,counts);
 					 }
 				 }
 			 }
@@ -622,7 +800,7 @@ public class HicReaderImpl implements HicReader {
 		 }
 	 return contactRecords;
 	 }
-	
+
 	/* data to ignore in the header */
 	private void skipExpectedValuesMaps(final LittleEndianInputStream fin) throws IOException  {
 	  debug("skipExpectedVaues");
@@ -944,10 +1122,33 @@ public class HicReaderImpl implements HicReader {
 		/**
 		https://github.com/igvteam/juicebox.js/blob/55bd6c7815f9abee74368c14a9d9403d2998313f/js/hicDataset.js#L95 	 
 		https://github.com/igvteam/hic-straw/blob/d428ee7e6df5488dd1295b33a81eeb06adbf7a51/src/hicFile.js#L307 */
-		private List<ContactRecord> readBlockId(final int blockNumber) throws IOException {
+		private DecodedBlock readBlockId(final int blockNumber) throws IOException {
 			return readBlock(this.blockMap.get(blockNumber));
 			
 		 	}
+		
+		/** decode the blocks, in parallel if there is more than one thread, and send them in order to the consumer.
+		 * At most 2*nThreads blocks are waiting to be consumed */
+		void forEachBlock(final Set<Integer> blockNumbers,final Consumer<DecodedBlock> consumer) throws IOException {
+			if(executor==null) {
+				for (final Integer blockNumber:blockNumbers) {
+					consumer.accept(readBlockId(blockNumber));
+					}
+				return;
+				}
+			/* the stream is lazy: a block is submitted when forEachInOrder pulls it */
+			final Iterator<Future<DecodedBlock>> futures = blockNumbers.stream().
+				map(N->this.blockMap.get(N)).
+				filter(E->E!=null && E.size!=0).
+				map(E->{
+					final DecodedBlock cached = blockCache.get(E.position);
+					return cached!=null?
+						CompletableFuture.completedFuture(cached):
+						executor.submit(()->readBlock(E));
+					}).
+				iterator();
+			forEachInOrder(futures, 2 * nThreads, consumer);
+			}
 		}
 	
 	}
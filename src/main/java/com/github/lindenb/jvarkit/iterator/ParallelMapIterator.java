@@ -0,0 +1,127 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2020 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.iterator;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Applies a function to the items of an iterator using several threads, by batches.
+ * Each worker thread creates its own function using the factory, so the state of a function
+ * is never shared between threads. The results are returned in the order of the input.
+ * The source is read in the thread consuming this iterator.
+ */
+public class ParallelMapIterator<T,R> extends AbstractCloseableIterator<R> {
+	public static final int DEFAULT_BATCH_SIZE = 1_000;
+	private final Iterator<T> source;
+	private final ThreadLocal<Function<T,R>> functions;
+	private final ExecutorService executor;
+	private final ArrayDeque<Future<List<R>>> pending = new ArrayDeque<>();
+	private final int maxPending;
+	private final int batchSize;
+	private Iterator<R> current = Collections.emptyIterator();
+	
+	/**
+	 * @param source the input
+	 * @param factory creates one function per worker thread. The functions must not return null.
+	 * @param nThreads number of worker threads
+	 * @param batchSize number of items processed by a task
+	 */
+	public ParallelMapIterator(final Iterator<T> source,final Supplier<Function<T,R>> factory,final int nThreads,final int batchSize) {
+		if(nThreads<1) throw new IllegalArgumentException("bad number of threads "+nThreads);
+		if(batchSize<1) throw new IllegalArgumentException("bad batch size "+batchSize);
+		this.source = source;
+		this.functions = ThreadLocal.withInitial(factory);
+		this.batchSize = batchSize;
+		this.maxPending = nThreads*2;
+		this.executor = Executors.newFixedThreadPool(nThreads, R->{
+			final Thread t = new Thread(R, "parallel-map");
+			t.setDaemon(true);
+			return t;
+			});
+		}
+	
+	public ParallelMapIterator(final Iterator<T> source,final Supplier<Function<T,R>> factory,final int nThreads) {
+		this(source, factory, nThreads, DEFAULT_BATCH_SIZE);
+		}
+	
+	/** submit batches until the queue of pending batches is full */
+	private void fill() {
+		while(this.pending.size() < this.maxPending && this.source.hasNext()) {
+			final List<T> batch = new ArrayList<>(this.batchSize);
+			while(batch.size() < this.batchSize && this.source.hasNext()) {
+				batch.add(this.source.next());
+				}
+			this.pending.addLast(this.executor.submit(()->{
+				final Function<T,R> fun = this.functions.get();
+				final List<R> results = new ArrayList<>(batch.size());
+				for(final T item: batch) {
+					final R result = fun.apply(item);
+					if(result==null) throw new IllegalStateException("function returned null");
+					results.add(result);
+					}
+				return results;
+				}));
+			}
+		}
+	
+	@Override
+	protected R advance() {
+		for(;;) {
+			if(this.current.hasNext()) return this.current.next();
+			fill();
+			if(this.pending.isEmpty()) return null;
+			try {
+				this.current = this.pending.removeFirst().get().iterator();
+				}
+			catch(final InterruptedException err) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(err);
+				}
+			catch(final ExecutionException err) {
+				if(err.getCause() instanceof RuntimeException) throw (RuntimeException)err.getCause();
+				throw new RuntimeException(err.getCause());
+				}
+			}
+		}
+	
+	/** stops the workers. Doesn't close the source */
+	@Override
+	public void close() {
+		for(final Future<List<R>> f: this.pending) f.cancel(true);
+		this.pending.clear();
+		this.current = Collections.emptyIterator();
+		this.executor.shutdownNow();
+		}
+	}
@@ -28,7 +28,18 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
 
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParametersDelegate;
@@ -37,6 +48,7 @@ import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.log.ProgressFactory;
 import com.github.lindenb.jvarkit.variant.variantcontext.writer.WritingVariantsDelegate;
 import com.github.lindenb.jvarkit.variant.vcf.BcfIteratorBuilder;
+import com.github.lindenb.jvarkit.variant.vcf.LazyGenotypesUtils;
 
 import htsjdk.samtools.util.IOUtil;
 import htsjdk.variant.variantcontext.VariantContext;
@@ -50,6 +62,11 @@ private static final Logger LOG = Logger.build(OnePassVcfLauncher.class).make();
 protected Path outputFile=null;
 @ParametersDelegate
 protected WritingVariantsDelegate writingVariantsDelegate= new WritingVariantsDelegate();
+@Parameter(names={"--threads"},description="Number of threads. If greater than 1 and if the tool transforms each variant independently, the variants are transformed in parallel, by batches. The output order is the same as the input order. Ignored by the other tools.")
+protected int nThreads = 1;
+
+/** number of variants sent to a worker at once in the multi-threaded pipeline */
+private static final int PIPELINE_BATCH_SIZE = 1_000;
 
 private static class VCFIter implements VCFIterator {
 	final VCFIterator delegate;
@@ -107,6 +124,91 @@ protected int beforeVcf() {
 protected void afterVcf() {
 	}
 
+/**
+ * Tools transforming each variant independently of the others can override this method
+ * instead of <code>doVcfToVcf</code>: update 'header' (it will be written by the caller)
+ * and return a function transforming one variant. The function returns null to discard the variant.
+ * It must be thread-safe: with <code>--threads</code>, it is called by several threads at once.
+ * The genotypes of the variants are decoded by the reading thread before they're sent to the workers
+ * (htsjdk decodes lazy genotypes with the codec of the input, which is not thread-safe).
+ * @param inputName name of the input
+ * @param header the header of the input, can be modified
+ * @return the transformation, or null if the tool uses <code>doVcfToVcf</code> (the default).
+ */
+protected UnaryOperator<VariantContext> createVariantTransformer(final String inputName,final VCFHeader header) {
+	return null;
+	}
+
+/** apply the transformer to all the variants, in this thread */
+private void transformVcf(final VCFIterator in,final VariantContextWriter out,final UnaryOperator<VariantContext> transformer) {
+	while(in.hasNext()) {
+		final VariantContext ctx = transformer.apply(in.next());
+		if(ctx!=null) out.add(ctx);
+		}
+	}
+
+/**
+ * apply the transformer to all the variants using 'nThreads' workers. 
+ * A reader thread decodes the variants by batches and submits each batch to the workers, 
+ * the current thread writes the batches in input order. The queue of pending batches is bounded.
+ * The genotypes are decoded in the reader thread.
+ */
+private void transformVcfInParallel(final VCFIterator in,final VariantContextWriter out,final UnaryOperator<VariantContext> transformer) throws Exception {
+	final Future<List<VariantContext>> endOfInput = CompletableFuture.completedFuture(Collections.emptyList());
+	final BlockingQueue<Future<List<VariantContext>>> queue = new ArrayBlockingQueue<>(this.nThreads*2);
+	final AtomicReference<Throwable> readerError = new AtomicReference<>(null);
+	final ExecutorService executor = Executors.newFixedThreadPool(this.nThreads);
+	final Thread reader = new Thread(()->{
+		try {
+			while(in.hasNext()) {
+				final List<VariantContext> batch = new ArrayList<>(PIPELINE_BATCH_SIZE);
+				while(in.hasNext() && batch.size() < PIPELINE_BATCH_SIZE) {
+					final VariantContext ctx = in.next();
+					LazyGenotypesUtils.decodeGenotypes(ctx);
+					batch.add(ctx);
+					}
+				queue.put(executor.submit(()->{
+					final List<VariantContext> transformed = new ArrayList<>(batch.size());
+					for(final VariantContext ctx:batch) {
+						final VariantContext ctx2 = transformer.apply(ctx);
+						if(ctx2!=null) transformed.add(ctx2);
+						}
+					return transformed;
+					}));
+				}
+			queue.put(endOfInput);
+			}
+		catch(final Throwable err) {
+			readerError.set(err);
+			/* the writer stops at endOfInput and throws readerError */
+			queue.clear();
+			queue.offer(endOfInput);
+			}
+		},"vcf-reader");
+	reader.setDaemon(true);
+	reader.start();
+	try {
+		for(;;) {
+			final Future<List<VariantContext>> future = queue.take();
+			if(future==endOfInput) break;
+			try {
+				for(final VariantContext ctx: future.get()) {
+					out.add(ctx);
+					}
+				}
+			catch(final ExecutionException err) {
+				throw new RuntimeException(err.getCause());
+				}
+			}
+		reader.join();
+		if(readerError.get()!=null) throw new RuntimeException(readerError.get());
+		}
+	finally {
+		reader.interrupt();
+		executor.shutdownNow();
+		}
+	}
+
 @Override
 public int doWork(final List<String> args) {
 	VCFIterator in = null;
@@ -119,6 +221,11 @@ public int doWork(final List<String> args) {
 		return -1;
 		}
 	
+	if(this.nThreads<1) {
+		LOG.error("bad number of threads: "+this.nThreads);
+		return -1;
+		}
+	
 	try {
 		if(beforeVcf()!=0) {
 			LOG.error("initialization failed");
@@ -142,7 +249,25 @@ public int doWork(final List<String> args) {
 			in = new VCFIter(in, getLogger());
 			}
 		vcw = this.writingVariantsDelegate.dictionary(in.getHeader()).open(this.outputFile); 
-		final int err = doVcfToVcf(input==null?"<stdin>":input, in,vcw);
+		final String inputName = input==null?"<stdin>":input;
+		final UnaryOperator<VariantContext> transformer = createVariantTransformer(inputName, in.getHeader());
+		final int err;
+		if(transformer==null) {
+			if(this.nThreads>1) LOG.warning("This tool doesn't transform the variants independently. Option --threads is ignored.");
+			err = doVcfToVcf(inputName, in,vcw);
+			}
+		else
+			{
+			vcw.writeHeader(in.getHeader());
+			if(this.nThreads>1) {
+				transformVcfInParallel(in, vcw, transformer);
+				}
+			else
+				{
+				transformVcf(in, vcw, transformer);
+				}
+			err = 0;
+			}
 		vcw.close();
 		vcw=null;
 		in.close();
@@ -25,15 +25,27 @@ SOFTWARE.
 package com.github.lindenb.jvarkit.lang;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
 import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
 
 
 import com.github.lindenb.jvarkit.util.log.Logger;
@@ -47,6 +59,10 @@ public abstract class OpenJdkCompiler {
 	private static final Logger LOG = Logger.build(OpenJdkCompiler.class).make();
 	private static OpenJdkCompiler INSTANCE = null;
 	private static final String JDK_PROPERTIES = "/META-INF/jdk.properties";
+	/** java property: directory where the compiled classes are cached. Set it to 'none' to disable the cache. Default is $XDG_CACHE_HOME/jvarkit/jdk or ~/.cache/jvarkit/jdk */
+	public static final String CACHE_PROPERTY = "jvarkit.jdk.cache";
+	/** increase this number each time the way classes are compiled changes */
+	private static final int CACHE_VERSION = 1;
 	public static OpenJdkCompiler getInstance() {
 		if(INSTANCE==null) {
 			synchronized (OpenJdkCompiler.class) {
@@ -61,6 +77,13 @@ public abstract class OpenJdkCompiler {
 	
 	public abstract Class<?> compileClass(final String className,final String javaCode);
 	
+	/** create a class name that only depends on the tool and the user's code, so the
+	 * compiled class can be found in the cache by the next invocations.
+	 */
+	public static String createClassName(final Class<?> tool,final String userCode) {
+		return tool.getSimpleName()+"Custom"+StringUtils.md5(tool.getName()+"\n"+userCode).substring(0, 16);
+		}
+	
 	/** get full class name for the @Generated annotation. May be null. */
 	public static String getGeneratedAnnotationClassName() {
 		for(final String className: new String[]{
@@ -129,9 +152,6 @@ public abstract class OpenJdkCompiler {
 		private String getJavacExe() {
 			return getExecutable("javac");
 			}
-		private String getJarExe() {
-			return getExecutable("jar");
-			}
 		private String getExecutable(final String name) {
 			String s = getProperties().getProperty(name,null);
 			if(!StringUtil.isBlank(s)) {
@@ -180,12 +200,169 @@ public abstract class OpenJdkCompiler {
 			throw new RuntimeException("Cannot "+definition);
 			}
 		
+		/** classpath used to compile the code: the 'classpath' property and the jvarkit jar */
+		private String getClasspath() {
+			String classpath = getProperties().getProperty("classpath","");
+			boolean got_my_jar=false;
+			//first try using this method before finding 'self', because jvarkit might be a symbolic link,
+			// https://stackoverflow.com/questions/9399393/
+			try
+				{
+				final java.security.CodeSource codeSource = getClass().getProtectionDomain().getCodeSource();
+				final java.net.URL codeUrl = codeSource==null?null:codeSource.getLocation();
+				final String myjar=codeUrl.toURI().getPath();
+				if(myjar!=null && !myjar.isEmpty()) {
+					classpath += File.pathSeparator+ myjar;
+					got_my_jar=true;
+					}
+				}
+			catch(final Throwable err)
+				{
+				LOG.debug("cannot get self jar using getProtectionDomain:"+err.getMessage());
+				}
+
+			if(!got_my_jar) {
+				final String selfjar = getProperties().getProperty("self","");
+				if(!selfjar.isEmpty()) {
+					classpath += File.pathSeparator+ selfjar; 
+					got_my_jar=true;
+					}
+				}
+
+			if(!got_my_jar) {
+				LOG.warn("cannot get self jar. Program might crash");
+				}
+			return classpath;
+			}
+		
+		/** directory where the compiled classes are stored, or null if the cache is disabled */
+		private File getCacheDirectory() {
+			String dir = System.getProperty(CACHE_PROPERTY,null);
+			if(dir==null) {
+				final String xdg = System.getenv("XDG_CACHE_HOME");
+				if(!StringUtil.isBlank(xdg)) {
+					dir = new File(new File(xdg),"jvarkit"+File.separator+"jdk").getPath();
+					}
+				else
+					{
+					final String home = System.getProperty("user.home",null);
+					if(StringUtil.isBlank(home)) return null;
+					dir = new File(new File(home),".cache"+File.separator+"jvarkit"+File.separator+"jdk").getPath();
+					}
+				}
+			if(StringUtil.isBlank(dir) || dir.equals("none")) return null;
+			final File f = new File(dir);
+			if(!f.exists() && !f.mkdirs()) {
+				LOG.debug("cannot create cache directory "+f);
+				return null;
+				}
+			if(!f.isDirectory() || !f.canWrite()) return null;
+			return f;
+			}
+		
+		/** the key of the cache: the code, the jdk, and the classpath including the size/date of its files */
+		private String getCacheKey(final String className,final String javaCode,final String classpath) {
+			final StringBuilder sb = new StringBuilder();
+			sb.append(CACHE_VERSION).append('\n');
+			sb.append(System.getProperty("java.version","")).append('\n');
+			sb.append(System.getProperty("java.vendor","")).append('\n');
+			for(final String cp: classpath.split(File.pathSeparator)) {
+				if(cp.isEmpty()) continue;
+				final File f = new File(cp);
+				sb.append(cp).append(':').append(f.length()).append(':').append(f.lastModified()).append('\n');
+				}
+			sb.append(className).append('\n');
+			sb.append(javaCode);
+			return StringUtils.md5(sb.toString());
+			}
+		
+		private Class<?> loadClass(final File jarFile,final String className) throws Exception {
+			final URLClassLoader child = new URLClassLoader(
+					new URL[] {jarFile.toURI().toURL()},
+					this.getClass().getClassLoader()
+					);
+			return Class.forName(className, true, child);
+			}
+		
+		/** compile the code using the javax.tools API if available, otherwise invoke javac */
+		private void compile(final File javaSrcDir,final File javaFile,final String classpath) {
+			final List<String> args = new ArrayList<>();
+			args.add("-g");
+			if(!classpath.isEmpty()) {
+				args.add("-cp");
+				args.add(classpath);
+				}
+			args.add("-d");
+			args.add(javaSrcDir.getPath());
+			args.add("-sourcepath");
+			args.add(javaSrcDir.getPath());
+			args.add(javaFile.getPath());
+			
+			JavaCompiler javac = null;
+			try {
+				javac = ToolProvider.getSystemJavaCompiler();
+				}
+			catch(final Throwable err) {
+				LOG.debug("no system java compiler: "+err.getMessage());
+				}
+			if(javac!=null) {
+				final int ret = javac.run(null, null, null, args.toArray(new String[args.size()]));
+				if(ret!=0) throw new RuntimeException("Cannot compile");
+				}
+			else
+				{
+				args.add(0, getJavacExe());
+				exec("compile",args);
+				}
+			}
+		
+		/** put the compiled classes in a jar */
+		private void createJar(final File classDir,final File jarFile) throws IOException {
+			final Path root = classDir.toPath();
+			try(JarOutputStream jar = new JarOutputStream(new FileOutputStream(jarFile))) {
+				final List<Path> classes;
+				try(Stream<Path> st = Files.walk(root)) {
+					classes = st.filter(P->Files.isRegularFile(P) && P.getFileName().toString().endsWith(".class")).
+						sorted().
+						collect(Collectors.toList());
+					}
+				for(final Path classFile : classes) {
+					final StringBuilder name = new StringBuilder();
+					for(final Path component : root.relativize(classFile)) {
+						if(name.length()>0) name.append('/');
+						name.append(component.toString());
+						}
+					jar.putNextEntry(new JarEntry(name.toString()));
+					Files.copy(classFile, jar);
+					jar.closeEntry();
+					}
+				}
+			}
+		
 		@Override
 		public Class<?> compileClass(final String className,final String javaCode) {
 			File javaSsrcDir = null;
 			PrintWriter cw = null;
 			File jarFile = null;
 			try {
+				final String classpath = getClasspath();
+				final File cacheDir = getCacheDirectory();
+				File cachedJar = null;
+				if(cacheDir!=null) {
+					cachedJar = new File(cacheDir, getCacheKey(className, javaCode, classpath)+".jar");
+					if(cachedJar.exists()) {
+						try {
+							final Class<?> c = loadClass(cachedJar, className);
+							LOG.debug("loaded "+className+" from "+cachedJar);
+							return c;
+							}
+						catch(final Throwable err) {
+							LOG.warn("cannot load "+className+" from "+cachedJar+". Recompiling.");
+							cachedJar.delete();
+							}
+						}
+					}
+				
 				//write source
 				javaSsrcDir = IOUtil.createTempDir("jvarkit", ".tmp");
 				IOUtil.assertDirectoryIsWritable(javaSsrcDir);
@@ -196,71 +373,29 @@ public abstract class OpenJdkCompiler {
 				cw.close();
 				cw= null;
 				//compile
-				String classpath = getProperties().getProperty("classpath","");
-                                boolean got_my_jar=false;
-				//first try using this method before finding 'self', because jvarkit might be a symbolic link,
-				// https://stackoverflow.com/questions/9399393/
-				try
-					{
-					final java.security.CodeSource codeSource = getClass().getProtectionDomain().getCodeSource();
-					final java.net.URL codeUrl = codeSource==null?null:codeSource.getLocation();
-					final String myjar=codeUrl.toURI().getPath();
-					if(myjar!=null && !myjar.isEmpty()) {
-						classpath += File.pathSeparator+ myjar;
-						got_my_jar=true;
+				compile(javaSsrcDir, javaFile, classpath);
+				
+				//jar it
+				if(cachedJar!=null) {
+					jarFile = File.createTempFile("tmp.", ".jar", cacheDir);
+					createJar(javaSsrcDir, jarFile);
+					try {
+						Files.move(jarFile.toPath(), cachedJar.toPath(), StandardCopyOption.ATOMIC_MOVE);
 						}
-					}
-				catch(final Throwable err)
-					{
-					LOG.debug("cannot get self jar using getProtectionDomain:"+err.getMessage());
-					}
-
-				if(!got_my_jar) {
-					final String selfjar = getProperties().getProperty("self","");
-					if(!selfjar.isEmpty()) {
-						classpath += File.pathSeparator+ selfjar; 
-						got_my_jar=true;
+					catch(final IOException err) {
+						// another process may have created the same jar
+						Files.move(jarFile.toPath(), cachedJar.toPath(), StandardCopyOption.REPLACE_EXISTING);
 						}
+					jarFile = cachedJar;
 					}
-
-				if(!got_my_jar) {
-					LOG.warn("cannot get self jar. Program might crash");
-					}
-
-
-				final List<String> cmd = new ArrayList<>();
-				cmd.add(getJavacExe());
-				cmd.add("-g");
-				if(!classpath.isEmpty()) {
-					cmd.add("-cp");
-					cmd.add(classpath);
+				else
+					{
+					jarFile = File.createTempFile("jvarkit", ".jar");
+					jarFile.deleteOnExit();
+					createJar(javaSsrcDir, jarFile);
 					}
-				cmd.add("-d");
-				cmd.add(javaSsrcDir.getPath());
-				cmd.add("-sourcepath");
-				cmd.add(javaSsrcDir.getPath());
-				cmd.add(javaFile.getPath());
-				exec("compile",cmd);
-				
-				//jar it
-				jarFile = File.createTempFile("jvarkit", ".jar");
-				jarFile.deleteOnExit();
-				cmd.clear();
-				cmd.add(getJarExe());
-				cmd.add("cvf");
-				cmd.add(jarFile.getPath());
-				cmd.add("-C");
-				cmd.add(javaSsrcDir.getPath());
-				cmd.add(".");
-				exec("jar",cmd);
-				
 				
-				final URLClassLoader child = new URLClassLoader(
-						new URL[] {jarFile.toURI().toURL()},
-						this.getClass().getClassLoader()
-						);
-				final Class<?> compiledClass = Class.forName(className, true, child);
-				return compiledClass;
+				return loadClass(jarFile, className);
 				}
 			catch(final Exception err) {
 				throw new RuntimeException(err);
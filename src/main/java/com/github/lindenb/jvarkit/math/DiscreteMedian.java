@@ -58,9 +58,16 @@ public class DiscreteMedian<T extends Number>
 	}
 	
 	public DiscreteMedian<T> add(final T value) {
+		return add(value,1L);
+		}
+	
+	/** add 'count' times the same value */
+	public DiscreteMedian<T> add(final T value,final long count) {
+		if(count<0L) throw new IllegalArgumentException("count<0 : "+count);
+		if(count==0L) return this;
 		final long n = this.counter.getOrDefault(value, 0L);
-		this.counter.put(value, n+1L);
-		this.size++;
+		this.counter.put(value, n+count);
+		this.size+=count;
 		return this;
 		}
 	
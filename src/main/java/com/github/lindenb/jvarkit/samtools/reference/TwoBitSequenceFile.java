@@ -24,10 +24,15 @@ SOFTWARE.
 */
 package com.github.lindenb.jvarkit.samtools.reference;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -72,6 +77,18 @@ public class TwoBitSequenceFile implements ReferenceSequenceFile {
         valToNucl[N_BASE_VAL] = valToNucl[N_BASE_VAL | MASKED_BASE_BIT] = 'n';
         }}}
 
+    /** the 4 bases of each packed byte: byteToNucl[(b<<2)+i] is the i-th base of 'b' */
+    private static final byte byteToNucl[] = new byte[256 * 4];
+        static {
+        /* not filled from valToNucl: it is set by an instance initializer */
+        final byte tcag[] = {'t', 'c', 'a', 'g'};
+        for (int b = 0; b < 256; ++b) {
+            for (int i = 0; i < 4; ++i) {
+                byteToNucl[(b << 2) + i] = tcag[(b >> (6 - i - i)) & 3];
+            }
+        }
+        }
+
     /**
      * Signature into 2bit file (2 bits per nucleotide DNA file) plus information on N and masked
      * bases.
@@ -101,6 +118,14 @@ public class TwoBitSequenceFile implements ReferenceSequenceFile {
      */
     private TwoBit seqCache = null;
 
+    /** channel of a local file when the sequences are memory-mapped, or null */
+    private final FileChannel fileChannel;
+    /** memory-mapped mode: headers (size, nBlock, maskBlock, mapped data) of the contigs already seen */
+    private final Map<String, TwoBit> mappedHeaders = new HashMap<>();
+    /** stream mode: buffer receiving the packed bases, reused between the queries */
+    private byte[] packedBuffer = new byte[0];
+    private ByteBuffer packedWrapper = ByteBuffer.wrap(this.packedBuffer);
+
     private static class Block {
         int count;
         int starts[];
@@ -125,6 +150,8 @@ public class TwoBitSequenceFile implements ReferenceSequenceFile {
 
         /* not in original C-Struct file. Offset of data for seqCache sequence */
         long dataOffsetCache = -1L;
+        /* not in original C-Struct file. Packed DNA mapped in memory, or null in stream mode */
+        ByteBuffer mappedData = null;
     }
 
     private static class TwoBitIndex {
@@ -135,16 +162,29 @@ public class TwoBitSequenceFile implements ReferenceSequenceFile {
         int lengthCache = -1;
     }
 
-    /** TwoBitSequenceFile from a Path, truncating names at whitespace */
+    /** TwoBitSequenceFile from a Path, truncating names at whitespace. Local files are memory-mapped. */
     public TwoBitSequenceFile(final Path path) throws IOException {
         this(path, true);
     }
 
-    /** TwoBitSequenceFile from a Path */
+    /** TwoBitSequenceFile from a Path. Local files are memory-mapped. */
     public TwoBitSequenceFile(final Path path, final boolean truncateNamesAtWhitespace)
             throws IOException {
-        this(path.toString(), truncateNamesAtWhitespace);
+        this(path, truncateNamesAtWhitespace, isMappable(path));
+    }
+
+    /**
+     * TwoBitSequenceFile from a Path
+     * @param memoryMapped if true, the packed bases of each contig are read from a {@link FileChannel#map}
+     *  of the file instead of being copied from a stream. The path must be a regular file of the default file system.
+     */
+    public TwoBitSequenceFile(final Path path, final boolean truncateNamesAtWhitespace, final boolean memoryMapped)
+            throws IOException {
+        this(SeekableStreamFactory.getInstance().getStreamFor(path.toString()),
+                truncateNamesAtWhitespace,
+                memoryMapped ? FileChannel.open(path, StandardOpenOption.READ) : null);
     }
+
     /** TwoBitSequenceFile from a Path or a URL */
     public TwoBitSequenceFile(final String pathOrUrl, final boolean truncateNamesAtWhitespace)
             throws IOException {
@@ -152,7 +192,12 @@ public class TwoBitSequenceFile implements ReferenceSequenceFile {
     }
 
     /** TwoBitSequenceFile from a seekableStream */
-   public TwoBitSequenceFile(final SeekableStream seekableStream, final boolean truncateNamesAtWhitespace) throws IOException {
+    public TwoBitSequenceFile(final SeekableStream seekableStream, final boolean truncateNamesAtWhitespace) throws IOException {
+        this(seekableStream, truncateNamesAtWhitespace, null);
+    }
+
+    private TwoBitSequenceFile(final SeekableStream seekableStream, final boolean truncateNamesAtWhitespace, final FileChannel fileChannel) throws IOException {
+        this.fileChannel = fileChannel;
         this.seekableStream = seekableStream instanceof SeekableBufferedStream ?
                 seekableStream:
                 new SeekableBufferedStream(seekableStream, DEFAULT_BUFFER_SIZE);
@@ -208,42 +253,73 @@ public class TwoBitSequenceFile implements ReferenceSequenceFile {
     }
 
     private byte[] query(final Locatable loc, boolean doMask) throws IOException {
+        final int fragStart = loc.getStart() - 1;
+        final int fragEnd = loc.getEnd();
+        final byte dna[] = new byte[Math.max(0, fragEnd - fragStart)];
+        query(loc.getContig(), fragStart, fragEnd, dna, 0, doMask);
+        return dna;
+    }
+
+    /** decode the bases [fragStart,fragEnd) (0-based) of 'contig' into dna[dnaOffset...] */
+    private void query(final String contig, final int fragStart, final int fragEnd, final byte dna[], final int dnaOffset, boolean doMask) throws IOException {
         int remainder, midStart, midEnd;
-        final TwoBitIndex tbi = this.seq2index.get(loc.getContig());
+        final TwoBitIndex tbi = this.seq2index.get(contig);
         if (tbi == null) {
-            throw new IllegalArgumentException("cannot find sequence " + loc.getContig());
+            throw new IllegalArgumentException("cannot find sequence " + contig);
         }
-        final TwoBit twoBit = getTwoBitSeqHeader(loc.getContig());
-        int fragStart = loc.getStart() - 1;
-        int fragEnd = loc.getEnd();
+        final TwoBit twoBit = getTwoBitSeqHeader(contig);
 
         /* validate range. */
+        if (fragStart < 0) {
+            throw new IllegalArgumentException("twoBitReadSeqFrag in " + contig + " start ("
+                    + fragStart + ") < 0");
+        }
         if (fragEnd > twoBit.size) {
-            throw new IllegalArgumentException("twoBitReadSeqFrag in " + loc.getContig() + " end ("
+            throw new IllegalArgumentException("twoBitReadSeqFrag in " + contig + " end ("
                     + fragEnd + ") >= seqSize (" + twoBit.size + ")");
         }
         final int outSize = fragEnd - fragStart;
         if (outSize < 1) {
-            throw new IllegalArgumentException("twoBitReadSeqFrag in  " + loc.getContig()
+            throw new IllegalArgumentException("twoBitReadSeqFrag in  " + contig
                     + " start (" + fragStart + ") >= end (" + fragEnd + ")");
         }
+        if (dnaOffset < 0 || dnaOffset + outSize > dna.length) {
+            throw new IndexOutOfBoundsException("cannot write " + outSize + " bases at offset "
+                    + dnaOffset + " in an array of length " + dna.length);
+        }
 
-        int packedStart = (fragStart >> 2);
-        int packedEnd = ((fragEnd + 3) >> 2);
-        int packByteCount = packedEnd - packedStart;
-        this.seekableStream.seek(this.seekableStream.position() + packedStart);
-        final byte packed[] = new byte[packByteCount];
-        this.seekableStream.readFully(packed);
-        final byte dna[] = new byte[outSize];
-        int dna_idx = 0;
-        int packed_idx = 0;
+        final int packedStart = (fragStart >> 2);
+        final int packedEnd = ((fragEnd + 3) >> 2);
+        final int packByteCount = packedEnd - packedStart;
+        /* 'packed' is indexed with absolute positions from 'packed_idx' */
+        final ByteBuffer packed;
+        int packed_idx;
+        if (twoBit.mappedData != null) {
+            packed = twoBit.mappedData;
+            packed_idx = packedStart;
+        } else {
+            if (this.packedBuffer.length < packByteCount) {
+                this.packedBuffer = new byte[packByteCount];
+                this.packedWrapper = ByteBuffer.wrap(this.packedBuffer);
+            }
+            this.seekableStream.seek(twoBit.dataOffsetCache + packedStart);
+            int nRead = 0;
+            while (nRead < packByteCount) {
+                final int n = this.seekableStream.read(this.packedBuffer, nRead, packByteCount - nRead);
+                if (n < 0) throw new EOFException("unexpected end of file in " + this.seekableStream.getSource());
+                nRead += n;
+            }
+            packed = this.packedWrapper;
+            packed_idx = 0;
+        }
+        int dna_idx = dnaOffset;
 
         /* Handle case where everything is in one packed byte */
         if (packByteCount == 1) {
             int pOff = (packedStart << 2);
             int pStart = fragStart - pOff;
             int pEnd = fragEnd - pOff;
-            int partial = Byte.toUnsignedInt(packed[0]);
+            int partial = Byte.toUnsignedInt(packed.get(packed_idx));
             assert (pEnd <= 4);
             assert (pStart >= 0);
             for (int i = pStart; i < pEnd; ++i) {
@@ -254,7 +330,7 @@ public class TwoBitSequenceFile implements ReferenceSequenceFile {
             midStart = fragStart;
             remainder = (fragStart & 3);
             if (remainder > 0) {
-                int partial = Byte.toUnsignedInt(packed[packed_idx++]);
+                int partial = Byte.toUnsignedInt(packed.get(packed_idx++));
                 int partCount = 4 - remainder;
                 for (int i = partCount - 1; i >= 0; --i) {
                     dna[dna_idx + i] = valToNt(partial & 3);
@@ -269,19 +345,16 @@ public class TwoBitSequenceFile implements ReferenceSequenceFile {
             midEnd = fragEnd - remainder;
 
             for (int i = midStart; i < midEnd; i += 4) {
-                int b = Byte.toUnsignedInt(packed[packed_idx++]);
-                dna[dna_idx + 3] = valToNt(b & 3);
-                b >>= 2;
-                dna[dna_idx + 2] = valToNt(b & 3);
-                b >>= 2;
-                dna[dna_idx + 1] = valToNt(b & 3);
-                b >>= 2;
-                dna[dna_idx + 0] = valToNt(b & 3);
+                final int b = Byte.toUnsignedInt(packed.get(packed_idx++)) << 2;
+                dna[dna_idx + 0] = byteToNucl[b + 0];
+                dna[dna_idx + 1] = byteToNucl[b + 1];
+                dna[dna_idx + 2] = byteToNucl[b + 2];
+                dna[dna_idx + 3] = byteToNucl[b + 3];
                 dna_idx += 4;
             }
 
             if (remainder > 0) {
-                int part = Byte.toUnsignedInt(packed[packed_idx]);
+                int part = Byte.toUnsignedInt(packed.get(packed_idx));
                 part >>= (8 - remainder - remainder);
                 for (int i = remainder - 1; i >= 0; --i) {
                     dna[dna_idx + i] = valToNt(part & 3);
@@ -298,7 +371,7 @@ public class TwoBitSequenceFile implements ReferenceSequenceFile {
             if (side == 1) {
                 if (!doMask)
                     continue;
-                for (int i = 0; i < dna.length; i++)
+                for (int i = dnaOffset; i < dnaOffset + outSize; i++)
                     dna[i] = (byte) Character.toUpperCase(dna[i]);
             }
 
@@ -313,7 +386,7 @@ public class TwoBitSequenceFile implements ReferenceSequenceFile {
                 if (e > fragEnd)
                     e = fragEnd;
                 if (s < e) {
-                    final int arrayStart = s - fragStart;
+                    final int arrayStart = dnaOffset + s - fragStart;
                     final int arrayLen = e - s;
                     if (side == 0) {
                         Arrays.fill(dna, arrayStart, arrayStart + arrayLen, (byte) 'n');
@@ -326,7 +399,32 @@ public class TwoBitSequenceFile implements ReferenceSequenceFile {
                 }
             }
         }
-        return dna;
+    }
+
+    /** @return true if the path can be read with {@link FileChannel#map} */
+    private static boolean isMappable(final Path path) {
+        return path.getFileSystem().equals(FileSystems.getDefault()) && Files.isRegularFile(path);
+    }
+
+    /** @return true if the packed bases are read from a memory-mapped file */
+    public boolean isMemoryMapped() {
+        return this.fileChannel != null;
+    }
+
+    /**
+     * Fill a caller-provided array with the bases of contig:start-stop (1-based, inclusive), like {@link #getSubsequenceAt(String, long, long)}.
+     * Tools scanning a genome window by window can reuse the same array instead of allocating one per window.
+     * @param dest the array receiving the bases
+     * @param destOffset index in 'dest' of the first base
+     * @return the number of bases written
+     */
+    public int getBases(final String contig, final int start, final int stop, final byte dest[], final int destOffset) {
+        try {
+            query(contig, start - 1, stop, dest, destOffset, false);
+            return stop - start + 1;
+        } catch (final IOException err) {
+            throw new RuntimeIOException(err);
+        }
     }
 
     @Override
@@ -439,12 +537,28 @@ public class TwoBitSequenceFile implements ReferenceSequenceFile {
     @Override
     public void close() throws IOException {
         this.seekableStream.close();
+        if (this.fileChannel != null) {
+            /* the mapped buffers are released by the garbage collector */
+            this.mappedHeaders.clear();
+            this.fileChannel.close();
+        }
     }
 
     /**
      * get the sequence header information using the cache. Position file right at data.
      */
     private TwoBit getTwoBitSeqHeader(final String name) throws IOException {
+        if (this.fileChannel != null) {
+            // memory-mapped mode: headers are kept for all contigs, the data is never read from the stream
+            TwoBit twoBit = this.mappedHeaders.get(name);
+            if (twoBit == null) {
+                twoBit = readTwoBitSeqHeader(name);
+                final long packedSize = (twoBit.size + 3L) / 4L;
+                twoBit.mappedData = this.fileChannel.map(FileChannel.MapMode.READ_ONLY, twoBit.dataOffsetCache, packedSize);
+                this.mappedHeaders.put(name, twoBit);
+            }
+            return twoBit;
+        }
         if (this.seqCache != null && this.seqCache.name.equals(name)) {
             this.seekableStream.seek(this.seqCache.dataOffsetCache);
         } else {
@@ -0,0 +1,154 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2020 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.samtools.util;
+
+/**
+ * Streaming depth of coverage on one contig.
+ *
+ * Intervals (e.g. the aligned blocks of the reads) must be added sorted on their start.
+ * Only the changes of depth between the last flushed position and the end of the
+ * last interval are kept in a circular buffer, so the memory is bounded by the length of the reads,
+ * not by the length of the contig. The depth is sent to a consumer as runs of identical depth.
+ *
+ */
+public class StreamingCoverage {
+	/** receives the runs of identical depth, positions are 1-based, inclusive */
+	@FunctionalInterface
+	public interface RunConsumer {
+		public void accept(int start,int end,int depth);
+		}
+
+	private final int contigLength;
+	private final RunConsumer consumer;
+	/** circular buffer of changes of depth: delta[position % delta.length] */
+	private int delta[];
+	/** first position (1-based) not yet flushed */
+	private int flushed = 1;
+	/** first position after the last change of depth */
+	private int maxEnd = 1;
+	/** current depth at position 'flushed' */
+	private int depth = 0;
+	/** pending run */
+	private int runStart = -1;
+	private int runEnd = -1;
+	private int runDepth = 0;
+	private boolean finished = false;
+
+	/**
+	 * @param contigLength length of the contig, positions after this length are ignored
+	 * @param consumer receives the runs of identical depth
+	 */
+	public StreamingCoverage(final int contigLength,final RunConsumer consumer) {
+		if(contigLength<0) throw new IllegalArgumentException("bad contig length "+contigLength);
+		this.contigLength = contigLength;
+		this.consumer = consumer;
+		this.delta = new int[1024];
+		}
+
+	public int getContigLength() {
+		return this.contigLength;
+		}
+
+	/** @return the first position (1-based) that was not sent to the consumer */
+	public int getFlushedPosition() {
+		return this.flushed;
+		}
+
+	private int index(final int pos) {
+		return pos % this.delta.length;
+		}
+
+	/** make sure the circular buffer can hold the positions in [flushed,pos] */
+	private void ensureCapacity(final int pos) {
+		final int needed = (pos - this.flushed) + 1;
+		if(needed <= this.delta.length) return;
+		int newLength = this.delta.length;
+		while(newLength < needed) newLength *= 2;
+		final int newDelta[] = new int[newLength];
+		for(int p= this.flushed; p< this.maxEnd; ++p) {
+			newDelta[p % newLength] = this.delta[index(p)];
+			}
+		this.delta = newDelta;
+		}
+
+	/** add one to the depth of each position in [start,end] (1-based, inclusive). start must not be lower than the position of the last flush */
+	public void add(int start,int end) {
+		if(this.finished) throw new IllegalStateException("finish() was called");
+		if(start<1) start=1;
+		if(end>this.contigLength) end = this.contigLength;
+		if(start>end) return;
+		if(start < this.flushed) throw new IllegalArgumentException("position "+start+" was already flushed (<"+this.flushed+"). Data must be sorted.");
+		ensureCapacity(end+1);
+		this.delta[index(start)]++;
+		this.delta[index(end+1)]--;
+		this.maxEnd = Math.max(this.maxEnd, end+2);
+		}
+
+	private void emit(final int start,final int end,final int depth) {
+		if(this.runStart>0 && this.runDepth==depth && this.runEnd+1==start) {
+			this.runEnd = end;
+			return;
+			}
+		if(this.runStart>0) this.consumer.accept(this.runStart, this.runEnd, this.runDepth);
+		this.runStart = start;
+		this.runEnd = end;
+		this.runDepth = depth;
+		}
+
+	/** compute the depth of all the positions before 'pos'. No interval starting before 'pos' can be added after this call */
+	public void flush(int pos) {
+		if(pos > this.contigLength+1) pos = this.contigLength+1;
+		while(this.flushed < pos) {
+			if(this.flushed >= this.maxEnd) {
+				/* no more change of depth, fast forward */
+				emit(this.flushed, pos-1, this.depth);
+				this.flushed = pos;
+				break;
+				}
+			final int start = this.flushed;
+			final int limit = Math.min(pos, this.maxEnd);
+			this.depth += this.delta[index(start)];
+			this.delta[index(start)] = 0;
+			int p = start+1;
+			while(p < limit && this.delta[index(p)]==0) p++;
+			emit(start, p-1, this.depth);
+			this.flushed = p;
+			}
+		}
+
+	/** flush all the remaining positions of the contig */
+	public void finish() {
+		if(this.finished) return;
+		flush(this.contigLength+1);
+		if(this.runStart>0) this.consumer.accept(this.runStart, this.runEnd, this.runDepth);
+		this.runStart = -1;
+		this.finished = true;
+		}
+
+	@Override
+	public String toString() {
+		return "StreamingCoverage(flushed:"+this.flushed+" buffer:"+this.delta.length+")";
+		}
+	}
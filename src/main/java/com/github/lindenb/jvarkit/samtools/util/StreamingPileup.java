@@ -0,0 +1,217 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2020 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.samtools.util;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.ObjIntConsumer;
+import java.util.function.ToIntFunction;
+
+import htsjdk.samtools.util.Locatable;
+
+/**
+ * pileup locatable for graphical visualizations, producing the same rows as {@link Pileup}
+ * when the collision is a minimal distance between two items.
+ *
+ * The last end of each row is kept in a primitive 'min' tree (one int per row), so finding
+ * the first row where an item fits is O(log(rows)) instead of O(rows).
+ * Items that cannot collide with anything anymore can be streamed out with {@link #evict(int, ObjIntConsumer)}:
+ * the rows keep their index, but the memory is bounded by the items overlapping the current position.
+ *
+ */
+public class StreamingPileup<T extends Locatable> implements Iterable<List<T>> {
+	private final ToIntFunction<T> startFunction;
+	private final ToIntFunction<T> endFunction;
+	private final int minDistance;
+	/** items not evicted, for each row */
+	private final List<List<T>> rows = new ArrayList<>();
+	/** min tree: leaves at [capacity,2*capacity) are the last end of each row, MAX_VALUE for unused rows */
+	private int[] tree;
+	private int capacity;
+	private String prevContig=null;
+	private int prev_start=0;
+	
+	/**
+	 * @param startFunction left coordinate of an item
+	 * @param endFunction right coordinate of an item
+	 * @param minDistance two items 'left' and 'right' can be in the same row if end(left) + minDistance &lt; start(right)
+	 */
+	public StreamingPileup(final ToIntFunction<T> startFunction,final ToIntFunction<T> endFunction,final int minDistance) {
+		if(minDistance<0) throw new IllegalArgumentException("bad min distance "+minDistance);
+		this.startFunction = startFunction;
+		this.endFunction = endFunction;
+		this.minDistance = minDistance;
+		this.capacity = 16;
+		this.tree = newTree(this.capacity);
+		}
+	
+	/** same layout as <code>new Pileup()</code> */
+	public StreamingPileup() {
+		this(T->T.getStart(),T->T.getEnd(),1);
+		}
+	
+	private static int[] newTree(final int capacity) {
+		final int[] array = new int[capacity*2];
+		Arrays.fill(array, Integer.MAX_VALUE);
+		return array;
+		}
+	
+	/** set the last end of row 'y' and update the parents in the tree */
+	private void setRowEnd(final int y,final int end) {
+		int node = this.capacity + y;
+		this.tree[node] = end;
+		node >>= 1;
+		while(node>0) {
+			this.tree[node] = Math.min(this.tree[2*node], this.tree[2*node+1]);
+			node >>= 1;
+			}
+		}
+	
+	/** add a new item to the pileup , return the index of its row */
+	public int add(final T item) {
+		if(prevContig==null) {
+			this.prevContig = item.getContig();
+			this.prev_start = item.getStart();
+			}
+		else {
+			if(!item.getContig().equals(this.prevContig)) {
+				throw new IllegalArgumentException("Cannot pileup with different contigs: "+this.prevContig+" "+item.getContig());
+				}
+			if(item.getStart()< this.prev_start) {
+				throw new IllegalArgumentException("Cannot pileup with unordered element: "+this.prev_start+" > "+item.getStart());
+				}
+			this.prev_start = item.getStart();
+			}
+		/* item fits in a row if its last end < threshold, use long to avoid an overflow */
+		final long threshold = (long)this.startFunction.applyAsInt(item) - this.minDistance;
+		final int y;
+		if(this.tree[1] < threshold) {
+			/* go down to the leftmost leaf having a value lower than threshold */
+			int node = 1;
+			while(node < this.capacity) {
+				node = 2*node;
+				if(this.tree[node] >= threshold) node++;
+				}
+			y = node - this.capacity;
+			}
+		else
+			{
+			y = this.rows.size();
+			if(y == this.capacity) {
+				final int[] old = this.tree;
+				this.capacity *= 2;
+				this.tree = newTree(this.capacity);
+				System.arraycopy(old, old.length/2, this.tree, this.capacity, old.length/2);
+				for(int node=this.capacity-1;node>0;--node) {
+					this.tree[node] = Math.min(this.tree[2*node], this.tree[2*node+1]);
+					}
+				}
+			this.rows.add(new ArrayList<>());
+			}
+		this.rows.get(y).add(item);
+		setRowEnd(y, this.endFunction.applyAsInt(item));
+		return y;
+		}
+	
+	/**
+	 * remove the items that ended before 'pos' : an item is removed if end(item) + minDistance &lt; pos.
+	 * Rows keep their index, even when they become empty.
+	 * @param consumer receives each evicted item and the index of its row, in the order of the rows. Can be null.
+	 */
+	public void evict(final int pos,final ObjIntConsumer<T> consumer) {
+		for(int y=0;y< this.rows.size();++y) {
+			final List<T> row = this.rows.get(y);
+			/* items of a row don't overlap, their ends are sorted */
+			int n=0;
+			while(n< row.size() && (long)this.endFunction.applyAsInt(row.get(n)) + this.minDistance < pos) {
+				if(consumer!=null) consumer.accept(row.get(n), y);
+				n++;
+				}
+			if(n>0) row.subList(0, n).clear();
+			}
+		}
+	
+	/** remove all the items, sending them to the consumer (can be null) */
+	public void evictAll(final ObjIntConsumer<T> consumer) {
+		for(int y=0;y< this.rows.size();++y) {
+			final List<T> row = this.rows.get(y);
+			if(consumer!=null) {
+				for(final T item:row) consumer.accept(item, y);
+				}
+			row.clear();
+			}
+		}
+	
+	public boolean isEmpty() {
+		return this.rows.isEmpty();
+		}
+	
+	/** number of rows created so far, including the rows that were evicted */
+	public int getRowCount() {
+		return this.rows.size();
+		}
+	
+	/** items of each row that were not evicted */
+	public List<List<T>> getRows() {
+		return new AbstractList<List<T>>() {
+			@Override
+			public List<T> get(int index) {
+				return getRow(index);
+				}
+			@Override
+			public int size() {
+				return getRowCount();
+				}
+			};
+		}
+	
+	public List<T> getRow(int y) {
+		return Collections.unmodifiableList(this.rows.get(y));
+		}
+	
+	public void clear() {
+		this.prevContig = null;
+		this.prev_start = 0;
+		this.rows.clear();
+		this.capacity = 16;
+		this.tree = newTree(this.capacity);
+		}
+	
+	@Override
+	public Iterator<List<T>> iterator()
+		{
+		return getRows().iterator();
+		}
+	
+	@Override
+	public String toString()
+		{
+		return "StreamingPileup("+getRowCount()+")";
+		}
+	}
@@ -31,11 +31,16 @@ import java.io.PrintWriter;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.function.Predicate;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 import htsjdk.samtools.CigarOperator;
@@ -52,6 +57,7 @@ import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.SAMSequenceRecord;
 import htsjdk.samtools.SamFileHeaderMerger;
 import htsjdk.samtools.SamInputResource;
+import htsjdk.samtools.util.AbstractIterator;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.IOUtil;
@@ -60,12 +66,13 @@ import htsjdk.samtools.util.SequenceUtil;
 import htsjdk.samtools.util.StringUtil;
 
 import com.beust.jcommander.Parameter;
+import com.github.lindenb.jvarkit.bigwig.BigWigWriter;
 import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.lang.JvarkitException;
 import com.github.lindenb.jvarkit.math.stats.Percentile;
 import com.github.lindenb.jvarkit.samtools.util.IntervalParserFactory;
 import com.github.lindenb.jvarkit.samtools.util.SimpleInterval;
-import com.github.lindenb.jvarkit.util.Counter;
+import com.github.lindenb.jvarkit.samtools.util.StreamingCoverage;
 import com.github.lindenb.jvarkit.util.Pedigree;
 import com.github.lindenb.jvarkit.util.bio.SequenceDictionaryUtils;
 import com.github.lindenb.jvarkit.util.bio.samfilter.SamRecordFilterFactory;
@@ -89,12 +96,24 @@ About BedGraph: [https://genome.ucsc.edu/goldenpath/help/bedgraph.html](https://
 
 ## Memory
 
-warning: the program is memory consuming, it allocates on array of integer of the size of your longest contig.
+The depth is computed on the fly: only the positions between the start of the current read and the end of the longest read are kept in memory, and
+each window is printed as soon as it is complete. For READ_GROUPS and CASE_CTRL, the depth of each sample is stored in an array of integers.
+
+## BigWig
+
+If the output file ends with `.bw` or `.bigwig`, a BigWig file is written directly (no need to convert the wig file with `wigToBigWig`). Because the intervals
+in a BigWig file cannot overlap, the value of each window is assigned to its first `min(window-size,window-shift)` bases.
+
+## Threads
+
+With `--threads N` (N>1), the BAM files are read and decoded concurrently by batches of records, and merged on the fly.
 
 ## History:
 
 20171115: removed cast_to_integer replaced by 'format', added percentile. Removed options --zerolength and --mindepth.
 
+20201018: the depth is not stored in an array of the size of the contig anymore. Added option --threads. BigWig output.
+
 ## Aggregators:
 
 * COVERAGE :  coverage, all sample merged
@@ -144,9 +163,9 @@ fixedStep chrom=ref2 start=1 step=3 span=1
 END_DOC
  */
 @Program(name="bam2wig",
-description="Bam to fixedStep Wiggle converter , or BED GRAPH. Parses the cigar String to get the depth. Memory intensive: must alloc sizeof(int)*size(chrom)",
+description="Bam to fixedStep Wiggle converter , or BED GRAPH. Parses the cigar String to get the depth.",
 keywords={"bam","wig","wiggle","bed"},
-modificationDate="20200304"
+modificationDate="20201018"
 )
 public class Bam2Wig extends Launcher
 	{
@@ -154,7 +173,7 @@ public class Bam2Wig extends Launcher
 	private static final Logger LOG = Logger.build(Bam2Wig.class).make();
 	private enum WHAT {COVERAGE,CLIPPING,INSERTION,DELETION,READ_GROUPS,CASE_CTRL};
 
-	@Parameter(names={"-o","--output"},description=OPT_OUPUT_FILE_OR_STDOUT)
+	@Parameter(names={"-o","--output"},description=OPT_OUPUT_FILE_OR_STDOUT+" If the filename ends with '.bw' or '.bigwig', a BigWig file is written.")
 	private Path outputFile = null;
 	@Parameter(names={"-t","--header"},description="print a UCSC custom track header: something lile "+UCSC_HEADER+". Use `sed` to replace the tokens. e.g: `sed '/^track/s/__REPLACE_WIG_NAME__/My data/'` ")
 	private boolean custom_track = false;
@@ -180,6 +199,8 @@ public class Bam2Wig extends Launcher
 	private String region_str=null;
 	@Parameter(names={"--pedigree","-ped"},description="Pedigree file for CASE_CTRL. " + Pedigree.OPT_DESCRIPTION )
 	private File pedigreeFile=null;
+	@Parameter(names={"--threads"},description="Number of threads. If greater than 1, the BAM files are read and decoded concurrently by batches of records.")
+	private int nThreads = 1;
 
 
 	public Bam2Wig()
@@ -187,36 +208,205 @@ public class Bam2Wig extends Launcher
 		
 		}
 	
-	private static abstract class Aggregator
+	/** receives the values of the positions of a contig, sorted on position, and prints each sliding window as soon as it is complete */
+	private class WindowEmitter implements StreamingCoverage.RunConsumer
 		{
-		abstract void visit(final int array[],final SAMRecord rec);
-		void finish(final int array[]) {}
-		protected void incr(final int array[],int pos1,int length)
+		private final PrintWriter pw;// null if writing a bigwig file
+		private final BigWigWriter bigWigWriter;// may be null
+		private final Percentile percentile;
+		private final SAMSequenceRecord ssr;
+		private final SimpleInterval interval;// may be null
+		/** values of the last 'window_span' positions. position 'pos1' is stored at (pos1-1)%window_span */
+		private final int ring[];
+		/** values of the current window, sorted on position */
+		private final int window[];
+		/** 0-based start of the current window */
+		private int start0;
+		private boolean header_printed = false;
+		private boolean done = false;
+		
+		WindowEmitter(final PrintWriter pw,final BigWigWriter bigWigWriter,final Percentile percentile,final SAMSequenceRecord ssr,final SimpleInterval interval)
 			{
-			for(int i=0;i< length ;++i)
+			this.pw = pw;
+			this.bigWigWriter = bigWigWriter;
+			this.percentile = percentile;
+			this.ssr = ssr;
+			this.interval = interval;
+			this.ring = new int[window_span];
+			this.window = new int[window_span];
+			this.start0 = (interval==null?0:interval.getStart());
+			skipWindows();
+			}
+		
+		/** move to the next window that should be printed, set 'done' if there is none */
+		private void skipWindows()
+			{
+			for(;;)
 				{
-				final int array_index= pos1+i-1;
-				if(array_index>0 && array_index<array.length)
+				if(this.start0 >= this.ssr.getSequenceLength() || (this.pw!=null && this.pw.checkError()))
 					{
-					array[array_index]++;
+					this.done = true;
+					return;
 					}
+				if(this.interval!=null)
+					{
+					if(!this.interval.getContig().equals(this.ssr.getSequenceName()) || this.start0 > this.interval.getEnd())
+						{
+						this.done = true;
+						return;
+						}
+					if(this.start0 + window_span < this.interval.getStart())
+						{
+						this.start0 += win_shift;
+						continue;
+						}
+					}
+				return;
 				}
 			}
+		
+		/** @return the last position (1-based, inclusive) of the current window */
+		private int getWindowEnd()
+			{
+			return Math.min(this.start0 + window_span, this.ssr.getSequenceLength());
+			}
+		
+		@Override
+		public void accept(final int start,final int end,final int value)
+			{
+			for(int pos1=start;pos1<=end && !this.done;++pos1)
+				{
+				/* positions before the current window are not needed */
+				if(pos1 <= this.start0) continue;
+				this.ring[(pos1-1)%window_span] = value;
+				while(!this.done && pos1==getWindowEnd())
+					{
+					print();
+					this.start0 += win_shift;
+					skipWindows();
+					}
+				}
+			}
+		
+		private void print()
+			{
+			final int length = getWindowEnd() - this.start0;
+			for(int i=0;i< length;++i)
+				{
+				this.window[i] = this.ring[(this.start0+i)%window_span];
+				}
+			final double percentile_value = this.percentile.evaluate(this.window,0,length).getAsDouble();
+			
+			if(this.bigWigWriter!=null)
+				{
+				/* intervals in a bigwig cannot overlap: the value is assigned to the first 'shift' bases of the window */
+				try {
+					this.bigWigWriter.add(
+						this.ssr.getSequenceIndex(),
+						this.start0,
+						Math.min(this.start0 + Math.min(window_span,win_shift), this.ssr.getSequenceLength()),
+						(float)percentile_value
+						);
+					}
+				catch(final IOException err)
+					{
+					throw new RuntimeIOException(err);
+					}
+				return;
+				}
+			
+			if(!bedGraph && !this.header_printed)
+				{
+				this.pw.println(
+						"fixedStep chrom="+this.ssr.getSequenceName()+
+						" start="+(this.start0+1)+
+						" step="+win_shift +" span="+ window_span
+						);
+				this.header_printed=true;
+				}
+			/* 
+			 * http://genome.ucsc.edu/goldenPath/help/wiggle.html
+			   Wiggle track data values can be integer or real, positive or negative values.
+			   Chromosome positions are specified as 1-relative.
+			   For a chromosome of length N, the first position is 1 and the last position is N. Only positions specified have data. Positions not specified do not have data and will not be graphed. 
+			 */
+			if(bedGraph)
+				{
+				this.pw.print(this.ssr.getSequenceName());
+				this.pw.print('\t');
+				this.pw.print(this.start0);
+				this.pw.print('\t');
+				this.pw.print(this.start0+window_span);
+				this.pw.print('\t');
+				}
+			this.pw.printf(printfFormat,percentile_value);
+			this.pw.print('\n');
+			}
 		}
 	
-	private static class CoverageAggregator extends Aggregator
+	private static abstract class Aggregator
+		{
+		/** start a new contig, the value of each position will be sent to 'consumer' */
+		abstract void begin(final SAMSequenceRecord ssr,final StreamingCoverage.RunConsumer consumer);
+		/** visit a read, reads are sorted on alignment start */
+		abstract void visit(final SAMRecord rec);
+		/** send the remaining positions of the current contig */
+		abstract void finish();
+		}
+	
+	/** aggregators counting some events at each position. Only the positions between the last read start and the end of the reads are kept in memory */
+	private static abstract class CountAggregator extends Aggregator
 		{
-		private final Predicate<SAMRecord> internalFilter;
-		CoverageAggregator() {
-			this(R->true);
+		private StreamingCoverage coverage = null;
+		private String contig = null;
+		/** number of bases that were ignored because their position was already flushed */
+		private long dropped_bases = 0L;
+		@Override
+		void begin(final SAMSequenceRecord ssr,final StreamingCoverage.RunConsumer consumer)
+			{
+			this.coverage = new StreamingCoverage(ssr.getSequenceLength(), consumer);
+			this.contig = ssr.getSequenceName();
+			this.dropped_bases = 0L;
 			}
-		protected CoverageAggregator(final Predicate<SAMRecord> predicate) {
-			this.internalFilter = predicate;
+		/** @return the lowest position that can be incremented by this read or by the next reads */
+		protected int getFlushPosition(final SAMRecord rec)
+			{
+			return rec.getAlignmentStart();
+			}
+		@Override
+		final void visit(final SAMRecord rec)
+			{
+			this.coverage.flush(getFlushPosition(rec));
+			count(rec);
+			}
+		abstract void count(final SAMRecord rec);
+		
+		protected void incr(final int pos1,final int length)
+			{
+			/* a clipped read can start before a position that was already flushed: ignore the flushed part, but count it */
+			final int flushed = this.coverage.getFlushedPosition();
+			final int start1 = Math.max(1, pos1);
+			if(start1 < flushed) {
+				this.dropped_bases += Math.max(0, Math.min(flushed, pos1+length) - start1);
+				}
+			this.coverage.add(Math.max(pos1,flushed), pos1+length-1);
+			}
+		@Override
+		void finish()
+			{
+			if(this.dropped_bases>0L) {
+				LOG.warn(this.contig+": "+this.dropped_bases+" base(s) were ignored because they were before a position that was already written.");
+				}
+			this.coverage.finish();
+			this.coverage = null;
 			}
+		}
+	
+	private static class CoverageAggregator extends CountAggregator
+		{
 		@Override
-		void visit(final int array[],final SAMRecord rec)
+		void count(final SAMRecord rec)
 			{
-			if(!this.internalFilter.test(rec)) return ;
 			final Cigar cigar=rec.getCigar();
 			if(cigar==null) return;
     		int refpos1=rec.getAlignmentStart();
@@ -227,7 +417,7 @@ public class Bam2Wig extends Launcher
     				{
     				if(op.consumesReadBases())
     					{
-    					incr(array,refpos1,ce.getLength());
+    					incr(refpos1,ce.getLength());
     					}
     				refpos1+=ce.getLength();
     				}    				
@@ -235,10 +425,10 @@ public class Bam2Wig extends Launcher
 			}
 		}
 	
-	private static class DeletionAggregator extends Aggregator
+	private static class DeletionAggregator extends CountAggregator
 		{
 		@Override
-		void visit(final int array[],final SAMRecord rec)
+		void count(final SAMRecord rec)
 			{
 			final Cigar cigar=rec.getCigar();
 			if(cigar==null) return;
@@ -249,7 +439,7 @@ public class Bam2Wig extends Launcher
 				switch(op)
 					{
 					case D:
-					case N:incr(array,refpos1,ce.getLength());
+					case N:incr(refpos1,ce.getLength());
 					default: break;
 					}
 				if(op.consumesReferenceBases())
@@ -259,10 +449,10 @@ public class Bam2Wig extends Launcher
 				}
 			}
 		}
-	private static class InsertionAggregator extends Aggregator
+	private static class InsertionAggregator extends CountAggregator
 		{
 		@Override
-		void visit(final int array[],final SAMRecord rec)
+		void count(final SAMRecord rec)
 			{
 			final Cigar cigar=rec.getCigar();
 			if(cigar==null) return;
@@ -272,7 +462,7 @@ public class Bam2Wig extends Launcher
 				final CigarOperator op = ce.getOperator();
 				switch(op)
 					{
-					case I: incr(array,refpos1,1);
+					case I: incr(refpos1,1);
 					default: break;
 					}
 				if(op.consumesReferenceBases())
@@ -284,10 +474,19 @@ public class Bam2Wig extends Launcher
 		}
 	
 	
-	private static class ClipAggregator extends Aggregator
+	private static class ClipAggregator extends CountAggregator
 		{
+		/** the clipped bases are before the alignment start: keep a margin of twice the longest unclipped read seen so far.
+		 * A later read with a longer leading clip can still reach a flushed position: those bases are counted and reported in finish() */
+		private int margin = 1_000;
+		@Override
+		protected int getFlushPosition(final SAMRecord rec)
+			{
+			this.margin = Math.max(this.margin, 2 * (rec.getUnclippedEnd() - rec.getUnclippedStart() + 1));
+			return Math.min(rec.getAlignmentStart(), rec.getUnclippedStart()) - this.margin;
+			}
 		@Override
-		void visit(final int array[],final SAMRecord rec)
+		void count(final SAMRecord rec)
 			{
 			final Cigar cigar=rec.getCigar();
 			if(cigar==null) return;
@@ -297,7 +496,7 @@ public class Bam2Wig extends Launcher
 				final CigarOperator op = ce.getOperator();
 				if(op.isClipping())
 					{
-					incr(array,refpos1,ce.getLength());
+					incr(refpos1,ce.getLength());
 					refpos1+=ce.getLength();
 					}
 				else if(op.consumesReferenceBases())
@@ -307,81 +506,177 @@ public class Bam2Wig extends Launcher
 				}
 			}
 		}
-	private static abstract class BufferedAggregator extends Aggregator
+	
+	/** aggregators using the depth of each sample at each position. The depths are stored in one circular buffer per sample. */
+	private static abstract class SamplesAggregator extends Aggregator
 		{
-		private final List<SAMRecord> buffer= new ArrayList<>();
-		private int last_start=1;
-		protected abstract void dump(final List<SAMRecord> records,int start1,int end1,final int array[]);
+		private final Map<String,Integer> sample2index = new HashMap<>();
+		/** changes of depth, one circular buffer per sample: delta[sample][position % ringLength] */
+		private int delta[][] = new int[0][];
+		/** depth of each sample at position 'flushed' */
+		protected int depths[] = new int[0];
+		private int ringLength = 1024;
+		private int contigLength = 0;
+		/** first position (1-based) not yet sent to the consumer */
+		private int flushed = 1;
+		/** first position after the last change of depth */
+		private int maxEnd = 1;
+		private int value = 0;
+		/** pending run of identical values */
+		private int runStart = -1;
+		private int runEnd = -1;
+		private int runValue = 0;
+		private StreamingCoverage.RunConsumer consumer = null;
+		
+		/** @return the sample of the read or null if the read should be ignored */
+		protected abstract String partition(final SAMRecord rec);
 		
-		protected abstract String partition(SAMRecord rec);
+		/** @return the value of a position, at least one sample has a depth greater than 0 */
+		protected abstract int getValue();
 		
-		protected Map<Integer,Counter<String>> fillPositions(final List<SAMRecord> records,final int begin1,final int end1)
+		/** @return the index of the sample, register the sample if needed */
+		protected int getSampleIndex(final String sample)
 			{
-			final Map<Integer,Counter<String>> pos2sample2depth = new HashMap<>();
-			for(final SAMRecord rec:records) {
-				final Cigar cigar = rec.getCigar();
-				if(cigar==null) continue;
-				final String sample = partition(rec);
-				if(StringUtil.isBlank(sample)) continue;
-				
-				int pos1= rec.getAlignmentStart();
-				for(final CigarElement ce:cigar) {
-					if(pos1>=end1) break;
-					final CigarOperator op= ce.getOperator();
-					if(op.consumesReferenceBases())
+			Integer idx = this.sample2index.get(sample);
+			if(idx==null)
+				{
+				idx = this.sample2index.size();
+				this.sample2index.put(sample, idx);
+				this.delta = Arrays.copyOf(this.delta, idx+1);
+				this.delta[idx] = new int[this.ringLength];
+				this.depths = Arrays.copyOf(this.depths, idx+1);
+				}
+			return idx;
+			}
+		
+		@Override
+		void begin(final SAMSequenceRecord ssr,final StreamingCoverage.RunConsumer consumer)
+			{
+			this.contigLength = ssr.getSequenceLength();
+			this.consumer = consumer;
+			this.flushed = 1;
+			this.maxEnd = 1;
+			this.value = 0;
+			this.runStart = -1;
+			Arrays.fill(this.depths, 0);
+			/* the decrements after the end of the previous contig were never flushed */
+			for(int i=0;i< this.delta.length;++i) Arrays.fill(this.delta[i], 0);
+			}
+		
+		@Override
+		void visit(final SAMRecord rec)
+			{
+			final Cigar cigar = rec.getCigar();
+			if(cigar==null) return;
+			final String sample = partition(rec);
+			if(StringUtil.isBlank(sample)) return;
+			final int sample_idx = getSampleIndex(sample);
+			flush(rec.getAlignmentStart());
+			int pos1= rec.getAlignmentStart();
+			for(final CigarElement ce:cigar) {
+				final CigarOperator op= ce.getOperator();
+				if(op.consumesReferenceBases())
+					{
+					final int L=ce.getLength();
+					if(op.consumesReadBases())
 						{
-						final int L=ce.getLength();
-						if(op.consumesReadBases())
-							{
-							for(int i=0;i< L && pos1+i<end1;++i)
-								{
-								final int nx = pos1 + i;
-								if(nx>=begin1 && nx< end1)
-									{
-									Counter<String> sample2coverage = pos2sample2depth.get(nx);
-									if(sample2coverage==null) {
-										sample2coverage = new Counter<String>();
-										pos2sample2depth.put(nx, sample2coverage);
-										}
-									sample2coverage.incr(sample);
-									}
-								}
-							}
-						pos1+=L;
+						add(sample_idx,pos1,pos1+L-1);
 						}
+					pos1+=L;
 					}
-				
 				}
-			return pos2sample2depth;
 			}
 		
-		@Override
-		void visit(final int array[],final SAMRecord rec)
+		private void add(final int sample_idx,int start,int end)
+			{
+			if(start<1) start=1;
+			if(end>this.contigLength) end=this.contigLength;
+			if(start>end) return;
+			ensureCapacity(end+1);
+			this.delta[sample_idx][start%this.ringLength]++;
+			this.delta[sample_idx][(end+1)%this.ringLength]--;
+			this.maxEnd = Math.max(this.maxEnd, end+2);
+			}
+		
+		/** make sure the circular buffers can hold the positions in [flushed,pos] */
+		private void ensureCapacity(final int pos)
 			{
-			if(rec.getAlignmentStart() < this.last_start)
+			final int needed = (pos - this.flushed) + 1;
+			if(needed <= this.ringLength) return;
+			int newLength = this.ringLength;
+			while(newLength < needed) newLength *= 2;
+			for(int i=0;i< this.delta.length;++i)
 				{
-				throw new IllegalStateException("got read "+rec+" after last_start="+last_start);
+				final int newDelta[] = new int[newLength];
+				for(int p= this.flushed; p< this.maxEnd; ++p)
+					{
+					newDelta[p % newLength] = this.delta[i][p % this.ringLength];
+					}
+				this.delta[i] = newDelta;
 				}
-			this.buffer.removeIf(R->R.getEnd()< this.last_start);
-			final List<SAMRecord> toDump= buffer.stream().
-					filter(R->R.getEnd()< R.getAlignmentEnd()).
-					collect(Collectors.toList());
-			
-			if(!toDump.isEmpty()) {
-				dump(toDump,this.last_start,rec.getAlignmentStart(),array);
-				this.last_start = rec.getAlignmentStart();
+			this.ringLength = newLength;
+			}
+		
+		private void emit(final int start,final int end,final int value)
+			{
+			if(this.runStart>0 && this.runValue==value && this.runEnd+1==start)
+				{
+				this.runEnd = end;
+				return;
 				}
-			this.buffer.add(rec);
+			if(this.runStart>0) this.consumer.accept(this.runStart, this.runEnd, this.runValue);
+			this.runStart = start;
+			this.runEnd = end;
+			this.runValue = value;
 			}
+		
+		/** send the value of all the positions before 'pos' */
+		private void flush(int pos)
+			{
+			if(pos > this.contigLength+1) pos = this.contigLength+1;
+			while(this.flushed < pos)
+				{
+				if(this.flushed >= this.maxEnd)
+					{
+					/* no more read, all the depths are 0 */
+					emit(this.flushed, pos-1, 0);
+					this.flushed = pos;
+					break;
+					}
+				final int i = this.flushed % this.ringLength;
+				boolean changed = false;
+				boolean covered = false;
+				for(int s=0;s< this.depths.length;++s)
+					{
+					final int d = this.delta[s][i];
+					if(d!=0)
+						{
+						this.depths[s] += d;
+						this.delta[s][i] = 0;
+						changed = true;
+						}
+					if(this.depths[s]>0) covered = true;
+					}
+				if(changed)
+					{
+					this.value = (covered?getValue():0);
+					}
+				emit(this.flushed, this.flushed, this.value);
+				this.flushed++;
+				}
+			}
+		
 		@Override
-		void finish(final int array[]) {
-			dump(this.buffer,this.last_start,array.length+1,array);
-			buffer.clear();
-			this.last_start=1;
+		void finish()
+			{
+			flush(this.contigLength+1);
+			if(this.runStart>0) this.consumer.accept(this.runStart, this.runEnd, this.runValue);
+			this.runStart = -1;
+			this.consumer = null;
 			}
 		}
 	
-	private static class NumberOfSamplesCoveredX extends BufferedAggregator
+	private static class NumberOfSamplesCoveredX extends SamplesAggregator
 		{
 		private final int minDepth;
 		private SAMRecordPartition samRecordPartition;
@@ -396,31 +691,26 @@ public class Bam2Wig extends Launcher
 			}
 		
 		@Override
-		protected void dump(final List<SAMRecord> records,final int begin1,final int end1,final int array[]) {
-			final Map<Integer,Counter<String>> pos2sample2depth= fillPositions(records,begin1,end1);
-			for(int start1 = begin1;start1<end1;++start1)
+		protected int getValue() {
+			int num_samples = 0;
+			for(int i=0;i< this.depths.length;++i)
 				{
-				final Counter<String> sample2coverage = pos2sample2depth.get(start1);
-				if(sample2coverage==null) continue;
-				
-				final int num_samples= (int)sample2coverage.stream().
-						mapToInt(E->E.getValue().intValue()).
-						filter(D->D>=this.minDepth).
-						count()
-						;				
-				if(start1>0 && start1<=array.length)
-					{
-					array[start1-1]=num_samples;
-					}
-				
+				if(this.depths[i]>0 && this.depths[i]>=this.minDepth) num_samples++;
 				}
+			return num_samples;
 			}
 		}
 	
-	private static class CaseControlAggregator extends BufferedAggregator
+	private static class CaseControlAggregator extends SamplesAggregator
 		{
 		private final Map<String,Pedigree.Person> case2person;
 		private final Map<String,Pedigree.Person> ctrl2person;
+		/** indexes of the cases and of the controls in 'depths' */
+		private final int case_indexes[];
+		private final int ctrl_indexes[];
+		private final double case_depths[];
+		private final double ctrl_depths[];
+		
 		CaseControlAggregator(final File pedigreeFile) {
 			final Pedigree pedigree ;
 			IOUtil.assertFileIsReadable(pedigreeFile);
@@ -439,62 +729,151 @@ public class Bam2Wig extends Launcher
 					filter(P->P.isUnaffected()).
 					collect(Collectors.toMap(P->P.getId(), P->P))
 					;
+			this.case_indexes = this.case2person.keySet().stream().mapToInt(S->getSampleIndex(S)).toArray();
+			this.ctrl_indexes = this.ctrl2person.keySet().stream().mapToInt(S->getSampleIndex(S)).toArray();
+			this.case_depths = new double[this.case_indexes.length];
+			this.ctrl_depths = new double[this.ctrl_indexes.length];
 			}
 		@Override
-		void visit(int[] array, SAMRecord rec) {
+		void visit(final SAMRecord rec) {
 			if(this.case2person.isEmpty()) return;
 			if(this.ctrl2person.isEmpty()) return;
-			if(StringUtil.isBlank(partition(rec))) return;
-			super.visit(array, rec);
+			super.visit(rec);
 			}
 		
 		@Override
 		protected String partition(final SAMRecord rec) {
-
 			final SAMReadGroupRecord rg = rec.getReadGroup();
 			if(rg==null) return null;
 			final String sample= rg.getSample();			
 			if(!(this.ctrl2person.containsKey(sample)|| this.case2person.containsKey(sample))) return null;
-			return null;
+			return sample;
 			}
 		
 		@Override
-		protected void dump(final List<SAMRecord> records,final int begin1,final int end1,final int array[]) {
-			if(this.case2person.isEmpty()) return;
-			if(this.ctrl2person.isEmpty()) return;
-			final Map<Integer,Counter<String>> pos2sample2depth= fillPositions(records,begin1,end1);
-				
-					
-			for(int start1 = begin1;start1<end1;++start1)
+		protected int getValue() {
+			for(int i=0;i< this.case_indexes.length;++i)
 				{
-				
-				final Counter<String> sample2coverage = pos2sample2depth.get(start1);
-				if(sample2coverage==null) continue;
-				
-				final double median_cases = Percentile.median().evaluate(this.case2person.keySet().
-						stream().
-						mapToDouble(ID->sample2coverage.count(ID))
-						).getAsDouble();
-				final double median_ctrl = Percentile.median().evaluate(this.ctrl2person.keySet().
-						stream().
-						mapToDouble(ID->sample2coverage.count(ID))
-						).getAsDouble();
-
-				final double ratio = median_cases / median_ctrl;
-				
-				if(start1>0 && start1<=array.length)
-					{
-					array[start1-1]= (int)(ratio * 1000.0);
-					}
-				
+				this.case_depths[i] = this.depths[this.case_indexes[i]];
 				}
+			for(int i=0;i< this.ctrl_indexes.length;++i)
+				{
+				this.ctrl_depths[i] = this.depths[this.ctrl_indexes[i]];
+				}
+			final double median_cases = Percentile.median().evaluate(this.case_depths).getAsDouble();
+			final double median_ctrl = Percentile.median().evaluate(this.ctrl_depths).getAsDouble();
+			final double ratio = median_cases / median_ctrl;
+			return (int)(ratio * 1000.0);
 			}
 		}
-
 	
+	/** merges several iterators sorted on coordinate. The records of each iterator are read by batches in a pool of threads, while the previous batch is consumed */
+	private static class ConcurrentMergingIterator extends AbstractIterator<SAMRecord> implements CloseableIterator<SAMRecord>
+		{
+		private static final int BATCH_SIZE = 10_000;
+		private final ExecutorService executor;
+		private final List<Source> sources = new ArrayList<>();
+		private final PriorityQueue<Source> queue;
+		
+		private class Source
+			{
+			final int index;
+			final CloseableIterator<SAMRecord> delegate;
+			Future<List<SAMRecord>> nextBatch = null;
+			List<SAMRecord> batch = Collections.emptyList();
+			int offset = 0;
+			Source(final int index,final CloseableIterator<SAMRecord> delegate) {
+				this.index = index;
+				this.delegate = delegate;
+				}
+			SAMRecord peek() {
+				return this.batch.get(this.offset);
+				}
+			void submit() {
+				this.nextBatch = executor.submit(()->{
+					final List<SAMRecord> L = new ArrayList<>(BATCH_SIZE);
+					while(L.size() < BATCH_SIZE && this.delegate.hasNext()) {
+						L.add(this.delegate.next());
+						}
+					return L;
+					});
+				}
+			/** wait for the next batch, start reading the one after. @return false if there is no more record */
+			boolean fetch() {
+				try {
+					this.batch = this.nextBatch.get();
+					}
+				catch(final InterruptedException err) {
+					Thread.currentThread().interrupt();
+					throw new RuntimeException(err);
+					}
+				catch(final ExecutionException err) {
+					throw new RuntimeException(err.getCause());
+					}
+				this.nextBatch = null;
+				this.offset = 0;
+				if(this.batch.isEmpty()) return false;
+				submit();
+				return true;
+				}
+			/** wait for the pending batch, if any, and close the delegate */
+			void close() {
+				if(this.nextBatch!=null) {
+					this.nextBatch.cancel(false);
+					try { this.nextBatch.get();}
+					catch(final Exception err) {/* ignore */}
+					this.nextBatch = null;
+					}
+				CloserUtil.close(this.delegate);
+				}
+			}
+		
+		ConcurrentMergingIterator(final ExecutorService executor,final List<CloseableIterator<SAMRecord>> iterators) {
+			this.executor = executor;
+			this.queue = new PriorityQueue<>(Math.max(1,iterators.size()),(A,B)->{
+				final SAMRecord r1 = A.peek();
+				final SAMRecord r2 = B.peek();
+				/* unmapped reads without coordinate are at the end of the file */
+				final int tid1 = r1.getReferenceIndex()<0?Integer.MAX_VALUE:r1.getReferenceIndex();
+				final int tid2 = r2.getReferenceIndex()<0?Integer.MAX_VALUE:r2.getReferenceIndex();
+				int i = Integer.compare(tid1, tid2);
+				if(i!=0) return i;
+				i = Integer.compare(r1.getAlignmentStart(), r2.getAlignmentStart());
+				if(i!=0) return i;
+				return Integer.compare(A.index, B.index);
+				});
+			for(final CloseableIterator<SAMRecord> iter:iterators) {
+				final Source src = new Source(this.sources.size(),iter);
+				this.sources.add(src);
+				src.submit();
+				}
+			for(final Source src:this.sources) {
+				if(src.fetch()) this.queue.add(src);
+				}
+			}
+		
+		@Override
+		protected SAMRecord advance() {
+			final Source src = this.queue.poll();
+			if(src==null) return null;
+			final SAMRecord rec = src.peek();
+			src.offset++;
+			if(src.offset < src.batch.size() || src.fetch()) {
+				this.queue.add(src);
+				}
+			return rec;
+			}
+		
+		@Override
+		public void close() {
+			this.queue.clear();
+			for(final Source src:this.sources) src.close();
+			}
+		}
 	
 	private void run(
-			final PrintWriter pw,
+			final PrintWriter pw,// null if writing a bigwig
+			final BigWigWriter bigWigWriter,// may be null
 			final CloseableIterator<SAMRecord> iter,
 			final SAMSequenceDictionary dict,
 			final SimpleInterval interval // may be null
@@ -518,9 +897,8 @@ public class Bam2Wig extends Launcher
 		
 		final Percentile percentile = Percentile.of(this.percentilType);
 		SAMSequenceRecord ssr = null;
-		int array[]=null;
 		final SAMSequenceDictionaryProgress progess=new SAMSequenceDictionaryProgress(dict);
-		if(this.custom_track)
+		if(this.custom_track && pw!=null)
 			{
 			pw.println(
 				UCSC_HEADER.replace("track_type", 
@@ -548,87 +926,24 @@ public class Bam2Wig extends Launcher
 				{
 				if(ssr!=null)
 					{
-					aggregator.finish(array);
-					// dump data
-					int start0=(interval==null?0:interval.getStart());
-					boolean header_printed=false;
-					
-					
-					while(start0 < array.length)
-						{
-						if(interval!=null)
-							{
-							if(!interval.getContig().equals(ssr.getSequenceName())) break;//
-							if(start0> interval.getEnd()) break;
-							
-							if(start0+window_span < interval.getStart())
-								{
-								start0+=win_shift;
-								continue;
-								}
-							}
-						
-						if(!this.bedGraph && !header_printed)
-							{
-							pw.println(
-			 						"fixedStep chrom="+ssr.getSequenceName()+
-			 						" start="+(start0+1)+
-			 						" step="+this.win_shift +" span="+ this.window_span
-			 						);
-							header_printed=true;
-							}
-						/* 
-						 * http://genome.ucsc.edu/goldenPath/help/wiggle.html
-						   Wiggle track data values can be integer or real, positive or negative values.
-						   Chromosome positions are specified as 1-relative.
-						   For a chromosome of length N, the first position is 1 and the last position is N. Only positions specified have data. Positions not specified do not have data and will not be graphed. 
-						 */
-		 				
-						final double percentile_value = 
-							percentile.evaluate(
-									array,
-									start0,
-									Math.min(this.window_span,array.length-start0)
-									).getAsDouble();
-						if(this.bedGraph)
-							{
-							pw.print(ssr.getSequenceName());
-							pw.print('\t');
-							pw.print(start0);
-							pw.print('\t');
-							pw.print(start0+this.window_span);
-							pw.print('\t');
-							}
-						
-						pw.printf(this.printfFormat,percentile_value);
-	 					pw.print('\n');
-		 				
-		 				if(pw.checkError()) break;
-		 				start0 += this.win_shift;
-						}
-					array = null;
-					System.gc();
+					// dump the remaining windows
+					aggregator.finish();
 					ssr = null;
 					}
 				if(rec==null) break;
-				if(pw.checkError()) break;
+				if(pw!=null && pw.checkError()) break;
 				}
 			if(ssr==null)
 				{
-				System.gc();
 				ssr=dict.getSequence(rec.getReferenceIndex());
 				Objects.requireNonNull(ssr);
-				LOG.info("Allocating int["+ssr.getSequenceLength()+"]");
-				array=new int[ssr.getSequenceLength()];
-				LOG.info("Allocating : Done.");
-				Arrays.fill(array, 0);
+				aggregator.begin(ssr, new WindowEmitter(pw, bigWigWriter, percentile, ssr, interval));
 				}
-			aggregator.visit(array, rec);
-			
+			aggregator.visit(rec);
 			}
 		progess.finish();
 		iter.close();
-		pw.flush();
+		if(pw!=null) pw.flush();
 		}
 	
 	@Override
@@ -641,11 +956,17 @@ public class Bam2Wig extends Launcher
 				LOG.error("window size<=0");
 				return -1;
 			}
+			if(this.nThreads<1) {
+				LOG.error("bad number of threads");
+				return -1;
+			}
 			final SimpleInterval interval;
 			PrintWriter pw = null;
+			BigWigWriter bigWigWriter = null;
 			CloseableIterator<SAMRecord> samRecordIterator = null;
 			final List<SamReader> samReaders = new ArrayList<>();
 			final List<CloseableIterator<SAMRecord>> merginIterators= new ArrayList<>();
+			final ExecutorService executor = (this.nThreads>1?Executors.newFixedThreadPool(this.nThreads):null);
 			try
 				{
 				final SamReaderFactory srf=SamReaderFactory.makeDefault().validationStringency(htsjdk.samtools.ValidationStringency.LENIENT);
@@ -745,7 +1066,22 @@ public class Bam2Wig extends Launcher
 							}
 						}
 					merginIterators.addAll(reader2iter.values());
-					samRecordIterator = new MergingSamRecordIterator(mergedheader, reader2iter, true);
+					if(executor!=null)
+						{
+						samRecordIterator = new ConcurrentMergingIterator(executor,
+								samReaders.stream().map(SR->reader2iter.get(SR)).collect(Collectors.toList())
+								);
+						}
+					else
+						{
+						samRecordIterator = new MergingSamRecordIterator(mergedheader, reader2iter, true);
+						}
+					}
+				
+				if(executor!=null && !(samRecordIterator instanceof ConcurrentMergingIterator))
+					{
+					/* decode the records of the single input in another thread */
+					samRecordIterator = new ConcurrentMergingIterator(executor, Collections.singletonList(samRecordIterator));
 					}
 				
 				for(final SamReader sr:samReaders)
@@ -755,19 +1091,33 @@ public class Bam2Wig extends Launcher
 						return -1;
 						}
 					}
-				pw = openPathOrStdoutAsPrintWriter(this.outputFile);
+				final SAMSequenceDictionary dict = samReaders.get(0).getFileHeader().getSequenceDictionary();
+				if(this.outputFile!=null && isBigWig(this.outputFile))
+					{
+					bigWigWriter = new BigWigWriter(this.outputFile, SequenceDictionaryUtils.extractRequired(samReaders.get(0).getFileHeader()));
+					}
+				else
+					{
+					pw = openPathOrStdoutAsPrintWriter(this.outputFile);
+					}
 				
 				run(
 					pw,
+					bigWigWriter,
 					samRecordIterator,
-					samReaders.get(0).getFileHeader().getSequenceDictionary(),
+					dict,
 					interval
 					);
 				samRecordIterator.close();
 				samRecordIterator=null;
 				CloserUtil.close(samReaders);
 				samReaders.clear();
-				pw.flush();
+				if(pw!=null) pw.flush();
+				if(bigWigWriter!=null)
+					{
+					bigWigWriter.close();
+					bigWigWriter = null;
+					}
 				return 0;
 				}
 			catch(final Throwable err)
@@ -777,14 +1127,22 @@ public class Bam2Wig extends Launcher
 				}
 			finally
 				{
-				CloserUtil.close(merginIterators);
 				CloserUtil.close(samRecordIterator);
+				CloserUtil.close(merginIterators);
 				CloserUtil.close(samReaders);
+				if(executor!=null) executor.shutdownNow();
 				CloserUtil.close(pw);
 				pw=null;
+				CloserUtil.close(bigWigWriter);
 				}
 			}
 	
+	private static boolean isBigWig(final Path path)
+		{
+		final String fname = path.getFileName().toString().toLowerCase();
+		return fname.endsWith(".bw") || fname.endsWith(".bigwig");
+		}
+	
 	public static void main(final String[] args)
 		{
 		new Bam2Wig().instanceMainWithExit(args);
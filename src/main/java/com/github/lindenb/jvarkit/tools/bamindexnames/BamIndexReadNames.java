@@ -27,14 +27,22 @@ package com.github.lindenb.jvarkit.tools.bamindexnames;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
-import java.nio.ByteBuffer;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParametersDelegate;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.picard.AbstractDataCodec;
@@ -42,11 +50,14 @@ import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
 
 import htsjdk.samtools.SAMFileHeader.SortOrder;
 import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.SAMRecordIterator;
 import htsjdk.samtools.SamReader;
 import htsjdk.samtools.SamReaderFactory;
 import htsjdk.samtools.ValidationStringency;
 import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.MergingIterator;
 import htsjdk.samtools.util.SortingCollection;
 
 /**
@@ -58,6 +69,16 @@ BEGIN_DOC
 $  java -jar dist/bamindexreadnames.jar file.bam
 ```
 
+## Indexing a large BAM
+
+```bash
+$  java -jar dist/bamindexreadnames.jar --threads 8 --maxRecordsInRam 5000000 --tmpDir /scratch file.bam
+```
+
+With `--threads`, the contigs of an indexed BAM are scanned in parallel, each thread
+writes its own sorted runs and the runs are merged when writing the index.
+`--maxRecordsInRam` is shared by all the threads.
+
 
 END_DOC
  */
@@ -68,7 +89,7 @@ public class BamIndexReadNames
 	extends BaseBamIndexReadNames
 	{
 	private static final Logger LOG=Logger.build(BamIndexReadNames.class).make();
-	private BamIndexReadNames()
+	BamIndexReadNames()
 		{
 		}
 	private static class NameAndPosCodec extends AbstractDataCodec<NameAndPos>
@@ -117,85 +138,168 @@ public class BamIndexReadNames
 			}
 		}
 
-		private int maxRecordsInRAM=50000;
+	@Parameter(names={"--threads"},description="Number of threads. When greater than 1 and the BAM is indexed, the contigs are scanned in parallel, each thread producing its own sorted runs that are merged at the end. BGZF blocks are also decompressed asynchronously.")
+	private int nThreads=1;
+	@ParametersDelegate
+	private WritingSortingCollection writingSortingCollection=new WritingSortingCollection();
 
-		
-		private void indexBamFile(Path bamFile) throws IOException
+	private NameAndPos toNameAndPos(final SAMRecord rec)
+		{
+		final NameAndPos nap=new NameAndPos();
+		nap.name=rec.getReadName();
+		nap.tid=rec.getReferenceIndex();
+		nap.pos=rec.getAlignmentStart();
+		return nap;
+		}
+	
+	private SortingCollection<NameAndPos> createSortingCollection(int maxRecordsInRAM)
+		{
+		final SortingCollection<NameAndPos> sorting=SortingCollection.newInstance(
+				NameAndPos.class,
+				new NameAndPosCodec() ,
+				new NameAndPosComparator(),
+				Math.max(1,maxRecordsInRAM),
+				this.writingSortingCollection.getTmpPaths()
+				);
+		sorting.setDestructiveIteration(true);
+		return sorting;
+		}
+	
+	/** scan the whole BAM in the current thread */
+	private List<SortingCollection<NameAndPos>> scanSerial(final SamReaderFactory srf,final Path bamFile) throws IOException
+		{
+		final SortingCollection<NameAndPos> sorting=createSortingCollection(this.writingSortingCollection.getMaxRecordsInRam());
+		long countReads=0L;
+		try(SamReader sfr=srf.open(bamFile))
 			{
-			
-			NameIndexDef indexDef=new NameIndexDef();
-
-			SortingCollection<NameAndPos> sorting=null;
-			LOG.info("Opening "+bamFile);
-			SamReader sfr=SamReaderFactory.makeDefault().
-					validationStringency(ValidationStringency.SILENT).
-					open(bamFile);
-			sorting=SortingCollection.newInstance(
-					NameAndPos.class,
-					new NameAndPosCodec() ,
-					new NameAndPosComparator(),
-					maxRecordsInRAM,
-					bamFile.getParent()
-					);
-			sorting.setDestructiveIteration(true);
-			if(sfr.getFileHeader().getSortOrder()!=SortOrder.coordinate)
+			final SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(sfr.getFileHeader().getSequenceDictionary());
+			try(SAMRecordIterator iter=sfr.iterator())
 				{
-				throw new IOException("not SortOrder.coordinate "+sfr.getFileHeader().getSortOrder());
+				while(iter.hasNext())
+					{
+					final SAMRecord rec=progress.watch(iter.next());
+					sorting.add(toNameAndPos(rec));
+					countReads++;
+					}
 				}
-			
-			SAMRecordIterator iter=sfr.iterator();
-			SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(sfr.getFileHeader().getSequenceDictionary());
-			while(iter.hasNext())
+			progress.finish();
+			}
+		sorting.doneAdding();
+		LOG.info("Done Adding. N="+countReads);
+		return Collections.singletonList(sorting);
+		}
+	
+	/** scan the contigs in parallel, each thread owns one SortingCollection */
+	private List<SortingCollection<NameAndPos>> scanParallel(final SamReaderFactory srf,final Path bamFile,final SAMSequenceDictionary dict) throws Exception
+		{
+		/* longest contigs first, unmapped reads (-1) last */
+		final ConcurrentLinkedQueue<Integer> tids=new ConcurrentLinkedQueue<>(
+			dict.getSequences().stream().
+				sorted((A,B)->Integer.compare(B.getSequenceLength(), A.getSequenceLength())).
+				map(SSR->SSR.getSequenceIndex()).
+				collect(Collectors.toList())
+			);
+		tids.add(-1);
+		final int nContigs=tids.size();
+		final AtomicInteger countContigs=new AtomicInteger(0);
+		final AtomicLong countReads=new AtomicLong(0L);
+		/* the memory limit is shared by the threads */
+		final int maxRecordsInRAM=this.writingSortingCollection.getMaxRecordsInRam()/this.nThreads;
+		final ExecutorService executor=Executors.newFixedThreadPool(this.nThreads);
+		try
+			{
+			final List<Future<SortingCollection<NameAndPos>>> futures=new ArrayList<>(this.nThreads);
+			for(int i=0;i< this.nThreads;i++)
 				{
-				SAMRecord rec=iter.next();
-				progress.watch(rec);
-				NameAndPos nap=new NameAndPos();
-				nap.name=rec.getReadName();
-				indexDef.maxNameLengt =Math.max(nap.name.length()+1, indexDef.maxNameLengt );
-				nap.tid=rec.getReferenceIndex();
-				nap.pos=rec.getAlignmentStart();
-				indexDef.countReads++;
-				sorting.add(nap);
+				futures.add(executor.submit(()->{
+					final SortingCollection<NameAndPos> sorting=createSortingCollection(maxRecordsInRAM);
+					try(SamReader sfr=srf.open(bamFile))
+						{
+						Integer tid;
+						while((tid=tids.poll())!=null)
+							{
+							long n=0L;
+							try(SAMRecordIterator iter=(tid<0?sfr.queryUnmapped():sfr.query(dict.getSequence(tid).getSequenceName(),0,0,false)))
+								{
+								while(iter.hasNext())
+									{
+									sorting.add(toNameAndPos(iter.next()));
+									n++;
+									}
+								}
+							LOG.info((tid<0?"unmapped reads":dict.getSequence(tid).getSequenceName())+": "+n+" reads. "+
+								countContigs.incrementAndGet()+"/"+nContigs+" done. N="+countReads.addAndGet(n));
+							}
+						}
+					sorting.doneAdding();
+					return sorting;
+					}));
 				}
-			progress.finish();
-			iter.close();
-			sfr.close();
-			sorting.doneAdding();
-			LOG.info("Done Adding. N="+indexDef.countReads);
-			
-			Path indexFile= bamFile.getParent().resolve(bamFile.getFileName().toString()+NAME_IDX_EXTENSION);
-			
-			LOG.info("Writing index "+indexFile);
-			OutputStream raf= Files.newOutputStream(indexFile);
-			
-			ByteBuffer byteBuff= ByteBuffer.allocate(8+4);
-			byteBuff.putLong(indexDef.countReads);
-			byteBuff.putInt(indexDef.maxNameLengt);
-			raf.write(byteBuff.array());
-			
-			byteBuff= ByteBuffer.allocate( indexDef.maxNameLengt+4+4);
-			CloseableIterator<NameAndPos> iter2=sorting.iterator();
+			final List<SortingCollection<NameAndPos>> runs=new ArrayList<>(futures.size());
+			for(final Future<SortingCollection<NameAndPos>> f:futures)
+				{
+				runs.add(f.get());
+				}
+			LOG.info("Done Adding. N="+countReads.get());
+			return runs;
+			}
+		finally
+			{
+			executor.shutdownNow();
+			}
+		}
+	
+	private void indexBamFile(Path bamFile) throws Exception
+		{
+		LOG.info("Opening "+bamFile);
+		final SamReaderFactory srf=SamReaderFactory.makeDefault().
+				validationStringency(ValidationStringency.SILENT).
+				setUseAsyncIo(this.nThreads>1);
+		final SAMSequenceDictionary dict;
+		final boolean hasIndex;
+		try(SamReader sfr=srf.open(bamFile))
+			{
+			if(sfr.getFileHeader().getSortOrder()!=SortOrder.coordinate)
+				{
+				throw new IOException("not SortOrder.coordinate "+sfr.getFileHeader().getSortOrder());
+				}
+			dict=sfr.getFileHeader().getSequenceDictionary();
+			hasIndex=sfr.hasIndex();
+			}
+		
+		final List<SortingCollection<NameAndPos>> runs;
+		if(this.nThreads>1 && hasIndex)
+			{
+			runs=scanParallel(srf,bamFile,dict);
+			}
+		else
+			{
+			if(this.nThreads>1) LOG.warn("BAM is not indexed. Using one thread.");
+			runs=scanSerial(srf,bamFile);
+			}
+		
+		Path indexFile= bamFile.toAbsolutePath().getParent().resolve(bamFile.getFileName().toString()+NAME_IDX_EXTENSION);
+		
+		LOG.info("Writing index "+indexFile);
+		final List<CloseableIterator<NameAndPos>> iterators=runs.stream().
+				map(S->S.iterator()).
+				collect(Collectors.toList());
+		try(ReadNameIndex.Writer w=new ReadNameIndex.Writer(indexFile))
+			{
+			/* k-way merge of the sorted runs */
+			final MergingIterator<NameAndPos> iter2=new MergingIterator<>(new NameAndPosComparator(),iterators);
 			while(iter2.hasNext())
 				{
-				byteBuff.rewind();
-				NameAndPos nap=iter2.next();
-				for(int i=0;i< nap.name.length();++i)
-					{
-					byteBuff.put((byte)nap.name.charAt(i));
-					}
-				for(int i=nap.name.length();i< indexDef.maxNameLengt;++i)
-					{
-					byteBuff.put((byte)'\0');
-					}
-				byteBuff.putInt(nap.tid);
-				byteBuff.putInt(nap.pos);
-				raf.write(byteBuff.array());
-				
+				w.add(iter2.next());
 				}
-			raf.flush();
-			raf.close();
-			sorting.cleanup();
+			iter2.close();
+			}
+		finally
+			{
+			CloserUtil.close(iterators);
+			for(final SortingCollection<NameAndPos> sorting:runs) sorting.cleanup();
 			}
+		}
 		
 	
 	@Override
@@ -203,6 +307,11 @@ public class BamIndexReadNames
 
 		try
 			{
+			if(this.nThreads<1)
+				{
+				LOG.error("bad number of threads");
+				return -1;
+				}
 			indexBamFile( Paths.get(oneAndOnlyOneFile(args)));
 			return 0;
 			}
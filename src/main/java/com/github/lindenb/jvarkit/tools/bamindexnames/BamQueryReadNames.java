@@ -29,6 +29,7 @@ History:
 
 package com.github.lindenb.jvarkit.tools.bamindexnames;
 
+import htsjdk.samtools.QueryInterval;
 import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.SAMFileWriter;
 import htsjdk.samtools.SAMRecord;
@@ -40,13 +41,11 @@ import htsjdk.samtools.util.CloserUtil;
 import htsjdk.tribble.readers.LineIterator;
 
 import java.io.File;
-import java.io.IOException;
 import java.io.PrintWriter;
-import java.io.RandomAccessFile;
-import java.nio.ByteBuffer;
-import java.util.LinkedHashSet;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
 
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParametersDelegate;
@@ -89,6 +88,13 @@ $ cat list.notfound
 ZZZZ:X
 ```
 
+## How it works
+
+The names are read by batches (`--batch-size`). The names of a batch are sorted and merged against the sorted index,
+then the hits are sorted on their genomic position and close hits are fetched with the same BAM query (`--merge-distance`),
+so the BAM is read sequentially. The output is sorted like the input BAM.
+
+The index must have been created with the current version of `bamindexreadnames`.
 
  
  END_DOC
@@ -100,82 +106,166 @@ public class BamQueryReadNames extends BaseBamIndexReadNames
 	@Parameter(names={"-o","--out"},description=OPT_OUPUT_FILE_OR_STDOUT)
 	private File outputFile=null;
 
-	@Parameter(names={"-s"},description="user list of read names is sorted")
+	@Parameter(names={"-s"},description="user list of read names is sorted. Skip the sorting of each batch of names.")
 	private boolean query_reads_is_sorted=false;
 	
 	@Parameter(names={"-N"},description=" save unmatched names here")
 	private File notFoundFile=null;
 
+	@Parameter(names={"--batch-size"},description="Number of read names processed at once. The names of a batch are sorted and merged against the index, then the BAM is scanned once for the whole batch.")
+	private int batchSize=1_000_000;
+
+	@Parameter(names={"--merge-distance"},description="When scanning the BAM, two hits on the same contig are fetched with the same query if they are separated by less than 'x' bases. Larger values mean less random seeks but more records scanned.")
+	private int mergeDistance=1_000;
+
 	@ParametersDelegate
 	private WritingBamArgs writingBamArgs=new WritingBamArgs();
 	
-	private RandomAccessFile raf;
-	private NameIndexDef indexDef;
+	/** one line of the user's list of names */
+	private static class Query
+		{
+		final String line;
+		final String name;
+		/** 1 or 2 if /1 or /2 was specified, else -1 */
+		final int side;
+		boolean found=false;
+		Query(final String line)
+			{
+			this.line=line;
+			/* forward or reverse is specified ? */
+			if(line.endsWith("/1"))
+				{
+				this.side=1;
+				this.name=line.substring(0, line.length()-2);
+				}
+			else if(line.endsWith("/2"))
+				{
+				this.side=2;
+				this.name=line.substring(0, line.length()-2);
+				}
+			else
+				{
+				this.side=-1;
+				this.name=line;
+				}
+			}
+		boolean accept(final SAMRecord rec)
+			{
+			if(side==1) return rec.getReadPairedFlag() && rec.getFirstOfPairFlag();
+			if(side==2) return rec.getReadPairedFlag() && rec.getSecondOfPairFlag();
+			return true;
+			}
+		}
 
 	private BamQueryReadNames()
 		{
 		}
 	
+	/** write the records of 'iter' matching one of the queries */
+	private void scan(final SAMRecordIterator iter,final Map<String,List<Query>> name2queries,final SAMFileWriter bamw)
+		{
+		while(iter.hasNext())
+			{
+			final SAMRecord rec=iter.next();
+			final List<Query> queries=name2queries.get(rec.getReadName());
+			if(queries==null) continue;
+			boolean keep=false;
+			for(final Query q:queries)
+				{
+				if(!q.accept(rec)) continue;
+				q.found=true;
+				keep=true;
+				}
+			if(keep) bamw.addAlignment(rec);
+			}
+		iter.close();
+		}
 	
-	
-	private NameAndPos getNameAndPosAt(long index)
-		throws IOException
+	/** search one batch of names */
+	private void processBatch(
+			final List<Query> batch,
+			final ReadNameIndex index,
+			final SamReader sfr,
+			final SAMFileWriter bamw,
+			final PrintWriter notFoundStream)
 		{
-		long fileoffset=FILE_PREFIX_SIZE//header
-					+ index*(this.indexDef.sizeOfNameAndPos());
+		if(batch.isEmpty()) return;
+		final List<Query> sorted=new ArrayList<>(batch);
+		if(!query_reads_is_sorted)
+			{
+			sorted.sort((A,B)->A.name.compareTo(B.name));
+			}
 		
-		ByteBuffer byteBuff= ByteBuffer.allocate( indexDef.sizeOfNameAndPos());
-		this.raf.seek(fileoffset);
-		this.raf.readFully(byteBuff.array());
+		/* merge the sorted names against the index */
+		final Map<String,List<Query>> name2queries=new HashMap<>(sorted.size());
+		final List<NameAndPos> hits=new ArrayList<>();
+		final ReadNameIndex.Cursor cursor=index.cursor();
+		for(final Query q:sorted)
+			{
+			List<Query> L=name2queries.get(q.name);
+			if(L==null)
+				{
+				L=new ArrayList<>(1);
+				name2queries.put(q.name, L);
+				cursor.find(q.name, hits::add);
+				}
+			L.add(q);
+			}
 		
-		NameAndPos nap=new NameAndPos();
+		/* coalesce the hits by genomic position */
+		hits.sort((A,B)->{
+			final int i=Integer.compare(A.tid, B.tid);
+			if(i!=0) return i;
+			return Integer.compare(A.pos, B.pos);
+			});
+		final List<QueryInterval> intervals=new ArrayList<>();
+		boolean hasUnmapped=false;
+		int i=0;
+		while(i< hits.size())
+			{
+			final NameAndPos first=hits.get(i);
+			if(first.tid<0)
+				{
+				hasUnmapped=true;
+				i++;
+				continue;
+				}
+			int end=Math.max(1,first.pos);
+			int j=i+1;
+			while(j< hits.size() &&
+				hits.get(j).tid==first.tid &&
+				hits.get(j).pos <= end + this.mergeDistance)
+				{
+				end=Math.max(end,hits.get(j).pos);
+				j++;
+				}
+			intervals.add(new QueryInterval(first.tid, Math.max(1,first.pos), end));
+			i=j;
+			}
+		LOG.info("batch: "+batch.size()+" names, "+hits.size()+" hits, "+intervals.size()+" BAM queries.");
 		
-		StringBuilder b=new StringBuilder(indexDef.maxNameLengt);
-		for(int i=0;i< indexDef.maxNameLengt && byteBuff.get(i)!=0;++i)
+		if(!intervals.isEmpty())
+			{
+			scan(sfr.query(QueryInterval.optimizeIntervals(intervals.toArray(new QueryInterval[intervals.size()])),false),name2queries,bamw);
+			}
+		if(hasUnmapped)
 			{
-			b.append((char)byteBuff.get(i));
+			scan(sfr.queryUnmapped(),name2queries,bamw);
 			}
-		nap.name=b.toString();
-		byteBuff.position( indexDef.maxNameLengt);
-		nap.tid=byteBuff.getInt();
-		nap.pos=byteBuff.getInt();
-		return nap;
 		
-		}
-	
-	private long lower_bound(long first, long last, final String readName) throws IOException
-		{
-			long len = last-first;
-			while (len > 0)
+		for(final Query q:batch)
 			{
-				long half = len /2;
-				long middle = first + half;
-				String middle_s = getNameAndPosAt(middle).name;
-				
-				if (middle_s.compareTo(readName)<0)
-					{
-					first = middle;
-					++first;
-					len = len - half - 1;
-					}
-				else
-					{
-					len = half;
-					}
-				
-
-				}
-			return first;
+			if(!q.found) notFoundStream.println(q.line);
+			}
 		}
-
-
-
 	
 	@Override
 	public int doWork(final List<String> args) {
 		PrintWriter notFoundStream=new PrintWriter(new NullOuputStream());
 		SamReader sfr=null;
 		SAMFileWriter bamw=null;
+		ReadNameIndex index=null;
+		LineIterator r=null;
 		try
 			{
 			if(!(2==args.size() ||1==args.size()))
@@ -183,8 +273,13 @@ public class BamQueryReadNames extends BaseBamIndexReadNames
 				LOG.error("illegal.number.of.arguments");
 				return -1;
 				}
+			if(this.batchSize<1)
+				{
+				LOG.error("bad batch size");
+				return -1;
+				}
 			
-			if(this.notFoundFile==null)
+			if(this.notFoundFile!=null)
 				{
 				notFoundStream.close();
 				notFoundStream=openFileOrStdoutAsPrintWriter(notFoundFile);
@@ -194,14 +289,14 @@ public class BamQueryReadNames extends BaseBamIndexReadNames
 			sfr=SamReaderFactory.makeDefault().
 					validationStringency(ValidationStringency.SILENT).
 					open(bamFile);
+			if(!sfr.hasIndex())
+				{
+				LOG.error("BAM is not indexed "+bamFile);
+				return -1;
+				}
 			File nameIdxFile=new File(bamFile.getParentFile(), bamFile.getName()+NAME_IDX_EXTENSION);
-			this.indexDef=new NameIndexDef();
-			this.raf=new RandomAccessFile(nameIdxFile, "r");
-			indexDef.countReads=raf.readLong();
-			indexDef.maxNameLengt=raf.readInt();
+			index=new ReadNameIndex(nameIdxFile.toPath());
 			
-			
-			LineIterator r=null;
 			if(args.size()==2)
 				{
 				r=IOUtils.openURIForLineIterator(args.get(1));
@@ -212,127 +307,27 @@ public class BamQueryReadNames extends BaseBamIndexReadNames
 				}
 			SAMFileHeader header=sfr.getFileHeader().clone();
 			
-			bamw=writingBamArgs.openSAMFileWriter(this.outputFile, header, true);
-			
-			
-			long iter_start = 0L;
+			/* batches are written one after the other: let the writer restore the sort order */
+			bamw=writingBamArgs.openSAMFileWriter(this.outputFile, header, false);
 			
+			final List<Query> batch=new ArrayList<>();
 			while(r.hasNext())
 				{
 				String line=r.next();
-				String searchRead=null;
-				int side=-1;
 				if(line.isEmpty() || line.startsWith("#")) continue;
-				
-				/* forward or reverse is specified ? */
-				if(line.endsWith("/1"))
-					{
-					side=1;
-					searchRead=line.substring(0, line.length()-2);
-					}
-				else if(line.endsWith("/2"))
-					{
-					side=2;
-					searchRead=line.substring(0, line.length()-2);
-					}
-				else
-					{
-					side=-1;
-					searchRead=line;
-					}	
-				long index=lower_bound(
-						iter_start,
-						this.indexDef.countReads,
-						searchRead
-						);
-				if(index>=this.indexDef.countReads)
-					{
-					notFoundStream.println(line);
-					continue;
-					}
-				if(query_reads_is_sorted)
+				batch.add(new Query(line));
+				if(batch.size()>=this.batchSize)
 					{
-					iter_start=index;
+					processBatch(batch, index, sfr, bamw, notFoundStream);
+					batch.clear();
 					}
-				
-				Set<SAMRecord> found=new LinkedHashSet<SAMRecord>();
-				while(index <this.indexDef.countReads )
-					{
-					NameAndPos nap=getNameAndPosAt(index);
-					if(nap.name.compareTo(searchRead)<0)
-						{
-						++index;
-						continue;
-						}
-					else if(nap.name.compareTo(searchRead)>0)
-						{
-						break;
-						}
-					SAMRecordIterator iter;
-					if(nap.tid<0)
-						{
-						iter=sfr.queryUnmapped();
-						}
-					else
-						{
-						iter=sfr.query(
-							header.getSequence(nap.tid).getSequenceName(),
-							nap.pos,
-							0,
-							true
-							);
-						}
-					while(iter.hasNext())
-						{
-						SAMRecord rec=iter.next();
-						if(nap.tid>=0)
-							{
-							if(nap.tid!=rec.getReferenceIndex())throw new IllegalStateException();
-
-							if(rec.getAlignmentStart()< nap.pos)
-								{
-								continue;
-								}
-							if(rec.getAlignmentStart()> nap.pos)
-								{
-								break;
-								}
-							}
-						if(rec.getReadName().equals(searchRead))
-							{
-							if(side==1 && !(rec.getReadPairedFlag() && rec.getFirstOfPairFlag()))
-								{
-								continue;
-								}
-							else if(side==2 && !(rec.getReadPairedFlag() && rec.getSecondOfPairFlag()))
-								{
-								continue;
-								}
-							found.add(rec);
-							}
-						
-						}
-					iter.close();
-					
-					++index;
-					}
-				if(found.isEmpty())
-					{
-					notFoundStream.println(line);
-					}
-				else
-					{
-					for(SAMRecord rec:found)
-						{
-						bamw.addAlignment(rec);
-						}
-					}
-				
 				}
-			CloserUtil.close(r);
+			processBatch(batch, index, sfr, bamw, notFoundStream);
+			batch.clear();
 			
 			notFoundStream.flush();
 			notFoundStream.close();notFoundStream=null;
+			bamw.close();bamw=null;
 			return 0;
 			}
 		catch(Exception err)
@@ -342,8 +337,9 @@ public class BamQueryReadNames extends BaseBamIndexReadNames
 			}
 		finally
 			{
+			CloserUtil.close(r);
 			CloserUtil.close(notFoundStream);
-			CloserUtil.close(raf);
+			CloserUtil.close(index);
 			CloserUtil.close(sfr);
 			CloserUtil.close(bamw);
 			}
@@ -35,18 +35,7 @@ import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 public abstract class BaseBamIndexReadNames
 	extends Launcher
 	{
-	protected static final int FILE_PREFIX_SIZE=4+8;
 	protected static final String NAME_IDX_EXTENSION=".names.idx";
-	protected static class NameIndexDef
-		{
-		long countReads=0L;
-		int maxNameLengt=0;
-		
-		public int sizeOfNameAndPos()
-			{
-			return maxNameLengt+4+4;
-			}
-		}
 
 	protected static class NameAndPos
 		{
@@ -0,0 +1,369 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2020 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.tools.bamindexnames;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import htsjdk.samtools.util.IOUtil;
+
+/**
+ * Sorted, memory-mapped index of the read names of a BAM.
+ * 
+ * The (name,tid,pos) records are sorted on name and grouped in blocks of {@link #BLOCK_SIZE} records.
+ * In a block, each name only stores the suffix that differs from the previous name.
+ * The first name and the offset of each block (the sparse top level) are loaded in memory,
+ * so a lookup is a binary search in memory followed by the decoding of one block.
+ * 
+ * Layout: header (magic, version), the blocks, the top level (number of blocks, and for each block
+ * its first name, offset and number of records) and a trailer (offset of the top level, number of records, magic).
+ */
+class ReadNameIndex implements Closeable {
+	private static final byte[] MAGIC = new byte[] {'J','V','K','R','N','I','\n',0};
+	/** increase this number each time the layout changes */
+	static final int VERSION = 1;
+	/** number of records per block */
+	static final int BLOCK_SIZE = 128;
+	private static final int HEADER_SIZE = MAGIC.length + 4;
+	private static final int TRAILER_SIZE = 8 + 8 + MAGIC.length;
+
+	private final Path indexPath;
+	private final FileChannel channel;
+	/** the file is mapped in several segments if it is larger than 2Gb. A block never spans two segments */
+	private final MappedByteBuffer[] segments;
+	private final long[] segmentStarts;
+	private final long countReads;
+	/** sparse top level */
+	private final String[] blockFirstNames;
+	private final long[] blockOffsets;
+	private final int[] blockCounts;
+	private final int[] blockSegments;
+
+	/** open an existing index */
+	ReadNameIndex(final Path indexPath) throws IOException {
+		IOUtil.assertFileIsReadable(indexPath);
+		this.indexPath = indexPath;
+		this.channel = FileChannel.open(indexPath, StandardOpenOption.READ);
+		boolean ok = false;
+		try {
+			final long fileSize = this.channel.size();
+			if(fileSize < HEADER_SIZE + TRAILER_SIZE) throw new IOException("not a read name index "+indexPath+". It was perhaps created with an older version of bamindexreadnames.");
+			final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			readFully(header, 0L);
+			checkMagic(header);
+			final int version = header.getInt();
+			if(version!=VERSION) throw new IOException("bad version in "+indexPath+" expected "+VERSION+" but got "+version);
+			
+			final ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+			readFully(trailer, fileSize - TRAILER_SIZE);
+			final long topLevelOffset = trailer.getLong();
+			this.countReads = trailer.getLong();
+			checkMagic(trailer);
+			
+			final long topLevelSize = fileSize - TRAILER_SIZE - topLevelOffset;
+			if(topLevelOffset < HEADER_SIZE || topLevelSize < 4 || topLevelSize > Integer.MAX_VALUE) throw new IOException("bad top level offset in "+indexPath);
+			final ByteBuffer top = ByteBuffer.allocate((int)topLevelSize);
+			readFully(top, topLevelOffset);
+			final int nBlocks = top.getInt();
+			this.blockFirstNames = new String[nBlocks];
+			this.blockOffsets = new long[nBlocks];
+			this.blockCounts = new int[nBlocks];
+			this.blockSegments = new int[nBlocks];
+			for(int i=0;i< nBlocks;i++) {
+				final byte[] array = new byte[readVarInt(top)];
+				top.get(array);
+				this.blockFirstNames[i] = new String(array, StandardCharsets.US_ASCII);
+				this.blockOffsets[i] = top.getLong();
+				this.blockCounts[i] = top.getInt();
+				}
+			
+			/* map the blocks, a new segment is started when a block would cross the 2Gb limit */
+			final List<MappedByteBuffer> mapped = new ArrayList<>();
+			final List<Long> starts = new ArrayList<>();
+			int i=0;
+			while(i< nBlocks) {
+				final long segStart = this.blockOffsets[i];
+				int j = i;
+				while(j < nBlocks) {
+					final long blockEnd = (j+1 < nBlocks ? this.blockOffsets[j+1] : topLevelOffset);
+					if(blockEnd - segStart > Integer.MAX_VALUE) break;
+					this.blockSegments[j] = mapped.size();
+					j++;
+					}
+				if(j==i) throw new IOException("block is too large in "+indexPath);
+				final long segEnd = (j < nBlocks ? this.blockOffsets[j] : topLevelOffset);
+				mapped.add(this.channel.map(FileChannel.MapMode.READ_ONLY, segStart, segEnd - segStart));
+				starts.add(segStart);
+				i = j;
+				}
+			this.segments = mapped.toArray(new MappedByteBuffer[mapped.size()]);
+			this.segmentStarts = starts.stream().mapToLong(L->L).toArray();
+			ok = true;
+			}
+		finally
+			{
+			if(!ok) this.channel.close();
+			}
+		}
+	
+	private void readFully(final ByteBuffer buf,long offset) throws IOException {
+		while(buf.hasRemaining()) {
+			final int n = this.channel.read(buf, offset);
+			if(n<0) throw new IOException("unexpected end of file in "+this.indexPath);
+			offset+=n;
+			}
+		buf.flip();
+		}
+	
+	private void checkMagic(final ByteBuffer buf) throws IOException {
+		final byte[] array = new byte[MAGIC.length];
+		buf.get(array);
+		for(int i=0;i< MAGIC.length;i++) {
+			if(array[i]!=MAGIC[i]) throw new IOException("bad magic in "+this.indexPath+". It was perhaps created with an older version of bamindexreadnames.");
+			}
+		}
+	
+	/** @return the number of records in this index */
+	public long size() {
+		return this.countReads;
+		}
+	
+	/** @return index of the first block that may contain 'name' */
+	private int findBlock(final String name) {
+		/* first block whose first name is not lower than 'name' */
+		int low = 0;
+		int high = this.blockFirstNames.length;
+		while(low < high) {
+			final int mid = (low + high) >>> 1;
+			if(this.blockFirstNames[mid].compareTo(name) < 0) {
+				low = mid + 1;
+				}
+			else
+				{
+				high = mid;
+				}
+			}
+		/* previous block may end with 'name' */
+		return Math.max(0, low - 1);
+		}
+	
+	/** 
+	 * Creates a new cursor. A cursor keeps the last decoded block, so it is faster
+	 * when the names are searched in increasing order. A cursor is not thread-safe.
+	 */
+	public Cursor cursor() {
+		return new Cursor();
+		}
+	
+	/** searches the names of an index */
+	public class Cursor {
+		private int blockIndex = -1;
+		private final String[] names = new String[BLOCK_SIZE];
+		private final int[] tids = new int[BLOCK_SIZE];
+		private final int[] positions = new int[BLOCK_SIZE];
+		private int count = 0;
+		
+		private Cursor() {
+			}
+		
+		private void decode(final int idx) {
+			if(idx == this.blockIndex) return;
+			final ByteBuffer buf = segments[blockSegments[idx]].duplicate();
+			buf.position((int)(blockOffsets[idx] - segmentStarts[blockSegments[idx]]));
+			this.count = blockCounts[idx];
+			byte[] previous = new byte[0];
+			for(int i=0;i< this.count;i++) {
+				final int shared = readVarInt(buf);
+				final int suffix = readVarInt(buf);
+				final byte[] array = new byte[shared + suffix];
+				System.arraycopy(previous, 0, array, 0, shared);
+				buf.get(array, shared, suffix);
+				this.names[i] = new String(array, StandardCharsets.US_ASCII);
+				this.tids[i] = readVarInt(buf) - 1;
+				this.positions[i] = readVarInt(buf);
+				previous = array;
+				}
+			this.blockIndex = idx;
+			}
+		
+		/**
+		 * finds all the records for a given read name
+		 * @param name the read name
+		 * @param consumer called for each record having this read name
+		 * @return the number of records found
+		 */
+		public int find(final String name,final Consumer<NameAndPos> consumer) {
+			int n = 0;
+			if(blockFirstNames.length==0) return n;
+			int idx = findBlock(name);
+			while(idx < blockFirstNames.length) {
+				if(blockFirstNames[idx].compareTo(name) > 0) break;
+				decode(idx);
+				for(int i=0;i< this.count;i++) {
+					final int cmp = this.names[i].compareTo(name);
+					if(cmp < 0) continue;
+					if(cmp > 0) return n;
+					final NameAndPos nap = new NameAndPos();
+					nap.name = this.names[i];
+					nap.tid = this.tids[i];
+					nap.pos = this.positions[i];
+					consumer.accept(nap);
+					n++;
+					}
+				idx++;
+				}
+			return n;
+			}
+		}
+	
+	@Override
+	public void close() throws IOException {
+		this.channel.close();
+		}
+	
+	static int readVarInt(final ByteBuffer buf) {
+		int value = 0;
+		int shift = 0;
+		for(;;) {
+			final int b = buf.get() & 0xFF;
+			value |= (b & 0x7F) << shift;
+			if((b & 0x80)==0) return value;
+			shift += 7;
+			}
+		}
+	
+	static void writeVarInt(final DataOutputStream out,int value) throws IOException {
+		if(value<0) throw new IllegalArgumentException("negative value "+value);
+		while((value & ~0x7F)!=0) {
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+			}
+		out.writeByte(value);
+		}
+	
+	/** writes a new index. The records must be added sorted on name. */
+	static class Writer implements Closeable {
+		private final DataOutputStream out;
+		private final DataOutputStream top;
+		private final ByteArrayOutputStream topBytes = new ByteArrayOutputStream();
+		private long offset = 0L;
+		private long countReads = 0L;
+		private int nBlocks = 0;
+		private int inBlock = 0;
+		private byte[] previous = null;
+		private final ByteArrayOutputStream blockBytes = new ByteArrayOutputStream();
+		private final DataOutputStream block = new DataOutputStream(this.blockBytes);
+		private boolean closed = false;
+
+		Writer(final Path indexPath) throws IOException {
+			this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(indexPath)));
+			this.top = new DataOutputStream(this.topBytes);
+			this.out.write(MAGIC);
+			this.out.writeInt(VERSION);
+			this.offset = HEADER_SIZE;
+			}
+		
+		public void add(final NameAndPos nap) throws IOException {
+			add(nap.name, nap.tid, nap.pos);
+			}
+		
+		public void add(final String name,final int tid,final int pos) throws IOException {
+			final byte[] array = name.getBytes(StandardCharsets.US_ASCII);
+			if(this.previous!=null && compare(this.previous, array) > 0) {
+				throw new IllegalStateException("names are not sorted: "+new String(this.previous, StandardCharsets.US_ASCII)+" > "+name);
+				}
+			if(this.inBlock == BLOCK_SIZE) flushBlock();
+			int shared = 0;
+			if(this.inBlock == 0) {
+				/* first name of a block is never compressed */
+				writeVarInt(this.top, array.length);
+				this.top.write(array);
+				this.top.writeLong(this.offset);
+				}
+			else
+				{
+				final int n = Math.min(this.previous.length, array.length);
+				while(shared < n && this.previous[shared]==array[shared]) shared++;
+				}
+			writeVarInt(this.block, shared);
+			writeVarInt(this.block, array.length - shared);
+			this.block.write(array, shared, array.length - shared);
+			writeVarInt(this.block, tid + 1);
+			writeVarInt(this.block, Math.max(0, pos));
+			this.previous = array;
+			this.inBlock++;
+			this.countReads++;
+			}
+		
+		private void flushBlock() throws IOException {
+			if(this.inBlock==0) return;
+			this.block.flush();
+			this.blockBytes.writeTo(this.out);
+			this.offset += this.blockBytes.size();
+			this.blockBytes.reset();
+			this.top.writeInt(this.inBlock);
+			this.nBlocks++;
+			this.inBlock = 0;
+			}
+		
+		private static int compare(final byte[] a,final byte[] b) {
+			final int n = Math.min(a.length, b.length);
+			for(int i=0;i< n;i++) {
+				final int d = (a[i] & 0xFF) - (b[i] & 0xFF);
+				if(d!=0) return d;
+				}
+			return a.length - b.length;
+			}
+		
+		@Override
+		public void close() throws IOException {
+			if(this.closed) return;
+			this.closed = true;
+			flushBlock();
+			final long topLevelOffset = this.offset;
+			this.top.flush();
+			this.out.writeInt(this.nBlocks);
+			this.topBytes.writeTo(this.out);
+			this.out.writeLong(topLevelOffset);
+			this.out.writeLong(this.countReads);
+			this.out.write(MAGIC);
+			this.out.flush();
+			this.out.close();
+			}
+		}
+	}
@@ -49,6 +49,7 @@ import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.picard.GenomicSequence;
+import com.github.lindenb.jvarkit.util.picard.PackedGenomicSequence;
 import com.github.lindenb.jvarkit.util.samtools.SAMRecordPartition;
 import com.github.lindenb.jvarkit.util.samtools.SamRecordJEXLFilter;
 
@@ -108,7 +109,7 @@ END_DOC
 	description="Coverage statistics for a BED file.",
 	keywords={"sam","bam","coverage","depth","statistics","bed"},
 	biostars= {309673,348251},
-	modificationDate="20191003"
+	modificationDate="20201018"
 	)
 public class BamStats04 extends Launcher
 	{
@@ -181,6 +182,7 @@ public class BamStats04 extends Launcher
 			final List<SamReader> samReaders = new ArrayList<>(args.size());
 			PrintWriter pw = null;
 			ReferenceSequenceFile indexedFastaSequenceFile=null;
+			PackedGenomicSequence.Cache packedReference = null;
 			GenomicSequence genomicSequence = null;
 			SAMSequenceDictionary fastaDict = null;
 			try
@@ -242,6 +244,8 @@ public class BamStats04 extends Launcher
 				if(this.faidxUri!=null) {
 					indexedFastaSequenceFile = ReferenceSequenceFileFactory.getReferenceSequenceFile(this.faidxUri);
 					fastaDict = SequenceDictionaryUtils.extractRequired(indexedFastaSequenceFile);
+					/* keep a few packed contigs, the BED may not be sorted */
+					packedReference = new PackedGenomicSequence.Cache(indexedFastaSequenceFile, 3);
 					if(!SequenceUtil.areSequenceDictionariesEqual(fastaDict, samDict)) {
 						LOG.error(JvarkitException.DictionariesAreNotTheSame.getMessage(fastaDict, samDict));
 						return -1;
@@ -288,7 +292,7 @@ public class BamStats04 extends Launcher
 						}
 					if(indexedFastaSequenceFile!=null && (genomicSequence==null || !genomicSequence.getChrom().equals(ctg2))) {
 						if(fastaDict.getSequence(ctg2)!=null) {
-							genomicSequence = new GenomicSequence(indexedFastaSequenceFile,bedLine.getContig());
+							genomicSequence = packedReference.get(bedLine.getContig());
 							}
 						else
 							{
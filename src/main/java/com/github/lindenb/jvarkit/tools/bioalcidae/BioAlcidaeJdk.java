@@ -35,10 +35,8 @@ import java.io.StringWriter;
 import java.lang.reflect.Constructor;
 import java.nio.file.Path;
 import java.util.Arrays;
-import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Random;
 import java.util.Set;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
@@ -75,7 +73,6 @@ import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.FileExtensions;
 import htsjdk.samtools.util.IOUtil;
-import htsjdk.samtools.util.Iso8601Date;
 import htsjdk.samtools.util.IterableAdapter;
 import htsjdk.samtools.util.StringUtil;
 import htsjdk.variant.variantcontext.VariantContext;
@@ -815,10 +812,6 @@ public class BioAlcidaeJdk
 			
 			try {
 				
-				final Random rand= new  Random(System.currentTimeMillis());
-				final String javaClassName =BioAlcidaeJdk.class.getSimpleName()+
-						"Custom"+ Math.abs(rand.nextInt());
-				
 				final String baseClass = getHandlerClass().getName().replace('$', '.');
 				final String code;
 				
@@ -830,6 +823,7 @@ public class BioAlcidaeJdk
 					{
 					code = this.scriptExpr;
 					}
+				final String javaClassName = OpenJdkCompiler.createClassName(BioAlcidaeJdk.class, code);
 				
 				final String generatedClass = OpenJdkCompiler.getGeneratedAnnotationClassName();
 				final StringWriter codeWriter=new StringWriter();
@@ -862,7 +856,7 @@ public class BioAlcidaeJdk
 				
 				
 				if(!StringUtil.isBlank(generatedClass)) {
-					pw.println("@"+generatedClass+"(value=\""+BioAlcidaeJdk.class.getSimpleName()+"\",date=\""+ new Iso8601Date(new Date()) +"\")");
+					pw.println("@"+generatedClass+"(value=\""+BioAlcidaeJdk.class.getSimpleName()+"\")");
 					}
 				pw.println("public class "+javaClassName+" extends "+ baseClass +" {");
 				
@@ -31,6 +31,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 
 import com.beust.jcommander.Parameter;
@@ -43,13 +44,11 @@ import com.github.lindenb.jvarkit.util.log.Logger;
 import htsjdk.samtools.util.StringUtil;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.VariantContextBuilder;
-import htsjdk.variant.variantcontext.writer.VariantContextWriter;
 import htsjdk.variant.vcf.VCFConstants;
 import htsjdk.variant.vcf.VCFHeader;
 import htsjdk.variant.vcf.VCFHeaderLineCount;
 import htsjdk.variant.vcf.VCFHeaderLineType;
 import htsjdk.variant.vcf.VCFInfoHeaderLine;
-import htsjdk.variant.vcf.VCFIterator;
 /**
 
 BEGIN_DOC
@@ -112,14 +111,8 @@ public class VcfMoveFiltersToInfo
 		}
 	
 	@Override
-	protected int doVcfToVcf(
-		final String inputName,
-		final VCFIterator in,
-		final VariantContextWriter out)
+	protected UnaryOperator<VariantContext> createVariantTransformer(final String inputName,final VCFHeader header)
 		{
-		final VCFHeader header = in.getHeader();
-		final VCFHeader header2 = new VCFHeader(header);	
-		
 		final VCFInfoHeaderLine infoHeaderLine = new VCFInfoHeaderLine(
 				this.infoName.trim(),
 				VCFHeaderLineCount.UNBOUNDED,
@@ -139,58 +132,48 @@ public class VcfMoveFiltersToInfo
 		
 		
 		
-		header2.addMetaDataLine(infoHeaderLine);
+		header.addMetaDataLine(infoHeaderLine);
 		
-		JVarkitVersion.getInstance().addMetaData(this, header2);
+		JVarkitVersion.getInstance().addMetaData(this, header);
 		
-		out.writeHeader(header2);
-		while(in.hasNext())
-			{
-			final VariantContext ctx = in.next();
-			
+		return ctx->{
 			if(ctx.isNotFiltered())
 				{
-				out.add(ctx);
+				return ctx;
 				}
-			else
-				{
-				final Set<String> INFOfilters = new HashSet<>();
-				final Set<String> FILTERfilters = new HashSet<>();
-				for(final String filter : ctx.getFilters()) {
-					if( filter.equals(VCFConstants.UNFILTERED) ||
-						filter.equals(VCFConstants.PASSES_FILTERS_v3) ||
-						filter.equals(VCFConstants.PASSES_FILTERS_v4)
-						)
-						{
-						continue;
-						}
-					if(!limitToThoseFilters.isEmpty() && !limitToThoseFilters.contains(filter)) {
-						FILTERfilters.add(filter);
-						}
-					else
-						{
-						INFOfilters.add(filter);
-						}
+			final Set<String> INFOfilters = new HashSet<>();
+			final Set<String> FILTERfilters = new HashSet<>();
+			for(final String filter : ctx.getFilters()) {
+				if( filter.equals(VCFConstants.UNFILTERED) ||
+					filter.equals(VCFConstants.PASSES_FILTERS_v3) ||
+					filter.equals(VCFConstants.PASSES_FILTERS_v4)
+					)
+					{
+					continue;
 					}
-				
-				
-				final VariantContextBuilder vcb = new VariantContextBuilder(ctx);
-				if(FILTERfilters.isEmpty()) {
-					vcb.passFilters();
+				if(!limitToThoseFilters.isEmpty() && !limitToThoseFilters.contains(filter)) {
+					FILTERfilters.add(filter);
 					}
 				else
 					{
-					vcb.filters(FILTERfilters);
+					INFOfilters.add(filter);
 					}
-				if(!INFOfilters.isEmpty()) {
-					vcb.attribute(infoHeaderLine.getID(), new ArrayList<>(INFOfilters));
-					}
-				out.add(vcb.make());
 				}
 			
-			}
-		out.close();
-		return 0;
+			
+			final VariantContextBuilder vcb = new VariantContextBuilder(ctx);
+			if(FILTERfilters.isEmpty()) {
+				vcb.passFilters();
+				}
+			else
+				{
+				vcb.filters(FILTERfilters);
+				}
+			if(!INFOfilters.isEmpty()) {
+				vcb.attribute(infoHeaderLine.getID(), new ArrayList<>(INFOfilters));
+				}
+			return vcb.make();
+			};
 		}
 	
 	
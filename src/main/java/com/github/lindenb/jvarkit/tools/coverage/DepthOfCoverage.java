@@ -25,22 +25,28 @@ SOFTWARE.
 package com.github.lindenb.jvarkit.tools.coverage;
 
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.nio.file.Path;
-import java.util.BitSet;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
 import java.util.OptionalDouble;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.function.Predicate;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 import com.beust.jcommander.Parameter;
+import com.github.lindenb.jvarkit.bigwig.BigWigWriter;
 import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.lang.StringUtils;
 import com.github.lindenb.jvarkit.math.DiscreteMedian;
 import com.github.lindenb.jvarkit.samtools.SAMRecordDefaultFilter;
+import com.github.lindenb.jvarkit.samtools.util.StreamingCoverage;
 import com.github.lindenb.jvarkit.util.bio.AcidNucleics;
 import com.github.lindenb.jvarkit.util.bio.SequenceDictionaryUtils;
 import com.github.lindenb.jvarkit.util.bio.bed.BedLine;
@@ -62,6 +68,8 @@ import htsjdk.samtools.reference.ReferenceSequenceFile;
 import htsjdk.samtools.reference.ReferenceSequenceFileFactory;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.IOUtil;
+import htsjdk.samtools.util.RuntimeIOException;
 
 /**
 BEGIN_DOC
@@ -94,13 +102,22 @@ src/test/resources/S2.bam  S2      RF07    1074    8112    7.553072625698324
 
 ```
 
+## BigWig
+
+With `--bigwig DIR`, the depth of each sample is also written in a BigWig file `DIR/${sample}.bw`.
+
+## Threads
+
+With `--threads N` (N>1), each contig of each BAM is scanned in parallel using the BAM index, and the results
+are merged and printed in the same order as with one thread.
+
 END_DOC
  */
 @Program(name="depthofcoverage",
 	description="A custom 'Depth of Coverage'.",
 	keywords={"depth","bam","sam","coverage"},
 	creationDate="20190927",
-	modificationDate="20200706"
+	modificationDate="20201018"
 	)
 public class DepthOfCoverage extends Launcher
 	{
@@ -125,8 +142,220 @@ public class DepthOfCoverage extends Launcher
 	private boolean disable_paired_overlap_flag=false;
 	@Parameter(names={"--max-depth"},description="Ignore depth if it is bigger than this value.")
 	private int max_depth = 10_000_000;
+	@Parameter(names={"--threads"},description="Number of threads. If greater than 1, each (bam,contig) is scanned in parallel using the BAM index. The output is the same as with one thread.")
+	private int nThreads = 1;
+	@Parameter(names={"--bigwig"},description="Optional directory where to write the depth of each sample as a BigWig file named '${sample}.bw'. Positions with no read are not written. Cannot be used with --threads.")
+	private Path bigWigDir = null;
 
 	
+	/** receives the depth on one contig as runs of identical depth and ignores the masked positions */
+	private class ContigCoverage implements StreamingCoverage.RunConsumer {
+		final int contigLength;
+		/** sorted, non-overlapping masked intervals 1-based, inclusive */
+		final int maskStarts[];
+		final int maskEnds[];
+		/** number of reads used */
+		long count_reads = 0L;
+		/** index of the first mask that can overlap the next run */
+		int maskIndex = 0;
+		long count_bases = 0L;
+		long sum_coverage = 0L;
+		final DiscreteMedian<Integer> discreteMedian = new DiscreteMedian<>();
+		ContigCoverage(final int contigLength,final List<int[]> masks) {
+			this.contigLength = contigLength;
+			this.maskStarts = new int[masks.size()];
+			this.maskEnds = new int[masks.size()];
+			for(int i=0;i< masks.size();i++) {
+				this.maskStarts[i] = masks.get(i)[0];
+				this.maskEnds[i] = masks.get(i)[1];
+				}
+			}
+		@Override
+		public void accept(final int start, final int end, final int depth) {
+			while(this.maskIndex < this.maskEnds.length && this.maskEnds[this.maskIndex] < start) {
+				this.maskIndex++;
+				}
+			long n = (end - start) + 1L;
+			for(int i= this.maskIndex;i < this.maskStarts.length && this.maskStarts[i] <= end;i++) {
+				n -= (Math.min(end, this.maskEnds[i]) - Math.max(start, this.maskStarts[i])) + 1;
+				}
+			if(n<=0L || depth > max_depth) return;
+			this.count_bases += n;
+			this.sum_coverage += depth * n;
+			this.discreteMedian.add(depth, n);
+			}
+		}
+	
+	/** create the sorted, merged list of masked intervals for a contig */
+	private List<int[]> createMask(final SAMSequenceRecord ssr,final SAMSequenceDictionary dict,final ReferenceSequenceFile referenceSequenceFile) throws IOException {
+		final List<int[]> masks = new ArrayList<>();
+		if(this.auto_mask && referenceSequenceFile!=null) {
+			/* read the reference by chunks, so the whole contig is never loaded in memory */
+			final int chunk_size = 1_000_000;
+			int n_start = -1;
+			for(int chunk_start=1; chunk_start <= ssr.getSequenceLength(); chunk_start+= chunk_size) {
+				final int chunk_end = Math.min(ssr.getSequenceLength(), chunk_start + chunk_size -1);
+				final byte refSeq[];
+				synchronized(referenceSequenceFile) {
+					refSeq = Objects.requireNonNull(referenceSequenceFile.getSubsequenceAt(ssr.getSequenceName(),chunk_start,chunk_end)).getBases();
+					}
+				for(int i=0;i< refSeq.length;i++) {
+					final boolean is_atgc = AcidNucleics.isATGC(refSeq[i]);
+					if(!is_atgc && n_start==-1) {
+						n_start = chunk_start+i;
+						}
+					else if(is_atgc && n_start!=-1) {
+						masks.add(new int[] {n_start,chunk_start+i-1});
+						n_start=-1;
+						}
+					}
+				}
+			if(n_start!=-1) masks.add(new int[] {n_start,ssr.getSequenceLength()});
+			}
+		
+		/* read mask */
+		if(this.maskBed!=null ) {
+			final ContigNameConverter contigNameConverter = ContigNameConverter.fromOneDictionary(dict);
+			final BedLineCodec codec= new BedLineCodec();
+			try(BufferedReader br=IOUtils.openPathForBufferedReading(this.maskBed)) {
+				String line;
+				while((line=br.readLine())!=null) {
+					final BedLine bed = codec.decode(line);
+					if(bed==null) continue;
+					String ctg = contigNameConverter.apply(bed.getContig());
+					if(StringUtils.isBlank(ctg)) continue;
+					if(!ssr.getSequenceName().equals(ctg)) continue;
+					final int end1 = Math.min(bed.getEnd(), ssr.getSequenceLength());
+					if(bed.getStart() > end1) continue;
+					masks.add(new int[] {bed.getStart(),end1});
+					}
+				}
+			}
+		/* sort and merge */
+		masks.sort((A,B)->Integer.compare(A[0], B[0]));
+		final List<int[]> merged = new ArrayList<>(masks.size());
+		for(final int[] m: masks) {
+			if(!merged.isEmpty()) {
+				final int last[] = merged.get(merged.size()-1);
+				if(m[0] <= last[1]+1) {
+					last[1] = Math.max(last[1], m[1]);
+					continue;
+					}
+				}
+			merged.add(m);
+			}
+		return merged;
+		}
+	
+	/** send the runs of depth to the ContigCoverage and, if not null, to the bigwig writer */
+	private StreamingCoverage.RunConsumer createRunConsumer(final ContigCoverage contigCoverage,final BigWigWriter bigWigWriter,final SAMSequenceRecord ssr) {
+		if(bigWigWriter==null) return contigCoverage;
+		final int tid = ssr.getSequenceIndex();
+		return (S,E,D)->{
+			contigCoverage.accept(S, E, D);
+			if(D<=0) return;
+			try {
+				bigWigWriter.add(tid, S-1, E, D);
+				}
+			catch(final IOException err) {
+				throw new RuntimeIOException(err);
+				}
+			};
+		}
+	
+	/** add the aligned blocks of a read to the coverage */
+	private void addRecord(final StreamingCoverage streamingCoverage,final ContigCoverage contigCoverage,final SAMRecord rec) {
+		/* no other read will start before this one */
+		streamingCoverage.flush(rec.getAlignmentStart());
+		contigCoverage.count_reads++;
+		
+		int max_end1 = streamingCoverage.getContigLength();
+		
+		if(this.disable_paired_overlap_flag && 
+			rec.getReadPairedFlag() && 
+			!rec.getMateUnmappedFlag() &&
+			rec.getReferenceIndex().equals(rec.getMateReferenceIndex()) &&
+			rec.getAlignmentStart() < rec.getMateAlignmentStart() &&
+			rec.getAlignmentEnd() > rec.getMateAlignmentStart()
+			) {
+			max_end1 = rec.getMateAlignmentStart() - 1;
+			}
+		
+		for(final AlignmentBlock block:rec.getAlignmentBlocks()) {
+			final int pos1=block.getReferenceStart();
+			final int end1 = Math.min(max_end1, pos1 + block.getLength() -1);
+			streamingCoverage.add(pos1, end1);
+			}
+		}
+	
+	/** scan one contig of a BAM using the index. Returns null if no read was found */
+	private ContigCoverage scanContig(final SamReaderFactory srf,final Path path,final SAMSequenceDictionary dict,final SAMSequenceRecord ssr,final ReferenceSequenceFile referenceSequenceFile) throws IOException {
+		ContigCoverage contigCoverage = null;
+		StreamingCoverage streamingCoverage = null;
+		try(SamReader sr = srf.open(path)) {
+			try(CloseableIterator<SAMRecord> iter=sr.query(ssr.getSequenceName(), 0, 0, false)) {
+				while(iter.hasNext()) {
+					final SAMRecord rec = iter.next();
+					if(!SAMRecordDefaultFilter.accept(rec,this.mapping_quality)) continue;
+					if(streamingCoverage==null) {
+						/* the mask is only created if the contig contains a read, like the serial mode */
+						contigCoverage = new ContigCoverage(ssr.getSequenceLength(),createMask(ssr, dict, referenceSequenceFile));
+						streamingCoverage = new StreamingCoverage(ssr.getSequenceLength(), contigCoverage);
+						}
+					addRecord(streamingCoverage,contigCoverage,rec);
+					}
+				}
+			}
+		if(streamingCoverage==null) return null;
+		streamingCoverage.finish();
+		LOG.info("done "+path+" "+ssr.getSequenceName()+" reads:"+contigCoverage.count_reads);
+		return contigCoverage;
+		}
+	
+	/** a BAM scanned in parallel */
+	private static class BamJob {
+		final Path path;
+		final String sample;
+		final List<String> contigs = new ArrayList<>();
+		final List<ForkJoinTask<ContigCoverage>> tasks = new ArrayList<>();
+		BamJob(final Path path,final String sample) {
+			this.path = path;
+			this.sample = sample;
+			}
+		}
+	
+	private void print(final PrintWriter out,final Path path,final String sample,final String contig,final long contigLength,final long count_bases,final long sum_coverage,final DiscreteMedian<Integer> discreteMedian) {
+		out.print(path);
+		out.print("\t");
+		out.print(sample);
+		out.print("\t");
+		out.print(contig);
+		out.print("\t");
+		out.print(contigLength);
+		out.print("\t");
+		out.print(count_bases);
+		out.print("\t");
+		out.print(sum_coverage);
+		out.print("\t");
+		if(count_bases>0) {
+			out.printf("%.2f",sum_coverage/(double)count_bases);
+			}
+		else
+			{
+			out.print("N/A");
+			}
+		out.print("\t");
+		final OptionalDouble median = discreteMedian.getMedian();
+		if(median.isPresent()) {
+			out.print(median.getAsDouble());
+			}
+		else
+			{
+			out.print("N/A");
+			}
+		out.println();
+		}
+	
 	@Override
 	public int doWork(final List<String> args)
 		{
@@ -135,7 +364,16 @@ public class DepthOfCoverage extends Launcher
 			LOG.error("Cannot auto mask if REF is not defined");
 			return -1;
 			}
+		if(this.nThreads<1) {
+			LOG.error("bad number of threads");
+			return -1;
+			}
+		if(this.bigWigDir!=null && this.nThreads>1) {
+			LOG.error("--bigwig cannot be used with --threads");
+			return -1;
+			}
 		ReferenceSequenceFile referenceSequenceFile=null;
+		ForkJoinPool forkJoinPool = null;
 		try
 			{
 			final Predicate<String> isRejectContig;
@@ -159,6 +397,12 @@ public class DepthOfCoverage extends Launcher
 			out = super.openPathOrStdoutAsPrintWriter(this.outputFile);
 			out.println("#BAM\tSample\tContig\tContig-Length\tMasked-Contig-Length\tCount\tDepth\tMedian");
 			
+			if(this.nThreads>1) {
+				forkJoinPool = new ForkJoinPool(this.nThreads);
+				}
+			final List<BamJob> bamJobs = new ArrayList<>();
+			final Set<Path> bigWigPaths = new HashSet<>();
+			
 			for(final Path path: IOUtils.unrollPaths(args)) {
 				
 				try(final SamReader sr = srf.open(path)) {
@@ -191,10 +435,38 @@ public class DepthOfCoverage extends Launcher
 							filter(S->!StringUtils.isBlank(S)).
 							findFirst().orElse(path.toString())
 							;
-					int coverage[] = null;
-					String prevContig = null;
 					
-					BitSet mask=null;
+					if(forkJoinPool!=null) {
+						/* parallel mode: one task per contig, the results are printed later, in the same order */
+						final BamJob bamJob = new BamJob(path,sample);
+						for(final SAMSequenceRecord ssr: dict.getSequences()) {
+							if(rejectContigSet.contains(ssr.getSequenceName())) continue;
+							final ReferenceSequenceFile refFile = referenceSequenceFile;
+							bamJob.contigs.add(ssr.getSequenceName());
+							bamJob.tasks.add(forkJoinPool.submit(()->scanContig(srf,path,dict,ssr,refFile)));
+							}
+						bamJobs.add(bamJob);
+						continue;
+						}
+					
+					final BigWigWriter bigWigWriter;
+					if(this.bigWigDir!=null) {
+						IOUtil.assertDirectoryIsWritable(this.bigWigDir);
+						final Path bigWigPath = this.bigWigDir.resolve(sample.replaceAll("[^A-Za-z0-9_\\-\\.]", "_")+".bw");
+						if(!bigWigPaths.add(bigWigPath)) {
+							LOG.error("duplicate bigwig file "+bigWigPath+" for "+path);
+							return -1;
+							}
+						bigWigWriter = new BigWigWriter(bigWigPath, dict);
+						}
+					else
+						{
+						bigWigWriter = null;
+						}
+					
+					String prevContig = null;
+					ContigCoverage contigCoverage = null;
+					StreamingCoverage streamingCoverage = null;
 					final ProgressFactory.Watcher<SAMRecord> progress = ProgressFactory.newInstance().dictionary(dict).logger(LOG).build();
 					try(CloseableIterator<SAMRecord> iter=sr.iterator()) {
 						for(;;)
@@ -207,151 +479,56 @@ public class DepthOfCoverage extends Launcher
 								}
 							
 							if(rec==null || !rec.getContig().equals(prevContig)) {
-								if(coverage!=null) {//DUMP
-									long count_bases_ctg = 0L;
-									long sum_coverage_ctg = 0L;
-									final DiscreteMedian<Integer> discreteMedian_ctg = new DiscreteMedian<>();
-									
-									for(int i=0;i< coverage.length;i++) {
-										if(mask.get(i)) continue;
-										final int covi = coverage[i];
-										if(covi> this.max_depth) continue;
-										count_bases_ctg++;
-										sum_coverage_ctg += covi;
-										discreteMedian_ctg.add(covi);
-										}
-									out.print(path);
-									out.print("\t");
-									out.print(sample);
-									out.print("\t");
-									out.print(prevContig);
-									out.print("\t");
-									out.print(coverage.length);
-									out.print("\t");
-									out.print(count_bases_ctg);
-									out.print("\t");
-									out.print(sum_coverage_ctg);
-									out.print("\t");
-									if(count_bases_ctg>0) {
-										out.printf("%.2f",sum_coverage_ctg/(double)count_bases_ctg);
-										}
-									else
-										{
-										out.print("N/A");
-										}
-									out.print("\t");
-									final OptionalDouble median = discreteMedian_ctg.getMedian();
-									if(median.isPresent()) {
-										out.print(median.getAsDouble());
-										}
-									else
-										{
-										out.print("N/A");
-										}
-									out.println();
-									
-									count_bases += count_bases_ctg;
-									sum_coverage += sum_coverage_ctg;
-									count_raw_bases += coverage.length;
-									discreteMedian_wg.add(discreteMedian_ctg);
+								if(streamingCoverage!=null) {//DUMP
+									streamingCoverage.finish();
+									print(out,path,sample,prevContig,contigCoverage.contigLength,contigCoverage.count_bases,contigCoverage.sum_coverage,contigCoverage.discreteMedian);
+									count_bases += contigCoverage.count_bases;
+									sum_coverage += contigCoverage.sum_coverage;
+									count_raw_bases += contigCoverage.contigLength;
+									discreteMedian_wg.add(contigCoverage.discreteMedian);
 									}
-								coverage=null;
-								mask=null;
-								///
-								System.gc();
+								contigCoverage=null;
+								streamingCoverage=null;
 								if(rec==null) break;
 								
 								final SAMSequenceRecord ssr = Objects.requireNonNull(dict.getSequence(rec.getContig()));
-								coverage = new int[ssr.getSequenceLength()];
-								mask = new BitSet(ssr.getSequenceLength());
-								if(this.auto_mask && referenceSequenceFile!=null) {
-									final byte refSeq[] = Objects.requireNonNull(referenceSequenceFile.getSequence(ssr.getSequenceName())).getBases();
-									for(int i=0;i< refSeq.length;i++) {
-										if(AcidNucleics.isATGC(refSeq[i])) continue;
-										mask.set(i);
-									}
-								}
-								
-								/* read mask */
-								if(this.maskBed!=null ) {
-									final ContigNameConverter contigNameConverter = ContigNameConverter.fromOneDictionary(dict);
-									final BedLineCodec codec= new BedLineCodec();
-									try(BufferedReader br=IOUtils.openPathForBufferedReading(this.maskBed)) {
-										String line;
-										while((line=br.readLine())!=null) {
-											final BedLine bed = codec.decode(line);
-											if(bed==null) continue;
-											String ctg = contigNameConverter.apply(bed.getContig());
-											if(StringUtils.isBlank(ctg)) continue;
-											if(!rec.getContig().equals(ctg)) continue;
-											for(int p1=bed.getStart();p1<=bed.getEnd() && p1 <= coverage.length;++p1) {
-												mask.set(p1-1);
-												}
-											}
-										}
-									}
-								
+								contigCoverage = new ContigCoverage(ssr.getSequenceLength(),createMask(ssr, dict, referenceSequenceFile));
+								streamingCoverage = new StreamingCoverage(ssr.getSequenceLength(), createRunConsumer(contigCoverage, bigWigWriter, ssr));
 								prevContig=rec.getContig();
 								}
 							
-							int max_end1 = coverage.length;
-							
-							if(this.disable_paired_overlap_flag && 
-								rec.getReadPairedFlag() && 
-								!rec.getMateUnmappedFlag() &&
-								rec.getReferenceIndex().equals(rec.getMateReferenceIndex()) &&
-								rec.getAlignmentStart() < rec.getMateAlignmentStart() &&
-								rec.getAlignmentEnd() > rec.getMateAlignmentStart()
-								) {
-								max_end1 = rec.getMateAlignmentStart() - 1;
-								}
-							
-							for(final AlignmentBlock block:rec.getAlignmentBlocks()) {
-								final int pos1=block.getReferenceStart();
-								final int len = block.getLength();
-								for(int i=0;i< len;i++) {
-									if(pos1>0 && pos1 <= max_end1) {
-										coverage[pos1-1]++;
-										}
-									}
-								}
-							
+							addRecord(streamingCoverage,contigCoverage,rec);
 							}/* end rec */
 					
 					
 						} /* end iter */
+					finally {
+						CloserUtil.close(bigWigWriter);
+						}
 					progress.close();
 					
-					out.print(path);
-					out.print("\t");
-					out.print(sample);
-					out.print("\t");
-					out.print(SAMRecord.NO_ALIGNMENT_REFERENCE_NAME);
-					out.print("\t");
-					out.print(count_raw_bases);
-					out.print("\t");
-					out.print(count_bases);
-					out.print("\t");
-					out.print(sum_coverage);
-					out.print("\t");
-					if(count_bases>0) {
-						out.printf("%.2f",sum_coverage/(double)count_bases);
-						}
-					else
-						{
-						out.print("N/A");
-						}
-					out.print("\t");
-					final OptionalDouble median = discreteMedian_wg.getMedian();
-					if(median.isPresent()) {
-						out.print(median.getAsDouble());
-						}
-					else
-						{
-						out.print("N/A");
-						}
-					out.println();
+					print(out,path,sample,SAMRecord.NO_ALIGNMENT_REFERENCE_NAME,count_raw_bases,count_bases,sum_coverage,discreteMedian_wg);
+					}
+				}
+			
+			/* parallel mode: merge the results */
+			for(final BamJob bamJob: bamJobs) {
+				long count_raw_bases = 0L;
+				long count_bases = 0L;
+				long sum_coverage = 0L;
+				final DiscreteMedian<Integer> discreteMedian_wg = new DiscreteMedian<>();
+				for(int i=0;i< bamJob.tasks.size();i++) {
+					final ContigCoverage contigCoverage = bamJob.tasks.get(i).join();
+					if(contigCoverage==null) continue;
+					print(out,bamJob.path,bamJob.sample,bamJob.contigs.get(i),contigCoverage.contigLength,contigCoverage.count_bases,contigCoverage.sum_coverage,contigCoverage.discreteMedian);
+					count_bases += contigCoverage.count_bases;
+					sum_coverage += contigCoverage.sum_coverage;
+					count_raw_bases += contigCoverage.contigLength;
+					discreteMedian_wg.add(contigCoverage.discreteMedian);
+					/* release memory */
+					bamJob.tasks.set(i, null);
 					}
+				print(out,bamJob.path,bamJob.sample,SAMRecord.NO_ALIGNMENT_REFERENCE_NAME,count_raw_bases,count_bases,sum_coverage,discreteMedian_wg);
 				}
 			out.flush();
 			out.close();
@@ -364,6 +541,7 @@ public class DepthOfCoverage extends Launcher
 			}
 		finally
 			{
+			if(forkJoinPool!=null) forkJoinPool.shutdownNow();
 			CloserUtil.close(referenceSequenceFile);
 			}
 
@@ -0,0 +1,326 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2020 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.tools.epistasis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import htsjdk.variant.variantcontext.Allele;
+import htsjdk.variant.variantcontext.Genotype;
+import htsjdk.variant.variantcontext.VariantContext;
+
+/**
+ * Genotype matrix of the cases and the controls, encoded once, and search of the best pairs of alleles.
+ * 
+ * Each ALT allele of a variant is a row. A row is bit-packed on two planes of 64 samples per word:
+ * 'het' (one copy of the allele) and 'hom' (two copies or more), so the genotype of a sample takes 2 bits.
+ * The score of a row is computed with popcounts over the words, the upper triangle of the pairs of rows
+ * is split into tiles distributed to a work-stealing pool, and the best pairs are kept in a shared top-k.
+ */
+class PairwiseEpistasisEngine {
+	/** number of rows on each side of a tile */
+	static final int TILE_SIZE = 256;
+	private static final int CASE_HET = 10;
+	private static final int CASE_HOM = 30;
+	private static final int CTRL_HET = -10;
+	private static final int CTRL_HOM = -30;
+
+	/** index of the cases, then of the controls in the VCF. The bit of a sample is its position in this array */
+	private final int[] sampleIndexes;
+	private final int nWords;
+	private final long[] caseMask;
+	private final long[] ctrlMask;
+	private int nRows = 0;
+	private int nVariants = 0;
+	private long[] het = new long[0];
+	private long[] hom = new long[0];
+	private int[] rowVariant = new int[0];
+	private int[] rowAllele = new int[0];
+	private int[] rowScore = new int[0];
+
+	/** a pair of alleles */
+	class Pair {
+		final int row1;
+		final int row2;
+		final int score;
+		private Pair(final int row1,final int row2) {
+			this.row1 = row1;
+			this.row2 = row2;
+			this.score = rowScore[row1] + rowScore[row2];
+			}
+		/** index of the first variant, as returned by {@link PairwiseEpistasisEngine#add(VariantContext)} */
+		int getVariant1() { return rowVariant[this.row1];}
+		/** index of the first allele in VariantContext.getAlleles() */
+		int getAllele1() { return rowAllele[this.row1];}
+		int getVariant2() { return rowVariant[this.row2];}
+		int getAllele2() { return rowAllele[this.row2];}
+		/** number of cases carrying both alleles */
+		int getCasesCarryingBoth() { return countBoth(this.row1, this.row2, caseMask);}
+		/** number of controls carrying both alleles */
+		int getControlsCarryingBoth() { return countBoth(this.row1, this.row2, ctrlMask);}
+		}
+	
+	/** best pair first: higher score, then order of the variants, then order of the alleles */
+	final Comparator<Pair> pairComparator = (A,B)->{
+		int i = Integer.compare(B.score, A.score);
+		if(i!=0) return i;
+		i = Integer.compare(A.getVariant1(), B.getVariant1());
+		if(i!=0) return i;
+		i = Integer.compare(A.getVariant2(), B.getVariant2());
+		if(i!=0) return i;
+		i = Integer.compare(A.getAllele1(), B.getAllele1());
+		if(i!=0) return i;
+		return Integer.compare(A.getAllele2(), B.getAllele2());
+		};
+	
+	/** the k best pairs */
+	private class TopK {
+		private final int capacity;
+		/** worst pair on top */
+		private final PriorityQueue<Pair> queue;
+		TopK(final int capacity) {
+			this.capacity = capacity;
+			this.queue = new PriorityQueue<>(capacity + 1, pairComparator.reversed());
+			}
+		/** @return true if the pair of rows would enter this top-k. Doesn't create a Pair for the pairs that are rejected */
+		boolean accepts(final int row1,final int row2) {
+			if(this.queue.size() < this.capacity) return true;
+			final Pair worst = this.queue.peek();
+			final int score = rowScore[row1] + rowScore[row2];
+			if(score != worst.score) return score > worst.score;
+			int i = Integer.compare(rowVariant[row1], worst.getVariant1());
+			if(i!=0) return i < 0;
+			i = Integer.compare(rowVariant[row2], worst.getVariant2());
+			if(i!=0) return i < 0;
+			i = Integer.compare(rowAllele[row1], worst.getAllele1());
+			if(i!=0) return i < 0;
+			return rowAllele[row2] < worst.getAllele2();
+			}
+		void offer(final Pair p) {
+			if(this.queue.size() < this.capacity) {
+				this.queue.add(p);
+				}
+			else if(pairComparator.compare(p, this.queue.peek()) < 0) {
+				this.queue.poll();
+				this.queue.add(p);
+				}
+			}
+		synchronized void merge(final TopK other) {
+			for(final Pair p: other.queue) offer(p);
+			}
+		List<Pair> toList() {
+			final List<Pair> L = new ArrayList<>(this.queue);
+			L.sort(pairComparator);
+			return L;
+			}
+		}
+	
+	/**
+	 * @param caseIndexes index of the affected samples in the VCF
+	 * @param ctrlIndexes index of the unaffected samples in the VCF
+	 */
+	PairwiseEpistasisEngine(final int[] caseIndexes,final int[] ctrlIndexes) {
+		this.sampleIndexes = new int[caseIndexes.length + ctrlIndexes.length];
+		System.arraycopy(caseIndexes, 0, this.sampleIndexes, 0, caseIndexes.length);
+		System.arraycopy(ctrlIndexes, 0, this.sampleIndexes, caseIndexes.length, ctrlIndexes.length);
+		this.nWords = Math.max(1, (this.sampleIndexes.length + 63) / 64);
+		this.caseMask = new long[this.nWords];
+		this.ctrlMask = new long[this.nWords];
+		for(int i=0;i< this.sampleIndexes.length;i++) {
+			if(i < caseIndexes.length) {
+				this.caseMask[i/64] |= 1L << (i%64);
+				}
+			else
+				{
+				this.ctrlMask[i/64] |= 1L << (i%64);
+				}
+			}
+		}
+	
+	private void ensureCapacity(final int rows) {
+		if(rows <= this.rowVariant.length) return;
+		final int n = Math.max(rows, Math.max(16, this.rowVariant.length * 2));
+		this.het = Arrays.copyOf(this.het, n * this.nWords);
+		this.hom = Arrays.copyOf(this.hom, n * this.nWords);
+		this.rowVariant = Arrays.copyOf(this.rowVariant, n);
+		this.rowAllele = Arrays.copyOf(this.rowAllele, n);
+		this.rowScore = Arrays.copyOf(this.rowScore, n);
+		}
+	
+	/**
+	 * encode the ALT alleles of a variant. Filtered genotypes are ignored.
+	 * @return the index of this variant
+	 */
+	int add(final VariantContext ctx) {
+		final int variantIndex = this.nVariants++;
+		final List<Allele> alleles = ctx.getAlleles();
+		for(int a=0;a< alleles.size();a++) {
+			final Allele alt = alleles.get(a);
+			if(alt.isReference()) continue;
+			ensureCapacity(this.nRows + 1);
+			final int row = this.nRows;
+			final int offset = row * this.nWords;
+			for(int i=0;i< this.sampleIndexes.length;i++) {
+				final Genotype g = ctx.getGenotype(this.sampleIndexes[i]);
+				if(g==null || g.isFiltered()) continue;
+				int n = 0;
+				for(final Allele ga: g.getAlleles()) {
+					if(ga.equals(alt)) n++;
+					}
+				if(n==1) {
+					this.het[offset + i/64] |= 1L << (i%64);
+					}
+				else if(n>1) {
+					this.hom[offset + i/64] |= 1L << (i%64);
+					}
+				}
+			this.rowVariant[row] = variantIndex;
+			this.rowAllele[row] = a;
+			this.rowScore[row] =
+					CASE_HET * popcount(row, this.het, this.caseMask) +
+					CASE_HOM * popcount(row, this.hom, this.caseMask) +
+					CTRL_HET * popcount(row, this.het, this.ctrlMask) +
+					CTRL_HOM * popcount(row, this.hom, this.ctrlMask);
+			this.nRows++;
+			}
+		return variantIndex;
+		}
+	
+	/** @return number of variants added */
+	int getVariantCount() {
+		return this.nVariants;
+		}
+	
+	/** @return number of encoded alleles */
+	int getRowCount() {
+		return this.nRows;
+		}
+	
+	private int popcount(final int row,final long[] plane,final long[] mask) {
+		final int offset = row * this.nWords;
+		int n = 0;
+		for(int w=0;w< this.nWords;w++) {
+			n += Long.bitCount(plane[offset + w] & mask[w]);
+			}
+		return n;
+		}
+	
+	private int countBoth(final int row1,final int row2,final long[] mask) {
+		final int offset1 = row1 * this.nWords;
+		final int offset2 = row2 * this.nWords;
+		int n = 0;
+		for(int w=0;w< this.nWords;w++) {
+			final long carriers1 = this.het[offset1 + w] | this.hom[offset1 + w];
+			final long carriers2 = this.het[offset2 + w] | this.hom[offset2 + w];
+			n += Long.bitCount(carriers1 & carriers2 & mask[w]);
+			}
+		return n;
+		}
+	
+	/** scan the pairs of the tile (rows [bi,bi+TILE_SIZE[) x (rows [bj,bj+TILE_SIZE[) */
+	private void scanTile(final int bi,final int bj,final TopK topK) {
+		final int endI = Math.min(bi + TILE_SIZE, this.nRows);
+		final int endJ = Math.min(bj + TILE_SIZE, this.nRows);
+		for(int r1 = bi; r1 < endI; r1++) {
+			final int variant1 = this.rowVariant[r1];
+			for(int r2 = Math.max(bj, r1 + 1); r2 < endJ; r2++) {
+				if(this.rowVariant[r2]==variant1) continue;
+				if(!topK.accepts(r1, r2)) continue;
+				topK.offer(new Pair(r1, r2));
+				}
+			}
+		}
+	
+	/** scans a range of tiles of a tile-row, splits itself until there are few tiles */
+	private class TileTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private static final int MIN_TILES = 4;
+		private final int bi;
+		private final int fromTile;
+		private final int toTile;
+		private final int capacity;
+		private final TopK shared;
+		TileTask(final int bi,final int fromTile,final int toTile,final int capacity,final TopK shared) {
+			this.bi = bi;
+			this.fromTile = fromTile;
+			this.toTile = toTile;
+			this.capacity = capacity;
+			this.shared = shared;
+			}
+		@Override
+		protected void compute() {
+			if(this.toTile - this.fromTile > MIN_TILES) {
+				final int mid = (this.fromTile + this.toTile) >>> 1;
+				invokeAll(
+					new TileTask(this.bi, this.fromTile, mid, this.capacity, this.shared),
+					new TileTask(this.bi, mid, this.toTile, this.capacity, this.shared)
+					);
+				return;
+				}
+			final TopK local = new TopK(this.capacity);
+			for(int t = this.fromTile; t < this.toTile; t++) {
+				scanTile(this.bi, t * TILE_SIZE, local);
+				}
+			this.shared.merge(local);
+			}
+		}
+	
+	/**
+	 * find the best pairs of alleles from two distinct variants
+	 * @param startVariant ignore the pairs whose first variant is lower than this index
+	 * @param k number of pairs to return
+	 * @param nThreads number of threads
+	 * @return the k best pairs, best first
+	 */
+	List<Pair> search(final int startVariant,final int k,final int nThreads) {
+		if(k<1) throw new IllegalArgumentException("bad k "+k);
+		if(nThreads<1) throw new IllegalArgumentException("bad number of threads "+nThreads);
+		final TopK shared = new TopK(k);
+		int firstRow = 0;
+		while(firstRow < this.nRows && this.rowVariant[firstRow] < startVariant) firstRow++;
+		final int nTiles = (this.nRows + TILE_SIZE - 1) / TILE_SIZE;
+		final List<TileTask> tasks = new ArrayList<>();
+		for(int bi = firstRow; bi < this.nRows; bi += TILE_SIZE) {
+			/* first tile of the upper triangle for this tile-row */
+			final int fromTile = bi / TILE_SIZE;
+			tasks.add(new TileTask(bi, fromTile, nTiles, k, shared));
+			}
+		final ForkJoinPool pool = new ForkJoinPool(nThreads);
+		try {
+			for(final TileTask task: tasks) pool.execute(task);
+			for(final TileTask task: tasks) task.join();
+			}
+		finally
+			{
+			pool.shutdown();
+			}
+		return shared.toList();
+		}
+	}
@@ -28,21 +28,14 @@ package com.github.lindenb.jvarkit.tools.epistasis;
 import java.io.File;
 import java.io.PrintWriter;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Vector;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
-import java.util.function.Function;
+import java.util.TreeSet;
 import java.util.function.Predicate;
-import java.util.stream.Collectors;
 
 import com.beust.jcommander.Parameter;
-import com.github.lindenb.jvarkit.tools.vcflist.VcfList;
-import com.github.lindenb.jvarkit.tools.vcflist.VcfOffsetsIndexFactory;
+import com.github.lindenb.jvarkit.iterator.AbstractCloseableIterator;
 import com.github.lindenb.jvarkit.util.Pedigree;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.log.Logger;
@@ -50,9 +43,7 @@ import com.github.lindenb.jvarkit.util.vcf.JexlVariantPredicate;
 import com.github.lindenb.jvarkit.variant.vcf.VCFReaderFactory;
 
 import htsjdk.samtools.util.CloseableIterator;
-import htsjdk.samtools.util.CloserUtil;
 import htsjdk.variant.variantcontext.Allele;
-import htsjdk.variant.variantcontext.Genotype;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.writer.VariantContextWriter;
 import htsjdk.variant.vcf.VCFHeader;
@@ -61,7 +52,11 @@ import htsjdk.variant.vcf.VCFReader;
 /**
 BEGIN_DOC
 
+## How it works
 
+The genotypes of the cases and of the controls are encoded once, each ALT allele being a bit-packed row (2 bits per sample).
+The score of a row is computed with popcounts. The pairs of alleles are split into tiles distributed to `--jobs` threads, and the `--top` best pairs are reported,
+with the number of cases and controls carrying both alleles.
 
 END_DOC
  */
@@ -72,7 +67,7 @@ public class VcfEpistatis01 extends Launcher {
 	private File outputFile = null;
 	@Parameter(names={"-p","--pedigree"},description=Pedigree.OPT_DESCRIPTION)
 	private File pedigreeFile = null;
-	@Parameter(names={"--memory"},description="Load all variants in memory")
+	@Parameter(names={"--memory"},description="Deprecated and ignored: the genotypes of the cases and controls are always loaded in memory as a bit-packed matrix.",hidden=true)
 	private  boolean load_variants_in_memory=false;
 	@Parameter(names={"-j","--jobs"},description="Number of parallel jobs.")
 	private  int number_of_jobs =1;
@@ -82,23 +77,9 @@ public class VcfEpistatis01 extends Launcher {
 	private Predicate<VariantContext> variantFilter = (CTX)->true;
 	@Parameter(names={"-score","--score"},description="[20171220] Output score. Default is printing the VCF.")
 	private boolean output_score = false;
+	@Parameter(names={"-k","--top"},description="Number of best pairs to report.")
+	private int top_k = 1;
 	
-	
-	private static final Function<Long,Integer> CTRLS_nAlt2score=(N)->{switch(N.intValue()){
-		case 0: return 0;
-		case 1 : return -10;
-		case 2: //cont
-		default: return -30;
-		}};
-	private static final Function<Long,Integer> CASES_nAlt2score=(N)->{switch(N.intValue()){
-		case 0: return 0;
-		case 1 : return 10;
-		case 2: //cont
-		default: return 30;
-		}};
-	
-		
-		
 	private static class Result
 		{
 		final VariantContext ctx1;
@@ -108,9 +89,13 @@ public class VcfEpistatis01 extends Launcher {
 		final Allele a2;
 		final int idx2;
 		final double score;
+		final int casesCarryingBoth;
+		final int controlsCarryingBoth;
 		Result(final VariantContext ctx1,final Allele a1,int idx1,
 			   final VariantContext ctx2, final Allele a2,int idx2,
-			   double score
+			   double score,
+			   int casesCarryingBoth,
+			   int controlsCarryingBoth
 				)
 			{
 			this.ctx1 = ctx1;
@@ -120,116 +105,59 @@ public class VcfEpistatis01 extends Launcher {
 			this.a2 = a2;
 			this.idx2 = idx2;
 			this.score=score;
+			this.casesCarryingBoth = casesCarryingBoth;
+			this.controlsCarryingBoth = controlsCarryingBoth;
 			}
 		@Override
 		public String toString() {
 			return 
 					ctx1.getContig()+":"+ctx1.getStart()+":"+ctx1.getReference()+"/"+a1+"["+idx1+"] | "+
 					ctx2.getContig()+":"+ctx2.getStart()+":"+ctx2.getReference()+"/"+a2+"["+idx2+"] | "+
-					score;
+					score+" | "+
+					"cases carrying both: "+casesCarryingBoth+" | "+
+					"controls carrying both: "+controlsCarryingBoth;
 			}
 		}
 	
-	
-	private static  class Runner implements Callable<Result>
+	public VcfEpistatis01()
 		{
-		private final List<VariantContext> variants;
-		private final int caseIndexes[];
-		private final int ctrlIndexes[];
-		private final int startIndex;
-		private Result result = null;
-		private long duration=0L;
-		Runner(
-				final List<VariantContext> variants,
-				final int startIndex,
-				final int[] caseIndexes,
-				final int[] ctrlIndexes
-				)
-			{
-			this.variants = variants;
-			this.startIndex = startIndex;
-			this.caseIndexes = caseIndexes;
-			this.ctrlIndexes = ctrlIndexes;
-			}
-		
-		private double score(
-				final VariantContext ctx,
-				final Allele alt,
-				final int samples_indexes[],
-				final Function<Long,Integer> nAlt2score
-				) 
-			{
-			double score_a1 = 0;
-			
-			for(final int  idx : samples_indexes) {
-				final Genotype g = ctx.getGenotype(idx);
-				if(g==null || g.isFiltered()) continue;
-				score_a1 +=nAlt2score.apply( g.getAlleles().stream().filter(A->A.equals(alt)).count());
-				}
-			return score_a1;
-			}
-		@Override
-		public Result call() throws Exception {
-			final VariantContext ctx1 = this.variants.get(this.startIndex);
-			final long startup = System.currentTimeMillis();
-
-			int i = this.startIndex + 1;
-			
-			while(i< this.variants.size())
-				{
-				final VariantContext ctx2 = this.variants.get(i);
-				for(final Allele a1 : ctx1.getAlleles())//faster then getAlternateAlleles
-					{
-					if(a1.isReference()) continue;
-					double score_a1 = 0;
-					score_a1 += score(ctx1,a1,this.ctrlIndexes,CTRLS_nAlt2score);
-					score_a1 += score(ctx1,a1,this.caseIndexes,CASES_nAlt2score);
-					
-					for(final Allele a2 : ctx2.getAlleles())//faster then getAlternateAlleles
-						{
-						if(a2.isReference()) continue;
-						double score_a2 = score_a1;
-						score_a2 += score(ctx2,a2,this.ctrlIndexes,CTRLS_nAlt2score);
-						score_a2 += score(ctx2,a2,this.caseIndexes,CASES_nAlt2score);
-						if(this.result == null || this.result.score< score_a2)
-							{
-							final Result nr = new Result(ctx1,a1,this.startIndex,ctx2,a2,i,score_a2);
-							
-							
-							this.result = nr;
-							}
-						
-						}
+		}
+	
+	/** the variants used by the engine, in the order of the VCF */
+	private CloseableIterator<VariantContext> openVariants(final VCFReader vcfFileReader) {
+		final CloseableIterator<VariantContext> iter = vcfFileReader.iterator();
+		return new AbstractCloseableIterator<VariantContext>() {
+			@Override
+			protected VariantContext advance() {
+				while(iter.hasNext()) {
+					final VariantContext ctx = iter.next();
+					if(!variantFilter.test(ctx)) continue;
+					//should fix https://github.com/samtools/htsjdk/issues/1026 ?
+					if(ctx.getGenotypes().stream().noneMatch(G->G.isCalled())) continue;
+					return ctx;
 					}
-				i++;
+				return null;
 				}
-			if(this.variants instanceof VcfList)
-				{
-				CloserUtil.close(VcfList.class.cast(this.variants));
+			@Override
+			public void close() {
+				iter.close();
 				}
-			this.duration = System.currentTimeMillis() - startup;
-			LOG.info("index ["+startIndex+"] That took "+(duration/1000f)+" seconds.");
-			return this.result;
-			}
+			};
 		}
 	
-	public VcfEpistatis01()
-		{
-		}
-	
-	
 	@Override
 	public int doWork(final List<String> args) {
 		if(this.number_of_jobs<1) {
 			LOG.error("bad number of jobs");
 			return -1;
 			}
+		if(this.top_k<1) {
+			LOG.error("bad number of pairs");
+			return -1;
+			}
 		try
 			{
-			final int variantsCount;
-			final List<VariantContext> inMemoryVariants;
 			final File vcfFile = new File(oneAndOnlyOneFile(args));
-			final File tmpIndexFile;
 			
 			if(vcfFile.equals(this.outputFile))
 				{
@@ -237,167 +165,116 @@ public class VcfEpistatis01 extends Launcher {
 				return -1;
 				}
 			
-			VCFReader vcfFileReader = VCFReaderFactory.makeDefault().open(vcfFile.toPath(),false);
-			final VCFHeader header =  vcfFileReader.getHeader();
-
-			
-			final Pedigree pedigree;
-			if(this.pedigreeFile!=null)
-				{
-				pedigree = new Pedigree.Parser().parse(this.pedigreeFile);
-				}
-			else
-				{
-				pedigree = new Pedigree.Parser().parse(header);
-				}
-			
-			
-			pedigree.verifyPersonsHaveUniqueNames();
-			final Map<String,Integer> sample2index = header.getSampleNameToOffset();
-			
-			final  int caseIndexes[] = pedigree.getAffected().stream().
-					filter(P->sample2index.containsKey(P.getId())).
-					mapToInt(P->sample2index.get(P.getId())).
-					sorted().
-					toArray();
-
-			
-			final int ctrlIndexes[] = new ArrayList<>(pedigree.getUnaffected()).stream().
-					filter(P->sample2index.containsKey(P.getId())).
-					mapToInt(P->sample2index.get(P.getId())).
-					sorted().
-					toArray();
-			
+			final VCFHeader header;
+			final PairwiseEpistasisEngine engine;
+			try(VCFReader vcfFileReader = VCFReaderFactory.makeDefault().open(vcfFile.toPath(),false)) {
+				header =  vcfFileReader.getHeader();
+	
+				final Pedigree pedigree;
+				if(this.pedigreeFile!=null)
+					{
+					pedigree = new Pedigree.Parser().parse(this.pedigreeFile);
+					}
+				else
+					{
+					pedigree = new Pedigree.Parser().parse(header);
+					}
 				
-			if( caseIndexes.length==0 || ctrlIndexes.length==0 )
+				pedigree.verifyPersonsHaveUniqueNames();
+				final Map<String,Integer> sample2index = header.getSampleNameToOffset();
+				
+				final  int caseIndexes[] = pedigree.getAffected().stream().
+						filter(P->sample2index.containsKey(P.getId())).
+						mapToInt(P->sample2index.get(P.getId())).
+						sorted().
+						toArray();
+	
+				final int ctrlIndexes[] = new ArrayList<>(pedigree.getUnaffected()).stream().
+						filter(P->sample2index.containsKey(P.getId())).
+						mapToInt(P->sample2index.get(P.getId())).
+						sorted().
+						toArray();
+					
+				if( caseIndexes.length==0 || ctrlIndexes.length==0 )
 					{
 					LOG.error("empty ped or no case/ctrl");
-					vcfFileReader.close();
 					return -1;
 					}
-
-			
-			if(this.load_variants_in_memory) {
-				LOG.info("loading variants in memory");
-				tmpIndexFile = null;
-				final CloseableIterator<VariantContext> iter2=vcfFileReader.iterator();
-				inMemoryVariants =  Collections.unmodifiableList(iter2.stream().
-						filter(this.variantFilter).
-						filter(V->V.getGenotypes().stream().filter(G->G.isCalled()).count()>0).//should fix https://github.com/samtools/htsjdk/issues/1026 ?
-						collect(Collectors.toList())
-						);
-				variantsCount = inMemoryVariants.size();
-				iter2.close();
-				}
-			else
-				{
-				tmpIndexFile = File.createTempFile("epistatsis",VcfOffsetsIndexFactory.INDEX_EXTENSION);
-				tmpIndexFile.deleteOnExit();
-				new VcfOffsetsIndexFactory().
-					setLogger(LOG).
-					setPredicate(variantFilter).
-					indexVcfFile(vcfFile,tmpIndexFile);
-				final VcfList tmpList = VcfList.fromFile(vcfFile, tmpIndexFile);
-				variantsCount = tmpList.size();
-				tmpList.close();
-				inMemoryVariants = null;
+				
+				LOG.info("encoding genotypes");
+				engine = new PairwiseEpistasisEngine(caseIndexes, ctrlIndexes);
+				try(CloseableIterator<VariantContext> iter = openVariants(vcfFileReader)) {
+					while(iter.hasNext()) {
+						engine.add(iter.next());
+						}
+					}
 				}
+			LOG.info("Number of variants: "+engine.getVariantCount()+" alleles: "+engine.getRowCount());
 			
-
+			final long startup = System.currentTimeMillis();
+			final List<PairwiseEpistasisEngine.Pair> pairs = engine.search(this.start_index_at, this.top_k, this.number_of_jobs);
+			LOG.info("That took "+((System.currentTimeMillis()-startup)/1000f)+" seconds.");
 			
-			vcfFileReader.close();
-			LOG.info("Number of variants: "+variantsCount);
+			/* second pass: fetch the variants of the best pairs */
+			final Map<Integer,VariantContext> index2variant = new HashMap<>();
+			for(final PairwiseEpistasisEngine.Pair p: pairs) {
+				index2variant.put(p.getVariant1(), null);
+				index2variant.put(p.getVariant2(), null);
+				}
+			try(VCFReader vcfFileReader = VCFReaderFactory.makeDefault().open(vcfFile.toPath(),false)) {
+				try(CloseableIterator<VariantContext> iter = openVariants(vcfFileReader)) {
+					int idx = 0;
+					while(iter.hasNext()) {
+						final VariantContext ctx = iter.next();
+						if(index2variant.containsKey(idx)) index2variant.put(idx, ctx);
+						idx++;
+						}
+					}
+				}
 			
+			final List<Result> results = new ArrayList<>(pairs.size());
+			for(final PairwiseEpistasisEngine.Pair p: pairs) {
+				final VariantContext ctx1 = index2variant.get(p.getVariant1());
+				final VariantContext ctx2 = index2variant.get(p.getVariant2());
+				results.add(new Result(
+					ctx1, ctx1.getAlleles().get(p.getAllele1()), p.getVariant1(),
+					ctx2, ctx2.getAlleles().get(p.getAllele2()), p.getVariant2(),
+					p.score,
+					p.getCasesCarryingBoth(),
+					p.getControlsCarryingBoth()
+					));
+				}
 			
-			Result bestResult =null;
-			int x= this.start_index_at;
-			while(x+1 < variantsCount)
-				{
-				final List<Runner> runners = new Vector<>(this.number_of_jobs);
-				while(x+1 < variantsCount && runners.size() < this.number_of_jobs)
-					{
-					LOG.info("starting "+x+"/"+variantsCount);
-					runners.add(new Runner(
-							inMemoryVariants == null? 
-									VcfList.fromFile(vcfFile,tmpIndexFile):
-									new Vector<>(inMemoryVariants)
-							,x,
-							caseIndexes,
-							ctrlIndexes
-							)
-							);
-					++x;
-					}
-				final ExecutorService execSvc;
-				if(this.number_of_jobs==1)
-					{
-					execSvc = null;
-					}
-				else
-					{
-					execSvc = Executors.newFixedThreadPool(this.number_of_jobs);;
-					}
-
-				if(this.number_of_jobs==1)
-					{
-					runners.get(0).call();
-					}
-				else
-					{
-					execSvc.invokeAll(runners);
+			if(this.output_score) {
+				try(PrintWriter pw = super.openFileOrStdoutAsPrintWriter(this.outputFile)) {
+					for(final Result r: results) {
+						pw.println(r.score+ "\t"+r.toString());
+						}
+					pw.flush();
 					}
-					
-				if(execSvc!=null) {
-					execSvc.shutdown();
-					execSvc.awaitTermination(10000L, TimeUnit.DAYS);
-					execSvc.shutdownNow();
 				}
-				runners.stream().mapToLong(R->R.duration).min().ifPresent(D->{
-					LOG.info("That took "+ (D/1000f)+" seconds.");
-					});
-				
-				
-				for(final Runner r: runners)
-					{
-					final Result rez=r.result;
-					if(rez==null) continue;
-					if(bestResult==null || bestResult.score<rez.score)
-						{
-						bestResult =rez;
-						
-						if(this.output_score) {
-							final PrintWriter pw = super.openFileOrStdoutAsPrintWriter(this.outputFile);
-							pw.println(bestResult.score+ "\t"+bestResult.toString());
-							pw.flush();
-							pw.close();
-							}
-						else
-							{
-							final VariantContextWriter w = openVariantContextWriter(this.outputFile);
-							final VCFHeader header2= new VCFHeader(header);
-							header2.addMetaDataLine(new VCFHeaderLine(VcfEpistatis01.class.getName(),bestResult.toString()));
-							w.writeHeader(header2);
-							w.add(bestResult.ctx1);
-							w.add(bestResult.ctx2);
-							w.close();
-							}
+			else
+				{
+				final VCFHeader header2= new VCFHeader(header);
+				for(final Result r: results) {
+					header2.addMetaDataLine(new VCFHeaderLine(VcfEpistatis01.class.getName(),r.toString()));
+					}
+				try(VariantContextWriter w = openVariantContextWriter(this.outputFile)) {
+					w.writeHeader(header2);
+					/* distinct variants, in the order of the VCF */
+					for(final Integer idx: new TreeSet<>(index2variant.keySet())) {
+						w.add(index2variant.get(idx));
 						}
 					}
-				LOG.info("best: "+bestResult);
 				}
-			if(tmpIndexFile!=null) tmpIndexFile.delete();
-			
+			if(!results.isEmpty()) LOG.info("best: "+results.get(0));
 			return 0;
 			}
 		catch(final Exception err)
 			{
-			err.printStackTrace();
 			LOG.error(err);
 			return -1;
 			}
-		finally
-			{
-			}
 		}
 	 	
 	
@@ -127,7 +127,7 @@ public class VcfGnomad extends OnePassVcfLauncher {
 	protected int beforeVcf() {
 		try {
 			final VCFReader r = VCFReaderFactory.makeDefault().open(this.gnomadPath,true);
-			this.gnomadReader = new BufferedVCFReader(r, this.gnomadBufferSize);
+			this.gnomadReader = new BufferedVCFReader(r, this.gnomadBufferSize).setReadAhead(true);
 			this.ctgNameConverter = ContigNameConverter.fromOneDictionary(SequenceDictionaryUtils.extractRequired(r.getHeader()));
 			}
 		catch(final Throwable err)
@@ -181,6 +181,7 @@ public class VcfGnomad extends OnePassVcfLauncher {
 	@Override
 	protected void afterVcf() {
 		try {
+			LOG.info("gnomad buffer: hits:"+this.gnomadReader.getHitCount()+" reloads:"+this.gnomadReader.getReloadCount()+" read-ahead:"+this.gnomadReader.getReadAheadHitCount());
 			this.gnomadReader.close();
 			}
 		catch(final Throwable err) {
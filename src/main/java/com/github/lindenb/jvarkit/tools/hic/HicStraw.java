@@ -77,7 +77,7 @@ END_DOC
 	description="Query a Hi-C file",
 	keywords={"hic"},
 	creationDate="20190613",
-	modificationDate="20190614",
+	modificationDate="20201018",
 	generate_doc=false
 	)
 public class HicStraw  extends Launcher {
@@ -101,6 +101,10 @@ public class HicStraw  extends Launcher {
 	private Float minValue = null;
 	@Parameter(names={"-max-value"},description="Don't print the value if it's greater than 'v'")
 	private Float maxValue = null;
+	@Parameter(names={"--threads"},description="Number of threads decoding the blocks of the Hi-C file.")
+	private int nThreads = 1;
+	@Parameter(names={"--cache-size"},description="Max size, in mega-bytes, of the cache of decoded blocks. 0 to disable the cache.")
+	private int cacheSizeMb = 64;
 
 	private abstract class AbstractCallBack implements HicReader.QueryCallBack {
 		PrintStream pw = null;
@@ -376,9 +380,6 @@ public class HicStraw  extends Launcher {
 			pw.print(start2);
 			pw.print("\t");
 			pw.print(end2);
-			pw.print(contig1);
-			pw.print("\t");
-			pw.print(start1);
 			pw.print("\t");
 			pw.print(value);
 			pw.println();
@@ -389,6 +390,14 @@ public class HicStraw  extends Launcher {
 		
 	@Override
 	public int doWork(final List<String> args) {
+		if(this.nThreads<1) {
+			LOG.error("bad number of threads");
+			return -1;
+			}
+		if(this.cacheSizeMb<0) {
+			LOG.error("bad cache size");
+			return -1;
+			}
 		try
 			{
 			final ISeekableStreamFactory seekableStreamFactory = new CustomSeekableStreamFactory().
@@ -419,6 +428,8 @@ public class HicStraw  extends Launcher {
 				
 				try(final HicReader hicReader = new HicReaderFactory().
 							setSeekableStreamFactory(seekableStreamFactory).
+							setNumberOfThreads(this.nThreads).
+							setBlockCacheSize(this.cacheSizeMb * 1024L * 1024L).
 							open(input)) { 
 				
 					final Function<String,Locatable > parseInterval = (S)->{
@@ -71,6 +71,7 @@ import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.picard.GenomicSequence;
+import com.github.lindenb.jvarkit.util.picard.PackedGenomicSequence;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
 import com.github.lindenb.jvarkit.util.samtools.SAMRecordPartition;
 import com.github.lindenb.jvarkit.util.samtools.SamRecordJEXLFilter;
@@ -424,12 +425,12 @@ public class GcPercentAndDepth extends Launcher
 			
 			
 			final SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(this.samSequenceDictionary).logger(LOG);
-			GenomicSequence genomicSequence=null;
+			PackedGenomicSequence genomicSequence=null;
 			for(final RegionCaptured roi:regionsCaptured)
 				{
 				if(genomicSequence==null || !genomicSequence.getChrom().equals(roi.getContig()))
 					{
-					genomicSequence= new GenomicSequence(indexedFastaSequenceFile,roi.getContig());
+					genomicSequence= new PackedGenomicSequence(indexedFastaSequenceFile,roi.getContig());
 					}
 				Map<String,int[]> sample2depth=new HashMap<String,int[]>();
 				Map<String,Double> sample2meanDepth=new HashMap<String,Double>();
@@ -484,23 +485,9 @@ public class GcPercentAndDepth extends Launcher
 				
 				for(final RegionCaptured.SlidingWindow win: roi)
 					{
-					double total=0f;
-					int countN=0;
-					for(int pos1=win.getStart();pos1<=win.getEnd();++pos1)
-						{
-						switch(genomicSequence.charAt(pos1-1))
-							{
-							case 'c':case 'C':
-							case 'g':case 'G':		
-							case 's':case 'S':
-								{
-								total++;
-								break;
-								}
-							case 'n':case 'N':countN++;break;
-							default:break;
-							}
-						}
+					final GenomicSequence.GCPercent gcPercent = genomicSequence.getGCPercent(win.getStart()-1, win.getEnd());
+					final double total = gcPercent.getGCCount();
+					final int countN = gcPercent.getNCount();
 					if(skip_if_contains_N && countN>0) continue;
  					double GCPercent=total/(double)win.length();
 					
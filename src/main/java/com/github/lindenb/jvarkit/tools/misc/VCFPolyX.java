@@ -29,6 +29,9 @@ History:
 package com.github.lindenb.jvarkit.tools.misc;
 
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.UnaryOperator;
 
 
 import htsjdk.samtools.reference.ReferenceSequenceFile;
@@ -37,7 +40,6 @@ import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.StringUtil;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.VariantContextBuilder;
-import htsjdk.variant.variantcontext.writer.VariantContextWriter;
 import htsjdk.variant.vcf.VCFFilterHeaderLine;
 import htsjdk.variant.vcf.VCFHeader;
 import htsjdk.variant.vcf.VCFHeaderLineType;
@@ -54,7 +56,6 @@ import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.picard.GenomicSequence;
 
-import htsjdk.variant.vcf.VCFIterator;
 
 /*
 BEGIN_DOC
@@ -95,129 +96,137 @@ public class VCFPolyX extends OnePassVcfLauncher
 	@Parameter(names={"--skip-filtered"},description="Don't spend some time to calculate the tag if the variant is FILTERed")
 	private boolean skip_filtered=false;
 	
+	/** the reference files opened by the threads */
+	private final List<ReferenceSequenceFile> openedReferences = new ArrayList<>();
+	
 	@Override
 	protected Logger getLogger() {
 		return LOG;
 		}
 	
+	/** reference and current contig of one thread: GenomicSequence and ReferenceSequenceFile are not thread-safe */
+	private class ThreadReference {
+		final ReferenceSequenceFile referenceSequenceFile;
+		ChromosomeSequence genomicContig = null;
+		ThreadReference() {
+			this.referenceSequenceFile = ReferenceSequenceFileFactory.getReferenceSequenceFile(VCFPolyX.this.faixPath);
+			synchronized(VCFPolyX.this.openedReferences) {
+				VCFPolyX.this.openedReferences.add(this.referenceSequenceFile);
+				}
+			}
+		ChromosomeSequence getContig(final String contig) {
+			if(this.genomicContig==null || !this.genomicContig.hasName(contig))
+				{
+				this.genomicContig= new GenomicSequence(this.referenceSequenceFile, contig);
+				}
+			return this.genomicContig;
+			}
+		}
+	
 	@Override
-	protected int doVcfToVcf(
-			final String inputName,
-			final VCFIterator r,
-			final VariantContextWriter w
-			) 
-		{
-		ReferenceSequenceFile referenceSequenceFile = null;
-		
+	protected int beforeVcf() {
 		if(StringUtil.isBlank(this.polyXtag)) {
 			LOG.error("Empty tag");
 			return -1;
 			}
+		return 0;
+		}
+	
+	@Override
+	protected void afterVcf() {
+		synchronized(this.openedReferences) {
+			for(final ReferenceSequenceFile referenceSequenceFile: this.openedReferences) {
+				CloserUtil.close(referenceSequenceFile);
+				}
+			this.openedReferences.clear();
+			}
+		}
+	
+	@Override
+	protected UnaryOperator<VariantContext> createVariantTransformer(final String inputName,final VCFHeader h2)
+		{
+		final ContigNameConverter contigNameConverter = ContigNameConverter.fromOneDictionary(SequenceDictionaryUtils.extractRequired(this.faixPath));
+
+		final VCFInfoHeaderLine infoHeaderLine = new VCFInfoHeaderLine(
+				this.polyXtag.trim(),
+				1,
+				VCFHeaderLineType.Integer,
+				"Number of repeated bases around REF")
+				;
+		h2.addMetaDataLine(infoHeaderLine);
+
+		final VCFFilterHeaderLine filterHeaderLine = new VCFFilterHeaderLine(
+				infoHeaderLine.getID()+"_ge_"+this.filterTrehsold,
+				"Number of repeated bases around REF is greater or equal to " + this.filterTrehsold
+				);
 		
-		try
-			{
-			referenceSequenceFile = ReferenceSequenceFileFactory.getReferenceSequenceFile(this.faixPath);
+		if( this.filterTrehsold>-1) {
+			h2.addMetaDataLine(filterHeaderLine);
+			}
+		JVarkitVersion.getInstance().addMetaData(this, h2);
+		final ThreadLocal<ThreadReference> threadReference = ThreadLocal.withInitial(ThreadReference::new);
+		return ctx->{
+			if(this.skip_filtered && ctx.isFiltered())
+				{
+				return ctx;
+				}
 			
-			final ContigNameConverter contigNameConverter = ContigNameConverter.fromOneDictionary(SequenceDictionaryUtils.extractRequired(referenceSequenceFile));
-
+			final String normalizedContig = contigNameConverter.apply(ctx.getContig());
+			if(StringUtils.isBlank(normalizedContig)) {
+				return ctx;
+				}
 			
-			final VCFHeader h2 = new VCFHeader(r.getHeader());
-	
-			final VCFInfoHeaderLine infoHeaderLine = new VCFInfoHeaderLine(
-					this.polyXtag.trim(),
-					1,
-					VCFHeaderLineType.Integer,
-					"Number of repeated bases around REF")
-					;
-			h2.addMetaDataLine(infoHeaderLine);
-
-			final VCFFilterHeaderLine filterHeaderLine = new VCFFilterHeaderLine(
-					infoHeaderLine.getID()+"_ge_"+this.filterTrehsold,
-					"Number of repeated bases around REF is greater or equal to " + this.filterTrehsold
-					);
+			final ChromosomeSequence genomicContig = threadReference.get().getContig(normalizedContig);
 			
-			if( this.filterTrehsold>-1) {
-				h2.addMetaDataLine(filterHeaderLine);
+			final VariantContextBuilder b = new VariantContextBuilder(ctx);
+
+			// https://github.com/lindenb/jvarkit/issues/165
+			final boolean indel_flag = ctx.isIndel();
+			
+			int count=1;
+			int pos0 = ctx.getStart()-1;
+			// https://github.com/lindenb/jvarkit/issues/165
+			if(indel_flag) {
+				pos0++;
 				}
-			ChromosomeSequence genomicContig=null;
-			JVarkitVersion.getInstance().addMetaData(this, h2);
-			w.writeHeader(h2);
-			while(r.hasNext())
+			char c0 = Character.toUpperCase(genomicContig.charAt(pos0));
+			//go left
+			pos0--;
+			while(pos0>=0 && c0==Character.toUpperCase(genomicContig.charAt(pos0)))
 				{
-				final VariantContext ctx = r.next();
-				if(this.skip_filtered && ctx.isFiltered())
-					{
-					w.add(ctx);
-					continue;
-					}
-				
-				final String normalizedContig = contigNameConverter.apply(ctx.getContig());
-				if(StringUtils.isBlank(normalizedContig)) {
-					w.add(ctx);
-					continue;
-					}
-				
-				if(genomicContig==null || !genomicContig.hasName(normalizedContig))
-					{
-					genomicContig= new GenomicSequence(referenceSequenceFile, normalizedContig);
-					}
-				
-				final VariantContextBuilder b = new VariantContextBuilder(ctx);
-
-				// https://github.com/lindenb/jvarkit/issues/165
-				final boolean indel_flag = ctx.isIndel();
-				
-				int count=1;
-				int pos0 = ctx.getStart()-1;
-				// https://github.com/lindenb/jvarkit/issues/165
-				if(indel_flag) {
-					pos0++;
-					}
-				char c0 = Character.toUpperCase(genomicContig.charAt(pos0));
-				//go left
+				++count;
 				pos0--;
-				while(pos0>=0 && c0==Character.toUpperCase(genomicContig.charAt(pos0)))
-					{
-					++count;
-					pos0--;
-					}
-				//go right
-				pos0 = ctx.getEnd()-1;
-				// https://github.com/lindenb/jvarkit/issues/165
-				if(indel_flag) {
-					pos0++;
-					}
-				
-				c0 = Character.toUpperCase(genomicContig.charAt(pos0));
+				}
+			//go right
+			pos0 = ctx.getEnd()-1;
+			// https://github.com/lindenb/jvarkit/issues/165
+			if(indel_flag) {
 				pos0++;
-				while(pos0< genomicContig.length()
-					&& c0==Character.toUpperCase(genomicContig.charAt(pos0)))
-					{
-					++count;
-					++pos0;
+				}
+			
+			c0 = Character.toUpperCase(genomicContig.charAt(pos0));
+			pos0++;
+			while(pos0< genomicContig.length()
+				&& c0==Character.toUpperCase(genomicContig.charAt(pos0)))
+				{
+				++count;
+				++pos0;
+				}
+			b.attribute(infoHeaderLine.getID(),count);
+			
+			/* filter */
+			if(this.filterTrehsold>-1 )
+				{
+				if(count>=this.filterTrehsold) {
+					b.filter(filterHeaderLine.getID());
 					}
-				b.attribute(infoHeaderLine.getID(),count);
-				
-				/* filter */
-				if(this.filterTrehsold>-1 )
-					{
-					if(count>=this.filterTrehsold) {
-						b.filter(filterHeaderLine.getID());
-						}
-					else if(!ctx.isFiltered()) {
-						b.passFilters();
-						}
+				else if(!ctx.isFiltered()) {
+					b.passFilters();
 					}
-				
-				w.add(b.make());			
 				}
-			w.close();
-			}
-		finally
-			{
-			CloserUtil.close(referenceSequenceFile);
-			}
-		return 0;
+			
+			return b.make();
+			};
 		}
 
 	public static void main(final String[] args)
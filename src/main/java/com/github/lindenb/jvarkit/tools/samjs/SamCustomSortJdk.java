@@ -29,9 +29,7 @@ import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.lang.reflect.Constructor;
 import java.util.Comparator;
-import java.util.Date;
 import java.util.List;
-import java.util.Random;
 
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParametersDelegate;
@@ -54,7 +52,6 @@ import htsjdk.samtools.SamReader;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.IOUtil;
-import htsjdk.samtools.util.Iso8601Date;
 import htsjdk.samtools.util.SortingCollection;
 import htsjdk.samtools.util.StringUtil;
 
@@ -249,9 +246,7 @@ public class SamCustomSortJdk
 				return -1;
 				}
 
-			final Random rand= new  Random(System.currentTimeMillis());
-			final String javaClassName =SamCustomSortJdk.class.getSimpleName()+
-					"Custom"+ Math.abs(rand.nextInt());
+			final String javaClassName = OpenJdkCompiler.createClassName(SamCustomSortJdk.class, code);
 			
 			final StringWriter codeWriter=new StringWriter();
 			final PrintWriter pw = new PrintWriter(codeWriter);
@@ -263,7 +258,7 @@ public class SamCustomSortJdk
 			pw.println("import com.github.lindenb.jvarkit.tools.misc.IlluminaReadName;");
 			pw.println("import javax.annotation.processing.Generated;");
 
-			pw.println("@Generated(value=\""+SamCustomSortJdk.class.getSimpleName()+"\",date=\""+ new Iso8601Date(new Date()) +"\")");
+			pw.println("@Generated(value=\""+SamCustomSortJdk.class.getSimpleName()+"\")");
 			pw.println("public class "+javaClassName+" extends "+
 					AbstractSamComparator.class.getName().replace('$', '.')+" {");
 			pw.println("  public "+javaClassName+"(final SAMFileHeader header) {");
@@ -33,17 +33,18 @@ import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
-import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
 import java.util.function.Function;
 
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParametersDelegate;
 import com.github.lindenb.jvarkit.io.IOUtils;
+import com.github.lindenb.jvarkit.iterator.ParallelMapIterator;
 import com.github.lindenb.jvarkit.lang.JvarkitException;
 import com.github.lindenb.jvarkit.lang.OpenJdkCompiler;
 import com.github.lindenb.jvarkit.lang.StringUtils;
@@ -62,7 +63,6 @@ import htsjdk.samtools.SamReader;
 import htsjdk.samtools.SamReaderFactory;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.IOUtil;
-import htsjdk.samtools.util.Iso8601Date;
 import htsjdk.samtools.util.StringUtil;
 
 
@@ -418,6 +418,8 @@ public class SamJdk
 	private boolean pair_mode=false;
 	@Parameter(names={"-R","--reference"},description="For reading CRAM. " + INDEXED_FASTA_REFERENCE_DESCRIPTION)
 	private Path refFaidx =null;
+	@Parameter(names={"--threads"},description="Number of threads. If greater than 1, one instance of the filter is created per thread and the reads are evaluated in parallel, by batches. The output order is preserved. Each instance has its own 'userData'. A filter relying on the order of the reads (e.g. a counter) must override 'public boolean isParallelizable()' to return false (option --body). Ignored in --pair mode.")
+	private int nThreads = 1;
 
 	public static abstract class AbstractBaseFilter<T>
 		implements Function<T,Object>
@@ -429,6 +431,10 @@ public class SamJdk
 		protected AbstractBaseFilter(final SAMFileHeader header) {
 			this.header = header;
 			}
+		/** with --threads, return false if this filter relies on the order of the reads: they will be evaluated in one thread */
+		public boolean isParallelizable() {
+			return true;
+			}
 		}
 
 
@@ -484,10 +490,15 @@ public class SamJdk
 	@Override
 	public int doWork(final List<String> args) {
 		SAMRecordIterator iter=null;
+		ParallelMapIterator<SAMRecord,Evaluation> parallelIter = null;
 		SamReader samFileReader=null;
 		SAMFileWriter sw=null;
 		try
 			{
+			if(this.nThreads<1) {
+				LOG.error("bad number of threads: "+this.nThreads);
+				return -1;
+				}
 			final String code;
 			if(this.scriptPath!=null && !StringUtil.isBlank(this.scriptExpr)) {
 				LOG.error("Option -e or -f are both defined.");
@@ -507,9 +518,7 @@ public class SamJdk
 				return -1;
 				}
 
-			final Random rand= new  Random(System.currentTimeMillis());
-			final String javaClassName =SamJdk.class.getSimpleName()+
-					"Custom"+ Math.abs(rand.nextInt());
+			final String javaClassName = OpenJdkCompiler.createClassName(SamJdk.class, code);
 			final String generatedClassName = OpenJdkCompiler.getGeneratedAnnotationClassName();
 			final StringWriter codeWriter=new StringWriter();
 			final PrintWriter pw = new PrintWriter(codeWriter);
@@ -519,7 +528,7 @@ public class SamJdk
 			pw.println("import htsjdk.samtools.*;");
 			pw.println("import htsjdk.samtools.util.*;");
 			if(!StringUtils.isBlank(generatedClassName)) {
-				pw.println("@"+generatedClassName+"(value=\""+SamJdk.class.getSimpleName()+"\",date=\""+ new Iso8601Date(new Date()) +"\")");
+				pw.println("@"+generatedClassName+"(value=\""+SamJdk.class.getSimpleName()+"\")");
 				}
 			pw.println("public class "+javaClassName+" extends "+
 					(this.pair_mode?AbstractListFilter.class:AbstractFilter.class).getName().replace('$', '.')+" {");
@@ -617,6 +626,7 @@ public class SamJdk
 	        
 	        if(this.pair_mode)
 	        	{
+	        	if(this.nThreads>1) LOG.warning("Option --threads is ignored in --pair mode.");
 	        	SAMRecord prev=null;
 				final AbstractListFilter filter = (AbstractListFilter)ctor.newInstance(header);
 				final List<SAMRecord> buffer = new ArrayList<>();
@@ -714,70 +724,44 @@ public class SamJdk
 	        else
 		        {
 				final AbstractFilter filter = (AbstractFilter)ctor.newInstance(header);
+				final Iterator<Evaluation> evaluations;
+				if(this.nThreads>1 && filter.isParallelizable()) {
+					parallelIter = new ParallelMapIterator<>(
+						iter.stream().map(R->progress.watch(R)).iterator(),
+						()->{
+							final AbstractFilter f;
+							try {
+								f = (AbstractFilter)ctor.newInstance(header);
+								}
+							catch(final Exception err) {
+								throw new RuntimeException(err);
+								}
+							return R->evaluate(f, R);
+							},
+						this.nThreads);
+					evaluations = parallelIter;
+					}
+				else
+					{
+					if(this.nThreads>1) LOG.warning("The filter is not parallelizable. Option --threads is ignored.");
+					evaluations = iter.stream().map(R->evaluate(filter, progress.watch(R))).iterator();
+					}
 			    
-				while(iter.hasNext())
+				while(evaluations.hasNext())
 					{
-					final SAMRecord record=progress.watch(iter.next());
-					final Object result = filter.apply(record);
-					
-					// result is an array of a collection of reads
-					if(result!=null && (result.getClass().isArray() || (result instanceof Collection)))
+					final Evaluation evaluation = evaluations.next();
+					if(evaluation.accepted==null)
 						{
-						final  Collection<?> col;
-						if(result.getClass().isArray())
-							{
-							final Object array[]=(Object[])result;
-							col= Arrays.asList(array);
-							}
-						else
-							{
-							col =( Collection<?>)result;
-							}
-						// write all of reads
-						for(final Object item:col)
-							{
-							if(item==null) throw new JvarkitException.UserError("item in array is null");
-							if(!(item instanceof SAMRecord)) throw new JvarkitException.UserError("item in array is not a SAMRecord "+item.getClass());
-							++count;
-							sw.addAlignment(SAMRecord.class.cast(item));
-							}
-						}
-					// result is a SAMRecord
-					else if(result!=null && (result instanceof SAMRecord)) {
-						++count;
-						sw.addAlignment(SAMRecord.class.cast(result));
+						failing(evaluation.record,header);
 						}
 					else
 						{
-						boolean accept=true;
-						if(result==null)
-							{
-							accept=false;
-							}
-						else if(result instanceof Boolean)
-							{
-							if(Boolean.FALSE.equals(result)) accept = false;
-							}
-						else if(result instanceof Number)
-							{
-							if(((Number)result).intValue()!=1) accept = false;
-							}
-						else
-							{
-							LOG.warn("Script returned something that is not a boolean or a number:"+result.getClass());
-							accept = false;
-							}
-						if (!accept)
-							{
-							failing(record,header);
-							}
-						else
+						for(final SAMRecord item: evaluation.accepted)
 							{
 							++count;
-							sw.addAlignment(record);
+							sw.addAlignment(item);
 							}
 						}
-	
 					if(this.LIMIT>0L && count>=this.LIMIT) break;
 					}
 		        }
@@ -793,6 +777,7 @@ public class SamJdk
 			}
 		finally
 			{
+			CloserUtil.close(parallelIter);
 			CloserUtil.close(iter);
 			CloserUtil.close(samFileReader);
 			CloserUtil.close(sw);
@@ -800,6 +785,72 @@ public class SamJdk
 			}
 		}
 
+	/** result of the filter for one record */
+	private static class Evaluation {
+		final SAMRecord record;
+		/** records to be written, or null if the record was rejected */
+		final List<SAMRecord> accepted;
+		Evaluation(final SAMRecord record,final List<SAMRecord> accepted) {
+			this.record = record;
+			this.accepted = accepted;
+			}
+		}
+	
+	/** apply the filter to one record */
+	private static Evaluation evaluate(final AbstractFilter filter,final SAMRecord record) {
+		final Object result = filter.apply(record);
+		
+		// result is an array of a collection of reads
+		if(result!=null && (result.getClass().isArray() || (result instanceof Collection)))
+			{
+			final  Collection<?> col;
+			if(result.getClass().isArray())
+				{
+				final Object array[]=(Object[])result;
+				col= Arrays.asList(array);
+				}
+			else
+				{
+				col =( Collection<?>)result;
+				}
+			final List<SAMRecord> L = new ArrayList<>(col.size());
+			// write all of reads
+			for(final Object item:col)
+				{
+				if(item==null) throw new JvarkitException.UserError("item in array is null");
+				if(!(item instanceof SAMRecord)) throw new JvarkitException.UserError("item in array is not a SAMRecord "+item.getClass());
+				L.add(SAMRecord.class.cast(item));
+				}
+			return new Evaluation(record, L);
+			}
+		// result is a SAMRecord
+		else if(result!=null && (result instanceof SAMRecord)) {
+			return new Evaluation(record, Collections.singletonList(SAMRecord.class.cast(result)));
+			}
+		else
+			{
+			boolean accept=true;
+			if(result==null)
+				{
+				accept=false;
+				}
+			else if(result instanceof Boolean)
+				{
+				if(Boolean.FALSE.equals(result)) accept = false;
+				}
+			else if(result instanceof Number)
+				{
+				if(((Number)result).intValue()!=1) accept = false;
+				}
+			else
+				{
+				LOG.warn("Script returned something that is not a boolean or a number:"+result.getClass());
+				accept = false;
+				}
+			return new Evaluation(record, accept?Collections.singletonList(record):null);
+			}
+		}
+
 	public static void main(final String[] args) throws Exception
 		{
 		new SamJdk().instanceMainWithExit(args);
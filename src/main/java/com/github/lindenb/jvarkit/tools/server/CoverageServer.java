@@ -38,19 +38,33 @@ import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.function.IntFunction;
 import java.util.function.IntToDoubleFunction;
 import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
 import java.util.stream.Collectors;
 import java.util.stream.DoubleStream;
 import java.util.stream.IntStream;
@@ -80,8 +94,8 @@ import com.github.lindenb.jvarkit.pedigree.PedigreeParser;
 import com.github.lindenb.jvarkit.pedigree.Sample;
 import com.github.lindenb.jvarkit.samtools.util.IntervalListProvider;
 import com.github.lindenb.jvarkit.samtools.util.IntervalParserFactory;
-import com.github.lindenb.jvarkit.samtools.util.Pileup;
 import com.github.lindenb.jvarkit.samtools.util.SimpleInterval;
+import com.github.lindenb.jvarkit.samtools.util.StreamingPileup;
 import com.github.lindenb.jvarkit.util.Counter;
 import com.github.lindenb.jvarkit.util.JVarkitVersion;
 import com.github.lindenb.jvarkit.util.bio.DistanceParser;
@@ -106,7 +120,6 @@ import htsjdk.samtools.SamReader;
 import htsjdk.samtools.SamReaderFactory;
 import htsjdk.samtools.ValidationStringency;
 import htsjdk.samtools.reference.ReferenceSequence;
-import htsjdk.samtools.reference.ReferenceSequenceFile;
 import htsjdk.samtools.reference.ReferenceSequenceFileFactory;
 import htsjdk.samtools.util.AbstractIterator;
 import htsjdk.samtools.util.CloseableIterator;
@@ -122,6 +135,7 @@ import htsjdk.variant.vcf.VCFReader;
 
 import com.beust.jcommander.Parameter;
 import com.github.lindenb.jvarkit.util.log.Logger;
+import com.github.lindenb.jvarkit.util.picard.PackedGenomicSequence;
 import com.github.lindenb.jvarkit.variant.vcf.VCFReaderFactory;
 /**
 BEGIN_DOC
@@ -144,6 +158,18 @@ java -jar dist/coverageserver.jar \
 
  * `columns=5` change the number of columns at runtime.
 
+## Cache
+
+Opened BAM readers are kept in a pool (`--readers-per-bam`) and the computed coverages/images are kept in a LRU cache (`--cache-size`, `--cache-memory`)
+so the previously seen regions are served from memory. The statistics of the cache are available at `http://localhost:8080/cachestats`.
+The last used contigs of the reference (`--reference-cache`) are packed in memory (2 bits per base) and shared by all the images.
+
+## Threads
+
+The images of the BAMs are computed in parallel using a pool of `--threads` threads and the web browser loads `--threads` images at the same time.
+With `--prefetch`, the images of all the BAMs are submitted to the pool as soon as the page is requested. The queue of this pool only holds one page: when the user moves to another page, the oldest pending images are discarded.
+The time spent by the server for each image is sent in the http header `Server-Timing` and a summary is available at `http://localhost:8080/cachestats`.
+
 ## Screenshot
 
 ![https://twitter.com/yokofakun/status/1227932501747871745](https://pbs.twimg.com/media/EQp-Ga4XsAAxNYn?format=png&name=small)
@@ -162,7 +188,7 @@ END_DOC
 @Program(name="coverageserver",
 	description="Jetty Based http server serving Bam coverage.",
 	creationDate="20200212",
-	modificationDate="20200330",
+	modificationDate="20201018",
 	keywords={"cnv","bam","coverage","server"}
 	)
 public  class CoverageServer extends Launcher {
@@ -202,9 +228,33 @@ public  class CoverageServer extends Launcher {
 	private Path gtfFile = null;
 	@Parameter(names= {"--known"},description="Optional Tabix indexed Bed or VCF file containing known CNV. Both types must be indexed.")
 	private Path knownCnvFile = null;
-	
-	
+	@Parameter(names= {"--readers-per-bam"},description="Max number of idle opened readers kept per BAM file, so the BAM index is not re-read at each http request. 0 = always re-open the BAM.")
+	private int readers_per_bam = 2;
+	@Parameter(names= {"--cache-size"},description="Max number of computed coverages/images kept in memory. 0 = disable the cache.")
+	private int cache_size = 2_000;
+	@Parameter(names= {"--cache-memory"},description="Max memory used by the cache of computed coverages/images, in Mb.")
+	private int cache_memory_mb = 256;
+	@Parameter(names= {"--threads"},description="Number of threads used to compute the images of the BAMs in parallel. The web browser will also load this number of images at the same time.")
+	private int nThreads = Math.max(1, Runtime.getRuntime().availableProcessors()/2);
+	@Parameter(names= {"--reference-cache"},description="Max number of contigs of the reference kept in memory (2 bits per base) and shared by the images.")
+	private int reference_cache_size = 2;
+	@Parameter(names= {"--prefetch"},description="Start computing the images of all the BAMs in a pool of '--threads' threads as soon as a page is requested, before the images are requested by the web browser.")
+	private boolean prefetch = false;
+
+
 	private SAMSequenceDictionary dictionary;
+	/** packed contigs of the reference */
+	private PackedGenomicSequence.Cache packedReference = null;
+	/** cache for coverage arrays */
+	private LRUCache<String,CoverageData> coverageCache = null;
+	/** cache for the encoded PNG images */
+	private LRUCache<String,byte[]> imageCache = null;
+	/** images currently being computed */
+	private final Map<String,FutureTask<byte[]>> pendingImages = new ConcurrentHashMap<>();
+	/** thread pool prefetching the images or null if --prefetch is not set */
+	private ExecutorService executorService = null;
+	/** time spent to create the images */
+	private final Timings imageTimings = new Timings();
 	private final List<ReviewedInterval> named_intervals = new Vector<>();
 	private final List<BamInput> bamInput = new Vector<>();
 	private Pedigree pedigree = null;
@@ -251,14 +301,126 @@ public  class CoverageServer extends Launcher {
 			}
 		}
 	
-	private static class BamInput {
+	private  class BamInput {
 		final Path bamPath;
 		String sample;
+		/** idle readers for this bam. A SamReader is not thread safe, so a reader is owned by one thread between borrow() and release() */
+		private final Deque<SamReader> idleReaders = new ArrayDeque<>();
 		BamInput(final Path path) {
 			this.bamPath = path;
 		}
+		/** get an opened reader, re-using an idle one if any */
+		SamReader borrow() throws IOException {
+			synchronized(this.idleReaders) {
+				final SamReader sr = this.idleReaders.pollFirst();
+				if(sr!=null) return sr;
+				}
+			return SamReaderFactory.make().
+					validationStringency(ValidationStringency.LENIENT).
+					referenceSequence(CoverageServer.this.faidxRef).
+					open(this.bamPath);
+			}
+		/** give back a reader to the pool, or close it if the pool is full */
+		void release(final SamReader sr) {
+			if(sr==null) return;
+			synchronized(this.idleReaders) {
+				if(this.idleReaders.size() < CoverageServer.this.readers_per_bam) {
+					this.idleReaders.addFirst(sr);
+					return;
+					}
+				}
+			CloserUtil.close(sr);
+			}
+		void dispose() {
+			synchronized(this.idleReaders) {
+				while(!this.idleReaders.isEmpty()) CloserUtil.close(this.idleReaders.pollFirst());
+				}
+			}
 	}
-	
+
+	/** coverage computed for one BAM in one region. Arrays are never modified once in the cache */
+	private static class CoverageData {
+		final int int_coverage[];
+		final Counter<Arc> sashimiArcs;
+		CoverageData(final int int_coverage[],final Counter<Arc> sashimiArcs) {
+			this.int_coverage = int_coverage;
+			this.sashimiArcs = sashimiArcs;
+			}
+		long getByteSize() {
+			return 16L + this.int_coverage.length * 4L + this.sashimiArcs.getCountCategories() * 48L;
+			}
+		}
+
+	/** record the time spent to compute something */
+	private static class Timings {
+		private long count = 0L;
+		private long sum_nanos = 0L;
+		private long max_nanos = 0L;
+		synchronized void add(final long nanos) {
+			this.count++;
+			this.sum_nanos += nanos;
+			this.max_nanos = Math.max(this.max_nanos, nanos);
+			}
+		@Override
+		public synchronized String toString() {
+			return "computed:"+this.count+
+				" mean-ms:"+(this.count==0?"0":String.format("%.1f",(this.sum_nanos/(double)this.count)/1.0E6))+
+				" max-ms:"+String.format("%.1f",this.max_nanos/1.0E6);
+			}
+		}
+
+	/** LRU cache bounded by a number of items and by an estimation of the memory used */
+	private static class LRUCache<K,V> {
+		private final String name;
+		private final int max_items;
+		private final long max_bytes;
+		private final ToLongFunction<V> weigher;
+		private final LinkedHashMap<K, V> map = new LinkedHashMap<>(100, 0.75f, true);
+		private long total_bytes = 0L;
+		private long n_hits = 0L;
+		private long n_miss = 0L;
+		LRUCache(final String name,final int max_items,final long max_bytes,final ToLongFunction<V> weigher) {
+			this.name = name;
+			this.max_items = max_items;
+			this.max_bytes = max_bytes;
+			this.weigher = weigher;
+			}
+		synchronized V get(final K key) {
+			final V value = this.map.get(key);
+			if(value==null) {
+				this.n_miss++;
+				}
+			else
+				{
+				this.n_hits++;
+				}
+			return value;
+			}
+		synchronized void put(final K key,final V value) {
+			if(this.max_items<=0) return;
+			final long size = this.weigher.applyAsLong(value);
+			if(size > this.max_bytes) return;
+			final V old = this.map.put(key, value);
+			if(old!=null) this.total_bytes -= this.weigher.applyAsLong(old);
+			this.total_bytes += size;
+			final Iterator<V> iter = this.map.values().iterator();
+			while(iter.hasNext() && (this.map.size() > this.max_items || this.total_bytes > this.max_bytes)) {
+				this.total_bytes -= this.weigher.applyAsLong(iter.next());
+				iter.remove();
+				}
+			}
+		@Override
+		public synchronized String toString() {
+			final long n = this.n_hits + this.n_miss;
+			return this.name+
+				" items:"+ this.map.size()+"/"+this.max_items+
+				" bytes:"+ this.total_bytes+"/"+this.max_bytes+
+				" hits:"+ this.n_hits+
+				" miss:"+ this.n_miss+
+				" hit-ratio:"+ (n==0?"0":String.format("%.3f",this.n_hits/(double)n));
+			}
+		}
+
 	private static class Coverage {
 		private final float array[];
 		int count=0;
@@ -310,6 +472,9 @@ public  class CoverageServer extends Launcher {
 			else if(pathInfo.equals("/comment")) {
 				saveComment(request,response);
 				}
+			else if(pathInfo.equals("/cachestats")) {
+				printCacheStats(request,response);
+				}
 			else
 				{
 				printPage(request,response);
@@ -419,6 +584,19 @@ public  class CoverageServer extends Launcher {
 		
 	}
 	
+	private void printCacheStats( HttpServletRequest request, HttpServletResponse response) 	throws IOException, ServletException{
+		response.setContentType("text/plain");
+		final PrintWriter w=response.getWriter();
+		w.println(this.coverageCache);
+		w.println(this.imageCache);
+		w.println("images "+this.imageTimings);
+		if(this.executorService instanceof ThreadPoolExecutor) {
+			final ThreadPoolExecutor tpe = ThreadPoolExecutor.class.cast(this.executorService);
+			w.println("threads pool-size:"+tpe.getPoolSize()+" active:"+tpe.getActiveCount()+" queued:"+tpe.getQueue().size()+" completed:"+tpe.getCompletedTaskCount());
+			}
+		w.flush();
+		}
+
 	private boolean acceptRead(final SAMRecord rec) {
 		 if(
 			rec.getReadUnmappedFlag() ||
@@ -617,8 +795,15 @@ public  class CoverageServer extends Launcher {
 		}
 
 	
+	/** encode image as PNG */
+	private byte[] toPng(final BufferedImage img) throws IOException {
+		 final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		 ImageIO.write(img, "PNG", baos);
+		 return baos.toByteArray();
+		}
+
 	private void writeImage(
-			final BufferedImage img,
+			final byte png[],
 			final BamInput bam,
 			final Locatable region,
 			final HttpServletResponse response
@@ -626,21 +811,43 @@ public  class CoverageServer extends Launcher {
 
 		 final String basename = bam.sample+"_"+region.getContig()+"_"+region.getStart()+"_"+region.getEnd();
 		 response.setContentType("image/png");
+		 response.setContentLength(png.length);
 		 response.addHeader("Content-Disposition","form-data; name=\""+basename+"\"; filename=\""+basename +".png\"");
 		 try {
-			 ImageIO.write(img, "PNG", response.getOutputStream());
+			 response.getOutputStream().write(png);
 			 response.flushBuffer();
 		 	 }
 		 catch(Throwable err) {
 		 	}
 		}
-	
-	/** print BAM for small interval, displaying reads */
-	private void printRaster(final BamInput bam,final SimpleInterval midRegion,final SimpleInterval region,final HttpServletRequest request,final HttpServletResponse response) throws IOException, ServletException {
+
+	/** build a key for the caches */
+	private String createCacheKey(final String type,final int bam_id,final Locatable region,final boolean normalize) {
+		return String.join("|",
+			type,
+			String.valueOf(bam_id),
+			region.getContig(),
+			String.valueOf(region.getStart()),
+			String.valueOf(region.getEnd()),
+			String.valueOf(this.min_mapq),
+			String.valueOf(this.extend_factor),
+			String.valueOf(this.image_width),
+			String.valueOf(this.image_height),
+			String.valueOf(normalize)
+			);
+		}
+
+	/** create image for small interval, displaying reads */
+	private BufferedImage createRaster(final BamInput bam,final SimpleInterval midRegion,final SimpleInterval region) throws IOException {
 		final IntToDoubleFunction position2pixel = X->((X-region.getStart())/(double)region.getLengthOnReference())*(double)image_width;
-		final SamReaderFactory srf = SamReaderFactory.make().validationStringency(ValidationStringency.LENIENT).referenceSequence(this.faidxRef);
-		final Pileup<SAMRecord> pileup = new Pileup<>((L,R)->position2pixel.applyAsDouble(L.getUnclippedEnd()+1) +1  < position2pixel.applyAsDouble(R.getUnclippedStart()));
-		try(SamReader sr=srf.open(bam.bamPath)) {
+		/* two reads are in the same row if there is more than one pixel between them: end+1+(bases per pixel) < start */
+		final StreamingPileup<SAMRecord> pileup = new StreamingPileup<>(
+				R->R.getUnclippedStart(),
+				R->R.getUnclippedEnd(),
+				1 + region.getLengthOnReference()/this.image_width
+				);
+		SamReader sr = bam.borrow();
+		try {
 			 try(CloseableIterator<SAMRecord> iter=sr.query(
 					 region.getContig(),
 					 Math.max(0,region.getStart()-this.small_region_size), //extend to get clipR
@@ -656,18 +863,24 @@ public  class CoverageServer extends Launcher {
 				 	 }
 				 }//end iterator
 			}//end samreader
+		catch(final RuntimeException err) {
+			/* don't put a reader in a bad state back in the pool */
+			CloserUtil.close(sr);
+			sr = null;
+			throw err;
+			}
+		finally {
+			bam.release(sr);
+			}
 		ReferenceSequence refInInterval=null;
-		 try (ReferenceSequenceFile refseq=ReferenceSequenceFileFactory.getReferenceSequenceFile(this.faidxRef)) {
-			 
-			 final SAMSequenceRecord ssr = this.dictionary.getSequence(region.getContig());
-			 if(region.getStart()<=ssr.getSequenceLength()) {
-				 refInInterval = refseq.getSubsequenceAt(
-						 region.getContig(),
-						 region.getStart(),
-						 Math.min(region.getEnd(),ssr.getSequenceLength())
-						 );
-			 	}
-		 	}
+		final SAMSequenceRecord ssr = this.dictionary.getSequence(region.getContig());
+		if(region.getStart()<=ssr.getSequenceLength()) {
+			refInInterval = new ReferenceSequence(
+					region.getContig(),
+					ssr.getSequenceIndex(),
+					this.packedReference.get(region.getContig()).getBases(region.getStart()-1, region.getEnd())
+					);
+			}
 		
 		 final BufferedImage img = new BufferedImage(image_width, image_height, BufferedImage.TYPE_INT_RGB);
 		 final Graphics2D g=img.createGraphics();
@@ -852,52 +1065,17 @@ public  class CoverageServer extends Launcher {
 	     
 	     
 	     
-	     writeImage(img,bam,region,response);
+	     return img;
 		}
 	
-	private void printImage(final HttpServletRequest request,final HttpServletResponse response) throws IOException, ServletException
-	{
-		int bam_id;
-		try {
-			bam_id = Integer.parseInt(StringUtils.ifBlank(request.getParameter("id"),"-1"));
-		} catch(Exception err) {
-			bam_id=-1;
-		}
-		final SimpleInterval midRegion = parseInterval(request.getParameter("interval"));
-		if(midRegion==null || bam_id<0 || bam_id>=this.bamInput.size()) {
-			response.reset();
-			response.sendError(HttpStatus.BAD_REQUEST_400,"id:"+bam_id);
-			response.flushBuffer();
-			return;
-		}
-		final int extend = (int)(midRegion.getLengthOnReference()*this.extend_factor);
-		int xstart = Math.max(midRegion.getStart()-extend,0);
-		int xend = midRegion.getEnd()+extend;
-		final SAMSequenceRecord ssr = this.dictionary.getSequence(midRegion.getContig());
-		if(ssr!=null) {
-			xend = Math.min(xend, ssr.getSequenceLength());
-		}
-		final SimpleInterval region = new SimpleInterval(midRegion.getContig(),xstart,xend);
-		if(region.getLengthOnReference()>this.max_window_size)  {
-			response.reset();
-			response.sendError(HttpStatus.BAD_REQUEST_400,"contig:"+midRegion);
-			response.flushBuffer();
-			return;
-		}
+	/** get the coverage for a BAM in a region, from the cache or by scanning the BAM */
+	private CoverageData getCoverage(final int bam_id,final BamInput bam,final SimpleInterval region) throws IOException {
+		final String covKey = createCacheKey("data",bam_id,region,false);
+		final CoverageData cached = this.coverageCache.get(covKey);
+		if(cached!=null) return cached;
 		final Counter<Arc> sashimiArcs = new Counter<>();
-		final BamInput bam = this.bamInput.get(bam_id);
-
-		if(region.length() <=this.small_region_size) {
-			printRaster(bam,midRegion, region, request, response);
-			return;
-		}
-		
-		final boolean normalize = request.getParameter("normalize")!=null;
-		
-		final SamReaderFactory srf = SamReaderFactory.make().validationStringency(ValidationStringency.LENIENT).referenceSequence(this.faidxRef);
-		try(SamReader sr=srf.open(bam.bamPath)) {
-			
-			
+		SamReader sr = bam.borrow();
+		try {
 			 final int int_coverage[]=new int[region.getLengthOnReference()];
 			 Arrays.fill(int_coverage, 0);
 			 try(CloseableIterator<SAMRecord> iter=sr.query(region.getContig(), region.getStart(), region.getEnd(),false)) {
@@ -946,6 +1124,132 @@ public  class CoverageServer extends Launcher {
 				 }
 			 }
 			 
+			 final CoverageData data = new CoverageData(int_coverage,sashimiArcs);
+			 this.coverageCache.put(covKey, data);
+			 return data;
+			 }
+		catch(final RuntimeException err) {
+			/* don't put a reader in a bad state back in the pool */
+			CloserUtil.close(sr);
+			sr = null;
+			throw err;
+			}
+		finally {
+			bam.release(sr);
+			}
+		}
+
+	/** extends the user's interval with 'extend_factor' */
+	private SimpleInterval extendInterval(final SimpleInterval midRegion) {
+		final int extend = (int)(midRegion.getLengthOnReference()*this.extend_factor);
+		int xstart = Math.max(midRegion.getStart()-extend,1);
+		int xend = midRegion.getEnd()+extend;
+		final SAMSequenceRecord ssr = this.dictionary.getSequence(midRegion.getContig());
+		if(ssr!=null) {
+			xend = Math.min(xend, ssr.getSequenceLength());
+		}
+		return new SimpleInterval(midRegion.getContig(),xstart,xend);
+		}
+
+	/** get the PNG image for a BAM, from the cache, from a running task or by creating it */
+	private byte[] getImage(final int bam_id,final SimpleInterval midRegion,final boolean normalize) throws IOException {
+		final SimpleInterval region = extendInterval(midRegion);
+		final boolean raster = region.length() <=this.small_region_size;
+		final String cacheKey = createCacheKey(raster?"raster":"coverage",bam_id,midRegion,normalize);
+		final byte cachedPng[] = this.imageCache.get(cacheKey);
+		if(cachedPng!=null) return cachedPng;
+		
+		/* is another thread already building this image ? */
+		final FutureTask<byte[]> task = new FutureTask<>(()->{
+			final long start = System.nanoTime();
+			final BamInput bam = this.bamInput.get(bam_id);
+			final BufferedImage img;
+			if(raster) {
+				img = createRaster(bam,midRegion, region);
+				}
+			else
+				{
+				img = createCoverageImage(bam_id,bam,midRegion, region,normalize);
+				}
+			final byte png[] = toPng(img);
+			this.imageCache.put(cacheKey, png);
+			this.imageTimings.add(System.nanoTime()-start);
+			return png;
+			});
+		final FutureTask<byte[]> previous = this.pendingImages.putIfAbsent(cacheKey, task);
+		final FutureTask<byte[]> current = (previous==null?task:previous);
+		try {
+			if(previous==null) task.run();
+			return current.get();
+			}
+		catch(final InterruptedException err) {
+			Thread.currentThread().interrupt();
+			throw new IOException(err);
+			}
+		catch(final ExecutionException err) {
+			if(err.getCause() instanceof IOException) throw IOException.class.cast(err.getCause());
+			throw new IOException(err.getCause());
+			}
+		finally {
+			this.pendingImages.remove(cacheKey, current);
+			}
+		}
+	
+	/** submit the creation of the images of all the BAMs to the thread pool, before they're requested by the browser */
+	private void prefetchImages(final SimpleInterval midRegion,final boolean normalize) {
+		if(this.executorService==null) return;
+		if(extendInterval(midRegion).getLengthOnReference()>this.max_window_size) return;
+		for(int i=0;i< this.bamInput.size();i++) {
+			final int bam_id = i;
+			this.executorService.submit(()->{
+				try {
+					getImage(bam_id, midRegion, normalize);
+					}
+				catch(final Throwable err) {
+					LOG.warn(err);
+					}
+				});
+			}
+		}
+	
+	private void printImage(final HttpServletRequest request,final HttpServletResponse response) throws IOException, ServletException
+	{
+		final long startNano = System.nanoTime();
+		int bam_id;
+		try {
+			bam_id = Integer.parseInt(StringUtils.ifBlank(request.getParameter("id"),"-1"));
+		} catch(Exception err) {
+			bam_id=-1;
+		}
+		final SimpleInterval midRegion = parseInterval(request.getParameter("interval"));
+		if(midRegion==null || bam_id<0 || bam_id>=this.bamInput.size()) {
+			response.reset();
+			response.sendError(HttpStatus.BAD_REQUEST_400,"id:"+bam_id);
+			response.flushBuffer();
+			return;
+		}
+		final SimpleInterval region = extendInterval(midRegion);
+		if(region.getLengthOnReference()>this.max_window_size)  {
+			response.reset();
+			response.sendError(HttpStatus.BAD_REQUEST_400,"contig:"+midRegion);
+			response.flushBuffer();
+			return;
+		}
+		final boolean normalize = request.getParameter("normalize")!=null;
+		final byte png[] = getImage(bam_id,midRegion,normalize);
+		/* time spent by the server, visible in the 'timing' tab of the browser's developer tools */
+		response.addHeader("Server-Timing", "image;dur="+String.format("%.1f",(System.nanoTime()-startNano)/1.0E6));
+		writeImage(png,this.bamInput.get(bam_id),region,response);
+		}
+	
+	/** create image for a large interval, displaying the coverage */
+	private BufferedImage createCoverageImage(final int bam_id,final BamInput bam,final SimpleInterval midRegion,final SimpleInterval region,final boolean normalize) throws IOException
+	{
+		final int extend = (int)(midRegion.getLengthOnReference()*this.extend_factor);
+		final CoverageData coverageData = getCoverage(bam_id,bam,region);
+		final int int_coverage[] = coverageData.int_coverage;
+		final Counter<Arc> sashimiArcs = coverageData.sashimiArcs;
+		{
 			final double norm_coverage[] = new double[int_coverage.length];
 			final double median;
 			/* normalize on median */
@@ -1075,7 +1379,7 @@ public  class CoverageServer extends Launcher {
 			 g.setColor(Color.GRAY);
 			 g.drawRect(0, 0, img.getWidth(),  img.getHeight());
 			 
-			 writeImage(img,bam,region,response);
+			 return img;
 			}
 		}
 	
@@ -1197,6 +1501,9 @@ public  class CoverageServer extends Launcher {
 		 
 		 
 		 
+		 /* start computing the images while the browser is loading the page */
+		 prefetchImages(interval,normalize);
+		 
 		 final String title = interval.toNiceString()+" ("+StringUtils.niceInt(interval.getLengthOnReference())+" bp.)";
 				
 		 
@@ -1257,7 +1564,8 @@ public  class CoverageServer extends Launcher {
 				"function loadImage(idx) {"+
 				"if(idx>="+this.bamInput.size()+") return;"+
 				"var img = document.getElementById(\"bamid\"+idx);"+
-				"img.addEventListener('load',(event) => {img.width="+image_width+";img.height="+image_height+";loadImage(idx+1);});"+
+				"img.addEventListener('load',(event) => {img.width="+image_width+";img.height="+image_height+";loadImage(idx+"+this.nThreads+");});"+
+				"img.addEventListener('error',(event) => {loadImage(idx+"+this.nThreads+");});"+
 				"img.setAttribute(\"src\",\"/getimage?id=\"+idx+\"&interval="+ StringUtils.escapeHttp(interval.toString()) +(normalize?"&normalize=1":"")+"\");"+
 				"img.setAttribute(\"alt\",\"bam idx\"+idx);"+
 				"}"+
@@ -1272,7 +1580,7 @@ public  class CoverageServer extends Launcher {
 				"if(comment!=null) comment.addEventListener('click',(evt)=>{ console.log(\"send comment\");sendComment(); });"+
 				"var shortcuts=document.getElementById(\"shortcuts\");"+
 				"if(shortcuts!=null) shortcuts.addEventListener('change',(evt)=>{document.getElementById(\"comment\").value += evt.target.value; });"+
-				"loadImage(0);"+
+				"for(var i=0;i< "+this.nThreads+";i++) loadImage(i);"+
 				"}"+
 				"window.addEventListener('load', (event) => {init();});"
 				);
@@ -1738,16 +2046,31 @@ public  class CoverageServer extends Launcher {
 				}
 			this.dictionary = SequenceDictionaryUtils.extractRequired(this.faidxRef);
 			
-			for(final BamInput bi:this.bamInput) {
-				final SamReaderFactory srf = SamReaderFactory.make().validationStringency(ValidationStringency.LENIENT).referenceSequence(this.faidxRef);
-				try(SamReader sr=srf.open(bi.bamPath)) {
-					final SAMFileHeader header = sr.getFileHeader();
-					SequenceUtil.assertSequenceDictionariesEqual(this.dictionary, SequenceDictionaryUtils.extractRequired(header));
-					bi.sample = header.getReadGroups().
-					 stream().
-					 map(R->R.getSample()).filter(S->!StringUtils.isBlank(S)).
-					 findFirst().orElse(IOUtils.getFilenameWithoutCommonSuffixes(bi.bamPath));
+			if(this.readers_per_bam<0) {
+				LOG.error("bad --readers-per-bam "+this.readers_per_bam);
+				return -1;
 				}
+			if(this.nThreads<1) {
+				LOG.error("bad --threads "+this.nThreads);
+				return -1;
+				}
+			if(this.reference_cache_size<1) {
+				LOG.error("bad --reference-cache "+this.reference_cache_size);
+				return -1;
+				}
+			this.packedReference = new PackedGenomicSequence.Cache(ReferenceSequenceFileFactory.getReferenceSequenceFile(this.faidxRef), this.reference_cache_size);
+			this.coverageCache = new LRUCache<>("coverage",this.cache_size,this.cache_memory_mb*1_000_000L,C->C.getByteSize());
+			this.imageCache = new LRUCache<>("images",this.cache_size,this.cache_memory_mb*1_000_000L,A->16L+A.length);
+			
+			for(final BamInput bi:this.bamInput) {
+				final SamReader sr= bi.borrow();
+				final SAMFileHeader header = sr.getFileHeader();
+				SequenceUtil.assertSequenceDictionariesEqual(this.dictionary, SequenceDictionaryUtils.extractRequired(header));
+				bi.sample = header.getReadGroups().
+				 stream().
+				 map(R->R.getSample()).filter(S->!StringUtils.isBlank(S)).
+				 findFirst().orElse(IOUtils.getFilenameWithoutCommonSuffixes(bi.bamPath));
+				bi.release(sr);
 			}
 			
 			if(this.pedigreePath!=null) {
@@ -1782,6 +2105,18 @@ public  class CoverageServer extends Launcher {
 				map(L->new Interval(L)).
 				forEach(B->named_intervals.add(new ReviewedInterval(B,"")));
 			
+			if(this.prefetch) {
+				/* the queue holds the images of one page. When the user moves to another page, the stale images are discarded */
+				this.executorService = new ThreadPoolExecutor(
+						this.nThreads,
+						this.nThreads,
+						0L,
+						TimeUnit.MILLISECONDS,
+						new ArrayBlockingQueue<>(Math.max(1, this.bamInput.size())),
+						new ThreadPoolExecutor.DiscardOldestPolicy()
+						);
+				}
+			
 			final Server server = new Server(this.serverPort);
 			
 			final ServletContextHandler context = new ServletContextHandler();
@@ -1803,7 +2138,11 @@ public  class CoverageServer extends Launcher {
 			LOG.error(err);
 			return -1;
 			}
-		
+		finally {
+			if(this.executorService!=null) this.executorService.shutdownNow();
+			this.bamInput.forEach(B->B.dispose());
+			if(this.packedReference!=null) CloserUtil.close(this.packedReference.getReferenceSequenceFile());
+			}
 		}	
 
 
@@ -30,16 +30,24 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
 import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.charset.Charset;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -52,8 +60,10 @@ import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamWriter;
 
 import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
 
 import com.beust.jcommander.Parameter;
 import com.github.lindenb.jvarkit.io.IOUtils;
@@ -86,6 +96,7 @@ import htsjdk.samtools.reference.ReferenceSequenceFile;
 import htsjdk.samtools.reference.ReferenceSequenceFileFactory;
 import htsjdk.samtools.util.BlockCompressedOutputStream;
 import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.FileExtensions;
 import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.util.Locatable;
@@ -110,6 +121,11 @@ input is a set of indexed Vcf/Bam file or a file with the suffix `.list` contain
 java -jar dist/htsfileserver.jar -R src/test/resources/rotavirus_rf.fa src/test/resources/S*.bam  src/test/resources/rotavirus_rf.*.vcf.gz
 ```
 
+## Readers and threads
+
+The opened readers (and their indexes) are kept in a pool (`--readers-per-file`) and are closed after `--idle-timeout` seconds without activity.
+The data are streamed to the client. When a whole file is requested, the http header `Range` is supported.
+
 # Screenshot
 
 ![https://i.imgur.com/ObRsVxE.png](https://i.imgur.com/ObRsVxE.png)
@@ -121,7 +137,7 @@ END_DOC
 @Program(name="htsfileserver",
 	description="Jetty Based http server serving Vcf,Bam,Tabix files.",
 	creationDate="20200405",
-	modificationDate="20200406",
+	modificationDate="20201018",
 	keywords={"vcf","bam","server","tabix"},
 	biostars={430718},
 	generate_doc=true
@@ -142,8 +158,73 @@ public  class HtsFileServer extends Launcher {
 	private Path faidxRef = null;
 	@Parameter(names= {"-G","--no-genotype"},description="remove genotypes from vcf")
 	private boolean remove_genotype_vcf = false;
+	@Parameter(names= {"--readers-per-file"},description="Max number of idle opened readers kept per file, so the index is not re-read at each http request. 0 = always re-open the file.")
+	private int readers_per_file = 4;
+	@Parameter(names= {"--idle-timeout"},description="Idle opened readers are closed after 'x' seconds.")
+	private int idle_timeout_seconds = 300;
+	@Parameter(names= {"--max-threads"},description="Max number of threads used by the http server.")
+	private int max_threads = 200;
+	@Parameter(names= {"--min-threads"},description="Min number of threads used by the http server.")
+	private int min_threads = 8;
+	@Parameter(names= {"--buffer-size"},description="Size of the http output buffer. The data are sent to the client as chunks of this size, the whole response is never buffered.")
+	private int response_buffer_size = 32_768;
 
 	
+	/** something that opens a new reader */
+	private interface ReaderOpener<R extends AutoCloseable> {
+		R open() throws IOException;
+		}
+	
+	/** pool of opened readers for one file. A reader is owned by one thread between borrow() and release(). Readers idle for too long are closed */
+	private class ReaderPool<R extends AutoCloseable> {
+		private final ReaderOpener<R> opener;
+		/** idle readers, the most recently used first */
+		private final Deque<R> idleReaders = new ArrayDeque<>();
+		/** time when each idle reader was released */
+		private final Deque<Long> idleSince = new ArrayDeque<>();
+		ReaderPool(final ReaderOpener<R> opener) {
+			this.opener = opener;
+			}
+		R borrow() throws IOException {
+			synchronized(this) {
+				if(!this.idleReaders.isEmpty()) {
+					this.idleSince.pollFirst();
+					return this.idleReaders.pollFirst();
+					}
+				}
+			return this.opener.open();
+			}
+		void release(final R reader) {
+			if(reader==null) return;
+			synchronized(this) {
+				if(this.idleReaders.size() < readers_per_file) {
+					this.idleReaders.addFirst(reader);
+					this.idleSince.addFirst(System.currentTimeMillis());
+					return;
+					}
+				}
+			CloserUtil.close(reader);
+			}
+		/** close a reader that might be in a bad state after an error */
+		void discard(final R reader) {
+			CloserUtil.close(reader);
+			}
+		/** close the readers that were not used since 'time' */
+		void evictIdle(final long time) {
+			final List<R> evicted = new ArrayList<>();
+			synchronized(this) {
+				while(!this.idleSince.isEmpty() && this.idleSince.peekLast() < time) {
+					this.idleSince.pollLast();
+					evicted.add(this.idleReaders.pollLast());
+					}
+				}
+			evicted.forEach(R->CloserUtil.close(R));
+			}
+		void dispose() {
+			evictIdle(Long.MAX_VALUE);
+			}
+		}
+	
 	/** base handler for any data that can be querid by interval */
 	private abstract class AbstractInput {
 		private final Path path;
@@ -163,19 +244,38 @@ public  class HtsFileServer extends Launcher {
 			}
 		abstract String getOutputName();
 		abstract String getContentType();
-		abstract void dump(final Locatable loc,final OutputStream os,final CRAMReferenceSource ref) throws IOException;
+		/** return true if the whole content can be sent by copying the file */
+		abstract boolean isCopyingWholeFile();
+		abstract void dump(final Locatable loc,final OutputStream os) throws IOException;
+		/** close the readers not used since 'time' */
+		abstract void evictIdle(long time);
+		abstract void dispose();
 		}
 	
 	/** vcf implementation */
 	private class VcfInput extends AbstractInput {
 		private boolean has_genotypes;
+		private final ReaderPool<VCFReader> pool;
 		VcfInput(final Path path) throws IOException{
 			super(path);
-			// try open with index
-			try(VCFReader ignore= VCFReaderFactory.makeDefault().open(path, true)) {
-				has_genotypes = ignore.getHeader().hasGenotypingData();
-				//nothing
-				}
+			this.pool = new ReaderPool<>(()->VCFReaderFactory.makeDefault().open(path, true));
+			// try open with index, the reader is kept in the pool
+			final VCFReader r = this.pool.borrow();
+			has_genotypes = r.getHeader().hasGenotypingData();
+			this.pool.release(r);
+			}
+		
+		@Override
+		boolean isCopyingWholeFile() {
+			return (!this.has_genotypes || !remove_genotype_vcf) && getPath().getFileName().toString().endsWith(FileExtensions.COMPRESSED_VCF);
+			}
+		@Override
+		void evictIdle(long time) {
+			this.pool.evictIdle(time);
+			}
+		@Override
+		void dispose() {
+			this.pool.dispose();
 			}
 		
 		@Override
@@ -193,9 +293,9 @@ public  class HtsFileServer extends Launcher {
 			}
 		
 		@Override
-		void dump(final Locatable loc, final OutputStream os,final CRAMReferenceSource ignore) throws IOException
+		void dump(final Locatable loc, final OutputStream os) throws IOException
 			{
-			if(loc==null && (!this.has_genotypes || !remove_genotype_vcf) && getPath().getFileName().toString().endsWith(FileExtensions.COMPRESSED_VCF)) {
+			if(loc==null && isCopyingWholeFile()) {
 				IOUtils.copyTo(getPath(), os);
 				return;
 			}
@@ -206,7 +306,8 @@ public  class HtsFileServer extends Launcher {
 			vcb.setReferenceDictionary(dictionary);
 			vcb.clearOptions();
 			try(VariantContextWriter w=vcb.build()) {
-				try(VCFReader r = VCFReaderFactory.makeDefault().open(getPath(), true)) {
+				final VCFReader r = this.pool.borrow();
+				try {
 					final VCFHeader header = r.getHeader();
 					if(remove_genotype_vcf && this.has_genotypes) {
 						w.writeHeader(new VCFHeader(header.getMetaDataInInputOrder(),Collections.emptyList()));
@@ -233,6 +334,11 @@ public  class HtsFileServer extends Launcher {
 						}
 					iter.close();
 					}
+				catch(final Throwable err) {
+					this.pool.discard(r);
+					throw err;
+					}
+				this.pool.release(r);
 				}
 			bos.flush();
 			bos.close();
@@ -240,8 +346,25 @@ public  class HtsFileServer extends Launcher {
 		}
 	/** implementation for Bam */
 	private class BamInput extends AbstractInput {
+		private final ReaderPool<SamReader> pool;
 		BamInput(final Path path) throws IOException{
 			super(path);
+			this.pool = new ReaderPool<>(()->SamReaderFactory.makeDefault().
+					validationStringency(ValidationStringency.SILENT).
+					referenceSource(referenceSource).
+					open(path));
+			}
+		@Override
+		boolean isCopyingWholeFile() {
+			return getPath().getFileName().toString().endsWith(FileExtensions.BAM);
+			}
+		@Override
+		void evictIdle(long time) {
+			this.pool.evictIdle(time);
+			}
+		@Override
+		void dispose() {
+			this.pool.dispose();
 			}
 		@Override
 		String getContentType()
@@ -256,9 +379,9 @@ public  class HtsFileServer extends Launcher {
 			return s;
 			}
 		@Override
-		void dump(final Locatable loc, OutputStream os,final CRAMReferenceSource ref) throws IOException
+		void dump(final Locatable loc, OutputStream os) throws IOException
 			{
-			if(loc==null && getPath().getFileName().toString().endsWith(FileExtensions.BAM)) {
+			if(loc==null && isCopyingWholeFile()) {
 				IOUtils.copyTo(getPath(), os);
 				return;
 				}
@@ -268,10 +391,8 @@ public  class HtsFileServer extends Launcher {
 					.setCreateMd5File(false)
 					;
 			
-			try(SamReader r = SamReaderFactory.makeDefault().
-						validationStringency(ValidationStringency.SILENT).
-						referenceSource(ref).
-						open(getPath())) {
+			final SamReader r = this.pool.borrow();
+			try {
 				final SAMFileHeader header = r.getFileHeader();
 				try(SAMFileWriter w=vcb.makeBAMWriter(header, true, os)) {
 					final CloseableIterator<SAMRecord> iter;
@@ -287,18 +408,35 @@ public  class HtsFileServer extends Launcher {
 						}
 					iter.close();
 					}
-				
 				}
+			catch(final Throwable err) {
+				this.pool.discard(r);
+				throw err;
+				}
+			this.pool.release(r);
 			}
 		}
 	
 	/** implementation for tabix files */
 	private class TabixInput extends AbstractInput {
+		private final ReaderPool<TabixReader> pool;
 		public TabixInput(final Path path) throws IOException{
 			super(path);
-			try(TabixReader tr=new TabixReader(path.toString())) {
-				//do nothing
-				}
+			this.pool = new ReaderPool<>(()->new TabixReader(path.toString()));
+			// test the index, the reader is kept in the pool
+			this.pool.release(this.pool.borrow());
+			}
+		@Override
+		boolean isCopyingWholeFile() {
+			return true;
+			}
+		@Override
+		void evictIdle(long time) {
+			this.pool.evictIdle(time);
+			}
+		@Override
+		void dispose() {
+			this.pool.dispose();
 			}
 		@Override
 		String getOutputName() {
@@ -311,12 +449,13 @@ public  class HtsFileServer extends Launcher {
 		}
 
 		@Override
-		void dump(Locatable loc, OutputStream os, CRAMReferenceSource ref) throws IOException {
+		void dump(Locatable loc, OutputStream os) throws IOException {
 			if(loc==null) {
 				IOUtils.copyTo(getPath(), os);
 				return;
 			}
-			try(TabixReader tb = new TabixReader(getPath().toString())) {
+			final TabixReader tb = this.pool.borrow();
+			try {
 				try(final BlockCompressedOutputStream bos = new BlockCompressedOutputStream(os,(Path)null)) {
 					final PrintWriter pw = new PrintWriter(bos);
 					final ContigNameConverter converter = ContigNameConverter.fromContigSet(tb.getChromosomes());
@@ -334,16 +473,35 @@ public  class HtsFileServer extends Launcher {
 					pw.close();
 					}
 				}
+			catch(final Throwable err) {
+				this.pool.discard(tb);
+				throw err;
+				}
+			this.pool.release(tb);
 			}
 		}
 	
 	/** implementation for tabix files */
 	private class FastaInput extends AbstractInput {
+		private final ReaderPool<ReferenceSequenceFile> pool;
 		public FastaInput(final Path path) throws IOException{
 			super(path);
-			try(ReferenceSequenceFile ref= ReferenceSequenceFileFactory.getReferenceSequenceFile(path)) {
-				SequenceDictionaryUtils.extractRequired(ref);
-				}
+			this.pool = new ReaderPool<>(()->ReferenceSequenceFileFactory.getReferenceSequenceFile(path));
+			final ReferenceSequenceFile ref = this.pool.borrow();
+			SequenceDictionaryUtils.extractRequired(ref);
+			this.pool.release(ref);
+			}
+		@Override
+		boolean isCopyingWholeFile() {
+			return getPath().getFileName().toString().endsWith(".gz");
+			}
+		@Override
+		void evictIdle(long time) {
+			this.pool.evictIdle(time);
+			}
+		@Override
+		void dispose() {
+			this.pool.dispose();
 			}
 		@Override
 		String getOutputName() {
@@ -358,9 +516,9 @@ public  class HtsFileServer extends Launcher {
 		}
 
 		@Override
-		void dump(Locatable loc, OutputStream os, CRAMReferenceSource ignore) throws IOException {
+		void dump(Locatable loc, OutputStream os) throws IOException {
 			if(loc==null) {
-				if(getPath().getFileName().toString().endsWith(".gz")) {
+				if(isCopyingWholeFile()) {
 					IOUtils.copyTo(getPath(), os);
 					}
 				else
@@ -371,7 +529,8 @@ public  class HtsFileServer extends Launcher {
 					}
 				return;
 				}
-			try(ReferenceSequenceFile ref= ReferenceSequenceFileFactory.getReferenceSequenceFile(getPath())) {
+			final ReferenceSequenceFile ref = this.pool.borrow();
+			try {
 				try(final BlockCompressedOutputStream bos = new BlockCompressedOutputStream(os,(Path)null)) {
 					final PrintWriter pw = new PrintWriter(bos);
 					final ContigNameConverter converter = ContigNameConverter.fromOneDictionary(ref.getSequenceDictionary());
@@ -390,11 +549,18 @@ public  class HtsFileServer extends Launcher {
 					pw.close();
 					}
 				}
+			catch(final Throwable err) {
+				this.pool.discard(ref);
+				throw err;
+				}
+			this.pool.release(ref);
 			}
 		}
 	
 	private final Map<String,AbstractInput> htsMap = new HashMap<>();
 	private SAMSequenceDictionary dictionary = null;
+	/** shared reference for CRAM files */
+	private CRAMReferenceSource referenceSource = null;
 	
 	@SuppressWarnings("serial")
 	private  class HtsFileServerServlet extends HttpServlet {
@@ -481,12 +647,13 @@ public  class HtsFileServer extends Launcher {
 			prefix += loc.getContig()+"_"+loc.getStart()+"_"+loc.getEnd()+".";
 			}
 		
-		final CRAMReferenceSource referenceSource = (
-				selected.stream().anyMatch(I->I instanceof BamInput)?
-				new ReferenceSource(faidxRef)
-				: null
-				);
+		/* whole file requested with a 'Range' header, e.g. from a genome browser */
+		if(loc==null && selected.size()==1 && selected.get(0).isCopyingWholeFile() && request.getHeader("Range")!=null) {
+			dumpRange(selected.get(0),request,response);
+			return;
+			}
 		
+		response.setBufferSize(this.response_buffer_size);
 		try(PrintStream out = new PrintStream(response.getOutputStream())) {
 			final String charset = StringUtils.ifBlank(request.getCharacterEncoding(), "UTF-8");
 			response.setCharacterEncoding(charset);
@@ -497,8 +664,11 @@ public  class HtsFileServer extends Launcher {
 				response.addHeader("Content-Type",first.getContentType());
 				response.addHeader("Content-Disposition","attachment; name=\""+ fname +"\"; filename=\""+ fname +"\"");
 				response.setContentType("data/binary; charset="+charset.toLowerCase());
-
-				first.dump(loc, out,referenceSource);
+				if(loc==null && first.isCopyingWholeFile()) {
+					response.addHeader("Accept-Ranges", "bytes");
+					response.setContentLengthLong(Files.size(first.getPath()));
+					}
+				first.dump(loc, out);
 				}
 			else
 				{
@@ -513,7 +683,7 @@ public  class HtsFileServer extends Launcher {
 					final ZipEntry zipEntry= new ZipEntry(prefix+input.getOutputName());
 					zout.putNextEntry(zipEntry);
 					OutputStream uos = IOUtils.uncloseableOutputStream(zout);
-					input.dump(loc, uos,referenceSource);
+					input.dump(loc, uos);
 					zout.closeEntry();
 					if(out.checkError()) break;
 					}
@@ -525,6 +695,62 @@ public  class HtsFileServer extends Launcher {
 		
 		}
 
+	/** send a range of bytes of a file. Only one range is supported */
+	private void dumpRange(final AbstractInput input,final HttpServletRequest request,final HttpServletResponse response)	throws IOException, ServletException
+		{
+		final long fileSize = Files.size(input.getPath());
+		final String range = request.getHeader("Range").trim();
+		long start=-1L;
+		long end=-1L;
+		if(range.startsWith("bytes=") && range.indexOf(',')==-1) {
+			final int hyphen = range.indexOf('-');
+			try {
+				final String s1 = range.substring(6,hyphen).trim();
+				final String s2 = range.substring(hyphen+1).trim();
+				if(s1.isEmpty()) {/* suffix: last 'x' bytes */
+					start = Math.max(0L, fileSize - Long.parseLong(s2));
+					end = fileSize-1;
+					}
+				else
+					{
+					start = Long.parseLong(s1);
+					end = s2.isEmpty()?fileSize-1:Math.min(fileSize-1,Long.parseLong(s2));
+					}
+				}
+			catch(final IndexOutOfBoundsException|NumberFormatException err) {
+				start = -1L;
+				}
+			}
+		if(start<0L || start>end || start>=fileSize) {
+			response.reset();
+			response.addHeader("Content-Range", "bytes */"+fileSize);
+			response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE, "bad range "+range);
+			return;
+			}
+		final long length = (end-start)+1L;
+		response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+		response.setContentType(input.getContentType());
+		response.addHeader("Accept-Ranges", "bytes");
+		response.addHeader("Content-Range", "bytes "+start+"-"+end+"/"+fileSize);
+		response.setContentLengthLong(length);
+		response.setBufferSize(this.response_buffer_size);
+		try(SeekableByteChannel channel = Files.newByteChannel(input.getPath())) {
+			channel.position(start);
+			final OutputStream out = response.getOutputStream();
+			final ByteBuffer buffer = ByteBuffer.allocate(Math.max(1024,this.response_buffer_size));
+			long remain = length;
+			while(remain>0L) {
+				buffer.clear();
+				if(remain < buffer.capacity()) buffer.limit((int)remain);
+				final int nRead = channel.read(buffer);
+				if(nRead<=0) break;
+				out.write(buffer.array(), 0, nRead);
+				remain -= nRead;
+				}
+			out.flush();
+			}
+		}
+	
 	/** print HTML page */
 	private void printPage(final HttpServletRequest request,final HttpServletResponse response)	throws IOException, ServletException
 		{
@@ -719,8 +945,14 @@ public  class HtsFileServer extends Launcher {
 	public int doWork(final List<String> args) {
 	
 	
+		if(this.readers_per_file<0 || this.idle_timeout_seconds<1 || this.min_threads<1 || this.max_threads<this.min_threads) {
+			LOG.error("bad parameters for the pool of readers/threads.");
+			return -1;
+			}
+		ScheduledExecutorService evictionService = null;
 		try {
 			this.dictionary  = SequenceDictionaryUtils.extractRequired(this.faidxRef);
+			this.referenceSource = new ReferenceSource(this.faidxRef);
 			
 			final Set<String> filenames = new HashSet<>();
 			for(final Path path: IOUtils.unrollPaths(args)) {
@@ -767,7 +999,24 @@ public  class HtsFileServer extends Launcher {
 				}
 			
 			
-			final Server server = new Server(this.serverPort);
+			/* periodically close the readers that were not used */
+			evictionService = Executors.newSingleThreadScheduledExecutor(R->{
+				final Thread t = new Thread(R,"evict-readers");
+				t.setDaemon(true);
+				return t;
+				});
+			final long idle_millis = this.idle_timeout_seconds*1000L;
+			evictionService.scheduleWithFixedDelay(()->{
+				final long time = System.currentTimeMillis() - idle_millis;
+				this.htsMap.values().forEach(I->I.evictIdle(time));
+				}, this.idle_timeout_seconds, Math.max(1,this.idle_timeout_seconds/2), TimeUnit.SECONDS);
+			
+			final QueuedThreadPool threadPool = new QueuedThreadPool(this.max_threads, this.min_threads);
+			threadPool.setName(getProgramName());
+			final Server server = new Server(threadPool);
+			final ServerConnector connector = new ServerConnector(server);
+			connector.setPort(this.serverPort);
+			server.addConnector(connector);
 			
 			final ServletContextHandler context = new ServletContextHandler();
 	        context.addServlet(new ServletHolder(new HtsFileServerServlet()),"/*");
@@ -788,7 +1037,10 @@ public  class HtsFileServer extends Launcher {
 			LOG.error(err);
 			return -1;
 			}
-		
+		finally {
+			if(evictionService!=null) evictionService.shutdownNow();
+			this.htsMap.values().forEach(I->I.dispose());
+			}
 		}	
 
 
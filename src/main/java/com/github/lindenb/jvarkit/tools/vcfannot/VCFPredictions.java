@@ -37,6 +37,7 @@ import java.util.OptionalInt;
 import java.util.Set;
 import java.util.WeakHashMap;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import com.beust.jcommander.Parameter;
 import com.github.lindenb.jvarkit.jcommander.OnePassVcfLauncher;
@@ -48,6 +49,8 @@ import com.github.lindenb.jvarkit.util.bio.GeneticCode;
 import com.github.lindenb.jvarkit.util.bio.SequenceDictionaryUtils;
 import com.github.lindenb.jvarkit.util.bio.fasta.ContigNameConverter;
 import com.github.lindenb.jvarkit.util.bio.structure.ExonOrIntron;
+import com.github.lindenb.jvarkit.util.bio.structure.Gene;
+import com.github.lindenb.jvarkit.util.bio.structure.GtfBinaryCache;
 import com.github.lindenb.jvarkit.util.bio.structure.GtfReader;
 import com.github.lindenb.jvarkit.util.bio.structure.PeptideSequence;
 import com.github.lindenb.jvarkit.util.bio.structure.RNASequence;
@@ -146,12 +149,19 @@ public class VCFPredictions extends OnePassVcfLauncher
 	private static final Logger LOG = Logger.build(VCFPredictions.class).make();
 	private enum OutputSyntax {Native,Vep,SnpEff };
 	private IntervalTreeMap<List<Transcript>> transcriptTreeMap = null;
+	/** binary snapshot of the GTF, if --gtf-cache was set. transcriptTreeMap then only contains the transcripts of 'transcriptTreeContig' */
+	private GtfBinaryCache gtfCache = null;
+	private String transcriptTreeContig = null;
 	private ReferenceSequenceFile referenceGenome = null;
 	private final WeakHashMap<String, RNASequence> transcriptId2cdna = new WeakHashMap<>();
 	private GenomicSequence genomicSequence = null;
 
 	@Parameter(names={"-k","-g","--gtf"},description=GtfReader.OPT_DESC,required=true)
 	private Path gtfPath = null;
+	@Parameter(names={"--gtf-cache"},description=GtfBinaryCache.OPT_DESC)
+	private Path gtfCachePath = null;
+	@Parameter(names={"--gtf-threads"},description="Number of threads used to parse the GTF file.")
+	private int gtfThreads = 1;
 
 	@Parameter(names={"-os","--output-syntax","--syntax"},description="Output formatting syntax.")
 	private OutputSyntax outputSyntax = OutputSyntax.SnpEff;
@@ -310,30 +320,47 @@ public class VCFPredictions extends OnePassVcfLauncher
 			
 			in = new GtfReader(this.gtfPath);
 			in.setContigNameConverter(contigNameConverter);
-			in.getAllGenes().
-				stream().
-				flatMap(G->G.getTranscripts().stream()).
-				filter(G->G.hasCDS() && G.hasStrand()).
-				forEach(g->{
-				final int extend_gene_search = 5000; // because we want to set
-														// SO:5KB_upstream_variant
-				final Interval interval = new Interval(
-						g.getContig(),
-						Math.max(1, g.getTxStart() + 1 - extend_gene_search),
-						g.getTxEnd() + extend_gene_search
-						);
-				List<Transcript> L= this.transcriptTreeMap.get(interval);
-				if(L==null) {
-					L=new ArrayList<>(2);
-					this.transcriptTreeMap.put(interval, L);
-				}
-				L.add(g);
-				});
+			in.setBinaryCache(this.gtfCachePath);
+			in.setThreads(this.gtfThreads);
+			this.gtfCache = in.openBinaryCache();
+			if(this.gtfCache==null) addTranscripts(in.getAllGenes().stream());
 			}
 		finally {
 			CloserUtil.close(in);
 			}
 		}
+	
+	/** insert the coding transcripts of the genes in transcriptTreeMap */
+	private void addTranscripts(final Stream<Gene> genes) {
+		genes.flatMap(G->G.getTranscripts().stream()).
+			filter(G->G.hasCDS() && G.hasStrand()).
+			forEach(g->{
+			final int extend_gene_search = 5000; // because we want to set
+													// SO:5KB_upstream_variant
+			final Interval interval = new Interval(
+					g.getContig(),
+					Math.max(1, g.getTxStart() + 1 - extend_gene_search),
+					g.getTxEnd() + extend_gene_search
+					);
+			List<Transcript> L= this.transcriptTreeMap.get(interval);
+			if(L==null) {
+				L=new ArrayList<>(2);
+				this.transcriptTreeMap.put(interval, L);
+			}
+			L.add(g);
+			});
+		}
+	
+	/** @return the transcripts for this contig. With a binary snapshot, only the genes of the current contig are decoded */
+	private IntervalTreeMap<List<Transcript>> getTranscriptTreeMap(final String normalizedContig) {
+		if(this.gtfCache!=null && !normalizedContig.equals(this.transcriptTreeContig)) {
+			this.transcriptTreeMap = new IntervalTreeMap<>();
+			addTranscripts(this.gtfCache.query(new SimpleInterval(normalizedContig, 1, Integer.MAX_VALUE-1)).stream());
+			this.transcriptTreeContig = normalizedContig;
+			}
+		return this.transcriptTreeMap;
+		}
+	
 	private boolean isStop(char c)
 		{
 		return !Character.isLetter(c);
@@ -429,7 +456,8 @@ public class VCFPredictions extends OnePassVcfLauncher
 					}
 				
 				
-				final List<Transcript> transcripts =  this.transcriptTreeMap.getOverlapping(new SimpleInterval(normalizedContig,ctx.getStart(),ctx.getEnd() )).
+				final IntervalTreeMap<List<Transcript>> transcriptTreeMap = getTranscriptTreeMap(normalizedContig);
+				final List<Transcript> transcripts =  transcriptTreeMap.getOverlapping(new SimpleInterval(normalizedContig,ctx.getStart(),ctx.getEnd() )).
 						stream().
 						flatMap(L->L.stream()).
 						collect(Collectors.toList());
@@ -457,7 +485,7 @@ public class VCFPredictions extends OnePassVcfLauncher
 						String leftId="";
 						String leftName="";
 						
-						for(Iterator<Transcript> iter=this.transcriptTreeMap.getOverlapping(new SimpleInterval(normalizedContig,1,ctx.getStart())).
+						for(Iterator<Transcript> iter=transcriptTreeMap.getOverlapping(new SimpleInterval(normalizedContig,1,ctx.getStart())).
 								stream().
 								flatMap(L->L.stream()).
 								iterator();
@@ -476,7 +504,7 @@ public class VCFPredictions extends OnePassVcfLauncher
 						String rightId="";
 						String rightName="";
 	
-						for(Iterator<Transcript> iter=this.transcriptTreeMap.getOverlapping(new SimpleInterval(normalizedContig,ctx.getEnd(),dict.getSequence(normalizedContig).getSequenceLength())).
+						for(Iterator<Transcript> iter=transcriptTreeMap.getOverlapping(new SimpleInterval(normalizedContig,ctx.getEnd(),dict.getSequence(normalizedContig).getSequenceLength())).
 								stream().flatMap(L->L.stream()).iterator();
 								iter.hasNext();
 								)
@@ -693,6 +721,7 @@ public class VCFPredictions extends OnePassVcfLauncher
 			CloserUtil.close(w);
 			CloserUtil.close(r);
 			CloserUtil.close(this.referenceGenome);
+			CloserUtil.close(this.gtfCache);
 			}
 		}
 	
@@ -27,11 +27,14 @@ package com.github.lindenb.jvarkit.tools.vcfbed;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Optional;
 import java.util.Set;
 import java.util.function.Function;
+import java.util.function.UnaryOperator;
 
 import org.apache.commons.jexl2.JexlContext;
 
@@ -58,7 +61,6 @@ import htsjdk.samtools.util.RuntimeIOException;
 import htsjdk.samtools.util.StringUtil;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.VariantContextBuilder;
-import htsjdk.variant.variantcontext.writer.VariantContextWriter;
 import htsjdk.variant.vcf.VCFHeader;
 import htsjdk.variant.vcf.VCFHeaderLineCount;
 import htsjdk.variant.vcf.VCFHeaderLineType;
@@ -67,7 +69,6 @@ import htsjdk.variant.vcf.VCFInfoHeaderLine;
 import com.github.lindenb.jvarkit.util.vcf.VCFUtils;
 import com.github.lindenb.jvarkit.variant.variantcontext.Breakend;
 
-import htsjdk.variant.vcf.VCFIterator;
 
 
 /**
@@ -274,14 +275,40 @@ public class VCFBed extends OnePassVcfLauncher
 		return LOG;
 		}
 	
+	/** find the BED records overlapping 'interval'. The indexed reader is shared by the workers, its access is synchronized */
+	private List<BedLine> getOverlappingBedLines(final SimpleInterval interval) {
+		final List<BedLine> bedLines = new ArrayList<>();
+		if(this.intervalTreeMap!=null) {
+			for(final Set<BedLine> set :this.intervalTreeMap.getOverlapping(interval)) {
+				bedLines.addAll(set);
+				}
+			}
+		else
+			{
+			synchronized(this.bedReader) {
+				try(CloseableIterator<BedLine> iter = this.bedReader.iterator(
+							interval.getContig(),
+							Math.max(0, interval.getStart()-1),
+							interval.getEnd()+1
+							)) {
+					while(iter.hasNext())
+						{
+						bedLines.add(iter.next());
+						}
+					}
+				catch(final IOException ioe)
+					{
+					LOG.error(ioe);
+					throw new RuntimeIOException(ioe);
+					}
+				}
+			}
+		return bedLines;
+		}
+	
 	@Override
-	protected int doVcfToVcf(
-			final String inputName,
-			final  VCFIterator vcfin,
-			final  VariantContextWriter out)
+	protected UnaryOperator<VariantContext> createVariantTransformer(final String inputName,final VCFHeader header)
 		{	
-		final VCFHeader header = vcfin.getHeader();
-		final VCFHeader h2=new VCFHeader(header);
 		final VCFInfoHeaderLine infoHeader= 
 				new VCFInfoHeaderLine(
 						this.infoName,
@@ -300,17 +327,14 @@ public class VCFBed extends OnePassVcfLauncher
 				new VCFInfoHeaderLine(this.infoName+"_C",1,VCFHeaderLineType.Integer, "Number of finer overlap within distance "+inputBedFile+" and overlap bed:"+this.min_overlap_bed_fraction+" and overlap vcf: "+this.min_overlap_vcf_fraction)	
 				;
 		
-		if(infoCountBasicOverlap!=null) h2.addMetaDataLine(infoCountBasicOverlap);
-		if(infoCountFinerOverlap!=null) h2.addMetaDataLine(infoCountFinerOverlap);
+		if(infoCountBasicOverlap!=null) header.addMetaDataLine(infoCountBasicOverlap);
+		if(infoCountFinerOverlap!=null) header.addMetaDataLine(infoCountFinerOverlap);
 		
-		h2.addMetaDataLine(infoHeader);
+		header.addMetaDataLine(infoHeader);
 		
-		JVarkitVersion.getInstance().addMetaData(this, h2);
-		out.writeHeader(h2);
+		JVarkitVersion.getInstance().addMetaData(this, header);
 		
-		while(vcfin.hasNext())
-			{
-			final VariantContext ctx =  vcfin.next();
+		return ctx->{
 			final VariantContextBuilder vcb=new VariantContextBuilder(ctx);
 			
 			vcb.rmAttribute(infoCountBasicOverlap.getID());
@@ -320,14 +344,12 @@ public class VCFBed extends OnePassVcfLauncher
 			
 			if(this.ignoreFILTERed && ctx.isFiltered())
 				{
-				out.add(vcb.make());
-				continue;
+				return vcb.make();
 				}
 			
 			final String normalizedContig =  this.contigNameConverter.apply(ctx.getContig());
 			if(StringUtil.isBlank(normalizedContig)) {
-				out.add(ctx);
-				continue;
+				return ctx;
 				}
 			
 			
@@ -367,63 +389,28 @@ public class VCFBed extends OnePassVcfLauncher
 			final Set<String> annotations = new LinkedHashSet<>();
 			
 			
-			if(this.intervalTreeMap!=null) {
-				for(final Set<BedLine> bedLines :this.intervalTreeMap.getOverlapping(extendedInterval)) {
-					for(final BedLine bedLine:bedLines) {
-						count_basic_overlap++;
-						if(!testFinerIntersection(theInterval,bedLine)) continue;
-						count_finer_overlap++;
-						final String newannot= this.bedJexlToString.apply(new BedJEXLContext(bedLine,ctx));
-						if(!StringUtil.isBlank(newannot))
-							{
-							annotations.add(VCFUtils.escapeInfoField(newannot));
-							}
-						}
-				  }
-				}
-			else
-				{
-				try(CloseableIterator<BedLine> iter = this.bedReader.iterator(
-							theInterval.getContig(),
-							Math.max(0, theInterval.getStart()-1),
-							theInterval.getEnd()+1
-							)) {
-					while(iter.hasNext())
-						{
-						final BedLine bedLine = iter.next();
-						
-						if(!theInterval.contigsMatch(bedLine)) continue;
-						if(!extendedInterval.withinDistanceOf(bedLine, this.within_distance)) continue;
-						count_basic_overlap++;
-						if(!testFinerIntersection(theInterval,bedLine)) continue;
-						count_finer_overlap++;
-	
-						final String newannot= this.bedJexlToString.apply(new BedJEXLContext(bedLine, ctx));
-						if(!StringUtil.isBlank(newannot))
-							annotations.add(VCFUtils.escapeInfoField(newannot));
-						}
+			for(final BedLine bedLine : getOverlappingBedLines(this.intervalTreeMap!=null?extendedInterval:theInterval)) {
+				if(this.intervalTreeMap==null) {
+					if(!theInterval.contigsMatch(bedLine)) continue;
+					if(!extendedInterval.withinDistanceOf(bedLine, this.within_distance)) continue;
 					}
-				catch(final IOException ioe)
+				count_basic_overlap++;
+				if(!testFinerIntersection(theInterval,bedLine)) continue;
+				count_finer_overlap++;
+				final String newannot= this.bedJexlToString.apply(new BedJEXLContext(bedLine,ctx));
+				if(!StringUtil.isBlank(newannot))
 					{
-					LOG.error(ioe);
-					throw new RuntimeIOException(ioe);
+					annotations.add(VCFUtils.escapeInfoField(newannot));
 					}
-					
 				}
-				
-			
 			
 			if(!annotations.isEmpty()) {
 				vcb.attribute(infoHeader.getID(), annotations.toArray());
 				}
 			vcb.attribute(infoCountBasicOverlap.getID(),count_basic_overlap);
 			vcb.attribute(infoCountFinerOverlap.getID(),count_finer_overlap);
-				
-			out.add(vcb.make());
-				
-			}
-		out.close();
-		return 0;
+			return vcb.make();
+			};
 		}
 	
 
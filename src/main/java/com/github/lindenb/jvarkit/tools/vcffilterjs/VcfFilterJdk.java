@@ -31,13 +31,13 @@ import java.io.StringWriter;
 import java.lang.reflect.Constructor;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Date;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
@@ -48,6 +48,7 @@ import com.github.lindenb.jvarkit.lang.StringUtils;
 import com.github.lindenb.jvarkit.pedigree.Pedigree;
 import com.github.lindenb.jvarkit.pedigree.PedigreeParser;
 import com.github.lindenb.jvarkit.io.IOUtils;
+import com.github.lindenb.jvarkit.iterator.ParallelMapIterator;
 import com.github.lindenb.jvarkit.lang.JvarkitException;
 import com.github.lindenb.jvarkit.util.Counter;
 import com.github.lindenb.jvarkit.util.JVarkitVersion;
@@ -56,10 +57,10 @@ import com.github.lindenb.jvarkit.util.vcf.VariantAttributesRecalculator;
 import htsjdk.variant.vcf.VCFIterator;
 import com.github.lindenb.jvarkit.util.vcf.VcfTools;
 import com.github.lindenb.jvarkit.variant.variantcontext.writer.WritingVariantsDelegate;
+import com.github.lindenb.jvarkit.variant.vcf.LazyGenotypesUtils;
 
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.IOUtil;
-import htsjdk.samtools.util.Iso8601Date;
 import htsjdk.samtools.util.RuntimeIOException;
 import htsjdk.samtools.util.StringUtil;
 import htsjdk.variant.variantcontext.Allele;
@@ -467,6 +468,9 @@ public class VcfFilterJdk
 
 	@Parameter(names={"-p","--pedigree"},description="Optional pedigree file. " + PedigreeParser.OPT_DESC)
 	private Path pedigreePath = null;
+	
+	@Parameter(names={"--threads"},description="Number of threads. If greater than 1, one instance of the filter is created per thread and the variants are evaluated in parallel, by batches. The output order is preserved. Each instance has its own 'userData' and the keys 'first.variant', 'last.variant' and 'STOP' are not available. A filter relying on the order of the variants (e.g. a counter) must override 'public boolean isParallelizable()' to return false (option --body).")
+	private int nThreads = 1;
 
 	
 	@ParametersDelegate
@@ -508,6 +512,8 @@ public class VcfFilterJdk
 		
     	public Pedigree getPedigree() { return this.pedigree;}
     	public boolean hasPedigree() { return this.pedigree!=null;}
+    	/** with --threads, return false if this filter relies on the order of the variants: they will be evaluated in one thread */
+    	public boolean isParallelizable() { return true;}
 
 		}
 	
@@ -540,9 +546,7 @@ public class VcfFilterJdk
 				{
 				code = this.scriptExpr;
 				}
-			final Random rand= new  Random(System.currentTimeMillis());
-			final String javaClassName =VcfFilterJdk.class.getSimpleName()+
-					"Custom"+ Math.abs(rand.nextInt());
+			final String javaClassName = OpenJdkCompiler.createClassName(VcfFilterJdk.class, code);
 			
 			final String generatedClassName= OpenJdkCompiler.getGeneratedAnnotationClassName();
 			final StringWriter codeWriter=new StringWriter();
@@ -555,7 +559,7 @@ public class VcfFilterJdk
 			pw.println("import htsjdk.variant.vcf.*;");
 	
 			if(!StringUtil.isBlank(generatedClassName)) {
-				pw.println("@"+generatedClassName+"(value=\""+VcfFilterJdk.class.getSimpleName()+"\",date=\""+ new Iso8601Date(new Date()) +"\")");
+				pw.println("@"+generatedClassName+"(value=\""+VcfFilterJdk.class.getSimpleName()+"\")");
 				}
 			pw.println("public class "+javaClassName+" extends "+AbstractFilter.class.getName().replace('$', '.')+" {");
 			pw.println("  public "+javaClassName+"(final VCFHeader header) {");
@@ -689,78 +693,47 @@ public class VcfFilterJdk
 			filter_instance.userData.put("last.variant", Boolean.FALSE);
 	
 			progress = ProgressFactory.newInstance().dictionary(header).logger(LOG).build();
+			
+			if(this.nThreads>1 && !filter_instance.isParallelizable()) {
+				LOG.warning("The filter is not parallelizable. Option --threads is ignored.");
+				}
+			else if(this.nThreads>1) {
+				final ProgressFactory.Watcher<VariantContext> watcher = progress;
+				final Pedigree pedigree = filter_instance.pedigree;
+				/* genotypes are decoded here because htsjdk decodes the lazy genotypes with the shared codec of the reader */
+				try(ParallelMapIterator<VariantContext,List<VariantContext>> piter = new ParallelMapIterator<>(
+					iter.stream().map(watcher).map(LazyGenotypesUtils::decodeGenotypes).iterator(),
+					()->{
+						final AbstractFilter f;
+						try {
+							f = (AbstractFilter)constructor.newInstance(header);
+							}
+						catch(final Exception err) {
+							throw new RuntimeException(err);
+							}
+						f.pedigree = pedigree;
+						return V->evaluate(f, V, filterHeaderLine);
+						},
+					this.nThreads)) {
+					while(piter.hasNext() && !out.checkError()) {
+						for(final VariantContext ctx: piter.next()) {
+							recalcAndAdd.accept(ctx);
+							}
+						}
+					}
+				progress.close();
+				progress = null;
+				return 0;
+				}
+			
 			while (iter.hasNext() && !out.checkError())
 				{				
 				final VariantContext variation=progress.apply(iter.next());
 				
 				/* handle variant */
-				final Object result = filter_instance.apply(variation);
-				// result is an array of a collection of variants
-				if(result!=null && (result.getClass().isArray() || (result instanceof Collection)))
-					{
-					final  Collection<?> col;
-					if(result.getClass().isArray())
-						{
-						final Object array[]=(Object[])result;
-						col= Arrays.asList(array);
-						}
-					else
-						{
-						col =( Collection<?>)result;
-						}
-					// write all of variants
-					for(final Object item:col)
-						{
-						if(item==null) throw new JvarkitException.UserError("item in array is null");
-						if(!(item instanceof VariantContext)) throw new JvarkitException.UserError("item in array is not a VariantContext "+item.getClass());
-						recalcAndAdd.accept(VariantContext.class.cast(item));
-						}
-					}
-				// result is a VariantContext
-				else if(result!=null && (result instanceof VariantContext)) {
-					recalcAndAdd.accept(VariantContext.class.cast(result));
+				for(final VariantContext ctx: evaluate(filter_instance, variation, filterHeaderLine)) {
+					recalcAndAdd.accept(ctx);
 					}
-				else
-					{
-					boolean accept=true;
-					if(result==null)
-						{
-						accept=false;
-						}
-					else if(result instanceof Boolean)
-						{
-						if(Boolean.FALSE.equals(result)) accept = false;
-						}
-					else if(result instanceof Number)
-						{
-						if(((Number)result).intValue()!=1) accept = false;
-						}
-					else
-						{
-						LOG.warn("Script returned something that is not a boolean or a number:"+result.getClass());
-						accept = false;
-						}
-					if (!accept)
-						{
-						if(filterHeaderLine!=null)
-							{
-							final VariantContextBuilder vcb = new VariantContextBuilder(variation);
-							vcb.filter(filterHeaderLine.getID());
-							recalcAndAdd.accept(vcb.make());
-							}
-						continue;
-						}
-					
-					// set PASS filter if needed
-					if(filterHeaderLine!=null && !variation.isFiltered())
-						{
-						recalcAndAdd.accept( new VariantContextBuilder(variation).passFilters().make());
-						continue;
-						}
-					recalcAndAdd.accept(variation);
-					}
-
-				
 				
 				/* end handle variant */
 				
@@ -786,6 +759,80 @@ public class VcfFilterJdk
 			}
 		}
 	
+	/** apply the filter to one variant, returns the variants to be written */
+	private static List<VariantContext> evaluate(
+			final AbstractFilter filter_instance,
+			final VariantContext variation,
+			final VCFFilterHeaderLine filterHeaderLine
+			) {
+		final Object result = filter_instance.apply(variation);
+		// result is an array of a collection of variants
+		if(result!=null && (result.getClass().isArray() || (result instanceof Collection)))
+			{
+			final  Collection<?> col;
+			if(result.getClass().isArray())
+				{
+				final Object array[]=(Object[])result;
+				col= Arrays.asList(array);
+				}
+			else
+				{
+				col =( Collection<?>)result;
+				}
+			final List<VariantContext> L = new ArrayList<>(col.size());
+			// write all of variants
+			for(final Object item:col)
+				{
+				if(item==null) throw new JvarkitException.UserError("item in array is null");
+				if(!(item instanceof VariantContext)) throw new JvarkitException.UserError("item in array is not a VariantContext "+item.getClass());
+				L.add(VariantContext.class.cast(item));
+				}
+			return L;
+			}
+		// result is a VariantContext
+		else if(result!=null && (result instanceof VariantContext)) {
+			return Collections.singletonList(VariantContext.class.cast(result));
+			}
+		else
+			{
+			boolean accept=true;
+			if(result==null)
+				{
+				accept=false;
+				}
+			else if(result instanceof Boolean)
+				{
+				if(Boolean.FALSE.equals(result)) accept = false;
+				}
+			else if(result instanceof Number)
+				{
+				if(((Number)result).intValue()!=1) accept = false;
+				}
+			else
+				{
+				LOG.warn("Script returned something that is not a boolean or a number:"+result.getClass());
+				accept = false;
+				}
+			if (!accept)
+				{
+				if(filterHeaderLine!=null)
+					{
+					final VariantContextBuilder vcb = new VariantContextBuilder(variation);
+					vcb.filter(filterHeaderLine.getID());
+					return Collections.singletonList(vcb.make());
+					}
+				return Collections.emptyList();
+				}
+			
+			// set PASS filter if needed
+			if(filterHeaderLine!=null && !variation.isFiltered())
+				{
+				return Collections.singletonList(new VariantContextBuilder(variation).passFilters().make());
+				}
+			return Collections.singletonList(variation);
+			}
+		}
+	
 	@Override
 	public int doWork(final List<String> args) {
 		if(this.scriptPath!=null && !StringUtil.isBlank(this.scriptExpr))
@@ -799,6 +846,10 @@ public class VcfFilterJdk
 			LOG.error("script file or expression missing");
 			return -1;
 			}	
+		if(this.nThreads<1) {
+			LOG.error("bad number of threads: "+this.nThreads);
+			return -1;
+			}
 		VCFIterator in = null;
 		VariantContextWriter w = null;
 		try {
@@ -24,9 +24,11 @@ SOFTWARE.
 */
 package com.github.lindenb.jvarkit.tools.vcfpar;
 
+import java.util.function.UnaryOperator;
 
 import com.beust.jcommander.Parameter;
 import com.github.lindenb.jvarkit.jcommander.OnePassVcfLauncher;
+import com.github.lindenb.jvarkit.lang.JvarkitException;
 import com.github.lindenb.jvarkit.lang.StringUtils;
 import com.github.lindenb.jvarkit.util.JVarkitVersion;
 import com.github.lindenb.jvarkit.util.bio.SequenceDictionaryUtils;
@@ -38,11 +40,10 @@ import htsjdk.samtools.util.CoordMath;
 import htsjdk.samtools.util.Locatable;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.VariantContextBuilder;
-import htsjdk.variant.variantcontext.writer.VariantContextWriter;
 import htsjdk.variant.vcf.VCFHeader;
 import htsjdk.variant.vcf.VCFHeaderLineType;
 import htsjdk.variant.vcf.VCFInfoHeaderLine;
-import htsjdk.variant.vcf.VCFIterator;
+
 /*
 BEGIN_DOC
 
@@ -132,9 +133,8 @@ public class VcfPseudoAutosomalRegion extends OnePassVcfLauncher
 	}
 	
 	@Override
-	protected int doVcfToVcf(String inputName, VCFIterator iterin, VariantContextWriter out) {
+	protected UnaryOperator<VariantContext> createVariantTransformer(final String inputName,final VCFHeader header) {
 		final ParRegionDefition parDefinition;
-		final VCFHeader header= iterin.getHeader();
 		final SAMSequenceDictionary dict = SequenceDictionaryUtils.extractRequired(header);
 		// https://en.wikipedia.org/wiki/Pseudoautosomal_region#Location
 		if(SequenceDictionaryUtils.isGRCh38(dict)) {
@@ -153,8 +153,7 @@ public class VcfPseudoAutosomalRegion extends OnePassVcfLauncher
 			}
 		else
 			{
-			LOG.error("Vcf dictionary doesn't look like a known human reference.");
-			return -1;
+			throw new JvarkitException.UserError("Vcf dictionary doesn't look like a known human reference.");
 			}
 		final VCFInfoHeaderLine info = new VCFInfoHeaderLine(
 				this.tag,1,
@@ -168,8 +167,7 @@ public class VcfPseudoAutosomalRegion extends OnePassVcfLauncher
         
 		if(!StringUtils.isBlank(this.autosome_tag)) {
 			if(this.tag.equals(this.autosome_tag)) {
-				LOG.error("autosome INFO/TAG is same as sexual INFO/TAG.");
-				return -1;
+				throw new JvarkitException.UserError("autosome INFO/TAG is same as sexual INFO/TAG.");
 				}
 			autosome = new VCFInfoHeaderLine(
 					this.autosome_tag,1,
@@ -183,22 +181,19 @@ public class VcfPseudoAutosomalRegion extends OnePassVcfLauncher
 		
 		
 		JVarkitVersion.getInstance().addMetaData(this, header);
-		out.writeHeader(header);
-		while(iterin.hasNext()) {
-			final VariantContext ctx = iterin.next();
+		return ctx->{
 			if(parDefinition.isSex(ctx)) {
-				out.add(new VariantContextBuilder(ctx).attribute(info.getID(), Boolean.TRUE).make());
+				return new VariantContextBuilder(ctx).attribute(info.getID(), Boolean.TRUE).make();
 				}
 			else if(autosome!=null && !isMitochondrial(ctx.getContig())) 
 				{
-				out.add(new VariantContextBuilder(ctx).attribute(autosome.getID(), Boolean.TRUE).make());
+				return new VariantContextBuilder(ctx).attribute(autosome.getID(), Boolean.TRUE).make();
 				}
 			else
 				{
-				out.add(ctx);
+				return ctx;
 				}
-			}
-		return 0;
+			};
 		}
 	
 
@@ -26,18 +26,26 @@ import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import com.beust.jcommander.Parameter;
@@ -57,10 +65,13 @@ import com.github.lindenb.jvarkit.util.ucsc.KnownGene;
 import com.github.lindenb.jvarkit.util.vcf.ContigPosRef;
 import htsjdk.variant.vcf.VCFIterator;
 import com.github.lindenb.jvarkit.util.vcf.VcfTools;
+import com.github.lindenb.jvarkit.variant.vcf.VCFReaderFactory;
 
 import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.FileExtensions;
 import htsjdk.samtools.util.IntervalTreeMap;
 import htsjdk.samtools.util.Locatable;
 import htsjdk.samtools.util.RuntimeIOException;
@@ -70,8 +81,12 @@ import htsjdk.variant.variantcontext.GenotypeType;
 import htsjdk.variant.variantcontext.StructuralVariantType;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.writer.VariantContextWriter;
+import htsjdk.tribble.AbstractFeatureReader;
+import htsjdk.tribble.FeatureReader;
+import htsjdk.variant.vcf.VCFCodec;
 import htsjdk.variant.vcf.VCFConstants;
 import htsjdk.variant.vcf.VCFHeader;
+import htsjdk.variant.vcf.VCFReader;
 /*
 BEGIN_DOC
 
@@ -252,6 +267,8 @@ public class VcfStats extends Launcher
 	private boolean disableGenotypeConcordance=false;
 	@Parameter(names={"--binSize"},description="[20170718] When plotting data over a genome, divide it into 'N' bp.")
 	private int binSize = 1_000_000;
+	@Parameter(names={"--threads"},description="Number of threads. If greater than 1, the input must be an indexed VCF file (a BCF must have a sequence dictionary): each contig of the index is processed by a thread, no more than 'threads' contigs are pending at once, and the statistics of the contigs are merged in the order of the file. Output is the same as with one thread.")
+	private int nThreads = 1;
 	
 	private ArchiveFactory archiveFactory=null;
 	/** the SAMSequenceDictionary used to sort reference */
@@ -492,6 +509,19 @@ public class VcfStats extends Launcher
 				}
 			}
 		
+		/** add the counts of 'other', the statistics of the next contigs */
+		protected void merge(final AbstractStat other)
+			{
+			this.countDepth.merge(other.countDepth);
+			this.countDistances.merge(other.countDistances);
+			this.nucleicAcidChanges.merge(other.nucleicAcidChanges);
+			this.geneLocations.merge(other.geneLocations);
+			this.consequences.merge(other.consequences);
+			this.variantsPerContigs.merge(other.variantsPerContigs);
+			this.countBins.merge(other.countBins);
+			this.countStructuralVariations.merge(other.countStructuralVariations);
+			this.prevCtx = other.prevCtx;
+			}
 		}
 	
 	
@@ -510,6 +540,9 @@ public class VcfStats extends Launcher
 		private final Set<SequenceOntologyTree.Term> sequenceOntologyTermsToObserve=new HashSet<>();
 		private final String key;
 		private PlotMaf mafPlotter= null;
+		/** when not null, the MAF points are kept in memory (case,control,case,control...) and written by finish() */
+		private double[] mafBuffer = null;
+		private int mafBufferSize = 0;
 		private final Set<String> affectedSamples;
 		private final Set<String> unaffectedSamples;
 		private final Map<String,SampleStat> sample2stats = new TreeMap<>();
@@ -589,6 +622,13 @@ public class VcfStats extends Launcher
 
 					}
 				}
+			void merge(final SampleStat other)
+				{
+				super.merge(other);
+				this.countTypes.merge(other.countTypes);
+				this.countMendelianViolations.merge(other.countMendelianViolations);
+				}
+			
 			public void finish(final PrintWriter makefileWriter) throws IOException
 				{
 				
@@ -756,6 +796,17 @@ public class VcfStats extends Launcher
 					
 					
 						
+						if(this.mafBuffer!=null)
+							{
+							if(this.mafBufferSize+2 > this.mafBuffer.length)
+								{
+								this.mafBuffer = Arrays.copyOf(this.mafBuffer, Math.max(16, this.mafBuffer.length*2));
+								}
+							this.mafBuffer[this.mafBufferSize++] = mafs[0];
+							this.mafBuffer[this.mafBufferSize++] = mafs[1];
+							continue;
+							}
+						
 						if(this.mafPlotter==null)
 							{
 							//it's a new plotter
@@ -819,6 +870,35 @@ public class VcfStats extends Launcher
 				}
 			
 			}
+		/** keep the MAF points in memory instead of writing them, the VariantStats will be merged */
+		void bufferMafPoints()
+			{
+			if(this.mafBuffer==null) this.mafBuffer = new double[0];
+			}
+		
+		/** add the statistics of 'other', the statistics of the next contigs */
+		void merge(final VariantStats other)
+			{
+			super.merge(other);
+			this.countVariants += other.countVariants;
+			this.countTypes.merge(other.countTypes);
+			this.countAffectedSamples.merge(other.countAffectedSamples);
+			this.countAltAlleles.merge(other.countAltAlleles);
+			this.countIndelSize.merge(other.countIndelSize);
+			this.genotypeConcordance.merge(other.genotypeConcordance);
+			for(final String sn: this.sample2stats.keySet())
+				{
+				this.sample2stats.get(sn).merge(other.sample2stats.get(sn));
+				}
+			if(other.mafBufferSize>0)
+				{
+				bufferMafPoints();
+				this.mafBuffer = Arrays.copyOf(this.mafBuffer, this.mafBufferSize + other.mafBufferSize);
+				System.arraycopy(other.mafBuffer, 0, this.mafBuffer, this.mafBufferSize, other.mafBufferSize);
+				this.mafBufferSize += other.mafBufferSize;
+				}
+			}
+		
 		private String toTsv(final String filename)
 			{
 			return VcfStats.this.prefix+this.key+"."+filename+".tsv";
@@ -834,6 +914,16 @@ public class VcfStats extends Launcher
 		/** output results */
 		public void finish(final PrintWriter makefileWriter) throws IOException
 		{
+		if(this.mafBufferSize>0)
+			{
+			this.mafPlotter = new PlotMaf(key);
+			for(int i=0;i+1< this.mafBufferSize;i+=2)
+				{
+				this.mafPlotter.plot(this.mafBuffer[i], this.mafBuffer[i+1]);
+				}
+			this.mafBuffer = null;
+			this.mafBufferSize = 0;
+			}
 
 		if(!this.countTypes.isEmpty())
 			{
@@ -842,7 +932,7 @@ public class VcfStats extends Launcher
 			PrintWriter pw = VcfStats.this.archiveFactory.openWriter(filename);
 			pw.println("Type\tCount");
 
-			for(final VariantContext.Type type: this.countTypes.keySet())
+			for(final VariantContext.Type type: new TreeSet<>(this.countTypes.keySet()))
 				{
 				pw.println(type.name()+"\t"+this.countTypes.count(type));
 				}
@@ -949,7 +1039,10 @@ public class VcfStats extends Launcher
 			PrintWriter pw = VcfStats.this.archiveFactory.openWriter(filename);
 			pw.println("Contig\tCount");
 
-			for(final String contig: this.variantsPerContigs.keySetDecreasing())
+			final List<String> contigs = new ArrayList<>(this.variantsPerContigs.keySet());
+			Collections.sort(contigs);
+			contigs.sort((A,B)->Long.compare(this.variantsPerContigs.count(B), this.variantsPerContigs.count(A)));
+			for(final String contig: contigs)
 				{
 				pw.println(contig+"\t"+this.variantsPerContigs.count(contig));
 				}
@@ -1439,7 +1532,7 @@ public class VcfStats extends Launcher
 				{
 				final String filename=toTsv("predictions");
 				PrintWriter pw = VcfStats.this.archiveFactory.openWriter(filename);
-				for(final String k: this.consequences.keySet())
+				for(final String k: new TreeSet<>(this.consequences.keySet()))
 					{
 				
 					long n=this.consequences.count(k); if(n==0L) continue;
@@ -1751,12 +1844,125 @@ public class VcfStats extends Launcher
 	
 	
 	
+	/** dispatch a variant to the statistics of its categories */
+	private void visit(final VariantContext ctx,final VCFHeader header,final Map<String,VariantStats> category2stats)
+		{
+		for(final String category: this.variantToCategoryKeys.apply(ctx))
+			{
+			VariantStats vcstat = category2stats.get(category);
+			if(vcstat==null) {
+				vcstat = new VariantStats(category,header);
+				if(this.nThreads>1) vcstat.bufferMafPoints();
+				category2stats.put(category, vcstat);
+				}
+			vcstat.visit(ctx);
+			}
+		}
+	
+	/**
+	 * names of the contigs to scan, in the order of the file. For a VCF, they're read from the index, as the VCF
+	 * may contain some contigs missing from the dictionary. The records of a BCF are always on the contigs of its header.
+	 */
+	private static List<String> getContigsToScan(final Path vcfPath,final VCFHeader header) throws IOException
+		{
+		if(vcfPath.getFileName().toString().endsWith(FileExtensions.BCF)) {
+			final SAMSequenceDictionary dict = header.getSequenceDictionary();
+			if(dict==null) throw new JvarkitException.VcfDictionaryMissing(vcfPath.toString());
+			return dict.getSequences().stream().map(SSR->SSR.getSequenceName()).collect(Collectors.toList());
+			}
+		try(FeatureReader<VariantContext> r = AbstractFeatureReader.getFeatureReader(vcfPath.toString(), new VCFCodec(), true)) {
+			return new ArrayList<>(r.getSequenceNames());
+			}
+		}
+	
+	/** scan one contig of the VCF */
+	private Map<String,VariantStats> scanContig(final Path vcfPath,final VCFHeader header,final String contig)
+		{
+		/* keep the order of creation of the categories */
+		final Map<String,VariantStats> shard = new LinkedHashMap<>();
+		long n=0L;
+		try(VCFReader r = VCFReaderFactory.makeDefault().open(vcfPath,true)) {
+			try(CloseableIterator<VariantContext> iter2 = r.query(contig, 1, Integer.MAX_VALUE)) {
+				while(iter2.hasNext()) {
+					visit(iter2.next(),header,shard);
+					n++;
+					}
+				}
+			}
+		catch(final IOException err) {
+			throw new RuntimeIOException(err);
+			}
+		if(n>0L) LOG.info(contig+": "+n+" variants.");
+		return shard;
+		}
+	
+	/** merge the statistics of one contig into 'category2stats' */
+	private void mergeShard(final Map<String,VariantStats> shard,final Map<String,VariantStats> category2stats)
+		{
+		for(final String category: shard.keySet())
+			{
+			final VariantStats vcstat = category2stats.get(category);
+			if(vcstat==null)
+				{
+				category2stats.put(category, shard.get(category));
+				}
+			else
+				{
+				vcstat.merge(shard.get(category));
+				}
+			}
+		}
+	
+	/**
+	 * process each contig in its own thread and merge the statistics, in the order of the file,
+	 * into 'category2stats'. As the distances between variants are only computed on the same contig
+	 * and the MAF points are merged in order, the result is the same as a serial scan of a sorted VCF.
+	 * At most 'nThreads' contigs are pending at once.
+	 */
+	private void scanParallel(final Path vcfPath,final VCFHeader header,final Map<String,VariantStats> category2stats) throws Exception
+		{
+		final ExecutorService executor = Executors.newFixedThreadPool(this.nThreads);
+		try
+			{
+			final Deque<Future<Map<String,VariantStats>>> shards = new ArrayDeque<>(this.nThreads);
+			for(final String contig: getContigsToScan(vcfPath,header))
+				{
+				if(shards.size() >= this.nThreads)
+					{
+					mergeShard(shards.pollFirst().get(), category2stats);
+					}
+				shards.add(executor.submit(()->scanContig(vcfPath, header, contig)));
+				}
+			while(!shards.isEmpty())
+				{
+				mergeShard(shards.pollFirst().get(), category2stats);
+				}
+			}
+		finally
+			{
+			executor.shutdownNow();
+			}
+		}
+	
 	@Override
 	public int doWork(final List<String> args) {
 		if(this.binSize<=0) {
 			LOG.error("binSize < 0");
 			return -1;
 		}
+		if(this.nThreads<1) {
+			LOG.error("bad number of threads");
+			return -1;
+		}
+		final String input = oneFileOrNull(args);
+		if(this.nThreads>1 && input==null) {
+			LOG.error("An indexed VCF file is required when using more than one thread");
+			return -1;
+		}
+		if(this.nThreads>1 && this.tee) {
+			LOG.error("--tee cannot be used when using more than one thread");
+			return -1;
+		}
 		
 		VariantContextWriter teeOut=null;
 		VCFIterator iter = null;
@@ -1769,11 +1975,18 @@ public class VcfStats extends Launcher
 			this.archiveFactory = ArchiveFactory.open(this.outputFile);
 			if(this.tee) teeOut = super.openVariantContextWriter(null);
 			
-			iter= super.openVCFIterator(oneFileOrNull(args));
-			
-			
-			
-			final VCFHeader header=iter.getHeader();
+			final VCFHeader header;
+			if(this.nThreads>1)
+				{
+				try(VCFReader r = VCFReaderFactory.makeDefault().open(Paths.get(input),true)) {
+					header = r.getHeader();
+					}
+				}
+			else
+				{
+				iter= super.openVCFIterator(input);
+				header=iter.getHeader();
+				}
 			this.sampleNamesInOrder = Collections.unmodifiableList(header.getSampleNamesInOrder());
 			
 			final SAMSequenceDictionary dict=header.getSequenceDictionary();
@@ -1816,25 +2029,21 @@ public class VcfStats extends Launcher
 
 			
 			
-			if(teeOut!=null) teeOut.writeHeader(header);
-			final SAMSequenceDictionaryProgress progress= new SAMSequenceDictionaryProgress(header).logger(LOG);
-			while(iter.hasNext())
+			if(this.nThreads>1)
 				{
-				final VariantContext ctx=progress.watch(iter.next());
-				if(teeOut!=null) teeOut.add(ctx);
-
-				
-				for(final String category: this.variantToCategoryKeys.apply(ctx))
+				scanParallel(Paths.get(input),header,category2stats);
+				}
+			else
+				{
+				if(teeOut!=null) teeOut.writeHeader(header);
+				final SAMSequenceDictionaryProgress progress= new SAMSequenceDictionaryProgress(header).logger(LOG);
+				while(iter.hasNext())
 					{
-					VariantStats vcstat = category2stats.get(category);
-					if(vcstat==null) {
-						vcstat = new VariantStats(category,header);
-						category2stats.put(category, vcstat);
-						}
-					vcstat.visit(ctx);
+					final VariantContext ctx=progress.watch(iter.next());
+					if(teeOut!=null) teeOut.add(ctx);
+					visit(ctx,header,category2stats);
 					}
-				
-				
+				progress.finish();
 				}
 			for(final String category: category2stats.keySet())
 				{	
@@ -1842,11 +2051,11 @@ public class VcfStats extends Launcher
 				vcstats.finish(makefileWriter);
 				}
 
-			progress.finish();
 			makefileWriter.println("all_targets : ${ALL_TARGETS}");
 			makefileWriter.flush();makefileWriter.close();makefileWriter=null;
 			
-			iter.close();iter=null;
+			if(iter!=null) iter.close();
+			iter=null;
 			this.archiveFactory.close();archiveFactory=null;
 			if(teeOut!=null) teeOut.close(); teeOut=null;
 			return 0;
@@ -662,7 +662,7 @@ public class VcfPeekAf extends OnePassVcfLauncher
 				}
 						
 			final VCFReader reader0 = VCFReaderFactory.makeDefault().open(this.resourceVcfFile,true);
-			this.indexedVcfFileReader = new BufferedVCFReader(reader0,this.buffer_size);
+			this.indexedVcfFileReader = new BufferedVCFReader(reader0,this.buffer_size).setReadAhead(true);
 			this.peeker.initialize(this.indexedVcfFileReader.getHeader());
 			this.indexedVcfFileReader.setSimplifier(peeker::sanitize);
 			return 0;
@@ -29,11 +29,13 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 
 import com.beust.jcommander.Parameter;
@@ -45,7 +47,6 @@ import com.github.lindenb.jvarkit.util.bio.fasta.ContigNameConverter;
 import com.github.lindenb.jvarkit.util.jcommander.NoSplitter;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
-import com.github.lindenb.jvarkit.util.log.ProgressFactory;
 
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
@@ -56,12 +57,10 @@ import htsjdk.samtools.util.StringUtil;
 import com.github.lindenb.jvarkit.util.vcf.VCFUtils;
 import com.github.lindenb.jvarkit.variant.vcf.VCFReaderFactory;
 
-import htsjdk.variant.vcf.VCFIterator;
 import htsjdk.variant.vcf.VCFReader;
 import htsjdk.variant.variantcontext.Allele;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.VariantContextBuilder;
-import htsjdk.variant.variantcontext.writer.VariantContextWriter;
 import htsjdk.variant.vcf.VCFConstants;
 import htsjdk.variant.vcf.VCFHeader;
 import htsjdk.variant.vcf.VCFInfoHeaderLine;
@@ -150,8 +149,7 @@ public class VcfPeekVcf extends OnePassVcfLauncher
 
 	private final Set<String> peek_info_tags=new HashSet<String>();
 	private VCFReader indexedVcfFileReader=null;
-	private final List<VariantContext> buffer = new ArrayList<>();
-	private Interval last_buffer_interval = null;
+	private final Set<String> unmatchedcontigs = Collections.synchronizedSet(new HashSet<>());
 	
 	
 	public VcfPeekVcf()
@@ -165,45 +163,53 @@ public class VcfPeekVcf extends OnePassVcfLauncher
 		return this.ignoreSpanningDel && A.equals(Allele.SPAN_DEL);
 		}
 	
-	private List<VariantContext> getOverlappingBuffer(
-			final String contig,
-			final int start,
-			final int end
-			) {
-		if(	!(
-			this.last_buffer_interval!=null &&
-			this.last_buffer_interval.getContig().equals(contig) &&
-			this.last_buffer_interval.getStart() < start && 
-			end < this.last_buffer_interval.getEnd()
-			))
-			{
-			this.buffer.clear();
-			
-			this.last_buffer_interval = new Interval(
-					contig,
-					Math.max(0,start-1),
-					(end+1+this.buffer_size)
-					);
-			
-			try( CloseableIterator<VariantContext> t = this.indexedVcfFileReader.query(
-					contig,
-					Math.max(0,start-1),
-					(end+1+this.buffer_size)
-					)) {
-				while(t.hasNext())
-					{
-					VariantContext ctx = t.next();
-					if(ctx.hasGenotypes()) //reduce memory
-						{
-						ctx = new VariantContextBuilder(ctx).noGenotypes().make();
+	/** window of variants loaded from the indexed file. One per thread, the reader is shared and its access is synchronized */
+	private class VariantBuffer {
+		private final List<VariantContext> buffer = new ArrayList<>();
+		private Interval last_buffer_interval = null;
+		
+		private List<VariantContext> getOverlappingBuffer(
+				final String contig,
+				final int start,
+				final int end
+				) {
+			if(	!(
+				this.last_buffer_interval!=null &&
+				this.last_buffer_interval.getContig().equals(contig) &&
+				this.last_buffer_interval.getStart() < start && 
+				end < this.last_buffer_interval.getEnd()
+				))
+				{
+				this.buffer.clear();
+				
+				this.last_buffer_interval = new Interval(
+						contig,
+						Math.max(0,start-1),
+						(end+1+buffer_size)
+						);
+				
+				synchronized(indexedVcfFileReader) {
+					try( CloseableIterator<VariantContext> t = indexedVcfFileReader.query(
+							contig,
+							Math.max(0,start-1),
+							(end+1+buffer_size)
+							)) {
+						while(t.hasNext())
+							{
+							VariantContext ctx = t.next();
+							if(ctx.hasGenotypes()) //reduce memory
+								{
+								ctx = new VariantContextBuilder(ctx).noGenotypes().make();
+								}
+							this.buffer.add(ctx);
+							}
 						}
-					this.buffer.add(ctx);
 					}
 				}
+			return this.buffer.stream().
+					filter(V->V.getContig().equals(contig) && CoordMath.overlaps(V.getStart(), V.getEnd(), start, end)).
+					collect(Collectors.toList());
 			}
-		return this.buffer.stream().
-				filter(V->V.getContig().equals(contig) && CoordMath.overlaps(V.getStart(), V.getEnd(), start, end)).
-				collect(Collectors.toList());
 		}
 	
 	/** get default value for a given tag . Automatic for AC or AF */
@@ -223,238 +229,204 @@ public class VcfPeekVcf extends OnePassVcfLauncher
 			}
 		}
 	
-	/** public for knime */
 	@Override
-	public int doVcfToVcf(
-			final String inputName, 
-			final VCFIterator vcfIn,
-			final VariantContextWriter out)
+	protected UnaryOperator<VariantContext> createVariantTransformer(final String inputName,final VCFHeader h2)
 		{
-		try
-			{
-			final Set<String> unmatchedcontigs = new HashSet<>();
-			final VCFHeader h = vcfIn.getHeader();
-			final VCFHeader h2 = new VCFHeader(h);
-			
-			super.addMetaData(h2);
-			
-			final Map<String,VCFInfoHeaderLine> databaseTags = new HashMap<String, VCFInfoHeaderLine>();
-			
-			final VCFHeader databaseHeader= this.indexedVcfFileReader.getHeader();
-			
-			 
+		super.addMetaData(h2);
+		
+		final Map<String,VCFInfoHeaderLine> databaseTags = new HashMap<String, VCFInfoHeaderLine>();
+		
+		final VCFHeader databaseHeader= this.indexedVcfFileReader.getHeader();
+		
+		 
 
-			final ContigNameConverter nameConverter =( 
-					h.getSequenceDictionary()!=null && 
-					!h.getSequenceDictionary().isEmpty() &&
-					databaseHeader.getSequenceDictionary()!=null && 
-					!databaseHeader.getSequenceDictionary().isEmpty() 
-						?
-						ContigNameConverter.fromDictionaries(
-							h.getSequenceDictionary(),
-							databaseHeader.getSequenceDictionary()
-							)
-						:
-						ContigNameConverter.getIdentity()
-						);
-					;
-			
-			for(final String key: this.peek_info_tags)
+		final ContigNameConverter nameConverter =( 
+				h2.getSequenceDictionary()!=null && 
+				!h2.getSequenceDictionary().isEmpty() &&
+				databaseHeader.getSequenceDictionary()!=null && 
+				!databaseHeader.getSequenceDictionary().isEmpty() 
+					?
+					ContigNameConverter.fromDictionaries(
+						h2.getSequenceDictionary(),
+						databaseHeader.getSequenceDictionary()
+						)
+					:
+					ContigNameConverter.getIdentity()
+					);
+				;
+		
+		for(final String key: this.peek_info_tags)
+			{
+			VCFInfoHeaderLine hinfo =databaseHeader.getInfoHeaderLine(key);
+			if(hinfo==null)
 				{
-				VCFInfoHeaderLine hinfo =databaseHeader.getInfoHeaderLine(key);
-				if(hinfo==null)
+				final String msg="INFO name="+key+" missing in "+this.resourceVcfFile;
+				if(this.missingIdIsError)
 					{
-					final String msg="INFO name="+key+" missing in "+this.resourceVcfFile;
-					if(this.missingIdIsError)
-						{
-						LOG.warn(msg);
-						continue;
-						}
-					else
-						{
-						LOG.error(msg);
-						return -1;
-						}
-					}
-				switch(hinfo.getCountType())
-					{
-					case G:throw new JvarkitException.UserError("Cannot handle VCFHeaderLineCount.G for "+hinfo.getID());
-					default: databaseTags.put(hinfo.getID(), hinfo);break;
+					LOG.warn(msg);
+					continue;
 					}
-				
-				hinfo = VCFUtils.renameVCFInfoHeaderLine(hinfo,this.peekTagPrefix+key);
-				
-				if(h2.getInfoHeaderLine(hinfo.getID())!=null)
+				else
 					{
-					throw new JvarkitException.UserError("key "+this.peekTagPrefix+key+" already defined in VCF header");
+					throw new JvarkitException.UserError(msg);
 					}
-				h2.addMetaDataLine(hinfo);;
+				}
+			switch(hinfo.getCountType())
+				{
+				case G:throw new JvarkitException.UserError("Cannot handle VCFHeaderLineCount.G for "+hinfo.getID());
+				default: databaseTags.put(hinfo.getID(), hinfo);break;
 				}
 			
-			JVarkitVersion.getInstance().addMetaData(this, h2);
+			hinfo = VCFUtils.renameVCFInfoHeaderLine(hinfo,this.peekTagPrefix+key);
 			
-			out.writeHeader(h2);
-			final ProgressFactory.Watcher<VariantContext> progress = 
-					ProgressFactory.newInstance().
-					dictionary(h).
-					logger(LOG).
-					build()
-					;
-			while(vcfIn.hasNext())
+			if(h2.getInfoHeaderLine(hinfo.getID())!=null)
 				{
-				final VariantContext ctx=progress.apply(vcfIn.next());
-				final String outContig = nameConverter.apply(ctx.getContig());
-				if(outContig==null)
-					{
-					unmatchedcontigs.add(ctx.getContig());
-					continue;
-					}
+				throw new JvarkitException.UserError("key "+this.peekTagPrefix+key+" already defined in VCF header");
+				}
+			h2.addMetaDataLine(hinfo);;
+			}
+		
+		JVarkitVersion.getInstance().addMetaData(this, h2);
+		
+		final ThreadLocal<VariantBuffer> variantBuffer = ThreadLocal.withInitial(VariantBuffer::new);
+		return ctx->{
+			final String outContig = nameConverter.apply(ctx.getContig());
+			if(outContig==null)
+				{
+				unmatchedcontigs.add(ctx.getContig());
+				return null;
+				}
+			
+			final VariantContextBuilder vcb = new VariantContextBuilder(ctx);
+			
+			for(final VariantContext ctx2 : variantBuffer.get().getOverlappingBuffer(outContig,ctx.getStart(),ctx.getEnd()))
+				{
+				if(!outContig.equals(ctx2.getContig())) continue;
+				if(ctx.getStart()!=ctx2.getStart()) continue;
+				if(!ctx.getReference().equals(ctx2.getReference())) continue;
 				
-				final VariantContextBuilder vcb = new VariantContextBuilder(ctx);
+				boolean okAllele;
 				
-				for(final VariantContext ctx2 : this.getOverlappingBuffer(outContig,ctx.getStart(),ctx.getEnd()))
+				switch(this.altAlleleMatcher)
 					{
-					if(!outContig.equals(ctx2.getContig())) continue;
-					if(ctx.getStart()!=ctx2.getStart()) continue;
-					if(!ctx.getReference().equals(ctx2.getReference())) continue;
-					
-					boolean okAllele;
-					
-					switch(this.altAlleleMatcher)
+					case all:
 						{
-						case all:
+						okAllele = true; 
+						for(final Allele A: ctx.getAlternateAlleles())
 							{
-							okAllele = true; 
-							for(final Allele A: ctx.getAlternateAlleles())
+							if(isIgnorableSpanDel(A)) continue;
+							if(!ctx2.hasAlternateAllele(A))
 								{
-								if(isIgnorableSpanDel(A)) continue;
-								if(!ctx2.hasAlternateAllele(A))
-									{
-									okAllele=false;
-									break;
-									}
+								okAllele=false;
+								break;
 								}
-							break;
 							}
-						case at_least_one: 
+						break;
+						}
+					case at_least_one: 
+						{
+						okAllele = false;
+						
+						for(final Allele A: ctx.getAlternateAlleles())
 							{
-							okAllele = false;
-							
-							for(final Allele A: ctx.getAlternateAlleles())
+							if(isIgnorableSpanDel(A)) continue;
+							if(ctx2.hasAlternateAllele(A))
 								{
-								if(isIgnorableSpanDel(A)) continue;
-								if(ctx2.hasAlternateAllele(A))
-									{
-									okAllele=true;
-									break;
-									}
+								okAllele=true;
+								break;
 								}
-							break;
 							}
-						case none: okAllele=true;break;
-						default: throw new IllegalStateException(altAlleleMatcher.name());
+						break;
 						}
+					case none: okAllele=true;break;
+					default: throw new IllegalStateException(altAlleleMatcher.name());
+					}
+				
+				if(!okAllele) continue;
+				
+				
+				if(this.peekId && ctx2.hasID())
+					{
+					vcb.id(ctx2.getID());
+					}
+				boolean somethingWasChanged=false;
+				for(final String key: databaseTags.keySet())
+					{
+					if(!ctx2.hasAttribute(key)) continue;
 					
-					if(!okAllele) continue;
-					
-					
-					if(this.peekId && ctx2.hasID())
-						{
-						vcb.id(ctx2.getID());
-						}
-					boolean somethingWasChanged=false;
-					for(final String key: databaseTags.keySet())
+					final VCFInfoHeaderLine dbHeader= databaseTags.get(key);
+					switch(dbHeader.getCountType())
 						{
-						if(!ctx2.hasAttribute(key)) continue;
-						
-						final VCFInfoHeaderLine dbHeader= databaseTags.get(key);
-						switch(dbHeader.getCountType())
+						case A:
 							{
-							case A:
+							final List<Object> newatt = new ArrayList<>();
+							final List<Object> ctx2att = ctx2.getAttributeAsList(key);
+							boolean got_value = false;
+							for(int i=0;i< ctx.getAlternateAlleles().size();++i)
 								{
-								final List<Object> newatt = new ArrayList<>();
-								final List<Object> ctx2att = ctx2.getAttributeAsList(key);
-								boolean got_value = false;
-								for(int i=0;i< ctx.getAlternateAlleles().size();++i)
+								final Allele ctxalt = ctx.getAlternateAllele(i);
+								int index2 = ctx2.getAlternateAlleles().indexOf(ctxalt);
+								if(index2==-1 || index2>=ctx2att.size() || isIgnorableSpanDel(ctxalt))
 									{
-									final Allele ctxalt = ctx.getAlternateAllele(i);
-									int index2 = ctx2.getAlternateAlleles().indexOf(ctxalt);
-									if(index2==-1 || index2>=ctx2att.size() || isIgnorableSpanDel(ctxalt))
-										{
-										Object value2 = getDefaultValue(dbHeader);
-										
-										newatt.add(value2);
-										}
-									else
-										{
-										final Object value2 = ctx2att.get(index2);
-										if( value2!=null && !VCFConstants.EMPTY_INFO_FIELD.equals(value2)) got_value = true;
-										newatt.add(value2);
-										}
+									Object value2 = getDefaultValue(dbHeader);
+									
+									newatt.add(value2);
 									}
-								if(got_value)
+								else
 									{
-									vcb.attribute(this.peekTagPrefix+key, newatt);
-									somethingWasChanged=true;
+									final Object value2 = ctx2att.get(index2);
+									if( value2!=null && !VCFConstants.EMPTY_INFO_FIELD.equals(value2)) got_value = true;
+									newatt.add(value2);
 									}
-								break;
 								}
-							case R:
+							if(got_value)
+								{
+								vcb.attribute(this.peekTagPrefix+key, newatt);
+								somethingWasChanged=true;
+								}
+							break;
+							}
+						case R:
+							{
+							boolean got_value = false;
+							final List<Object> newatt = new ArrayList<>();
+							final List<Object> ctx2att = ctx2.getAttributeAsList(key);
+							for(int i=0;i< ctx.getAlleles().size();++i)
 								{
-								boolean got_value = false;
-								final List<Object> newatt = new ArrayList<>();
-								final List<Object> ctx2att = ctx2.getAttributeAsList(key);
-								for(int i=0;i< ctx.getAlleles().size();++i)
+								final Allele ctxalt = ctx.getAlleles().get(i);
+								int index2 = ctx2.getAlleleIndex(ctxalt);
+								if(index2==-1 || index2>=ctx2att.size() || isIgnorableSpanDel(ctxalt))
 									{
-									final Allele ctxalt = ctx.getAlleles().get(i);
-									int index2 = ctx2.getAlleleIndex(ctxalt);
-									if(index2==-1 || index2>=ctx2att.size() || isIgnorableSpanDel(ctxalt))
-										{
-										newatt.add(getDefaultValue(dbHeader));
-										}
-									else
-										{
-										final Object value2 = ctx2att.get(index2);
-										if( value2!=null && !VCFConstants.EMPTY_INFO_FIELD.equals(value2)) got_value = true;
-										newatt.add(value2);
-										}
+									newatt.add(getDefaultValue(dbHeader));
 									}
-								if(got_value)
+								else
 									{
-									vcb.attribute(this.peekTagPrefix+key, newatt);
-									somethingWasChanged=true;
+									final Object value2 = ctx2att.get(index2);
+									if( value2!=null && !VCFConstants.EMPTY_INFO_FIELD.equals(value2)) got_value = true;
+									newatt.add(value2);
 									}
-								break;
 								}
-							default:
+							if(got_value)
 								{
-								final Object o = ctx2.getAttribute(key);
-								vcb.attribute(this.peekTagPrefix+key, o);
+								vcb.attribute(this.peekTagPrefix+key, newatt);
 								somethingWasChanged=true;
-								break;
 								}
+							break;
+							}
+						default:
+							{
+							final Object o = ctx2.getAttribute(key);
+							vcb.attribute(this.peekTagPrefix+key, o);
+							somethingWasChanged=true;
+							break;
 							}
 						}
-					if(somethingWasChanged) break;
 					}
-				
-				out.add(vcb.make());
-					
-				if(out.checkError()) break;
-				}
-			progress.close();
-			if(!unmatchedcontigs.isEmpty())
-				{
-				LOG.debug("Unmatched contigs: "+unmatchedcontigs.stream().collect(Collectors.joining("; ")));
+				if(somethingWasChanged) break;
 				}
 			
-			return 0;
-			}
-		catch(final Throwable err)
-			{
-			LOG.error(err);
-			return -1;
-			}
+			return vcb.make();
+			};
 		}
 	
 	@Override
@@ -494,6 +466,11 @@ public class VcfPeekVcf extends OnePassVcfLauncher
 	
 	@Override
 	protected void afterVcf() {
+		if(!this.unmatchedcontigs.isEmpty())
+			{
+			LOG.debug("Unmatched contigs: "+this.unmatchedcontigs.stream().collect(Collectors.joining("; ")));
+			this.unmatchedcontigs.clear();
+			}
 		CloserUtil.close(this.indexedVcfFileReader);
 		this.indexedVcfFileReader=null;
 		this.peek_info_tags.clear();	
@@ -54,22 +54,26 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.BiPredicate;
 import java.util.function.DoublePredicate;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import com.beust.jcommander.Parameter;
 import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.lang.JvarkitException;
 import com.github.lindenb.jvarkit.math.stats.FisherExactTest;
-import com.github.lindenb.jvarkit.util.Counter;
 import com.github.lindenb.jvarkit.util.bio.SequenceDictionaryUtils;
 import com.github.lindenb.jvarkit.util.samtools.SamRecordJEXLFilter;
 import com.github.lindenb.jvarkit.util.illumina.ShortReadName;
@@ -90,6 +94,7 @@ BEGIN_DOC
 ## History
 
 * 20171122: re-written, adding support to vcf output, genotypes and variant filters.
+* 20201018: option `--sweep`: each BAM is scanned once, in coordinate order, over a buffer of sorted variants instead of being queried for each variant. With `--threads`, the BAMs are scanned in parallel.
 
 ## Input
 
@@ -237,9 +242,16 @@ public class XContaminations extends Launcher
 	private boolean use_singleton = false;
 	@Parameter(names={"-R","--reference"},description="For reading CRAM. " + INDEXED_FASTA_REFERENCE_DESCRIPTION)
 	private Path refFaidx = null;
+	@Parameter(names={"--sweep"},description="[20201018] Streaming mode. Instead of querying each BAM for each variant, the informative variants are buffered and each BAM is scanned once, in coordinate order, over the buffered region. The VCF must be sorted. The output is the same as the default mode.")
+	private boolean sweep_mode = false;
+	@Parameter(names={"--sweep-buffer"},description="In --sweep mode: maximum number of informative variants on the same contig buffered before the BAMs are scanned.")
+	private int sweep_buffer_size = 10_000;
+	@Parameter(names={"--threads"},description="In --sweep mode: number of threads. The BAMs are scanned in parallel.")
+	private int nThreads = 1;
 
 	
 	private DoublePredicate passFractionTreshold  = (V) -> V > fraction_treshold;
+	private long last_save_ms = 0L;
 	
 	private static class SampleAlleles
 		{
@@ -430,7 +442,420 @@ public class XContaminations extends Launcher
 			return getLabel()+":"+sampleName;
 			}
 		}
-	
+
+	/** count of the bases A,C,G,T observed for one SampleIdentifier. 'total' counts all the bases but 'N' */
+	private static class BaseCounts
+		{
+		private final int[] acgt = new int[4];
+		private int total = 0;
+
+		private static int index(final char base) {
+			switch(base) {
+				case 'A': return 0;
+				case 'C': return 1;
+				case 'G': return 2;
+				case 'T': return 3;
+				default: return -1;
+				}
+			}
+
+		void incr(final char base) {
+			final int i = index(base);
+			if(i>=0) this.acgt[i]++;
+			this.total++;
+			}
+
+		long count(final char allele) {
+			final int i = index(allele);
+			return i<0?0L:this.acgt[i];
+			}
+		}
+
+	/** an informative variant buffered in --sweep mode */
+	private static class Site
+		{
+		final VariantContext ctx;
+		final Map<String,Genotype> sample2gt;
+		final Map<SampleIdentifier,BaseCounts> identifier2counts = new HashMap<>();
+		Site(final VariantContext ctx,final Map<String,Genotype> sample2gt) {
+			this.ctx = ctx;
+			this.sample2gt = sample2gt;
+			}
+		}
+
+	/** returns true if the read can be used for this sample */
+	private boolean acceptRead(final SAMRecord record,final String sampleName) {
+		if(record.getReadUnmappedFlag()) return false;
+		if(this.filter.filterOut(record)) return false;
+		final SAMReadGroupRecord srgr = record.getReadGroup();
+		//not current sample
+		if(srgr==null) return false;
+		if(!sampleName.equals(srgr.getSample())) return false;
+		final Cigar cigar=record.getCigar();
+		if(cigar==null || cigar.isEmpty()) return false;
+		final byte readSeq[]=record.getReadBases();
+		if(readSeq==null || readSeq.length==0) return false;
+		return true;
+		}
+
+	/** returns the upper-case base of the read at the reference position 'pos', or 0 if there is no base or if the base is 'N' */
+	private static char getBaseAt(final SAMRecord record,final int pos) {
+		final byte readSeq[]=record.getReadBases();
+		int readPos = record.getReadPositionAtReferencePosition(pos);
+		if(readPos<1) return 0;
+		readPos--;
+		if(readPos>=readSeq.length) return 0;
+		final char base = Character.toUpperCase((char)readSeq[readPos]);
+		if(base=='N') return 0;
+		return base;
+		}
+
+	/** returns the SampleIdentifier for this read, or null if the read name cannot be parsed */
+	private SampleIdentifier getSampleIdentifier(final SAMRecord record,final String sampleName) {
+		if(this.use_only_sample_name)
+			{
+			return new SimpleSampleIdenfifier(sampleName);
+			}
+		final ShortReadName readName = ShortReadName.parse(record);
+		if(!readName.isValid())
+			{
+			LOG.info("No a valid read name "+record.getReadName());
+			return null;
+			}
+		return new SequencerFlowCellRunLaneSample(readName, sampleName);
+		}
+
+	/** returns the genotypes that will be compared for this variant, or null if the variant is not informative */
+	private Map<String,Genotype> getInformativeGenotypes(final VariantContext ctx,final Set<String> sampleNames) {
+		if(!ctx.isSNP() || ctx.isFiltered() || !ctx.isBiallelic() || ctx.isSymbolic() || !this.variantFilter.test(ctx)) {
+			return null;
+		}
+
+		int count_homref=0;
+		int count_homvar=0;
+		int count_het=0;
+
+		final Map<String,Genotype> sample2gt = new HashMap<>();
+		for(int gidx=0;gidx < ctx.getNSamples();++gidx) {
+			final Genotype G = ctx.getGenotype(gidx);
+			if(!G.isCalled()) continue;
+			if(G.isHet())
+				{
+				count_het++;// here because in use_singleton we must be sure that there is only one hom_var
+				if(this.use_singleton && count_het>0) break;
+				}
+			else if(G.isHomVar())
+				{
+				count_homvar++;// here because in use_singleton we must be sure that there is only one hom_var
+				if(this.use_singleton && count_homvar>1) break;
+				}
+
+			if(G.isFiltered()) continue;
+			if(!sampleNames.contains(G.getSampleName())) continue;
+			if(!this.genotypeFilter.test(ctx, G)) continue;
+			sample2gt.put(G.getSampleName(), G);
+		}
+		if(this.use_singleton && count_het>0) return null;
+		if(this.use_singleton && count_homvar>1) return null;
+
+		if(sample2gt.size()<2) return null;
+
+
+		//reset and recount
+		count_homref =0;
+		count_homvar =0;
+		count_het = 0;
+		for(final String sampleName:sample2gt.keySet()) {
+			final Genotype G = ctx.getGenotype(sampleName);
+			switch(G.getType()) {
+				case HOM_REF :  count_homref++;break;
+				case HOM_VAR :  count_homvar++;break;
+				case HET :  count_het++;break;
+				default:break;
+				}
+			}
+
+		// singleton check
+		if(this.use_singleton && ( count_het>0 || count_homvar!=1 ))
+			{
+			return null;
+			}
+		//at least one HOM_REF and one HOM_VAR
+		if(count_homref==0) return null;
+		if(count_homvar==0) return null;
+		return sample2gt;
+		}
+
+	/**
+	 * scan the reads of one BAM, once, over the region of the buffered sites: the reads and the sites
+	 * are both sorted, so they're merge-joined. All the sites are on the same contig.
+	 * @return for each site, the base counts of the identifiers of this sample, or null if no base was found.
+	 */
+	private List<Map<SampleIdentifier,BaseCounts>> sweep(final SamReader samReader,final String sampleName,final List<Site> sites) {
+		final List<Map<SampleIdentifier,BaseCounts>> site2counts = new ArrayList<>(Collections.nCopies(sites.size(), null));
+		final int[] indexes = IntStream.range(0, sites.size()).
+				filter(i->sites.get(i).sample2gt.containsKey(sampleName)).
+				toArray();
+		if(indexes.length==0) return site2counts;
+		final int[] positions = new int[indexes.length];
+		for(int i=0;i< indexes.length;i++) {
+			positions[i] = sites.get(indexes[i]).ctx.getStart();
+			}
+		final SampleIdentifier sampleIdentifier0 = this.use_only_sample_name ? new SimpleSampleIdenfifier(sampleName) : null;
+		int lowest = 0;
+		try(SAMRecordIterator iter = samReader.query(
+				sites.get(0).ctx.getContig(),
+				positions[0],
+				positions[positions.length-1],
+				false
+				)) {
+			while(iter.hasNext())
+				{
+				final SAMRecord record= iter.next();
+				if(record.getReadUnmappedFlag()) continue;
+				/* reads are sorted on start: the sites before this read won't be covered by the next reads */
+				while(lowest < positions.length && positions[lowest] < record.getAlignmentStart()) lowest++;
+				if(lowest >= positions.length) break;
+				if(record.getAlignmentEnd() < positions[lowest]) continue;
+				if(!acceptRead(record, sampleName)) continue;
+
+				SampleIdentifier sampleIdentifier = sampleIdentifier0;
+				for(int i=lowest;i< positions.length && positions[i] <= record.getAlignmentEnd();++i)
+					{
+					final char base = getBaseAt(record, positions[i]);
+					if(base==0) continue;
+					if(sampleIdentifier==null)
+						{
+						sampleIdentifier = getSampleIdentifier(record, sampleName);
+						if(sampleIdentifier==null) break;
+						}
+					Map<SampleIdentifier,BaseCounts> identifier2counts = site2counts.get(indexes[i]);
+					if(identifier2counts==null)
+						{
+						identifier2counts = new HashMap<>();
+						site2counts.set(indexes[i], identifier2counts);
+						}
+					BaseCounts counts = identifier2counts.get(sampleIdentifier);
+					if(counts==null)
+						{
+						counts = new BaseCounts();
+						identifier2counts.put(sampleIdentifier, counts);
+						}
+					counts.incr(base);
+					}
+				}
+			}
+		return site2counts;
+		}
+
+	/** scan all the BAMs over the buffered sites, in parallel if 'executor' is not null */
+	private void sweep(final List<Site> sites,final Map<String,SamReader> sample2samReader,final ExecutorService executor) throws Exception {
+		if(sites.isEmpty()) return;
+		final List<List<Map<SampleIdentifier,BaseCounts>>> results = new ArrayList<>(sample2samReader.size());
+		if(executor==null)
+			{
+			for(final String sampleName: sample2samReader.keySet())
+				{
+				results.add(sweep(sample2samReader.get(sampleName), sampleName, sites));
+				}
+			}
+		else
+			{
+			/* each SamReader is used by one thread only */
+			final List<Future<List<Map<SampleIdentifier,BaseCounts>>>> futures = new ArrayList<>(sample2samReader.size());
+			for(final String sampleName: sample2samReader.keySet())
+				{
+				final SamReader samReader = sample2samReader.get(sampleName);
+				futures.add(executor.submit(()->sweep(samReader, sampleName, sites)));
+				}
+			for(final Future<List<Map<SampleIdentifier,BaseCounts>>> future:futures)
+				{
+				results.add(future.get());
+				}
+			}
+		for(final List<Map<SampleIdentifier,BaseCounts>> site2counts: results)
+			{
+			for(int i=0;i< sites.size();++i)
+				{
+				final Map<SampleIdentifier,BaseCounts> identifier2counts = site2counts.get(i);
+				if(identifier2counts==null) continue;
+				sites.get(i).identifier2counts.putAll(identifier2counts);
+				}
+			}
+		}
+
+	/** sum-up the base counts for this SNP and write the VCF record or save the table */
+	private void processVariant(
+			final String source,
+			final VariantContext ctx,
+			final Map<String,Genotype> sample2gt,
+			final Map<SampleIdentifier,BaseCounts> sample_identifier_2allelesCount,
+			final Map<SamplePair,SampleAlleles> contaminationTable,
+			final List<SamplePair> sampleListForVcf,
+			final VariantContextWriter vcfw
+			) throws IOException
+		{
+		final VariantContextBuilder vcb;
+		final List<Genotype> genotypeList;
+
+		if(this.output_as_vcf)
+			{
+			vcb = new VariantContextBuilder(source, ctx.getContig(), ctx.getStart(), ctx.getEnd(), ctx.getAlleles());
+			if(ctx.hasID()) vcb.id(ctx.getID());
+			genotypeList= new ArrayList<>();
+			}
+		else
+			{
+			vcb = null;
+			genotypeList = null;
+			}
+
+
+		for(final String sample1: sample2gt.keySet())
+			{
+			final Genotype g1= sample2gt.get(sample1);
+			final char a1 = g1.getAllele(0).getBaseString().charAt(0);
+
+
+			for(final String sample2:  sample2gt.keySet())
+				{
+				if(sample1.compareTo(sample2)>=0) continue;
+				final Genotype g2= sample2gt.get(sample2);
+				if(g2.sameGenotype(g1)) continue;
+				final char a2 =  g2.getAllele(0).getBaseString().charAt(0);
+
+				for(final SampleIdentifier sfcr1: sample_identifier_2allelesCount.keySet())
+					{
+					if(!sfcr1.getSampleName().equals(sample1)) continue;
+					final BaseCounts counter1 =  sample_identifier_2allelesCount.get(sfcr1);
+					if(counter1==null) continue;
+
+
+					for(final SampleIdentifier sfcr2: sample_identifier_2allelesCount.keySet())
+						{
+						if(!sfcr2.getSampleName().equals(sample2)) continue;
+
+						final SamplePair samplePair = new SamplePair(sfcr1, sfcr2);
+
+						final BaseCounts counter2 =  sample_identifier_2allelesCount.get(sfcr2);
+						if(counter2==null) continue;
+
+
+						SampleAlleles sampleAlleles = contaminationTable.get(samplePair);
+						if(sampleAlleles==null)
+							{
+							sampleAlleles=new SampleAlleles();
+							contaminationTable.put(samplePair,sampleAlleles);
+							if(!this.output_as_vcf && contaminationTable.size()%10000==0) LOG.info("n(pairs)=" + contaminationTable.size() );
+							}
+
+						sampleAlleles.number_of_comparaisons++;
+
+						/* when a1==a2, the bases are supporting the sample itself */
+						final long n11 = counter1.count(a1);
+						final long n12 = (a1==a2?0L:counter1.count(a2));
+						sampleAlleles.reads_sample1_supporting_sample1 += n11;
+						sampleAlleles.reads_sample1_supporting_sample2 += n12;
+						sampleAlleles.reads_sample1_supporting_other += counter1.total - (n11 + n12);
+
+						final long n22 = counter2.count(a2);
+						final long n21 = (a1==a2?0L:counter2.count(a1));
+						sampleAlleles.reads_sample2_supporting_sample2 += n22;
+						sampleAlleles.reads_sample2_supporting_sample1 += n21;
+						sampleAlleles.reads_sample2_supporting_other += counter2.total - (n22 + n21);
+						}
+					}
+				}
+			}
+
+		if(this.output_as_vcf)
+			{
+			final Set<String> bad_samples=new TreeSet<>();
+			boolean fraction_flag=false;
+			int num_lt=0;
+			for(final SamplePair samplepair :sampleListForVcf)
+				{
+				final GenotypeBuilder gb = new GenotypeBuilder(samplepair.getLabel());
+				final SampleAlleles sampleAlleles = contaminationTable.get(samplepair);
+				if(sampleAlleles != null)
+					{
+					gb.attribute("S1S1", sampleAlleles.reads_sample1_supporting_sample1);
+					gb.attribute("S1S2", sampleAlleles.reads_sample1_supporting_sample2);
+					gb.attribute("S1SO", sampleAlleles.reads_sample1_supporting_other);
+					gb.attribute("S2S1", sampleAlleles.reads_sample2_supporting_sample1);
+					gb.attribute("S2S2", sampleAlleles.reads_sample2_supporting_sample2);
+					gb.attribute("S2SO", sampleAlleles.reads_sample2_supporting_other);
+					gb.attribute("S1A",sample2gt.get(samplepair.sample1.getSampleName()).getAllele(0).getDisplayString().charAt(0));
+					gb.attribute("S2A",sample2gt.get(samplepair.sample2.getSampleName()).getAllele(0).getDisplayString().charAt(0));
+					final double fraction = sampleAlleles.getFraction();
+					gb.attribute("FR", fraction);
+					if(!this.passFractionTreshold.test(fraction)) {
+						fraction_flag=true;
+						}
+
+					boolean bad_lt_flag=false;
+					if( sampleAlleles.reads_sample1_supporting_sample1 <= this.fail_factor*sampleAlleles.reads_sample1_supporting_sample2)
+						{
+						bad_samples.add(samplepair.sample1.getSampleName());
+						bad_lt_flag = true;
+						}
+					if(sampleAlleles.reads_sample2_supporting_sample2 <= this.fail_factor*sampleAlleles.reads_sample2_supporting_sample1) {
+						bad_samples.add(samplepair.sample2.getSampleName());
+						bad_lt_flag = true;
+						}
+
+					if(bad_lt_flag)
+						{
+						num_lt++;
+						}
+					}
+				else
+					{
+					gb.attribute("S1S1", -1);
+					gb.attribute("S1S2", -1);
+					gb.attribute("S1SO", -1);
+					gb.attribute("S2S1", -1);
+					gb.attribute("S2S2", -1);
+					gb.attribute("S2SO", -1);
+					gb.attribute("S1A",'.');
+					gb.attribute("S2A",'.');
+
+					gb.attribute("FR", -1f);
+					}
+				genotypeList.add(gb.make());
+				}
+			if(!bad_samples.isEmpty())
+				{
+				vcb.attribute("BADSAMPLES", new ArrayList<>(bad_samples));
+				}
+			vcb.attribute("LE", num_lt);
+			if(fraction_flag || !bad_samples.isEmpty())
+				{
+				if(fraction_flag) vcb.filter("XCONTAMINATION");
+				if(!bad_samples.isEmpty()) vcb.filter("BADSAMPLES");
+				}
+			else
+				{
+				vcb.passFilters();
+				}
+			vcb.genotypes(genotypeList);
+			vcfw.add(vcb.make());
+
+			contaminationTable.clear();
+			}
+		else
+			{
+			final long now=System.currentTimeMillis();
+			if(	this.outputFile!=null &&
+				this.save_every_sec>-1L &&
+				this.last_save_ms+(this.save_every_sec*1000L)> now
+				) {
+				saveToFile(contaminationTable);
+				this.last_save_ms = now;
+				}
+			}
+		}
+
 	
 	private void saveToFile(final Map<SamplePair,SampleAlleles> contaminationTable) throws IOException{
 		PrintWriter pw = null;
@@ -534,7 +959,7 @@ public class XContaminations extends Launcher
 	
 	@Override
 	public int doWork(final List<String> args) {
-		long last_save_ms = System.currentTimeMillis();
+		this.last_save_ms = System.currentTimeMillis();
 		if(this.output_as_vcf && !this.use_only_sample_name)
 			{
 			LOG.error("cannot write vcf if --sample is not set");
@@ -545,22 +970,37 @@ public class XContaminations extends Launcher
 			LOG.error("Illegal Number of args");
 			return -1;
 			}
+		if(this.nThreads<1)
+			{
+			LOG.error("bad number of threads");
+			return -1;
+			}
+		if(this.sweep_buffer_size<1)
+			{
+			LOG.error("bad --sweep-buffer");
+			return -1;
+			}
+		if(this.nThreads>1 && !this.sweep_mode)
+			{
+			LOG.warn("--threads is only used in --sweep mode");
+			}
 		final Set<Path> bamFiles = IOUtils.unrollPaths(args.subList(1, args.size())).stream().collect(Collectors.toSet());
-			
+
 		if(bamFiles.isEmpty())
 			{
 			LOG.error("Undefined BAM file(s)");
 			return -1;
-			}	
-		
+			}
+
 		SAMRecordIterator iter=null;
 		VCFIterator in=null;
 		Map<String,SamReader> sample2samReader=new HashMap<>();
 		VariantContextWriter vcfw = null;
+		ExecutorService executor = null;
 		try {
 			final SamReaderFactory srf= super.createSamReaderFactory();
 			if(refFaidx!=null) srf.referenceSequence(this.refFaidx);
-			
+
 			if(args.get(0).equals("-"))
 				{
 				in = super.openVCFIterator(null);
@@ -569,34 +1009,34 @@ public class XContaminations extends Launcher
 				{
 				in = super.openVCFIterator(args.get(0));
 				}
-			
-			
+
+
 			VCFHeader vcfHeader=in.getHeader();
 			final SAMSequenceDictionary dict1= SequenceDictionaryUtils.extractRequired(vcfHeader);
-			
-			
+
+
 			final Set<String> sampleNames= new HashSet<>(vcfHeader.getSampleNamesInOrder());
 			if( sampleNames.isEmpty())
 				{
 				LOG.error("VCF contains no sample");
 				return -1;
 				}
-			
+
 			for(final Path bamFile:bamFiles)
 				{
 				LOG.info("Opening "+bamFile);
 				final SamReader samReader=srf.open(bamFile);
 				final SAMFileHeader samHeader= samReader.getFileHeader();
 				final SAMSequenceDictionary dict2= SequenceDictionaryUtils.extractRequired(samHeader);
-				
-				
+
+
 				if(!SequenceUtil.areSequenceDictionariesEqual(dict1, dict2))
 					{
 					samReader.close();
 					LOG.error(JvarkitException.DictionariesAreNotTheSame.getMessage(dict1, dict2));
 					return -1;
 					}
-				
+
 				if(!samReader.hasIndex())
 					{
 					samReader.close();
@@ -637,21 +1077,21 @@ public class XContaminations extends Launcher
 					LOG.error("Cannot handle more than one bam/sample: "+bamFile+" "+sampleName);
 					return -1;
 					}
-				
+
 				sample2samReader.put(sampleName, samReader);
 				}
-			
+
 			if(sample2samReader.size()<2)
 				{
 				LOG.error("Not engough BAM/samples. Expected at least two valid BAMs");
 				return -1;
 				}
-			
+
 			sampleNames.retainAll(sample2samReader.keySet());
-			
+
 
 			/* create a VCF is VCF output asked */
-			
+
 			final List<SamplePair> sampleListForVcf;
 			if(this.output_as_vcf)
 				{
@@ -660,23 +1100,23 @@ public class XContaminations extends Launcher
 				metaData.add(new VCFFormatHeaderLine("S1S1", 1, VCFHeaderLineType.Integer,"reads sample 1 supporting sample 1"));
 				metaData.add(new VCFFormatHeaderLine("S1S2", 1, VCFHeaderLineType.Integer,"reads sample 1 supporting sample 2"));
 				metaData.add(new VCFFormatHeaderLine("S1SO", 1, VCFHeaderLineType.Integer,"reads sample 1 supporting others"));
-				
+
 				metaData.add(new VCFFormatHeaderLine("S2S1", 1, VCFHeaderLineType.Integer,"reads sample 2 supporting sample 1"));
 				metaData.add(new VCFFormatHeaderLine("S2S2", 1, VCFHeaderLineType.Integer,"reads sample 2 supporting sample 2"));
 				metaData.add(new VCFFormatHeaderLine("S2SO", 1, VCFHeaderLineType.Integer,"reads sample 2 supporting others"));
 				metaData.add(new VCFFormatHeaderLine("FR", 1, VCFHeaderLineType.Float,"Fraction. '-1' for unavailable."));
-				
+
 				metaData.add(new VCFFormatHeaderLine("S1A", 1, VCFHeaderLineType.Character,"sample 1 allele"));
 				metaData.add(new VCFFormatHeaderLine("S2A", 1, VCFHeaderLineType.Character,"sample 2 allele"));
 
-				
+
 				metaData.add(new VCFFilterHeaderLine("XCONTAMINATION","Fraction test is > "+fraction_treshold));
 				metaData.add(new VCFFilterHeaderLine("BADSAMPLES","At least one pair of genotype fails the 'LE' test"));
 				metaData.add(new VCFInfoHeaderLine("LE",1, VCFHeaderLineType.Integer,"number of pair of genotypes having (S1S1<=S1S2 or S2S2<=S2S1)."));
 				metaData.add(new VCFInfoHeaderLine("BADSAMPLES",VCFHeaderLineCount.UNBOUNDED, VCFHeaderLineType.String,"Samples founds failing the 'LE' test"));
-				
-				
-				
+
+
+
 				sampleListForVcf = new ArrayList<>();
 				final List<String> sampleList=new ArrayList<>(sampleNames);
 				for(int x=0;x+1<sampleList.size();++x) {
@@ -684,7 +1124,7 @@ public class XContaminations extends Launcher
 						sampleListForVcf.add(new SamplePair(new SimpleSampleIdenfifier(sampleList.get(x)),new SimpleSampleIdenfifier(sampleList.get(y))));
 					}
 				}
-				
+
 				final VCFHeader header2 = new VCFHeader(metaData, sampleListForVcf.stream().
 						map(V->V.getLabel()).
 						sorted().collect(Collectors.toList())
@@ -697,87 +1137,55 @@ public class XContaminations extends Launcher
 				vcfw = null;
 				sampleListForVcf = null;
 				}
-			
+
 			final Map<SamplePair,SampleAlleles> contaminationTable=new HashMap<>();
-			
+
+			/* in --sweep mode, informative variants waiting for the scan of the BAMs */
+			final List<Site> buffer = new ArrayList<>();
+			if(this.sweep_mode && this.nThreads>1)
+				{
+				executor = Executors.newFixedThreadPool(this.nThreads);
+				}
+			VariantContext prevCtx = null;
+
 			final SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(dict1).logger(LOG);
 			while(in.hasNext())
 				{
 				final VariantContext ctx= progress.watch(in.next());
-				if(!ctx.isSNP() || ctx.isFiltered() || !ctx.isBiallelic() || ctx.isSymbolic() || !this.variantFilter.test(ctx)) {
-					continue;
-				}
-				
-				int count_homref=0;
-				int count_homvar=0;
-				int count_het=0;
-				
-				final Map<String,Genotype> sample2gt = new HashMap<>();
-				for(int gidx=0;gidx < ctx.getNSamples();++gidx) {
-					final Genotype G = ctx.getGenotype(gidx);
-					if(!G.isCalled()) continue;
-					if(G.isHet())
+				final Map<String,Genotype> sample2gt = getInformativeGenotypes(ctx, sampleNames);
+				if(sample2gt==null) continue;
+
+				if(this.sweep_mode)
+					{
+					if(prevCtx!=null && prevCtx.contigsMatch(ctx) && ctx.getStart() < prevCtx.getStart())
 						{
-						count_het++;// here because in use_singleton we must be sure that there is only one hom_var
-						if(this.use_singleton && count_het>0) break;
+						LOG.error(JvarkitException.BadLocatableSortOrder.getMessage(prevCtx, ctx, dict1));
+						return -1;
 						}
-					else if(G.isHomVar())
+					prevCtx = ctx;
+					if(!buffer.isEmpty() &&
+						(!buffer.get(0).ctx.contigsMatch(ctx) || buffer.size() >= this.sweep_buffer_size))
 						{
-						count_homvar++;// here because in use_singleton we must be sure that there is only one hom_var
-						if(this.use_singleton && count_homvar>1) break;
-						}
-					
-					if(G.isFiltered()) continue;
-					if(!sample2samReader.containsKey(G.getSampleName())) continue;
-					if(!sampleNames.contains(G.getSampleName())) continue;
-					if(!this.genotypeFilter.test(ctx, G)) continue;
-					sample2gt.put(G.getSampleName(), G);
-				}
-				if(this.use_singleton && count_het>0) continue;
-				if(this.use_singleton && count_homvar>1) continue;
-				
-				if(sample2gt.size()<2) continue;
-				
-				
-				//reset and recount
-				count_homref =0;
-				count_homvar =0;
-				count_het = 0;
-				for(final String sampleName:sample2gt.keySet()) {
-					final Genotype G = ctx.getGenotype(sampleName);
-					switch(G.getType()) {
-						case HOM_REF :  count_homref++;break;
-						case HOM_VAR :  count_homvar++;break;
-						case HET :  count_het++;break;
-						default:break;
+						sweep(buffer, sample2samReader, executor);
+						for(final Site site: buffer)
+							{
+							processVariant(args.get(0), site.ctx, site.sample2gt, site.identifier2counts, contaminationTable, sampleListForVcf, vcfw);
+							}
+						buffer.clear();
 						}
-					}
-				
-				
-								
-				// singleton check
-				if(this.use_singleton && ( count_het>0 || count_homvar!=1 ))
-					{
+					buffer.add(new Site(ctx, sample2gt));
 					continue;
 					}
-				//at least one HOM_REF and one HOM_VAR
-				if(count_homref==0) continue;
-				if(count_homvar==0) continue;
-				
-						
-				final Map<SampleIdentifier,Counter<Character>> sample_identifier_2allelesCount=new HashMap<>();
-				
+
+				final Map<SampleIdentifier,BaseCounts> sample_identifier_2allelesCount=new HashMap<>();
+
 				/* scan Reads for those Genotype/Samples */
 				for(final String sampleName: sample2gt.keySet())
 					{
-					if(!sample2samReader.containsKey(sampleName)) continue;
 					//sample name is not in vcf header
 					final SamReader samReader = sample2samReader.get(sampleName);
 					if(samReader==null) continue;
-					
-					final Genotype genotype = sample2gt.get(sampleName);
-					if(genotype==null) continue;
-					
+
 					iter = samReader.query(
 							ctx.getContig(),
 							ctx.getStart(),
@@ -789,51 +1197,18 @@ public class XContaminations extends Launcher
 						final SAMRecord record= iter.next();
 						if(record.getEnd()< ctx.getStart()) continue;
 						if(ctx.getEnd()< record.getStart()) continue;
-						
-						if(record.getReadUnmappedFlag()) continue;
-						if(this.filter.filterOut(record)) continue;
-					
-						
-						final SAMReadGroupRecord srgr = record.getReadGroup();
-						//not current sample
-						if(srgr==null) continue;
-						if(!sampleName.equals(srgr.getSample())) continue;
-						
-						final Cigar cigar=record.getCigar();
-						if(cigar==null || cigar.isEmpty()) continue;
-						byte readSeq[]=record.getReadBases();
-						if(readSeq==null || readSeq.length==0) continue;
-						
-						int readPos = record.getReadPositionAtReferencePosition(ctx.getStart());
-						if(readPos<1) continue;
-						readPos--;
-						if(readPos>=readSeq.length) continue;
-						final char base = Character.toUpperCase((char)readSeq[readPos]);
-						
-						if(base=='N') continue;
-						
-						
-						final SampleIdentifier sampleIdentifier;
-						if(this.use_only_sample_name)
-							{
-							sampleIdentifier = new SimpleSampleIdenfifier(sampleName);
-							}
-						else
-							{
-							final ShortReadName readName = ShortReadName.parse(record);
-							if(!readName.isValid())
-								{
-								LOG.info("No a valid read name "+record.getReadName());
-								continue;
-								}
-							sampleIdentifier = new SequencerFlowCellRunLaneSample(readName, sampleName);
-							}
+						if(!acceptRead(record, sampleName)) continue;
+
+						final char base = getBaseAt(record, ctx.getStart());
+						if(base==0) continue;
 
-						
-						Counter<Character> sampleAlleles= sample_identifier_2allelesCount.get(sampleIdentifier);
+						final SampleIdentifier sampleIdentifier = getSampleIdentifier(record, sampleName);
+						if(sampleIdentifier==null) continue;
+
+						BaseCounts sampleAlleles= sample_identifier_2allelesCount.get(sampleIdentifier);
 						if(sampleAlleles==null)
 							{
-							sampleAlleles=new Counter<Character>();
+							sampleAlleles=new BaseCounts();
 							sample_identifier_2allelesCount.put(sampleIdentifier, sampleAlleles);
 							}
 						sampleAlleles.incr(base);
@@ -841,194 +1216,18 @@ public class XContaminations extends Launcher
 					iter.close();
 					iter=null;
 					}/* end scan reads for this sample */
-				
-				
-			
-				
-				/* sum-up data for this SNP */
-				final VariantContextBuilder vcb;
-				final List<Genotype> genotypeList;
-				
-				if(this.output_as_vcf)
-					{
-					vcb = new VariantContextBuilder(args.get(0), ctx.getContig(), ctx.getStart(), ctx.getEnd(), ctx.getAlleles());
-					if(ctx.hasID()) vcb.id(ctx.getID());
-					genotypeList= new ArrayList<>();
-					}
-				else
-					{
-					vcb = null;
-					genotypeList = null;
-					}
-				
-				
-				for(final String sample1: sample2gt.keySet())
-					{
-					final Genotype g1= sample2gt.get(sample1);
-					final char a1 = g1.getAllele(0).getBaseString().charAt(0);
-					
-					
-					for(final String sample2:  sample2gt.keySet())
-						{
-						if(sample1.compareTo(sample2)>=0) continue;
-						final Genotype g2= sample2gt.get(sample2);
-						if(g2.sameGenotype(g1)) continue;
-						final char a2 =  g2.getAllele(0).getBaseString().charAt(0);
-						
-						for(final SampleIdentifier sfcr1: sample_identifier_2allelesCount.keySet())
-							{
-							if(!sfcr1.getSampleName().equals(sample1)) continue;
-							final Counter<Character> counter1 =  sample_identifier_2allelesCount.get(sfcr1);
-							if(counter1==null) continue;
-
-							
-							for(final SampleIdentifier sfcr2: sample_identifier_2allelesCount.keySet())
-								{
-								if(!sfcr2.getSampleName().equals(sample2)) continue;
-								
-								final SamplePair samplePair = new SamplePair(sfcr1, sfcr2);
-								
-								final Counter<Character> counter2 =  sample_identifier_2allelesCount.get(sfcr2);
-								if(counter2==null) continue;
-								
-								
-								SampleAlleles sampleAlleles = contaminationTable.get(samplePair);
-								if(sampleAlleles==null)
-									{
-									sampleAlleles=new SampleAlleles();
-									contaminationTable.put(samplePair,sampleAlleles);
-									if(!this.output_as_vcf && contaminationTable.size()%10000==0) LOG.info("n(pairs)=" + contaminationTable.size() ); 
-									}
-
-								sampleAlleles.number_of_comparaisons++;
-								
-								for(final Character allele: counter1.keySet())
-									{
-									final long n = counter1.count(allele);
-									if(allele.equals(a1))
-										{
-										sampleAlleles.reads_sample1_supporting_sample1 += n;
-										}
-									else if(allele.equals(a2))
-										{
-										sampleAlleles.reads_sample1_supporting_sample2 += n;
-										}
-									else
-										{
-										sampleAlleles.reads_sample1_supporting_other += n;
-										}
-									}
-								
-								for(final Character allele: counter2.keySet())
-									{
-									final long n = counter2.count(allele);
-									if(allele.equals(a2))
-										{
-										sampleAlleles.reads_sample2_supporting_sample2 += n;
-										}
-									else if(allele.equals(a1))
-										{
-										sampleAlleles.reads_sample2_supporting_sample1 += n;
-										}
-									else
-										{
-										sampleAlleles.reads_sample2_supporting_other += n;
-										}
-									}
-								}
-							}
-						}
-					}
-				
-				if(this.output_as_vcf) 
-					{
-					final Set<String> bad_samples=new TreeSet<>();
-					boolean fraction_flag=false;
-					int num_lt=0;
-					for(final SamplePair samplepair :sampleListForVcf)
-						{
-						final GenotypeBuilder gb = new GenotypeBuilder(samplepair.getLabel());
-						final SampleAlleles sampleAlleles = contaminationTable.get(samplepair);
-						if(sampleAlleles != null)
-							{
-							gb.attribute("S1S1", sampleAlleles.reads_sample1_supporting_sample1);
-							gb.attribute("S1S2", sampleAlleles.reads_sample1_supporting_sample2);
-							gb.attribute("S1SO", sampleAlleles.reads_sample1_supporting_other);
-							gb.attribute("S2S1", sampleAlleles.reads_sample2_supporting_sample1);
-							gb.attribute("S2S2", sampleAlleles.reads_sample2_supporting_sample2);
-							gb.attribute("S2SO", sampleAlleles.reads_sample2_supporting_other);
-							gb.attribute("S1A",sample2gt.get(samplepair.sample1.getSampleName()).getAllele(0).getDisplayString().charAt(0));
-							gb.attribute("S2A",sample2gt.get(samplepair.sample2.getSampleName()).getAllele(0).getDisplayString().charAt(0));
-							final double fraction = sampleAlleles.getFraction();
-							gb.attribute("FR", fraction);
-							if(!this.passFractionTreshold.test(fraction)) {
-								fraction_flag=true;
-								}
-							
-							boolean bad_lt_flag=false;
-							if( sampleAlleles.reads_sample1_supporting_sample1 <= this.fail_factor*sampleAlleles.reads_sample1_supporting_sample2)
-								{
-								bad_samples.add(samplepair.sample1.getSampleName());
-								bad_lt_flag = true;
-								}
-							if(sampleAlleles.reads_sample2_supporting_sample2 <= this.fail_factor*sampleAlleles.reads_sample2_supporting_sample1) {
-								bad_samples.add(samplepair.sample2.getSampleName());
-								bad_lt_flag = true;
-								}
-							
-							if(bad_lt_flag)
-								{
-								num_lt++;
-								}
-							}
-						else
-							{
-							gb.attribute("S1S1", -1);
-							gb.attribute("S1S2", -1);
-							gb.attribute("S1SO", -1);
-							gb.attribute("S2S1", -1);
-							gb.attribute("S2S2", -1);
-							gb.attribute("S2SO", -1);
-							gb.attribute("S1A",'.');
-							gb.attribute("S2A",'.');
-
-							gb.attribute("FR", -1f);
-							}
-						genotypeList.add(gb.make());
-						}
-					if(!bad_samples.isEmpty())
-						{
-						vcb.attribute("BADSAMPLES", new ArrayList<>(bad_samples));
-						}
-					vcb.attribute("LE", num_lt);
-					if(fraction_flag || !bad_samples.isEmpty()) 
-						{
-						if(fraction_flag) vcb.filter("XCONTAMINATION");
-						if(!bad_samples.isEmpty()) vcb.filter("BADSAMPLES");
-						}
-					else
-						{
-						vcb.passFilters();
-						}
-					vcb.genotypes(genotypeList);
-					vcfw.add(vcb.make());
-					
-					contaminationTable.clear();
-					}
-				else
-					{
-					final long now=System.currentTimeMillis();
-					if(	this.outputFile!=null && 
-						this.save_every_sec>-1L && 
-						last_save_ms+(this.save_every_sec*1000L)> now
-						) {
-						saveToFile(contaminationTable);
-						last_save_ms = now;
-						}
-					}
+
+				processVariant(args.get(0), ctx, sample2gt, sample_identifier_2allelesCount, contaminationTable, sampleListForVcf, vcfw);
+				}
+			/* remaining buffered variants */
+			sweep(buffer, sample2samReader, executor);
+			for(final Site site: buffer)
+				{
+				processVariant(args.get(0), site.ctx, site.sample2gt, site.identifier2counts, contaminationTable, sampleListForVcf, vcfw);
 				}
+			buffer.clear();
 			progress.finish();
-						
+
 			if(this.output_as_vcf)
 				{
 				vcfw.close();
@@ -1046,7 +1245,8 @@ public class XContaminations extends Launcher
 			}
 		finally
 			{
-			CloserUtil.close(vcfw);			
+			if(executor!=null) executor.shutdownNow();
+			CloserUtil.close(vcfw);
 			CloserUtil.close(in);
 			CloserUtil.close(iter);
 			for(SamReader samReader:sample2samReader.values())
@@ -0,0 +1,104 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2020 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * A thread-safe {@link Counter}. Each key has its own {@link LongAdder}, so threads incrementing
+ * the same key don't contend on a single lock. The values returned while other threads
+ * are still counting are not a consistent snapshot.
+ * For a parallel scan, one {@link Counter} per thread combined with {@link Counter#merge(Counter)} is often faster.
+ */
+public class ConcurrentCounter<T> extends Counter<T>
+	{
+	private final ConcurrentHashMap<T,LongAdder> cells = new ConcurrentHashMap<>();
+	private final LongAdder total = new LongAdder();
+	
+	public ConcurrentCounter()
+		{
+		}
+	
+	@Override
+	protected boolean containsKey(final T key)
+		{
+		return key!=null && this.cells.containsKey(key);
+		}
+	
+	@Override
+	protected long getCount(final T key)
+		{
+		if(key==null) return 0L;
+		final LongAdder n = this.cells.get(key);
+		return n==null?0L:n.sum();
+		}
+	
+	@Override
+	protected long addCount(final T key,final long n)
+		{
+		final LongAdder cell = this.cells.computeIfAbsent(key, K->new LongAdder());
+		cell.add(n);
+		return cell.sum();
+		}
+	
+	@Override
+	protected void forEachKey(final Consumer<T> consumer)
+		{
+		this.cells.keySet().forEach(consumer);
+		}
+	
+	@Override
+	protected int size()
+		{
+		return this.cells.size();
+		}
+	
+	@Override
+	protected void addToTotal(final long n)
+		{
+		this.total.add(n);
+		}
+	
+	@Override
+	public void initializeIfNotExists(final T key,final long initialValue)
+		{
+		if(key==null) throw new IllegalArgumentException("null argument in "+getClass());
+		if(initialValue<0) throw new IllegalArgumentException("n<0 :"+initialValue);
+		final LongAdder cell = new LongAdder();
+		cell.add(initialValue);
+		if(this.cells.putIfAbsent(key, cell)==null)
+			{
+			this.total.add(initialValue);
+			}
+		}
+	
+	@Override
+	public long getTotal()
+		{
+		return this.total.sum();
+		}
+	}
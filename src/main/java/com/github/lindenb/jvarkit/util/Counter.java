@@ -24,34 +24,50 @@ SOFTWARE.
 */
 package com.github.lindenb.jvarkit.util;
 
+import java.util.AbstractSet;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.OptionalLong;
 import java.util.Set;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+/**
+ * Counts the occurrences of objects.
+ * 
+ * The counts are stored as primitive longs in an open-addressing hash table, so an increment
+ * doesn't allocate anything. Subclasses may change the storage by overriding the protected
+ * methods {@link #containsKey(Object)}, {@link #getCount(Object)}, {@link #addCount(Object, long)},
+ * {@link #forEachKey(Consumer)} and {@link #size()}:
+ * see {@link IndexedCounter} for small key domains and {@link ConcurrentCounter} for a thread-safe counter.
+ */
 public class Counter<T>
 	{
-	private final Map<T,Long> object2count=new HashMap<T,Long>();
+	private static final int DEFAULT_CAPACITY = 16;
+	private Object[] keys;
+	private long[] counts;
+	private int n_keys = 0;
 	private long total=0L;
 	
 	/** default constructor */
 	public Counter()
 		{
+		this.keys = new Object[DEFAULT_CAPACITY];
+		this.counts = new long[DEFAULT_CAPACITY];
 		}
 	
 	/** constructor with map*/
 	public Counter(final Map<T,Long> other)
 		{
-		this.object2count.putAll(other);
-		for(final Long n : this.object2count.values()) {
-			this.total+=n;
+		this();
+		for(final Map.Entry<T,Long> kv : other.entrySet()) {
+			this.initializeIfNotExists(kv.getKey(), kv.getValue());
 			}
 		}
 	/** constructor with a <code>stream&lt;T&gt;</code> */
@@ -60,6 +76,100 @@ public class Counter<T>
 		this(stream.collect(Collectors.groupingBy(Function.identity(), Collectors.counting())));
 		}
 	
+	/** index of 'key' in the table, or index of the empty slot where it should be inserted */
+	private int slot(final Object key)
+		{
+		final int mask = this.keys.length - 1;
+		int h = key.hashCode();
+		h ^= (h >>> 16);
+		int i = (h * 0x9E3779B9) & mask;
+		for(;;)
+			{
+			final Object k = this.keys[i];
+			if(k==null || k.equals(key)) return i;
+			i = (i + 1) & mask;
+			}
+		}
+	
+	private void rehash()
+		{
+		final Object[] oldKeys = this.keys;
+		final long[] oldCounts = this.counts;
+		this.keys = new Object[oldKeys.length * 2];
+		this.counts = new long[oldKeys.length * 2];
+		for(int i=0;i< oldKeys.length;i++)
+			{
+			if(oldKeys[i]==null) continue;
+			final int j = slot(oldKeys[i]);
+			this.keys[j] = oldKeys[i];
+			this.counts[j] = oldCounts[i];
+			}
+		}
+	
+	/** @return true if the key was seen or initialized */
+	protected boolean containsKey(final T key)
+		{
+		if(key==null) return false;
+		return this.keys[slot(key)]!=null;
+		}
+	
+	/** @return the count for this key or 0 */
+	protected long getCount(final T key)
+		{
+		if(key==null) return 0L;
+		final int i = slot(key);
+		return this.keys[i]==null?0L:this.counts[i];
+		}
+	
+	/** add 'n'&ge;0 to the count of 'key', creates the key if needed. Doesn't update the total. @return the new count */
+	protected long addCount(final T key,final long n)
+		{
+		int i = slot(key);
+		if(this.keys[i]==null)
+			{
+			/* keep the load factor under 0.5 */
+			if((this.n_keys + 1) * 2 > this.keys.length)
+				{
+				rehash();
+				i = slot(key);
+				}
+			this.keys[i] = key;
+			this.n_keys++;
+			}
+		this.counts[i] += n;
+		return this.counts[i];
+		}
+	
+	/** visit all the keys */
+	@SuppressWarnings("unchecked")
+	protected void forEachKey(final Consumer<T> consumer)
+		{
+		for(int i=0;i< this.keys.length;i++)
+			{
+			if(this.keys[i]!=null) consumer.accept((T)this.keys[i]);
+			}
+		}
+	
+	/** @return the number of keys */
+	protected int size()
+		{
+		return this.n_keys;
+		}
+	
+	/** add 'n' to the total. Also called by the subclasses that bypass {@link #incr(Object, long)} */
+	protected void addToTotal(final long n)
+		{
+		this.total+=n;
+		}
+	
+	/** @return a list of all the keys */
+	protected List<T> keyList()
+		{
+		final List<T> L = new ArrayList<>(size());
+		forEachKey(K->L.add(K));
+		return L;
+		}
+	
 	public void initializeIfNotExists(final T key)
 		{
 		initializeIfNotExists(key,0L);
@@ -67,11 +177,12 @@ public class Counter<T>
 	
 	public void initializeIfNotExists(final T key,long initialValue)
 		{
-		if(!this.object2count.containsKey(key))
+		if(key==null) throw new IllegalArgumentException("null argument in "+getClass());
+		if(!this.containsKey(key))
 			{
 			if(initialValue<0) throw new IllegalArgumentException("n<0 :"+initialValue);
-			this.object2count.put(key,initialValue);
-			this.total+=initialValue;
+			this.addCount(key,initialValue);
+			this.addToTotal(initialValue);
 			}
 		}
 	
@@ -85,19 +196,37 @@ public class Counter<T>
 		{
 		if(n<=0) throw new IllegalArgumentException("n<=0 :"+n);
 		if(object==null) throw new IllegalArgumentException("null argument in "+getClass());
-		final long count = this.object2count.getOrDefault(object,0L) + n;
-		this.object2count.put(object,count);
-		this.total+=n;
+		final long count = this.addCount(object,n);
+		this.addToTotal(n);
 		return count;
 		}
 	
+	/** add all the counts of 'other' to this counter. Keys with a count of 0 in 'other' are initialized. */
 	public void putAll(final Counter<T> other)
+		{
+		merge(other);
+		}
+	
+	/** 
+	 * add all the counts of 'other' to this counter, typically to combine the counters filled by
+	 * several threads after a parallel scan. Keys with a count of 0 in 'other' are initialized.
+	 * @return this
+	 */
+	public Counter<T> merge(final Counter<T> other)
 		{
 		if(this==other)  throw new IllegalArgumentException("cannot put to self");
-		for(T k: other.keySet())
-			{
-			this.incr(k,other.count(k));
-			}
+		other.forEachKey(K->{
+			final long n = other.count(K);
+			if(n==0L)
+				{
+				this.initializeIfNotExists(K);
+				}
+			else
+				{
+				this.incr(K,n);
+				}
+			});
+		return this;
 		}
 	
 	public long getTotal()
@@ -108,23 +237,51 @@ public class Counter<T>
 	/** count number of times object was seen. returns 0 if object never seen */
 	public long count(final T object)
 		{
-		Long count=this.object2count.get(object);
-		return count==null?0L:count;
+		return this.getCount(object);
 		}
 	
+	/** returns a read-only view of the keys */
 	public Set<T> keySet()
 		{
-		return this.object2count.keySet();
+		return new AbstractSet<T>()
+			{
+			@Override
+			public Iterator<T> iterator()
+				{
+				return Collections.unmodifiableList(keyList()).iterator();
+				}
+			@SuppressWarnings("unchecked")
+			@Override
+			public boolean contains(final Object o)
+				{
+				try
+					{
+					return containsKey((T)o);
+					}
+				catch(final ClassCastException err)
+					{
+					return false;
+					}
+				}
+			@Override
+			public int size()
+				{
+				return Counter.this.size();
+				}
+			};
 		}
 	
 	public T getMostFrequent()
 		{
 		T key=null;
-		for(final T o:this.object2count.keySet())
+		long max=0L;
+		for(final T o:keyList())
 			{
-			if(key==null || count(key)< count(o))
+			final long n = count(o);
+			if(key==null || max< n)
 				{
 				key=o;
+				max=n;
 				}
 			}
 		return key;
@@ -132,13 +289,13 @@ public class Counter<T>
 	
 	/** return maximum occurence found in this Counter */
 	public OptionalLong getMaxCount() {
-		return this.object2count.values().stream().mapToLong(V->V.longValue()).max();
+		return keyList().stream().mapToLong(K->count(K)).max();
 		}
 	
 	
 	public List<T> keySetDecreasing()
 		{
-		final List<T> L=new ArrayList<T>(this.object2count.keySet());
+		final List<T> L=keyList();
 		Collections.sort(L, new Comparator<T>()
 			{
 			@Override
@@ -152,7 +309,7 @@ public class Counter<T>
 	
 	public List<T> keySetIncreasing()
 		{
-		final List<T> L=new ArrayList<T>(this.object2count.keySet());
+		final List<T> L=keyList();
 		Collections.sort(L, new Comparator<T>()
 			{
 			@Override
@@ -167,19 +324,19 @@ public class Counter<T>
 	/** return the number of categories */
 	public int getCountCategories()
 		{
-		return this.object2count.size();
+		return this.size();
 		}
 	
 	public boolean isEmpty()
 		{
-		return this.object2count.isEmpty();
+		return this.size()==0;
 		}
 	
 	/** convert this Counter as a List of Map.Entry<T,Long> */
 	public List<Map.Entry<T, Long>> asList() {
-		final List<Map.Entry<T, Long>> L=new ArrayList<>(this.object2count.size());
-		this.object2count.forEach((K,V)->{
-			L.add(new java.util.AbstractMap.SimpleEntry<T,Long>(K,V));
+		final List<Map.Entry<T, Long>> L=new ArrayList<>(this.size());
+		forEachKey(K->{
+			L.add(new java.util.AbstractMap.SimpleEntry<T,Long>(K,count(K)));
 			});
 		return L;
 		}
@@ -189,16 +346,32 @@ public class Counter<T>
 		return asList().stream();
 		}
 
+	/** same hash code as a java.util.Map&lt;T,Long&gt; */
 	@Override
 	public int hashCode() {
-		return this.object2count.hashCode();
+		int h = 0;
+		for(final T k: keyList()) {
+			h += k.hashCode() ^ Long.hashCode(count(k));
+			}
+		return h;
 		}
 	
 	@Override
 	public boolean equals(final Object obj) {
 		if(obj==this) return true;
 		if(obj==null || !(obj instanceof Counter)) return false;
-		return this.object2count.equals(Counter.class.cast(obj).object2count);
+		@SuppressWarnings("unchecked")
+		final Counter<T> other = Counter.class.cast(obj);
+		if(this.size()!=other.size()) return false;
+		try {
+			for(final T k: keyList()) {
+				if(!other.containsKey(k) || other.count(k)!=this.count(k)) return false;
+				}
+			}
+		catch(final ClassCastException|IllegalArgumentException err) {
+			return false;
+			}
+		return true;
 		}
 	
 	@Override
@@ -0,0 +1,197 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2020 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.util;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
+
+/**
+ * A {@link Counter} for a small domain of keys that can be mapped to [0,size[ : enums, bytes, ASCII characters,
+ * a range of integers... The counts are stored in an array of primitive longs.
+ */
+public class IndexedCounter<T> extends Counter<T>
+	{
+	private final long[] cells;
+	private final boolean[] present;
+	private final ToIntFunction<T> keyToIndex;
+	private final IntFunction<T> indexToKey;
+	/** identifies the domain of the keys (enum class, range...) or null if unknown. Used by {@link #merge(Counter)} */
+	private final Object domain;
+	private int n_keys = 0;
+	
+	/**
+	 * @param size size of the domain
+	 * @param keyToIndex converts a key to an index in [0,size[ . Can return -1 for a key out of the domain.
+	 * @param indexToKey converts an index in [0,size[ to a key.
+	 */
+	public IndexedCounter(final int size,final ToIntFunction<T> keyToIndex,final IntFunction<T> indexToKey)
+		{
+		this(null,size,keyToIndex,indexToKey);
+		}
+	
+	private IndexedCounter(final Object domain,final int size,final ToIntFunction<T> keyToIndex,final IntFunction<T> indexToKey)
+		{
+		if(size<0) throw new IllegalArgumentException("size<0 :"+size);
+		this.cells = new long[size];
+		this.present = new boolean[size];
+		this.keyToIndex = keyToIndex;
+		this.indexToKey = indexToKey;
+		this.domain = domain;
+		}
+	
+	/** creates a counter for the constants of an enum */
+	public static <E extends Enum<E>> IndexedCounter<E> ofEnum(final Class<E> clazz)
+		{
+		final E[] values = clazz.getEnumConstants();
+		return new IndexedCounter<>(clazz, values.length, E->E.ordinal(), i->values[i]);
+		}
+	
+	/** creates a counter for the bytes */
+	public static IndexedCounter<Byte> ofBytes()
+		{
+		return new IndexedCounter<>(Byte.class, 256, B->B.byteValue() & 0xFF, i->Byte.valueOf((byte)i));
+		}
+	
+	/** creates a counter for the ASCII characters (0-127) */
+	public static IndexedCounter<Character> ofAscii()
+		{
+		return new IndexedCounter<>(Character.class, 128, C->C.charValue(), i->Character.valueOf((char)i));
+		}
+	
+	/** creates a counter for the integers in the range [min,max] (inclusive) */
+	public static IndexedCounter<Integer> ofIntRange(final int min,final int max)
+		{
+		if(min>max) throw new IllegalArgumentException("min>max :"+min+">"+max);
+		return new IndexedCounter<>(Arrays.asList(min,max), 1 + (max-min), I->I.intValue()-min, i->Integer.valueOf(min+i));
+		}
+	
+	/** @return the index of the key or -1 if it is out of the domain */
+	private int indexOf(final T key)
+		{
+		if(key==null) return -1;
+		final int idx = this.keyToIndex.applyAsInt(key);
+		return idx<0 || idx>=this.cells.length ? -1 : idx;
+		}
+	
+	@Override
+	protected boolean containsKey(final T key)
+		{
+		final int idx = indexOf(key);
+		return idx!=-1 && this.present[idx];
+		}
+	
+	@Override
+	protected long getCount(final T key)
+		{
+		final int idx = indexOf(key);
+		return idx==-1 ? 0L : this.cells[idx];
+		}
+	
+	@Override
+	protected long addCount(final T key,final long n)
+		{
+		final int idx = indexOf(key);
+		if(idx==-1) throw new IllegalArgumentException("key out of the domain of "+getClass().getSimpleName()+": "+key);
+		return addAt(idx,n);
+		}
+	
+	private long addAt(final int idx,final long n)
+		{
+		if(!this.present[idx])
+			{
+			this.present[idx]=true;
+			this.n_keys++;
+			}
+		this.cells[idx]+=n;
+		return this.cells[idx];
+		}
+	
+	@Override
+	protected void forEachKey(final Consumer<T> consumer)
+		{
+		for(int i=0;i< this.cells.length;i++)
+			{
+			if(this.present[i]) consumer.accept(this.indexToKey.apply(i));
+			}
+		}
+	
+	@Override
+	protected int size()
+		{
+		return this.n_keys;
+		}
+	
+	/** increase the count of the key at index 'idx' by 1, without converting the index to a key. returns the new count */
+	public long incrIndex(final int idx)
+		{
+		return incrIndex(idx,1L);
+		}
+	
+	/** increase the count of the key at index 'idx' by n, without converting the index to a key. returns the new count */
+	public long incrIndex(final int idx,final long n)
+		{
+		if(n<=0) throw new IllegalArgumentException("n<=0 :"+n);
+		if(idx<0 || idx>=this.cells.length) throw new IllegalArgumentException("index out of range :"+idx);
+		final long count = addAt(idx,n);
+		addToTotal(n);
+		return count;
+		}
+	
+	/** @return the count of the key at index 'idx' */
+	public long countIndex(final int idx)
+		{
+		return idx<0 || idx>=this.cells.length ? 0L : this.cells[idx];
+		}
+	
+	/** @return true if the indexes of 'other' map to the same keys as this counter */
+	private boolean sameDomain(final IndexedCounter<?> other)
+		{
+		return this.domain!=null &&
+			this.domain.equals(other.domain) &&
+			this.cells.length==other.cells.length;
+		}
+	
+	/** faster merge when the other counter is an IndexedCounter of the same known domain */
+	@SuppressWarnings("unchecked")
+	@Override
+	public Counter<T> merge(final Counter<T> other)
+		{
+		if(this==other)  throw new IllegalArgumentException("cannot put to self");
+		if(!(other instanceof IndexedCounter) || !sameDomain((IndexedCounter<?>)other))
+			{
+			return super.merge(other);
+			}
+		final IndexedCounter<T> o = (IndexedCounter<T>)other;
+		for(int i=0;i< this.cells.length;i++)
+			{
+			if(!o.present[i]) continue;
+			addAt(i,o.cells[i]);
+			addToTotal(o.cells[i]);
+			}
+		return this;
+		}
+	}
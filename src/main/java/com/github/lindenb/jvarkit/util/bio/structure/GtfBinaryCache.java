@@ -0,0 +1,384 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2020 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.util.bio.structure;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+
+import com.github.lindenb.jvarkit.lang.StringUtils;
+
+import htsjdk.samtools.util.IOUtil;
+import htsjdk.samtools.util.Locatable;
+
+/**
+ * A compiled, versioned, binary snapshot of the genes/transcripts/exons loaded by {@link GtfReader}.
+ * 
+ * The snapshot is built once from a GTF and is validated against the size and the modification time of the GTF.
+ * The CRC32 of the GTF is only computed when the size is the same but the modification time differs (copy, touch...).
+ * The records are memory-mapped and only decoded on demand, a query by interval only
+ * materializes the overlapping genes, so many JVMs on the same node share the page cache.
+ * 
+ * Layout: header (magic, version, size, modification time and crc32 of the GTF), the gene records, the index
+ * (contigs, and for each contig the start/end/offset of the genes sorted on start) and a
+ * trailer giving the offset of the index.
+ */
+public class GtfBinaryCache implements Closeable {
+	public static final String OPT_DESC = "Binary snapshot of the GTF gene model. Created if it doesn't exist or if it doesn't match the GTF. Next invocations will load the genes from this file instead of parsing the GTF.";
+	private static final byte[] MAGIC = new byte[] {'J','V','K','G','T','F','\n',0};
+	/** increase this number each time the layout or the serialization of the genes changes */
+	static final int VERSION = 2;
+	private static final int HEADER_SIZE = MAGIC.length + 4 + 8 + 8 + 8;
+	private static final int TRAILER_SIZE = 8 + MAGIC.length;
+	
+	private final Path cachePath;
+	private final FileChannel channel;
+	private final MappedByteBuffer data;
+	private final long gtfSize;
+	private final long gtfLastModified;
+	private final long gtfCrc32;
+	/** raw contig names, as found in the GTF */
+	private final String[] contigs;
+	private final List<ContigIndex> contigIndexes;
+	private final long recordsEnd;
+	private Function<String,String> contigNameConverter = S->S;
+	/** map converted contig name to index, built on demand */
+	private Map<String,ContigIndex> convertedContigs = null;
+
+	/** genes of one contig, sorted on start */
+	private static class ContigIndex {
+		final int contigIdx;
+		final int[] starts;
+		final int[] ends;
+		final long[] offsets;
+		/** longest gene, used to find the first overlapping gene */
+		int maxLength = 0;
+		ContigIndex(final int contigIdx,final int n) {
+			this.contigIdx = contigIdx;
+			this.starts = new int[n];
+			this.ends = new int[n];
+			this.offsets = new long[n];
+			}
+		/** index of the first gene whose start is not lower than 'pos' */
+		int lowerBound(final int pos) {
+			int low = 0;
+			int high = this.starts.length;
+			while(low < high) {
+				final int mid = (low + high) >>> 1;
+				if(this.starts[mid] < pos) {
+					low = mid + 1;
+					}
+				else
+					{
+					high = mid;
+					}
+				}
+			return low;
+			}
+		}
+	
+	/** open an existing snapshot */
+	public GtfBinaryCache(final Path cachePath) throws IOException {
+		IOUtil.assertFileIsReadable(cachePath);
+		this.cachePath = cachePath;
+		this.channel = FileChannel.open(cachePath, StandardOpenOption.READ);
+		boolean ok = false;
+		try {
+			final long fileSize = this.channel.size();
+			if(fileSize < HEADER_SIZE + TRAILER_SIZE) throw new IOException("not a gtf binary cache "+cachePath);
+			if(fileSize > Integer.MAX_VALUE) throw new IOException("gtf binary cache is too large to be memory-mapped "+cachePath);
+			this.data = this.channel.map(FileChannel.MapMode.READ_ONLY, 0L, fileSize);
+			final ByteBuffer buf = this.data.duplicate();
+			checkMagic(buf);
+			final int version = buf.getInt();
+			if(version!=VERSION) throw new IOException("bad version in "+cachePath+" expected "+VERSION+" but got "+version);
+			this.gtfSize = buf.getLong();
+			this.gtfLastModified = buf.getLong();
+			this.gtfCrc32 = buf.getLong();
+			
+			buf.position((int)(fileSize - TRAILER_SIZE));
+			this.recordsEnd = buf.getLong();
+			checkMagic(buf);
+			
+			buf.position((int)this.recordsEnd);
+			this.contigs = new String[buf.getInt()];
+			this.contigIndexes = new ArrayList<>(this.contigs.length);
+			for(int i=0;i< this.contigs.length;i++) {
+				this.contigs[i] = readString(buf);
+				final ContigIndex ci = new ContigIndex(i, buf.getInt());
+				for(int j=0;j< ci.starts.length;j++) {
+					ci.starts[j] = buf.getInt();
+					ci.ends[j] = buf.getInt();
+					ci.offsets[j] = buf.getLong();
+					ci.maxLength = Math.max(ci.maxLength, ci.ends[j] - ci.starts[j] + 1);
+					}
+				this.contigIndexes.add(ci);
+				}
+			ok = true;
+			}
+		finally
+			{
+			if(!ok) this.channel.close();
+			}
+		}
+	
+	private void checkMagic(final ByteBuffer buf) throws IOException {
+		final byte[] magic = new byte[MAGIC.length];
+		buf.get(magic);
+		if(!Arrays.equals(magic, MAGIC)) throw new IOException("not a gtf binary cache "+this.cachePath);
+		}
+	
+	private static String readString(final ByteBuffer buf) {
+		final byte[] array = new byte[buf.getInt()];
+		buf.get(array);
+		return new String(array, StandardCharsets.UTF_8);
+		}
+	
+	private static void writeString(final DataOutputStream out,final String s) throws IOException {
+		final byte[] array = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(array.length);
+		out.write(array);
+		}
+	
+	/** set the function converting the contigs of the GTF. Genes on a contig converted to null or blank are ignored */
+	public void setContigNameConverter(final Function<String, String> contigNameConverter) {
+		this.contigNameConverter = contigNameConverter==null?S->S:contigNameConverter;
+		this.convertedContigs = null;
+		}
+	
+	/** @return the size of the GTF this snapshot was built from */
+	public long getGtfSize() {
+		return this.gtfSize;
+		}
+	
+	/** @return the modification time (millisec) of the GTF this snapshot was built from */
+	public long getGtfLastModified() {
+		return this.gtfLastModified;
+		}
+	
+	/** @return the CRC32 of the GTF this snapshot was built from */
+	public long getGtfCrc32() {
+		return this.gtfCrc32;
+		}
+	
+	/** @return true if this snapshot was built from this gtf. The content of the GTF is only read if the size is the same but the modification time differs */
+	public boolean isValidFor(final Path gtfPath) throws IOException {
+		if(Files.size(gtfPath)!=this.gtfSize) return false;
+		if(lastModified(gtfPath)==this.gtfLastModified) return true;
+		return crc32(gtfPath)==this.gtfCrc32;
+		}
+	
+	/** converted contig name, or null if the contig must be ignored. An empty contig means the gene had no contig */
+	private String convertContig(final int contigIdx) {
+		final String raw = this.contigs[contigIdx];
+		if(raw.isEmpty()) return null;
+		final String ctg = this.contigNameConverter.apply(raw);
+		return StringUtils.isBlank(ctg)?null:ctg;
+		}
+	
+	private Gene decode(final long offset) {
+		final ByteBuffer buf = this.data.duplicate();
+		buf.position((int)offset);
+		final int contigIdx = buf.getInt();
+		return GtfReader.readGene(buf, convertContig(contigIdx));
+		}
+	
+	/** @return all the genes, in the order they were loaded from the GTF */
+	public List<Gene> getAllGenes() {
+		final List<Gene> genes = new ArrayList<>();
+		final ByteBuffer buf = this.data.duplicate();
+		buf.position(HEADER_SIZE);
+		while(buf.position() < this.recordsEnd) {
+			final int recordSize = buf.getInt();
+			final int offset = buf.position();
+			final int contigIdx = buf.getInt();
+			if(this.contigs[contigIdx].isEmpty() || convertContig(contigIdx)!=null) {
+				genes.add(decode(offset));
+				}
+			buf.position(offset + recordSize);
+			}
+		return genes;
+		}
+	
+	/** @return the genes overlapping the interval, sorted on start. Only those genes are decoded. */
+	public List<Gene> query(final Locatable interval) {
+		if(this.convertedContigs==null) {
+			final Map<String,ContigIndex> m = new HashMap<>(this.contigIndexes.size());
+			for(final ContigIndex ci: this.contigIndexes) {
+				final String ctg = convertContig(ci.contigIdx);
+				if(ctg!=null) m.put(ctg, ci);
+				}
+			this.convertedContigs = m;
+			}
+		final ContigIndex ci = this.convertedContigs.get(interval.getContig());
+		if(ci==null) return Collections.emptyList();
+		final List<Gene> genes = new ArrayList<>();
+		for(int i = ci.lowerBound(interval.getStart() - ci.maxLength); i < ci.starts.length; i++) {
+			if(ci.starts[i] > interval.getEnd()) break;
+			if(ci.ends[i] < interval.getStart()) continue;
+			genes.add(decode(ci.offsets[i]));
+			}
+		return genes;
+		}
+	
+	@Override
+	public void close() throws IOException {
+		this.convertedContigs = null;
+		this.channel.close();
+		}
+	
+	@Override
+	public String toString() {
+		return this.cachePath.toString();
+		}
+	
+	private static long lastModified(final Path path) throws IOException {
+		return Files.getLastModifiedTime(path).toMillis();
+		}
+	
+	/** compute the CRC32 of a file */
+	static long crc32(final Path path) throws IOException {
+		final CRC32 crc = new CRC32();
+		final byte[] buffer = new byte[1<<20];
+		try(InputStream in = Files.newInputStream(path)) {
+			int n;
+			while((n=in.read(buffer))!=-1) {
+				crc.update(buffer, 0, n);
+				}
+			}
+		return crc.getValue();
+		}
+	
+	/** @return true if the snapshot exists, can be opened, and was built from this GTF */
+	public static boolean isUpToDate(final Path cachePath,final Path gtfPath) {
+		if(!Files.exists(cachePath)) return false;
+		try(GtfBinaryCache cache = new GtfBinaryCache(cachePath)) {
+			return cache.isValidFor(gtfPath);
+			}
+		catch(final IOException err) {
+			return false;
+			}
+		}
+	
+	/** parse the GTF and write a new snapshot. The snapshot is written in a temporary file and then moved to its final location */
+	public static void build(final Path gtfPath,final Path cachePath) throws IOException {
+		build(gtfPath, cachePath, 1);
+		}
+	
+	/** parse the GTF using 'nThreads' threads and write a new snapshot. */
+	public static void build(final Path gtfPath,final Path cachePath,int nThreads) throws IOException {
+		IOUtil.assertFileIsReadable(gtfPath);
+		final long gtfSize = Files.size(gtfPath);
+		final long gtfLastModified = lastModified(gtfPath);
+		final long gtfCrc32 = crc32(gtfPath);
+		final List<Gene> genes;
+		try(GtfReader gtfReader = new GtfReader(gtfPath)) {
+			gtfReader.setThreads(nThreads);
+			genes = gtfReader.getAllGenes();
+			}
+		final Path parent = cachePath.toAbsolutePath().getParent();
+		final Path tmp = Files.createTempFile(parent, "tmp.", ".gtfcache");
+		try {
+			final Map<String,List<long[]>> contig2genes = new LinkedHashMap<>();
+			try(OutputStream os = Files.newOutputStream(tmp);
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os, 1<<20))) {
+				out.write(MAGIC);
+				out.writeInt(VERSION);
+				out.writeLong(gtfSize);
+				out.writeLong(gtfLastModified);
+				out.writeLong(gtfCrc32);
+				final Map<String,Integer> contig2idx = new HashMap<>();
+				final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				final DataOutputStream record = new DataOutputStream(bytes);
+				for(final Gene gene: genes) {
+					final String contig = gene.getContig()==null?"":gene.getContig();
+					Integer contigIdx = contig2idx.get(contig);
+					if(contigIdx==null) {
+						contigIdx = contig2idx.size();
+						contig2idx.put(contig, contigIdx);
+						contig2genes.put(contig, new ArrayList<>());
+						}
+					bytes.reset();
+					record.writeInt(contigIdx);
+					GtfReader.writeGene(record, gene);
+					record.flush();
+					if((long)out.size() + 4L + bytes.size() >= Integer.MAX_VALUE) throw new IOException("gtf binary cache would be too large for "+gtfPath);
+					out.writeInt(bytes.size());
+					final long offset = out.size();
+					contig2genes.get(contig).add(new long[] {gene.getStart(), gene.getEnd(), offset});
+					bytes.writeTo(out);
+					}
+				final long recordsEnd = out.size();
+				out.writeInt(contig2genes.size());
+				for(final String contig: contig2genes.keySet()) {
+					final List<long[]> L = contig2genes.get(contig);
+					L.sort((A,B)->Long.compare(A[0], B[0]));
+					writeString(out, contig);
+					out.writeInt(L.size());
+					for(final long[] triple: L) {
+						out.writeInt((int)triple[0]);
+						out.writeInt((int)triple[1]);
+						out.writeLong(triple[2]);
+						}
+					}
+				out.writeLong(recordsEnd);
+				out.write(MAGIC);
+				out.flush();
+				}
+			try {
+				Files.move(tmp, cachePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				}
+			catch(final AtomicMoveNotSupportedException err) {
+				Files.move(tmp, cachePath, StandardCopyOption.REPLACE_EXISTING);
+				}
+			}
+		finally
+			{
+			Files.deleteIfExists(tmp);
+			}
+		}
+	}
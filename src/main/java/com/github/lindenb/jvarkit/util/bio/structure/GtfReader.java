@@ -26,10 +26,14 @@ package com.github.lindenb.jvarkit.util.bio.structure;
 
 import java.io.BufferedReader;
 import java.io.Closeable;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -38,6 +42,10 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.function.Function;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -76,6 +84,12 @@ public class GtfReader implements Closeable {
 	private Function<String,String> contigNameConverter  = S->S;
 	private TabixReader tabixReader = null;
 	private static final boolean SUPPORTS_GFF = false;
+	/** optional binary snapshot of the gene model, see {@link GtfBinaryCache} */
+	private Path binaryCachePath = null;
+	/** number of threads used to decode the GTF */
+	private int nThreads = 1;
+	/** number of lines decoded by one task of the parallel loader */
+	private static final int PARALLEL_CHUNK_SIZE = 5_000;
 	
 	public GtfReader(final InputStream in) {
 		this.resource = new InputStreamGtfResource(in);
@@ -116,6 +130,22 @@ public class GtfReader implements Closeable {
 		this.contigNameConverter = contigNameConverter;
 		}
 	
+	/** set the number of threads used to decode a GTF file. The genes are the same whatever the number of threads. */
+	public GtfReader setThreads(final int nThreads) {
+		if(nThreads<1) throw new IllegalArgumentException("bad number of threads "+nThreads);
+		this.nThreads = nThreads;
+		return this;
+		}
+	
+	/** use a binary snapshot of the gene model. The snapshot is (re)built if it is missing
+	 * or if it doesn't match the GTF. Only used when the GTF is a local file.
+	 * @param binaryCachePath the snapshot, or null to disable the cache
+	 */
+	public GtfReader setBinaryCache(final Path binaryCachePath) {
+		this.binaryCachePath = binaryCachePath;
+		return this;
+		}
+	
 	/** exon coordinate */
 	private static class Coords {
 		int start;
@@ -299,57 +329,60 @@ public class GtfReader implements Closeable {
 		}
 		
 		private  void visitGtf(final String line) {
-			final GTFLine T = this.codec.decode(line);
+			visitGtf(decodeGtf(this.codec, line));
+			}
+		
+		private  void visitGtf(final DecodedGtfLine T) {
 			if(T==null) return;
 			
 			final String contig = contigNameConverter.apply(T.getContig());
 			if(StringUtils.isBlank(contig)) return;
 			
-			if(T.getStart()<=0) throw new IllegalArgumentException("Bad start in "+line);
-			if(T.getEnd()<=0) throw new IllegalArgumentException("Bad start in "+line);
+			if(T.getStart()<=0) throw new IllegalArgumentException("Bad start in "+T.line.getLine());
+			if(T.getEnd()<=0) throw new IllegalArgumentException("Bad start in "+T.line.getLine());
 
 			
 			if(this.treemap!=null && this.treemap.debugGetTree(T.getContig())==null) return;
 			
-			if(T.getType().equals("gene"))
+			if(T.type.equals("gene"))
 				{
-				final GeneImpl g = this.getGene(getRequiredProperty(T, "gene_id"));
-				g.properties.putAll(T.getAttributes());
+				final GeneImpl g = this.getGene(T.getRequiredGeneId());
+				g.properties.putAll(T.attributes);
 				g.contig = contig;
 				g.start = T.getStart();
 				g.end = T.getEnd();
-				g.strand = T.getStrand();
+				g.strand = T.line.getStrand();
 				}
-			else if(T.getType().equals("transcript"))
+			else if(T.type.equals("transcript"))
 				{
-				final GeneImpl g = this.getGene(getRequiredProperty(T, "gene_id"));
-				final TranscriptImpl t = this.getTranscript(getRequiredProperty(T, "transcript_id"));
-				t.properties.putAll(T.getAttributes());
+				final GeneImpl g = this.getGene(T.getRequiredGeneId());
+				final TranscriptImpl t = this.getTranscript(T.getRequiredTranscriptId());
+				t.properties.putAll(T.attributes);
 				t.gene = g;
 				t.txStart = T.getStart();
 				t.txEnd = T.getEnd();
-				t.strand = T.getStrand();
+				t.strand = T.line.getStrand();
 				g.transcripts.add(t);
 				}
-			else if(T.getType().equals("start_codon"))
+			else if(T.type.equals("start_codon"))
 				{
 				// codon start can be spliced of ENST00000429923 : multiple start_codon
-				final TranscriptImpl t = this.getTranscript(getRequiredProperty(T, "transcript_id"));
+				final TranscriptImpl t = this.getTranscript(T.getRequiredTranscriptId());
 				if(t.codon_start == null) t.codon_start = t.new StartCodonImpl();
 				t.codon_start.visit(T);
 				t.coding = true;
 				}
-			else if(T.getType().equals("stop_codon"))
+			else if(T.type.equals("stop_codon"))
 				{
 				// codon start can be spliced of ENST00000429923 : multiple start_codon
-				final TranscriptImpl t = this.getTranscript(getRequiredProperty(T, "transcript_id"));
+				final TranscriptImpl t = this.getTranscript(T.getRequiredTranscriptId());
 				if(t.codon_end == null) t.codon_end = t.new StopCodonImpl();
 				t.codon_end.visit(T);
 				t.coding = true;
 				}
-			else if(T.getType().equals("exon"))
+			else if(T.type.equals("exon"))
 				{
-				final TranscriptImpl t = this.getTranscript(getRequiredProperty(T, "transcript_id"));
+				final TranscriptImpl t = this.getTranscript(T.getRequiredTranscriptId());
 				
 				List<Coords> coords = this.transcript2exons.get(t.transcript_id);
 				if(coords==null) {
@@ -361,10 +394,10 @@ public class GtfReader implements Closeable {
 				coord.end = T.getEnd();
 				coords.add(coord);
 				}
-			else if(T.getType().equals("five_prime_utr") || 
-					T.getType().equals("CDS") || 
-					T.getType().equals("three_prime_utr")) {
-				final TranscriptImpl t = this.getTranscript(getRequiredProperty(T, "transcript_id"));
+			else if(T.type.equals("five_prime_utr") || 
+					T.type.equals("CDS") || 
+					T.type.equals("three_prime_utr")) {
+				final TranscriptImpl t = this.getTranscript(T.getRequiredTranscriptId());
 				t.saw_cds_flag = true;
 				}
 			else
@@ -431,13 +464,73 @@ public class GtfReader implements Closeable {
 			}
 		}
 	
-	private static String getRequiredProperty(final GTFLine line,String prop)  {
-		final String s = line.getAttribute(prop);
-		if(StringUtils.isBlank(s)) {
+	/** a GTF line and the attributes needed to build the genes.
+	 * Decoding doesn't depend on the State, so it can run in parallel. */
+	private static class DecodedGtfLine implements Locatable {
+		final GTFLine line;
+		final String type;
+		Map<String,String> attributes = Collections.emptyMap();
+		String gene_id = null;
+		String transcript_id = null;
+		DecodedGtfLine(final GTFLine line) {
+			this.line = line;
+			this.type = line.getType();
+			}
+		@Override
+		public String getContig() {
+			return this.line.getContig();
+			}
+		@Override
+		public int getStart() {
+			return this.line.getStart();
+			}
+		@Override
+		public int getEnd() {
+			return this.line.getEnd();
+			}
+		String getRequiredGeneId() {
+			return getRequiredProperty(this.line, "gene_id", this.gene_id);
+			}
+		String getRequiredTranscriptId() {
+			return getRequiredProperty(this.line, "transcript_id", this.transcript_id);
+			}
+		}
+	
+	/** decode a GTF line, returns null for comments */
+	private static DecodedGtfLine decodeGtf(final GTFCodec codec,final String line) {
+		final GTFLine T = codec.decode(line);
+		if(T==null) return null;
+		final DecodedGtfLine decoded = new DecodedGtfLine(T);
+		switch(decoded.type) {
+			case "gene":
+				decoded.gene_id = T.getAttribute("gene_id");
+				decoded.attributes = T.getAttributes();
+				break;
+			case "transcript":
+				decoded.gene_id = T.getAttribute("gene_id");
+				decoded.transcript_id = T.getAttribute("transcript_id");
+				decoded.attributes = T.getAttributes();
+				break;
+			case "start_codon":
+			case "stop_codon":
+			case "exon":
+			case "five_prime_utr":
+			case "CDS":
+			case "three_prime_utr":
+				decoded.transcript_id = T.getAttribute("transcript_id");
+				break;
+			default: break;
+			}
+		return decoded;
+		}
+	
+	private static String getRequiredProperty(final GTFLine line,final String prop,final String value)  {
+		if(StringUtils.isBlank(value)) {
 			throw new RuntimeIOException("cannot find property \""+prop+"\" in "+line.getLine());
 			}
-		return s;
+		return value;
 		}
+	
 	private static String getRequiredProperty(final String line,final Map<String,String> map,String prop)  {
 		final String s = map.get(prop);
 		if(StringUtils.isBlank(s)) {
@@ -447,9 +540,41 @@ public class GtfReader implements Closeable {
 		}
 	
 	public List<Gene> getAllGenes() {
+		if(this.binaryCachePath!=null && this.resource instanceof PathGtfResource) {
+			return fetchGenesFromCache(PathGtfResource.class.cast(this.resource).path);
+			}
 		return fetchGenes(null);
 		}
 	
+	private List<Gene> fetchGenesFromCache(final Path gtfPath) {
+		try(GtfBinaryCache cache = openBinaryCache(gtfPath)) {
+			return cache.getAllGenes();
+			}
+		catch(final IOException err) {
+			throw new RuntimeIOException(err);
+			}
+		}
+	
+	/** open the binary snapshot set with {@link #setBinaryCache(Path)}, (re)building it if needed,
+	 * so the genes can be queried by interval with {@link GtfBinaryCache#query(Locatable)} instead of loading all the genes.
+	 * The contig name converter of this reader is applied to the snapshot.
+	 * @return the snapshot or null if no binary cache was set or if the GTF is not a local file.
+	 */
+	public GtfBinaryCache openBinaryCache() throws IOException {
+		if(this.binaryCachePath==null || !(this.resource instanceof PathGtfResource)) return null;
+		return openBinaryCache(PathGtfResource.class.cast(this.resource).path);
+		}
+	
+	private GtfBinaryCache openBinaryCache(final Path gtfPath) throws IOException {
+		if(!GtfBinaryCache.isUpToDate(this.binaryCachePath, gtfPath)) {
+			LOG.info("building binary cache "+this.binaryCachePath+" for "+gtfPath);
+			GtfBinaryCache.build(gtfPath, this.binaryCachePath, this.nThreads);
+			}
+		final GtfBinaryCache cache = new GtfBinaryCache(this.binaryCachePath);
+		cache.setContigNameConverter(this.contigNameConverter);
+		return cache;
+		}
+	
 	/** not tested */
 	private List<Gene> queryGenes(final Locatable interval) {
 		if(interval==null) throw new IllegalArgumentException("interval cannot be null");
@@ -500,42 +625,13 @@ public class GtfReader implements Closeable {
 		
 		try(final BufferedReader br=this.resource.openReader())
 			{
-			br.lines().
-				filter(S->!StringUtils.isBlank(S)).
-				forEach(L->{
-					if(L.startsWith("#")) {
-						if(this.format.equals(InputFormat.undefined)) {
-							if(L.startsWith("##gff-version") && SUPPORTS_GFF) {
-								this.format = InputFormat.gff;
-								}
-							}
-						return;
-					}
-
-					
-					if(this.format.equals(InputFormat.undefined)) {
-						final String tokens[] = CharSplitter.TAB.split(L);
-						if(tokens.length>6 && (tokens[6].equals(".") || tokens[6].equals("+") || tokens[6].equals("-"))) {
-							if(SUPPORTS_GFF && tokens.length>8 && Pattern.compile("^[A-Za-z_][^ \t\"]*=").matcher(tokens[9]).find()) {
-								this.format = InputFormat.gff;
-								}
-							else
-								{
-								this.format = InputFormat.gtf;
-								}
-							}
-						else
-							{
-							this.format = InputFormat.knowngene;
-							}
-						}
-					switch(this.format) {
-						case gtf: state.visitGtf(L);break;
-						case gff: state.visitGff(L);break;
-						case knowngene: state.visitKg(L);break;
-						default: throw new IllegalStateException();
-					}
-				});
+			if(this.nThreads>1) {
+				fetchGenesInParallel(br, state);
+				}
+			else
+				{
+				br.lines().forEach(L->visitLine(state,L));
+				}
 			}
 		catch (final IOException e) {
 			throw new RuntimeIOException(e);
@@ -543,6 +639,239 @@ public class GtfReader implements Closeable {
 		return  state.finish();
 		}
 	
+	/** detect the format if needed and send the line to the state */
+	private void visitLine(final State state,final String L) {
+		if(StringUtils.isBlank(L)) return;
+		if(L.startsWith("#")) {
+			if(this.format.equals(InputFormat.undefined)) {
+				if(L.startsWith("##gff-version") && SUPPORTS_GFF) {
+					this.format = InputFormat.gff;
+					}
+				}
+			return;
+		}
+
+		
+		if(this.format.equals(InputFormat.undefined)) {
+			final String tokens[] = CharSplitter.TAB.split(L);
+			if(tokens.length>6 && (tokens[6].equals(".") || tokens[6].equals("+") || tokens[6].equals("-"))) {
+				if(SUPPORTS_GFF && tokens.length>8 && Pattern.compile("^[A-Za-z_][^ \t\"]*=").matcher(tokens[9]).find()) {
+					this.format = InputFormat.gff;
+					}
+				else
+					{
+					this.format = InputFormat.gtf;
+					}
+				}
+			else
+				{
+				this.format = InputFormat.knowngene;
+				}
+			}
+		switch(this.format) {
+			case gtf: state.visitGtf(L);break;
+			case gff: state.visitGff(L);break;
+			case knowngene: state.visitKg(L);break;
+			default: throw new IllegalStateException();
+		}
+	}
+	
+	/** 
+	 * Once the input is known to be a GTF, lines are read by chunks on this thread and
+	 * decoded (split, attributes) on a fork-join pool. The decoded lines are sent to the
+	 * State in the input order, so the genes are the same as with the serial loader.
+	 */
+	private void fetchGenesInParallel(final BufferedReader br,final State state) throws IOException {
+		final ForkJoinPool pool = new ForkJoinPool(this.nThreads);
+		final ArrayDeque<Future<List<DecodedGtfLine>>> pending = new ArrayDeque<>(this.nThreads*2);
+		try {
+			List<String> chunk = new ArrayList<>(PARALLEL_CHUNK_SIZE);
+			String line;
+			while((line=br.readLine())!=null) {
+				if(!this.format.equals(InputFormat.gtf)) {
+					visitLine(state, line);
+					continue;
+					}
+				if(StringUtils.isBlank(line)) continue;
+				chunk.add(line);
+				if(chunk.size() < PARALLEL_CHUNK_SIZE) continue;
+				if(pending.size() >= this.nThreads*2) {
+					visitDecoded(state, pending.removeFirst());
+					}
+				pending.addLast(pool.submit(createDecodeTask(chunk)));
+				chunk = new ArrayList<>(PARALLEL_CHUNK_SIZE);
+				}
+			if(!chunk.isEmpty()) {
+				pending.addLast(pool.submit(createDecodeTask(chunk)));
+				}
+			while(!pending.isEmpty()) {
+				visitDecoded(state, pending.removeFirst());
+				}
+			}
+		finally
+			{
+			for(final Future<?> f: pending) f.cancel(true);
+			pool.shutdownNow();
+			}
+		}
+	
+	private static Callable<List<DecodedGtfLine>> createDecodeTask(final List<String> lines) {
+		return ()->{
+			final GTFCodec codec = new GTFCodec();
+			final List<DecodedGtfLine> L = new ArrayList<>(lines.size());
+			for(final String line: lines) {
+				final DecodedGtfLine decoded = decodeGtf(codec, line);
+				if(decoded!=null) L.add(decoded);
+				}
+			return L;
+			};
+		}
+	
+	private static void visitDecoded(final State state,final Future<List<DecodedGtfLine>> future) throws IOException {
+		final List<DecodedGtfLine> L;
+		try {
+			L = future.get();
+			}
+		catch(final InterruptedException err) {
+			Thread.currentThread().interrupt();
+			throw new IOException(err);
+			}
+		catch(final ExecutionException err) {
+			if(err.getCause() instanceof RuntimeException) throw (RuntimeException)err.getCause();
+			throw new IOException(err.getCause());
+			}
+		for(final DecodedGtfLine decoded: L) {
+			state.visitGtf(decoded);
+			}
+		}
+	
+	/* binary serialization of the gene model, used by GtfBinaryCache */
+	
+	private static void writeString(final DataOutputStream out,final String s) throws IOException {
+		if(s==null) {
+			out.writeInt(-1);
+			return;
+			}
+		final byte[] array = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(array.length);
+		out.write(array);
+		}
+	
+	private static String readString(final ByteBuffer buf) {
+		final int len = buf.getInt();
+		if(len<0) return null;
+		final byte[] array = new byte[len];
+		buf.get(array);
+		return new String(array, StandardCharsets.UTF_8);
+		}
+	
+	private static void writeProperties(final DataOutputStream out,final Map<String,String> properties) throws IOException {
+		out.writeInt(properties.size());
+		for(final Map.Entry<String,String> kv: properties.entrySet()) {
+			writeString(out, kv.getKey());
+			writeString(out, kv.getValue());
+			}
+		}
+	
+	private static void readProperties(final ByteBuffer buf,final Map<String,String> properties) {
+		final int n = buf.getInt();
+		for(int i=0;i< n;i++) {
+			final String k = readString(buf);
+			properties.put(k, readString(buf));
+			}
+		}
+	
+	private static void writeCodon(final DataOutputStream out,final TranscriptImpl.AbstractCodonImpl codon) throws IOException {
+		out.writeBoolean(codon!=null);
+		if(codon==null) return;
+		for(int i=0;i< codon.pos.length;i++) out.writeInt(codon.pos[i]);
+		}
+	
+	private static void readCodon(final ByteBuffer buf,final TranscriptImpl.AbstractCodonImpl codon) {
+		for(int i=0;i< codon.pos.length;i++) codon.pos[i] = buf.getInt();
+		}
+	
+	private static void writeInts(final DataOutputStream out,final int[] array) throws IOException {
+		if(array==null) {
+			out.writeInt(-1);
+			return;
+			}
+		out.writeInt(array.length);
+		for(int v:array) out.writeInt(v);
+		}
+	
+	private static int[] readInts(final ByteBuffer buf) {
+		final int n = buf.getInt();
+		if(n<0) return null;
+		final int[] array = new int[n];
+		for(int i=0;i< n;i++) array[i] = buf.getInt();
+		return array;
+		}
+	
+	/** serialize a gene created by this class */
+	static void writeGene(final DataOutputStream out,final Gene gene) throws IOException {
+		final GeneImpl g = GeneImpl.class.cast(gene);
+		writeString(out, g.gene_id);
+		writeString(out, g.contig);
+		out.writeInt(g.start);
+		out.writeInt(g.end);
+		out.writeChar(g.strand);
+		writeProperties(out, g.properties);
+		out.writeInt(g.transcripts.size());
+		for(final Transcript transcript: g.transcripts) {
+			final TranscriptImpl t = TranscriptImpl.class.cast(transcript);
+			writeString(out, t.transcript_id);
+			out.writeInt(t.txStart);
+			out.writeInt(t.txEnd);
+			out.writeChar(t.strand);
+			out.writeBoolean(t.coding);
+			out.writeBoolean(t.saw_cds_flag);
+			writeCodon(out, t.codon_start);
+			writeCodon(out, t.codon_end);
+			writeInts(out, t.exonStarts);
+			writeInts(out, t.exonEnds);
+			writeProperties(out, t.properties);
+			}
+		}
+	
+	/** read a gene serialized with {@link #writeGene(DataOutputStream, Gene)}
+	 * @param contig the (converted) contig name of the gene
+	 */
+	static Gene readGene(final ByteBuffer buf,final String contig) {
+		final GeneImpl g = new GeneImpl();
+		g.gene_id = readString(buf);
+		readString(buf);
+		g.contig = contig;
+		g.start = buf.getInt();
+		g.end = buf.getInt();
+		g.strand = buf.getChar();
+		readProperties(buf, g.properties);
+		final int n = buf.getInt();
+		for(int i=0;i< n;i++) {
+			final TranscriptImpl t = new TranscriptImpl();
+			t.gene = g;
+			t.transcript_id = readString(buf);
+			t.txStart = buf.getInt();
+			t.txEnd = buf.getInt();
+			t.strand = buf.getChar();
+			t.coding = buf.get()!=0;
+			t.saw_cds_flag = buf.get()!=0;
+			if(buf.get()!=0) {
+				t.codon_start = t.new StartCodonImpl();
+				readCodon(buf, t.codon_start);
+				}
+			if(buf.get()!=0) {
+				t.codon_end = t.new StopCodonImpl();
+				readCodon(buf, t.codon_end);
+				}
+			t.exonStarts = readInts(buf);
+			t.exonEnds = readInts(buf);
+			readProperties(buf, t.properties);
+			g.transcripts.add(t);
+			}
+		return g;
+		}
+	
 	@Override
 	public void close()  {
 		this.resource.close();
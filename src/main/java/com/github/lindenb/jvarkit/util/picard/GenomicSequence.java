@@ -61,6 +61,8 @@ public class GenomicSequence
 		public int getAllCount();
 		public int getGCCount();
 		public int getATCount();
+		/** number of 'N' bases */
+		public int getNCount();
 		/** return true if getAllCount==0 */
 		public boolean isEmpty();
 		/** return GC% as double between 0 and 1 . return -1 if interval isEmpty */
@@ -77,7 +79,7 @@ public class GenomicSequence
 
 		}
 	
-	private static class GCPercentImpl
+	static class GCPercentImpl
 		implements GCPercent
 		{
 		final String contig;
@@ -86,6 +88,7 @@ public class GenomicSequence
 		int count=0;
 		int count_gc=0;
 		int count_at=0;
+		int count_n=0;
 
 		GCPercentImpl(String contig,int s1,int e1) {
 			this.contig = contig;
@@ -95,6 +98,7 @@ public class GenomicSequence
 		@Override public int getAllCount() { return this.count;}
 		@Override public int getGCCount() { return this.count_gc;}
 		@Override public int getATCount(){ return this.count_at;}
+		@Override public int getNCount(){ return this.count_n;}
 		@Override
 		public boolean isEmpty() { return this.count == 0; }
 		@Override
@@ -216,6 +220,7 @@ public class GenomicSequence
 				case 'a': case 'A':
 				case 't': case 'T':
 				case 'w': case 'W':gcp.count_at++; break;
+				case 'n': case 'N':gcp.count_n++; break;
 				}
 			}
 		return gcp;
@@ -0,0 +1,327 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2020 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.util.picard;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import htsjdk.samtools.reference.ReferenceSequenceFile;
+
+/**
+ * A {@link GenomicSequence} holding the whole contig in memory, packed with 2 bits per base.
+ *
+ * The bases are encoded like in the UCSC 2bit format (T=0,C=1,A=2,G=3, first base in the high bits),
+ * so C and G are exactly the bases having their low bit set. The number of C/G is stored every
+ * 256 bases and the bases that are not A/C/G/T (N, IUPAC...) are stored as runs,
+ * so <code>getGCPercent(start,end)</code> runs in constant time whatever the size of the window.
+ * Once built, the object is immutable and can be shared between threads and tools.
+ *
+ */
+public class PackedGenomicSequence extends GenomicSequence {
+	private static final char[] TWOBIT2BASE = new char[] {'T','C','A','G'};
+	/** number of bases between two GC prefix sums. 256 bases = 64 bytes = 8 longs */
+	private static final int BLOCK_SIZE = 256;
+	/** number of bases read from the reference at once while packing */
+	private static final int CHUNK_SIZE = 1_000_000;
+	/** low bit of each 2-bits base */
+	private static final long LOW_BITS = 0x5555555555555555L;
+
+	private final int length;
+	/** packed bases, big endian, length is a multiple of 64 bytes */
+	private final ByteBuffer packed;
+	/** gcPrefix[i] = number of C/G in the bases before i*BLOCK_SIZE */
+	private final int[] gcPrefix;
+	/** sorted runs of bases that are not A/C/G/T, [start0,end0), packed as 'T' */
+	private final int[] otherStarts;
+	private final int[] otherEnds;
+	/** upper case base of each run */
+	private final byte[] otherBases;
+	/** cumulative number of bases / S / W / N in the runs before run 'i' */
+	private final int[] otherCumAll;
+	private final int[] otherCumS;
+	private final int[] otherCumW;
+	private final int[] otherCumN;
+	/** sorted runs of lower case bases, [start0,end0) */
+	private final int[] lowerStarts;
+	private final int[] lowerEnds;
+
+	/** growable array of int */
+	private static class IntList {
+		int[] array = new int[16];
+		int size = 0;
+		void add(final int v) {
+			if(size==array.length) array = Arrays.copyOf(array, size*2);
+			array[size++]=v;
+			}
+		int last() { return array[size-1];}
+		void setLast(final int v) { array[size-1]=v;}
+		int[] toArray() { return Arrays.copyOf(array, size);}
+		}
+
+	/** read and pack the whole contig 'chrom' */
+	public PackedGenomicSequence(final ReferenceSequenceFile indexedFastaSequenceFile ,final String chrom) {
+		super(indexedFastaSequenceFile,chrom);
+		this.length = super.length();
+		final int nBlocks = (this.length + BLOCK_SIZE - 1)/BLOCK_SIZE;
+		this.packed = ByteBuffer.allocate(Math.max(1,nBlocks) * (BLOCK_SIZE/4));
+		this.gcPrefix = new int[nBlocks+1];
+		final IntList otherStarts = new IntList();
+		final IntList otherEnds = new IntList();
+		final IntList otherBases = new IntList();
+		final IntList lowerStarts = new IntList();
+		final IntList lowerEnds = new IntList();
+		int gc = 0;
+		int currByte = 0;
+		for(int chunkStart=0; chunkStart< this.length; chunkStart+=CHUNK_SIZE) {
+			final int chunkEnd = Math.min(this.length, chunkStart+CHUNK_SIZE);
+			final byte[] bases = indexedFastaSequenceFile.getSubsequenceAt(getChrom(), chunkStart+1, chunkEnd).getBases();
+			if(bases.length!= chunkEnd-chunkStart) {
+				throw new IllegalStateException("expected "+(chunkEnd-chunkStart)+" bases for "+getChrom()+":"+(chunkStart+1)+"-"+chunkEnd+" but got "+bases.length);
+				}
+			for(int i=0;i< bases.length;i++) {
+				final int pos0 = chunkStart + i;
+				if(pos0 % BLOCK_SIZE == 0) this.gcPrefix[pos0/BLOCK_SIZE] = gc;
+				byte b = bases[i];
+				if(b>='a' && b<='z') {
+					if(lowerEnds.size>0 && lowerEnds.last()==pos0) {
+						lowerEnds.setLast(pos0+1);
+						}
+					else
+						{
+						lowerStarts.add(pos0);
+						lowerEnds.add(pos0+1);
+						}
+					b = (byte)Character.toUpperCase(b);
+					}
+				final int twoBits;
+				switch(b) {
+					case 'T': twoBits = 0; break;
+					case 'C': twoBits = 1; gc++; break;
+					case 'A': twoBits = 2; break;
+					case 'G': twoBits = 3; gc++; break;
+					default:
+						twoBits = 0;
+						if(otherEnds.size>0 && otherEnds.last()==pos0 && otherBases.last()==b) {
+							otherEnds.setLast(pos0+1);
+							}
+						else
+							{
+							otherStarts.add(pos0);
+							otherEnds.add(pos0+1);
+							otherBases.add(b);
+							}
+						break;
+					}
+				currByte = (currByte << 2) | twoBits;
+				if(pos0 % 4 == 3) {
+					this.packed.put(pos0/4, (byte)currByte);
+					currByte = 0;
+					}
+				}
+			}
+		if(this.length % 4 != 0) {
+			this.packed.put(this.length/4, (byte)(currByte << (2*(4 - this.length % 4))));
+			}
+		this.gcPrefix[nBlocks] = gc;
+
+		this.otherStarts = otherStarts.toArray();
+		this.otherEnds = otherEnds.toArray();
+		this.otherBases = new byte[otherBases.size];
+		final int n = this.otherStarts.length;
+		this.otherCumAll = new int[n+1];
+		this.otherCumS = new int[n+1];
+		this.otherCumW = new int[n+1];
+		this.otherCumN = new int[n+1];
+		for(int i=0;i< n;i++) {
+			final byte b = (byte)otherBases.array[i];
+			final int len = this.otherEnds[i] - this.otherStarts[i];
+			this.otherBases[i] = b;
+			this.otherCumAll[i+1] = this.otherCumAll[i] + len;
+			this.otherCumS[i+1] = this.otherCumS[i] + (b=='S'?len:0);
+			this.otherCumW[i+1] = this.otherCumW[i] + (b=='W'?len:0);
+			this.otherCumN[i+1] = this.otherCumN[i] + (b=='N'?len:0);
+			}
+		this.lowerStarts = lowerStarts.toArray();
+		this.lowerEnds = lowerEnds.toArray();
+		}
+
+	@Override
+	public int length() {
+		return this.length;
+		}
+
+	/** @return index of the run containing pos0 or -1 */
+	private static int findRun(final int[] starts,final int[] ends,final int pos0) {
+		int i = Arrays.binarySearch(starts, pos0);
+		if(i<0) i = -(i+1) -1;
+		return i>=0 && pos0 < ends[i] ? i : -1;
+		}
+
+	/** @return index of the first run with end > pos0 */
+	private static int firstRunEndingAfter(final int[] ends,final int pos0) {
+		int low = 0;
+		int high = ends.length;
+		while(low < high) {
+			final int mid = (low + high) >>> 1;
+			if(ends[mid] <= pos0) {
+				low = mid + 1;
+				}
+			else
+				{
+				high = mid;
+				}
+			}
+		return low;
+		}
+
+	private int twoBitsAt(final int pos0) {
+		return (this.packed.get(pos0/4) >>> (2*(3 - pos0%4))) & 3;
+		}
+
+	@Override
+	public char charAt(final int index0) {
+		if(index0<0 || index0 >= this.length) {
+			throw new IndexOutOfBoundsException("index:"+index0);
+			}
+		final int r = findRun(this.otherStarts, this.otherEnds, index0);
+		final char c = r>=0 ? (char)this.otherBases[r] : TWOBIT2BASE[twoBitsAt(index0)];
+		return findRun(this.lowerStarts, this.lowerEnds, index0)>=0 ? Character.toLowerCase(c) : c;
+		}
+
+	/** return the bases in [start0,end0) , end0 is clamped to the length of the contig */
+	public byte[] getBases(final int start0,int end0) {
+		end0 = Math.min(end0, this.length);
+		if(start0<0 || start0>end0) throw new IndexOutOfBoundsException("bad interval "+start0+"-"+end0);
+		final byte[] bases = new byte[end0 - start0];
+		for(int i=start0;i< end0;i++) {
+			bases[i-start0] = (byte)TWOBIT2BASE[twoBitsAt(i)];
+			}
+		for(int r = firstRunEndingAfter(this.otherEnds, start0); r< this.otherStarts.length && this.otherStarts[r] < end0; r++) {
+			Arrays.fill(bases, Math.max(start0, this.otherStarts[r]) - start0, Math.min(end0, this.otherEnds[r]) - start0, this.otherBases[r]);
+			}
+		for(int r = firstRunEndingAfter(this.lowerEnds, start0); r< this.lowerStarts.length && this.lowerStarts[r] < end0; r++) {
+			final int e = Math.min(end0, this.lowerEnds[r]);
+			for(int i= Math.max(start0, this.lowerStarts[r]); i< e; i++) {
+				bases[i-start0] = (byte)Character.toLowerCase(bases[i-start0]);
+				}
+			}
+		return bases;
+		}
+
+	/** number of C/G encoded in the 2-bit array before pos0 */
+	private int gcBefore(final int pos0) {
+		final int block = pos0 / BLOCK_SIZE;
+		int gc = this.gcPrefix[block];
+		int p = block * BLOCK_SIZE;
+		while(p + 32 <= pos0) {
+			gc += Long.bitCount(this.packed.getLong(p/4) & LOW_BITS);
+			p += 32;
+			}
+		if(p < pos0) {
+			final long mask = -1L << (64 - 2*(pos0-p));
+			gc += Long.bitCount(this.packed.getLong(p/4) & mask & LOW_BITS);
+			}
+		return gc;
+		}
+
+	/** count the bases of the runs of other bases in [start0,end0). cum is one of the otherCum* arrays, base the base counted or 0 for all */
+	private int countOther(final int[] cum,final byte base,final int start0,final int end0) {
+		final int r0 = firstRunEndingAfter(this.otherEnds, start0);
+		int r1 = firstRunEndingAfter(this.otherStarts, end0-1);//first run starting at or after end0
+		if(r1 <= r0) return 0;
+		int n = cum[r1] - cum[r0];
+		r1--;
+		if(base==0 || this.otherBases[r0]==base) n -= Math.max(0, start0 - this.otherStarts[r0]);
+		if(base==0 || this.otherBases[r1]==base) n -= Math.max(0, this.otherEnds[r1] - end0);
+		return n;
+		}
+
+	/** return GC% between start (inclusive, 0 based) and end (exclusive)) in constant time */
+	@Override
+	public GCPercent getGCPercent(final int start,int end) {
+		end = Math.min(end, this.length);
+		final GCPercentImpl gcp = new GCPercentImpl(getChrom(), start+1, end);
+		if(start >= end) return gcp;
+		final int gc2bits = gcBefore(end) - gcBefore(start);
+		final int others = countOther(this.otherCumAll, (byte)0, start, end);
+		gcp.count = end - start;
+		gcp.count_gc = gc2bits + countOther(this.otherCumS, (byte)'S', start, end);
+		gcp.count_at = (end - start) - gc2bits - others + countOther(this.otherCumW, (byte)'W', start, end);
+		gcp.count_n = countOther(this.otherCumN, (byte)'N', start, end);
+		return gcp;
+		}
+
+	@Override
+	public String toString() {
+		return getChrom()+":"+length();
+		}
+
+	/**
+	 * A thread-safe cache of the last used packed contigs of a reference,
+	 * so several windows, threads or http requests share one copy of each contig.
+	 */
+	public static class Cache {
+		private final ReferenceSequenceFile reference;
+		private final int maxContigs;
+		private final Map<String,PackedGenomicSequence> contig2seq = new LinkedHashMap<>(16, 0.75f, true);
+
+		/**
+		 * @param reference the reference. Access to this file is synchronized on this cache.
+		 * @param maxContigs max number of contigs kept in memory
+		 */
+		public Cache(final ReferenceSequenceFile reference,final int maxContigs) {
+			if(maxContigs<1) throw new IllegalArgumentException("bad max number of contigs "+maxContigs);
+			this.reference = reference;
+			this.maxContigs = maxContigs;
+			}
+
+		public ReferenceSequenceFile getReferenceSequenceFile() {
+			return this.reference;
+			}
+
+		/** get or load the packed contig */
+		public synchronized PackedGenomicSequence get(final String contig) {
+			PackedGenomicSequence seq = this.contig2seq.get(contig);
+			if(seq!=null) return seq;
+			/* remove before loading so we never hold maxContigs+1 contigs */
+			final Iterator<String> iter = this.contig2seq.keySet().iterator();
+			while(this.contig2seq.size() >= this.maxContigs && iter.hasNext()) {
+				iter.next();
+				iter.remove();
+				}
+			seq = new PackedGenomicSequence(this.reference, contig);
+			this.contig2seq.put(contig, seq);
+			return seq;
+			}
+
+		@Override
+		public synchronized String toString() {
+			return "PackedGenomicSequence.Cache("+this.contig2seq.keySet()+")";
+			}
+		}
+	}
@@ -52,7 +52,7 @@ public VCFIterator open(final String pathOrUrl) throws IOException {
 public VCFIterator open(final Path path) throws IOException {
 	IOUtil.assertFileIsReadable(path);
 	if(BcfToolsUtils.isBcfToolsRequired(path)) {
-		final BcfToolsReader br = new BcfToolsReader(path.toString());
+		final BcfReader br = new BcfReader(path);
 		final CloseableIterator<VariantContext> iter = br.iterator();
 		final PeekableIterator<VariantContext> peek=new PeekableIterator<>(iter);
 		return new VCFIterator() {
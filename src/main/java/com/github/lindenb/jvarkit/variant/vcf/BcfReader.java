@@ -0,0 +1,752 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2020 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.variant.vcf;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+import com.github.lindenb.jvarkit.iterator.AbstractCloseableIterator;
+
+import htsjdk.samtools.seekablestream.SeekablePathStream;
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.FileExtensions;
+import htsjdk.samtools.util.Locatable;
+import htsjdk.samtools.util.RuntimeIOException;
+import htsjdk.tribble.TribbleException;
+import htsjdk.tribble.readers.AsciiLineReader;
+import htsjdk.tribble.readers.LineIteratorImpl;
+import htsjdk.tribble.readers.PositionalBufferedStream;
+import htsjdk.variant.variantcontext.Allele;
+import htsjdk.variant.variantcontext.Genotype;
+import htsjdk.variant.variantcontext.GenotypeBuilder;
+import htsjdk.variant.variantcontext.LazyGenotypesContext;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.VariantContextBuilder;
+import htsjdk.variant.vcf.VCFCodec;
+import htsjdk.variant.vcf.VCFConstants;
+import htsjdk.variant.vcf.VCFHeader;
+import htsjdk.variant.vcf.VCFHeaderLineType;
+import htsjdk.variant.vcf.VCFInfoHeaderLine;
+import htsjdk.variant.vcf.VCFReader;
+
+/**
+ * In-process reader for BCF 2.2 files, the version written by bcftools
+ * and not supported by htsjdk's BCF2Codec.
+ *
+ * The records are read from the BGZF blocks and decoded directly into VariantContext.
+ * The genotypes are decoded lazily, when they're first accessed.
+ * A CSI index (<code>file.bcf.csi</code>) is used by {@link #query(String, int, int)}.
+ * The attributes are decoded like {@link VCFCodec} would decode the VCF printed by <code>bcftools view</code>,
+ * so this class can replace {@link BcfToolsReader}.
+ */
+public class BcfReader implements VCFReader {
+	/* BCF2 types */
+	private static final int BT_MISSING = 0;
+	private static final int BT_INT8 = 1;
+	private static final int BT_INT16 = 2;
+	private static final int BT_INT32 = 3;
+	private static final int BT_FLOAT = 5;
+	private static final int BT_CHAR = 7;
+	/* BCF2.2 sentinel values of floats */
+	private static final int FLOAT_MISSING = 0x7F800001;
+	private static final int FLOAT_END_OF_VECTOR = 0x7F800002;
+	/** ID and IDX of a header line */
+	private static final Pattern HEADER_ID = Pattern.compile("[<,]ID=([^,>]+)");
+	private static final Pattern HEADER_IDX = Pattern.compile("[<,]IDX=([0-9]+)");
+
+	private final Path path;
+	private final String source;
+	private final VCFHeader header;
+	/** dictionary of the FILTER/INFO/FORMAT ids */
+	private final String[] dictStrings;
+	/** dictionary of the contigs */
+	private final String[] dictContigs;
+	/** INFO fields that are flags */
+	private final Set<String> infoFlags = new HashSet<>();
+	/** true if the file is BGZF compressed. BCF can also be uncompressed, it cannot be queried then */
+	private final boolean blockCompressed;
+	/** CSI index, loaded on demand */
+	private CsiIndex csiIndex = null;
+
+	public BcfReader(final Path path) {
+		this.path = path;
+		this.source = path.toString();
+		try(InputStream is = new BufferedInputStream(Files.newInputStream(path))) {
+			this.blockCompressed = BlockCompressedInputStream.isValidFile(is);
+			}
+		catch(final IOException err) {
+			throw new RuntimeIOException(err);
+			}
+		try(InputStream in = openStream()) {
+			final byte magic[] = new byte[5];
+			readFully(in, magic);
+			if(magic[0]!='B' || magic[1]!='C' || magic[2]!='F' || magic[3]!=2 || magic[4]!=2) {
+				throw new TribbleException("Not a BCF 2.2 file: "+path);
+				}
+			final byte lText[] = new byte[Integer.BYTES];
+			readFully(in, lText);
+			final byte text[] = new byte[ByteBuffer.wrap(lText).order(ByteOrder.LITTLE_ENDIAN).getInt()];
+			readFully(in, text);
+			int len = text.length;
+			while(len>0 && text[len-1]==0) len--;
+			final String headerText = new String(text, 0, len, StandardCharsets.UTF_8);
+			try(htsjdk.tribble.readers.LineReader r = AsciiLineReader.from(new PositionalBufferedStream(new ByteArrayInputStream(text, 0, len)))) {
+				this.header = (VCFHeader)new VCFCodec().readActualHeader(new LineIteratorImpl(r));
+				}
+			/* the dictionaries are built from the raw text to get the IDX attributes */
+			final List<String> strings = new ArrayList<>();
+			strings.add(VCFConstants.PASSES_FILTERS_v4);
+			final List<String> contigs = new ArrayList<>();
+			for(final String line : headerText.split("\n")) {
+				final List<String> dict;
+				if(line.startsWith("##INFO=<") || line.startsWith("##FILTER=<") || line.startsWith("##FORMAT=<")) {
+					dict = strings;
+					}
+				else if(line.startsWith("##contig=<")) {
+					dict = contigs;
+					}
+				else
+					{
+					continue;
+					}
+				final Matcher mId = HEADER_ID.matcher(line);
+				if(!mId.find()) continue;
+				final String id = mId.group(1);
+				final Matcher mIdx = HEADER_IDX.matcher(line);
+				if(mIdx.find()) {
+					final int idx = Integer.parseInt(mIdx.group(1));
+					while(dict.size()<=idx) dict.add(null);
+					dict.set(idx, id);
+					}
+				else if(!dict.contains(id)) {
+					dict.add(id);
+					}
+				}
+			this.dictStrings = strings.toArray(new String[strings.size()]);
+			this.dictContigs = contigs.toArray(new String[contigs.size()]);
+			for(final VCFInfoHeaderLine h: this.header.getInfoHeaderLines()) {
+				if(h.getType().equals(VCFHeaderLineType.Flag)) this.infoFlags.add(h.getID());
+				}
+			}
+		catch(final IOException err) {
+			throw new RuntimeIOException(err);
+			}
+		}
+
+	public BcfReader(final String path) {
+		this(Paths.get(path));
+		}
+
+	/** open the file, the stream is positioned at the start of the file */
+	private InputStream openStream() throws IOException {
+		if(this.blockCompressed) {
+			return new BlockCompressedInputStream(new SeekablePathStream(this.path));
+			}
+		final InputStream is = new BufferedInputStream(Files.newInputStream(this.path));
+		/* not BGZF, but maybe a plain gzip file */
+		is.mark(2);
+		final boolean gzip = is.read()==0x1f && is.read()==0x8b;
+		is.reset();
+		return gzip ? new GZIPInputStream(is) : is;
+		}
+
+	public Path getPath() {
+		return this.path;
+		}
+
+	@Override
+	public VCFHeader getHeader() {
+		return this.header;
+		}
+
+	private Path getCsiPath() {
+		return Paths.get(this.path.toString() + FileExtensions.CSI);
+		}
+
+	@Override
+	public boolean isQueryable() {
+		return this.blockCompressed && Files.exists(getCsiPath());
+		}
+
+	@Override
+	public CloseableIterator<VariantContext> iterator() {
+		try {
+			final InputStream in = openStream();
+			skipHeader(in);
+			return new BcfIterator(in, null);
+			}
+		catch(final IOException err) {
+			throw new RuntimeIOException(err);
+			}
+		}
+
+	public CloseableIterator<VariantContext> query(final Locatable loc) {
+		return query(loc.getContig(),loc.getStart(),loc.getEnd());
+		}
+
+	@Override
+	public CloseableIterator<VariantContext> query(final String contig,final int start,final int end) {
+		try {
+			if(this.csiIndex==null) {
+				if(!this.blockCompressed) throw new IllegalStateException("Cannot query a BCF that is not BGZF compressed: "+this.path);
+				if(!isQueryable()) throw new IllegalStateException("No CSI index for "+this.path);
+				this.csiIndex = new CsiIndex(getCsiPath());
+				}
+			final int tid = Arrays.asList(this.dictContigs).indexOf(contig);
+			final List<long[]> chunks = tid<0 ? Collections.emptyList() : this.csiIndex.getChunks(tid, start-1, end);
+			final BlockCompressedInputStream in = new BlockCompressedInputStream(new SeekablePathStream(this.path));
+			return new BcfIterator(in, new QueryRegion(tid, start, end, chunks));
+			}
+		catch(final IOException err) {
+			throw new RuntimeIOException(err);
+			}
+		}
+
+	@Override
+	public void close() throws IOException {
+		//nothing, each iterator owns its stream
+		}
+
+	@Override
+	public String toString() {
+		return "BcfReader("+this.path+")";
+		}
+
+	private static void skipHeader(final InputStream in) throws IOException {
+		final byte array[] = new byte[5 + Integer.BYTES];
+		readFully(in, array);
+		final int lText = ByteBuffer.wrap(array, 5, Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN).getInt();
+		long n = 0L;
+		while(n < lText) {
+			final long skipped = in.skip(lText - n);
+			if(skipped<=0) throw new EOFException("cannot skip BCF header");
+			n += skipped;
+			}
+		}
+
+	/** read fully, return false if EOF was met before the first byte */
+	private static boolean readFully(final InputStream in,final byte array[]) throws IOException {
+		int n = 0;
+		while(n < array.length) {
+			final int c = in.read(array, n, array.length - n);
+			if(c < 0) {
+				if(n==0) return false;
+				throw new EOFException("unexpected end of BCF file");
+				}
+			n += c;
+			}
+		return true;
+		}
+
+	private static int typeSize(final int type) {
+		switch(type) {
+			case BT_MISSING: return 0;
+			case BT_INT8: case BT_CHAR: return 1;
+			case BT_INT16: return 2;
+			case BT_INT32: case BT_FLOAT: return 4;
+			default: throw new TribbleException("unsupported BCF type "+type);
+			}
+		}
+
+	private static int readInt(final ByteBuffer buf,final int type) {
+		switch(type) {
+			case BT_INT8: return buf.get();
+			case BT_INT16: return buf.getShort();
+			case BT_INT32: return buf.getInt();
+			default: throw new TribbleException("not an integer type "+type);
+			}
+		}
+
+	/** smallest value of an integer type, used for 'missing'. The next value is 'end of vector' */
+	private static int intMissing(final int type) {
+		switch(type) {
+			case BT_INT8: return Byte.MIN_VALUE;
+			case BT_INT16: return Short.MIN_VALUE;
+			default: return Integer.MIN_VALUE;
+			}
+		}
+
+	/** read a typed integer (e.g. a key in the dictionary) */
+	private static int readTypedInt(final ByteBuffer buf) {
+		final int descriptor = Byte.toUnsignedInt(buf.get());
+		return readInt(buf, descriptor & 0x0F);
+		}
+
+	/** read the count of a type descriptor, return 'count' */
+	private static int readCount(final ByteBuffer buf,final int descriptor) {
+		final int count = descriptor >> 4;
+		return count==15 ? readTypedInt(buf) : count;
+		}
+
+	/** format a float like the C format "%g" used by bcftools: 6 significant digits, no trailing zero, e.g. '1e-05' */
+	static String formatFloat(final float f) {
+		if(Float.isNaN(f)) return "nan";
+		if(Float.isInfinite(f)) return f<0?"-inf":"inf";
+		if(f==0f) return "0";
+		final BigDecimal bd = new BigDecimal(f).round(new MathContext(6, RoundingMode.HALF_EVEN));
+		final int exp = bd.precision() - bd.scale() - 1;
+		if(exp < -4 || exp >= 6) {
+			final String mantissa = bd.movePointLeft(exp).stripTrailingZeros().toPlainString();
+			return mantissa + (exp<0?"e-":"e+") + (Math.abs(exp)<10?"0":"") + Math.abs(exp);
+			}
+		return bd.stripTrailingZeros().toPlainString();
+		}
+
+	/**
+	 * read 'count' values of type 'type' and format them like the VCF text:
+	 * comma separated, missing values as '.', end-of-vector values removed.
+	 * @return the text or null if the vector is empty
+	 */
+	private static String readValuesAsString(final ByteBuffer buf,final int type,final int count) {
+		if(count==0 || type==BT_MISSING) return null;
+		if(type==BT_CHAR) {
+			final int start = buf.position();
+			int len = 0;
+			while(len < count && buf.get(start+len)!=0) len++;
+			buf.position(start+count);
+			if(len==0) return null;
+			return new String(buf.array(), buf.arrayOffset()+start, len, StandardCharsets.UTF_8);
+			}
+		final StringBuilder sb = new StringBuilder();
+		int n = 0;
+		for(int i=0;i< count;i++) {
+			final String s;
+			if(type==BT_FLOAT) {
+				final int bits = buf.getInt();
+				if(bits==FLOAT_END_OF_VECTOR) {
+					buf.position(buf.position() + (count-i-1)*Float.BYTES);
+					break;
+					}
+				s = bits==FLOAT_MISSING ? VCFConstants.MISSING_VALUE_v4 : formatFloat(Float.intBitsToFloat(bits));
+				}
+			else
+				{
+				final int v = readInt(buf, type);
+				final int missing = intMissing(type);
+				if(v==missing+1) {
+					buf.position(buf.position() + (count-i-1)*typeSize(type));
+					break;
+					}
+				s = v==missing ? VCFConstants.MISSING_VALUE_v4 : String.valueOf(v);
+				}
+			if(n>0) sb.append(',');
+			sb.append(s);
+			n++;
+			}
+		return n==0 ? null : sb.toString();
+		}
+
+	/** read 'count' integers, removing the end-of-vector values. Return null if empty or all missing */
+	private static int[] readInts(final ByteBuffer buf,final int type,final int count) {
+		if(type==BT_FLOAT || type==BT_CHAR) throw new TribbleException("expected an integer type but got "+type);
+		if(count==0 || type==BT_MISSING) return null;
+		final int missing = intMissing(type);
+		final int array[] = new int[count];
+		int n = 0;
+		boolean allMissing = true;
+		for(int i=0;i< count;i++) {
+			final int v = readInt(buf, type);
+			if(v==missing+1) {
+				buf.position(buf.position() + (count-i-1)*typeSize(type));
+				break;
+				}
+			if(v!=missing) allMissing = false;
+			array[n++] = v==missing ? -1 : v;
+			}
+		if(allMissing) return null;
+		return n==count ? array : Arrays.copyOf(array, n);
+		}
+
+	/** position of the records to be returned by a query */
+	private static class QueryRegion {
+		final int tid;
+		final int start;
+		final int end;
+		final List<long[]> chunks;
+		QueryRegion(final int tid,final int start,final int end,final List<long[]> chunks) {
+			this.tid = tid;
+			this.start = start;
+			this.end = end;
+			this.chunks = chunks;
+			}
+		}
+
+	/** data for the lazy decoding of the genotypes */
+	private static class UnparsedGenotypes {
+		final byte indiv[];
+		final int nFormat;
+		final int nSamples;
+		final List<Allele> alleles;
+		UnparsedGenotypes(final byte indiv[],final int nFormat,final int nSamples,final List<Allele> alleles) {
+			this.indiv = indiv;
+			this.nFormat = nFormat;
+			this.nSamples = nSamples;
+			this.alleles = alleles;
+			}
+		}
+
+	/** decode the genotypes, called by LazyGenotypesContext */
+	private LazyGenotypesContext.LazyData parseGenotypes(final Object data) {
+		final UnparsedGenotypes unparsed = (UnparsedGenotypes)data;
+		final List<String> samples = this.header.getGenotypeSamples();
+		final GenotypeBuilder gbs[] = new GenotypeBuilder[unparsed.nSamples];
+		for(int i=0;i< gbs.length;i++) {
+			gbs[i] = new GenotypeBuilder(samples.get(i));
+			}
+		final ByteBuffer buf = ByteBuffer.wrap(unparsed.indiv).order(ByteOrder.LITTLE_ENDIAN);
+		for(int f=0;f< unparsed.nFormat;++f) {
+			final String key = this.dictStrings[readTypedInt(buf)];
+			final int descriptor = Byte.toUnsignedInt(buf.get());
+			final int type = descriptor & 0x0F;
+			final int count = readCount(buf, descriptor);
+			for(int i=0;i< gbs.length;i++) {
+				final GenotypeBuilder gb = gbs[i];
+				if(key.equals(VCFConstants.GENOTYPE_KEY)) {
+					final List<Allele> gtAlleles = new ArrayList<>(count);
+					boolean phased = false;
+					final int missing = intMissing(type);
+					for(int j=0;j< count;j++) {
+						final int v = readInt(buf, type);
+						if(v==missing+1) {
+							buf.position(buf.position() + (count-j-1)*typeSize(type));
+							break;
+							}
+						final int idx = v==missing ? -1 : (v>>1) - 1;
+						gtAlleles.add(idx<0 ? Allele.NO_CALL : unparsed.alleles.get(idx));
+						if(j>0 && (v & 1)==1) phased = true;
+						}
+					gb.alleles(gtAlleles);
+					gb.phased(phased);
+					}
+				else if(key.equals(VCFConstants.GENOTYPE_QUALITY_KEY) || key.equals(VCFConstants.DEPTH_KEY)) {
+					final int values[] = readInts(buf, type, count);
+					if(values!=null && values[0]>=0) {
+						if(key.equals(VCFConstants.DEPTH_KEY)) {
+							gb.DP(values[0]);
+							}
+						else
+							{
+							gb.GQ(values[0]);
+							}
+						}
+					}
+				else if(key.equals(VCFConstants.GENOTYPE_ALLELE_DEPTHS) || key.equals(VCFConstants.GENOTYPE_PL_KEY)) {
+					final int values[] = readInts(buf, type, count);
+					if(values!=null) {
+						if(key.equals(VCFConstants.GENOTYPE_PL_KEY)) {
+							gb.PL(values);
+							}
+						else
+							{
+							gb.AD(values);
+							}
+						}
+					}
+				else if(key.equals(VCFConstants.GENOTYPE_FILTER_KEY)) {
+					final String s = readValuesAsString(buf, type, count);
+					if(s!=null && !s.equals(VCFConstants.PASSES_FILTERS_v4) && !s.equals(VCFConstants.MISSING_VALUE_v4)) {
+						gb.filters(Arrays.asList(s.split(";")));
+						}
+					}
+				else
+					{
+					final String s = readValuesAsString(buf, type, count);
+					if(s!=null && !s.equals(VCFConstants.MISSING_VALUE_v4)) {
+						gb.attribute(key, s);
+						}
+					}
+				}
+			}
+		final ArrayList<Genotype> genotypes = new ArrayList<>(gbs.length);
+		for(final GenotypeBuilder gb: gbs) genotypes.add(gb.make());
+		return new LazyGenotypesContext.LazyData(genotypes, this.header.getSampleNamesInOrder(), this.header.getSampleNameToOffset());
+		}
+
+	/** decode the shared part of a record */
+	private VariantContext decode(final byte shared[],final byte indiv[]) {
+		final ByteBuffer buf = ByteBuffer.wrap(shared).order(ByteOrder.LITTLE_ENDIAN);
+		final int tid = buf.getInt();
+		final int pos0 = buf.getInt();
+		final int rlen = buf.getInt();
+		final int qualBits = buf.getInt();
+		final int nAlleleInfo = buf.getInt();
+		final int nFmtSample = buf.getInt();
+		final int nInfo = nAlleleInfo & 0xFFFF;
+		final int nAllele = nAlleleInfo >>> 16;
+		final int nSample = nFmtSample & 0xFFFFFF;
+		final int nFmt = nFmtSample >>> 24;
+
+		final VariantContextBuilder vcb = new VariantContextBuilder();
+		vcb.source(this.source);
+		vcb.chr(this.dictContigs[tid]);
+		vcb.start(pos0 + 1);
+		vcb.stop(pos0 + rlen);
+		if(qualBits != FLOAT_MISSING) {
+			/* parse the text like VCFCodec to get the same double */
+			vcb.log10PError(Double.parseDouble(formatFloat(Float.intBitsToFloat(qualBits))) / -10.0);
+			}
+		// ID
+		int descriptor = Byte.toUnsignedInt(buf.get());
+		final String id = readValuesAsString(buf, descriptor & 0x0F, readCount(buf, descriptor));
+		if(id==null || id.equals(VCFConstants.EMPTY_ID_FIELD)) {
+			vcb.noID();
+			}
+		else
+			{
+			vcb.id(id);
+			}
+		// alleles
+		final List<Allele> alleles = new ArrayList<>(nAllele);
+		for(int i=0;i< nAllele;i++) {
+			descriptor = Byte.toUnsignedInt(buf.get());
+			final String s = readValuesAsString(buf, descriptor & 0x0F, readCount(buf, descriptor));
+			alleles.add(Allele.create(s, i==0));
+			}
+		vcb.alleles(alleles);
+		// FILTER
+		descriptor = Byte.toUnsignedInt(buf.get());
+		final int filters[] = readInts(buf, descriptor & 0x0F, readCount(buf, descriptor));
+		if(filters==null || filters.length==0) {
+			vcb.unfiltered();
+			}
+		else if(filters.length==1 && filters[0]==0) {
+			vcb.passFilters();
+			}
+		else
+			{
+			final Set<String> set = new HashSet<>(filters.length);
+			for(final int f: filters) set.add(this.dictStrings[f]);
+			vcb.filters(set);
+			}
+		// INFO
+		final Map<String,Object> attributes = new HashMap<>(nInfo);
+		for(int i=0;i< nInfo;i++) {
+			final String key = this.dictStrings[readTypedInt(buf)];
+			descriptor = Byte.toUnsignedInt(buf.get());
+			final String s = readValuesAsString(buf, descriptor & 0x0F, readCount(buf, descriptor));
+			if(this.infoFlags.contains(key)) {
+				attributes.put(key, Boolean.TRUE);
+				}
+			else if(s==null) {
+				attributes.put(key, VCFConstants.MISSING_VALUE_v4);
+				}
+			else if(s.indexOf(',')!=-1) {
+				/* like VCFCodec */
+				attributes.put(key, Arrays.asList(s.split(",")));
+				}
+			else
+				{
+				attributes.put(key, s);
+				}
+			}
+		vcb.attributes(attributes);
+		// genotypes
+		if(nSample>0 && nFmt>0) {
+			vcb.genotypes(new LazyGenotypesContext(this::parseGenotypes, new UnparsedGenotypes(indiv, nFmt, nSample, alleles), nSample));
+			}
+		return vcb.make();
+		}
+
+	private class BcfIterator extends AbstractCloseableIterator<VariantContext> {
+		private final InputStream in;
+		private final QueryRegion region;
+		private final byte lengths[] = new byte[Integer.BYTES * 2];
+		private int chunkIndex = -1;
+		/** 'in' must be a BlockCompressedInputStream if 'region' is not null */
+		BcfIterator(final InputStream in,final QueryRegion region) {
+			this.in = in;
+			this.region = region;
+			}
+		@Override
+		protected VariantContext advance() {
+			try {
+				for(;;) {
+					if(this.region!=null) {
+						/* go to the next chunk */
+						final BlockCompressedInputStream bgzf = (BlockCompressedInputStream)this.in;
+						while(this.chunkIndex<0 || bgzf.getFilePointer() >= this.region.chunks.get(this.chunkIndex)[1]) {
+							this.chunkIndex++;
+							if(this.chunkIndex >= this.region.chunks.size()) return null;
+							bgzf.seek(this.region.chunks.get(this.chunkIndex)[0]);
+							}
+						}
+					if(!readFully(this.in, this.lengths)) return null;
+					final ByteBuffer buf = ByteBuffer.wrap(this.lengths).order(ByteOrder.LITTLE_ENDIAN);
+					final byte shared[] = new byte[buf.getInt()];
+					final byte indiv[] = new byte[buf.getInt()];
+					readFully(this.in, shared);
+					readFully(this.in, indiv);
+					if(this.region!=null) {
+						final ByteBuffer sb = ByteBuffer.wrap(shared).order(ByteOrder.LITTLE_ENDIAN);
+						final int tid = sb.getInt();
+						final int pos0 = sb.getInt();
+						final int rlen = sb.getInt();
+						if(tid < this.region.tid) continue;
+						if(tid > this.region.tid || pos0 >= this.region.end) {
+							/* records are sorted: nothing more in this region */
+							return null;
+							}
+						if(pos0 + rlen < this.region.start) continue;
+						}
+					return decode(shared, indiv);
+					}
+				}
+			catch(final IOException err) {
+				throw new RuntimeIOException(err);
+				}
+			}
+		@Override
+		public void close() {
+			try { this.in.close(); } catch(final IOException err) { /* ignore */}
+			}
+		}
+
+	/** minimal reader for the CSI index */
+	private static class CsiIndex {
+		private final int minShift;
+		private final int depth;
+		/** for each reference: bin to loffset , bin to chunks */
+		private final List<Map<Integer,Long>> loffsets = new ArrayList<>();
+		private final List<Map<Integer,long[]>> bins = new ArrayList<>();
+
+		CsiIndex(final Path csiPath) throws IOException {
+			try(InputStream is = Files.newInputStream(csiPath);
+				BlockCompressedInputStream in = new BlockCompressedInputStream(is)) {
+				final byte magic[] = new byte[4];
+				readFully(in, magic);
+				if(magic[0]!='C' || magic[1]!='S' || magic[2]!='I' || magic[3]!=1) {
+					throw new TribbleException("Not a CSI index: "+csiPath);
+					}
+				this.minShift = readInt(in);
+				this.depth = readInt(in);
+				final int lAux = readInt(in);
+				readFully(in, new byte[lAux]);
+				final int nRef = readInt(in);
+				for(int r=0;r< nRef;r++) {
+					final int nBin = readInt(in);
+					final Map<Integer,Long> bin2loffset = new HashMap<>(nBin);
+					final Map<Integer,long[]> bin2chunks = new HashMap<>(nBin);
+					for(int b=0;b< nBin;b++) {
+						final int bin = readInt(in);
+						bin2loffset.put(bin, readLong(in));
+						final int nChunk = readInt(in);
+						final long chunks[] = new long[nChunk*2];
+						for(int c=0;c< chunks.length;c++) {
+							chunks[c] = readLong(in);
+							}
+						bin2chunks.put(bin, chunks);
+						}
+					this.loffsets.add(bin2loffset);
+					this.bins.add(bin2chunks);
+					}
+				}
+			}
+
+		private static int readInt(final InputStream in) throws IOException {
+			final byte array[] = new byte[Integer.BYTES];
+			readFully(in, array);
+			return ByteBuffer.wrap(array).order(ByteOrder.LITTLE_ENDIAN).getInt();
+			}
+
+		private static long readLong(final InputStream in) throws IOException {
+			final byte array[] = new byte[Long.BYTES];
+			readFully(in, array);
+			return ByteBuffer.wrap(array).order(ByteOrder.LITTLE_ENDIAN).getLong();
+			}
+
+		/** return the sorted, merged chunks [begin,end) of virtual offsets overlapping [beg0,end0) */
+		List<long[]> getChunks(final int tid,final long beg0,long end0) {
+			if(tid >= this.bins.size() || beg0 >= end0) return Collections.emptyList();
+			final Map<Integer,long[]> bin2chunks = this.bins.get(tid);
+			final Map<Integer,Long> bin2loffset = this.loffsets.get(tid);
+			/* minimal offset: loffset of the smallest bin containing beg0 (hts_itr_query) */
+			long minOffset = 0L;
+			int bin = ((1 << (3*this.depth)) - 1)/7 + (int)(beg0 >> this.minShift);
+			for(;;) {
+				final Long loffset = bin2loffset.get(bin);
+				if(loffset!=null) {
+					minOffset = loffset;
+					break;
+					}
+				if(bin==0) break;
+				bin = (bin - 1) >> 3;
+				}
+			/* hts_reg2bins */
+			final List<long[]> chunks = new ArrayList<>();
+			int s = this.minShift + this.depth*3;
+			if(end0 >= 1L<<s) end0 = 1L<<s;
+			end0--;
+			for(int level=0, t=0; level<=this.depth; s-=3, t+=1<<(3*level), ++level) {
+				final long b = t + (beg0>>s);
+				final long e = t + (end0>>s);
+				for(long i=b;i<=e;i++) {
+					final long array[] = bin2chunks.get((int)i);
+					if(array==null) continue;
+					for(int c=0;c+1< array.length;c+=2) {
+						if(array[c+1] <= minOffset) continue;
+						chunks.add(new long[] {array[c], array[c+1]});
+						}
+					}
+				}
+			chunks.sort((A,B)->Long.compare(A[0], B[0]));
+			final List<long[]> merged = new ArrayList<>(chunks.size());
+			for(final long[] c: chunks) {
+				final long[] last = merged.isEmpty() ? null : merged.get(merged.size()-1);
+				if(last!=null && c[0] <= last[1]) {
+					last[1] = Math.max(last[1], c[1]);
+					}
+				else
+					{
+					merged.add(c);
+					}
+				}
+			return merged;
+			}
+		}
+	}
@@ -26,7 +26,13 @@ package com.github.lindenb.jvarkit.variant.vcf;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.UnaryOperator;
 
 import com.github.lindenb.jvarkit.iterator.AbstractCloseableIterator;
@@ -39,21 +45,75 @@ import htsjdk.variant.vcf.VCFHeader;
 import htsjdk.variant.vcf.VCFReader;
 
 /**
- * A buffered VCFReader that stores the last query in memory
- *
+ * A buffered VCFReader that keeps the last queried windows in memory.
+ * 
+ * A small LRU of windows is kept, so backward or interleaved queries (split multi-allelics,
+ * unsorted input, several contigs) don't always discard the buffer. When read-ahead is enabled,
+ * the window following the last loaded window is fetched on a background thread.
+ * The genotypes of the loaded variants are decoded while the delegate is locked, because
+ * htsjdk decodes the lazy genotypes with the codec shared by the delegate.
+ * The public methods of this class are not thread safe.
  */
 public class BufferedVCFReader implements VCFReader {
 	public static final String OPT_BUFFER_DESC = "When we're looking for variant in Gnomad, load the variants for 'N' bases instead of doing a random access for each variant.";
+	/** default number of windows kept in memory */
+	public static final int DEFAULT_WINDOW_COUNT = 4;
 	private final VCFReader delegate;
 	private final int buffSizeInBp;
-	private final List<VariantContext> buffer = new ArrayList<>();
-	private Locatable lastInterval = null;
+	/** windows, most recently used first */
+	private final LinkedList<Window> windows = new LinkedList<>();
+	private int maxWindows = DEFAULT_WINDOW_COUNT;
 	private UnaryOperator<VariantContext> simplifier = V->V;
-	private class MyIter extends AbstractCloseableIterator<VariantContext> {
-		int i=0;
+	private boolean readAhead = false;
+	private ExecutorService executor = null;
+	/** window being loaded in background */
+	private Locatable pendingInterval = null;
+	private Future<Window> pendingWindow = null;
+	private long countHits = 0L;
+	private long countReloads = 0L;
+	private long countReadAheadHits = 0L;
+	
+	/** a window of variants, sorted on start */
+	private static class Window {
+		final Locatable interval;
+		final List<VariantContext> variants;
+		/** longest reference length of the variants, used to find the first overlapping variant */
+		final int maxLength;
+		Window(final Locatable interval,final List<VariantContext> variants) {
+			this.interval = interval;
+			this.variants = variants;
+			int len = 0;
+			for(final VariantContext ctx:variants) {
+				len = Math.max(len, ctx.getLengthOnReference());
+				}
+			this.maxLength = len;
+			}
+		/** index of the first variant whose start is not lower than 'pos' */
+		int lowerBound(final int pos) {
+			int low = 0;
+			int high = this.variants.size();
+			while(low < high) {
+				final int mid = (low + high) >>> 1;
+				if(this.variants.get(mid).getStart() < pos) {
+					low = mid + 1;
+					}
+				else
+					{
+					high = mid;
+					}
+				}
+			return low;
+			}
+		}
+	
+	private static class MyIter extends AbstractCloseableIterator<VariantContext> {
+		final List<VariantContext> buffer;
 		final Locatable query;
-		MyIter(Locatable query) {
+		int i;
+		MyIter(final Window w,final Locatable query) {
+			this.buffer = w.variants;
 			this.query = query;
+			this.i = w.lowerBound(query.getStart() - w.maxLength);
 			}
 		@Override
 		protected VariantContext advance() {
@@ -74,12 +134,51 @@ public class BufferedVCFReader implements VCFReader {
 			}
 		}
 	
-	/** set a function to simplify (eg. remove genotypes) the variants. */
+	/** iterator over the whole delegate. The delegate is locked for each record because the read-ahead thread can use it */
+	private class DelegateIter extends AbstractCloseableIterator<VariantContext> {
+		final CloseableIterator<VariantContext> iter;
+		DelegateIter() {
+			synchronized(delegate) {
+				this.iter = delegate.iterator();
+				}
+			}
+		@Override
+		protected VariantContext advance() {
+			synchronized(delegate) {
+				if(!this.iter.hasNext()) return null;
+				return LazyGenotypesUtils.decodeGenotypes(this.iter.next());
+				}
+			}
+		@Override
+		public void close() {
+			synchronized(delegate) {
+				this.iter.close();
+				}
+			}
+		}
+	
+	/** set a function to simplify (eg. remove genotypes) the variants. 
+	 * When read-ahead is enabled, it can be invoked from the background thread */
 	public BufferedVCFReader setSimplifier(final UnaryOperator<VariantContext> simplifier) {
 		this.simplifier = simplifier;
 		return this;
 		}
 	
+	/** set the number of windows kept in memory */
+	public BufferedVCFReader setWindowCount(final int n) {
+		if(n<1) throw new IllegalArgumentException("bad number of windows "+n);
+		this.maxWindows = n;
+		while(this.windows.size() > this.maxWindows) this.windows.removeLast();
+		return this;
+		}
+	
+	/** enable/disable the asynchronous loading of the next window */
+	public BufferedVCFReader setReadAhead(final boolean readAhead) {
+		this.readAhead = readAhead;
+		if(!readAhead) waitReadAhead();
+		return this;
+		}
+	
 	/** 
 	 * @param delegate the delegate {@link VCFReader}
 	 * @param buffSizeInBp buffer size in bp
@@ -94,11 +193,33 @@ public class BufferedVCFReader implements VCFReader {
 		return delegate;
 		}
 	
+	/** number of queries answered from a window in memory */
+	public long getHitCount() {
+		return this.countHits;
+		}
+	
+	/** number of windows loaded for a query, including the windows taken from the read-ahead */
+	public long getReloadCount() {
+		return this.countReloads;
+		}
+	
+	/** number of reloads that were answered by the read-ahead window */
+	public long getReadAheadHitCount() {
+		return this.countReadAheadHits;
+		}
+	
 	/** close this and the delegate */
 	@Override
 	public void close() throws IOException {
-		this.getDelegate().close();
-		this.buffer.clear();
+		waitReadAhead();
+		if(this.executor!=null) {
+			this.executor.shutdownNow();
+			this.executor = null;
+			}
+		synchronized(this.delegate) {
+			this.getDelegate().close();
+			}
+		this.windows.clear();
 	}
 
 	/* (non-Javadoc)
@@ -114,24 +235,124 @@ public class BufferedVCFReader implements VCFReader {
 		return simplifier==null?ctx:simplifier.apply(ctx);
 	}
 	
+	/** load a window from the delegate. The delegate is locked because it can be shared with the read-ahead thread.
+	 * Lazy genotypes are decoded here so the caller never uses the codec of the delegate. */
+	private Window loadWindow(final Locatable interval) {
+		final List<VariantContext> buffer = new ArrayList<>();
+		boolean sorted = true;
+		synchronized(this.delegate) {
+			try(CloseableIterator<VariantContext> iter = this.getDelegate().query(interval)) {
+				while(iter.hasNext()) {
+					final VariantContext ctx=simplify(iter.next());
+					if(ctx==null) continue;
+					LazyGenotypesUtils.decodeGenotypes(ctx);
+					if(!buffer.isEmpty() && buffer.get(buffer.size()-1).getStart() > ctx.getStart()) sorted = false;
+					buffer.add(ctx);
+					}
+				}
+			}
+		if(!sorted) buffer.sort((A,B)->Integer.compare(A.getStart(), B.getStart()));
+		return new Window(interval, buffer);
+		}
+	
+	/** cancel the pending read-ahead. A task already running is not interrupted: it will release the delegate when the window is loaded */
+	private void cancelReadAhead() {
+		if(this.pendingWindow!=null) this.pendingWindow.cancel(false);
+		this.pendingWindow = null;
+		this.pendingInterval = null;
+		}
+	
+	/** wait for the pending read-ahead to finish and discard its window, so the background thread doesn't use the delegate anymore */
+	private void waitReadAhead() {
+		final Future<Window> future = this.pendingWindow;
+		this.pendingWindow = null;
+		this.pendingInterval = null;
+		if(future==null) return;
+		try {
+			future.get();
+			}
+		catch(final InterruptedException err) {
+			Thread.currentThread().interrupt();
+			}
+		catch(final ExecutionException err) {
+			// window is discarded anyway
+			}
+		}
+	
+	/** start loading the window following 'w' */
+	private void scheduleReadAhead(final Window w) {
+		final Locatable next = new SimpleInterval(
+				w.interval.getContig(),
+				w.interval.getEnd()+1,
+				w.interval.getEnd()+this.buffSizeInBp
+				);
+		if(this.pendingInterval!=null && this.pendingInterval.equals(next)) return;
+		for(final Window w2: this.windows) {
+			if(w2.interval.contains(next)) return;
+			}
+		cancelReadAhead();
+		if(this.executor==null) {
+			this.executor = Executors.newSingleThreadExecutor(R->{
+				final Thread t = new Thread(R,"vcf-read-ahead");
+				t.setDaemon(true);
+				return t;
+				});
+			}
+		this.pendingInterval = next;
+		this.pendingWindow = this.executor.submit(()->loadWindow(next));
+		}
+	
+	/** @return the pending read-ahead window if it contains the query, or null */
+	private Window takeReadAhead(final Locatable query) {
+		if(this.pendingWindow==null || !this.pendingInterval.contains(query)) return null;
+		final Future<Window> future = this.pendingWindow;
+		this.pendingWindow = null;
+		this.pendingInterval = null;
+		try {
+			return future.get();
+			}
+		catch(final InterruptedException err) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(err);
+			}
+		catch(final ExecutionException err) {
+			final Throwable cause = err.getCause();
+			if(cause instanceof RuntimeException) throw (RuntimeException)cause;
+			throw new RuntimeException(cause);
+			}
+		}
+	
 	/* (non-Javadoc)
 	 * @see htsjdk.variant.vcf.VCFReader#query(java.lang.String, int, int)
 	 */
 	@Override
 	public CloseableIterator<VariantContext> query(final String chrom, int start, int end) {
 		final Locatable query = new SimpleInterval(chrom,start,end);
-		if(this.lastInterval==null || !this.lastInterval.contains(query)) {
-			this.buffer.clear();
-			this.lastInterval = new SimpleInterval(chrom, start, Math.max(end, start+this.buffSizeInBp));
-			try(CloseableIterator<VariantContext> iter = this.getDelegate().query(this.lastInterval)) {
-				while(iter.hasNext()) {
-					final VariantContext ctx=simplify(iter.next());
-					if(ctx==null) continue;
-					this.buffer.add(ctx);
+		final Iterator<Window> it = this.windows.iterator();
+		while(it.hasNext()) {
+			final Window w = it.next();
+			if(w.interval.contains(query)) {
+				this.countHits++;
+				if(w!=this.windows.getFirst()) {
+					it.remove();
+					this.windows.addFirst(w);
 					}
+				return new MyIter(w, query);
 				}
 			}
-		return new MyIter(query);
+		this.countReloads++;
+		Window w = takeReadAhead(query);
+		if(w!=null) {
+			this.countReadAheadHits++;
+			}
+		else
+			{
+			w = loadWindow(new SimpleInterval(chrom, start, Math.max(end, start+this.buffSizeInBp)));
+			}
+		this.windows.addFirst(w);
+		while(this.windows.size() > this.maxWindows) this.windows.removeLast();
+		if(this.readAhead) scheduleReadAhead(w);
+		return new MyIter(w, query);
 		}
 
 	/* (non-Javadoc)
@@ -147,7 +368,8 @@ public class BufferedVCFReader implements VCFReader {
 	 */
 	@Override
 	public CloseableIterator<VariantContext> iterator() {
-		return this.getDelegate().iterator();
+		waitReadAhead();
+		return new DelegateIter();
 	}
 
 	@Override
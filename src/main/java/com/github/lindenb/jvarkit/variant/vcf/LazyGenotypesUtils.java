@@ -0,0 +1,101 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2020 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.variant.vcf;
+
+import htsjdk.variant.variantcontext.GenotypesContext;
+import htsjdk.variant.variantcontext.LazyGenotypesContext;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFConstants;
+
+/**
+ * Helpers for the lazy genotypes of htsjdk.
+ *
+ * htsjdk's VCFCodec keeps the FORMAT and sample columns of a text VCF as an unparsed String in a {@link LazyGenotypesContext}
+ * until the genotypes are accessed, and the VCF writer copies this String verbatim if the genotypes were never decoded.
+ */
+public class LazyGenotypesUtils {
+	private LazyGenotypesUtils() {
+		}
+
+	/**
+	 * get the raw text of a FORMAT field for one sample, without decoding the genotypes.
+	 * @param ctx a variant read by htsjdk's VCFCodec
+	 * @param sampleIndex index of the sample in the header
+	 * @param formatKey the FORMAT key (GT, DP...)
+	 * @return the raw text, "." if the key is missing for this sample, or null if the key is not in the FORMAT column
+	 * or the genotypes of 'ctx' are not raw text anymore (already decoded, or not produced by a text VCF codec).
+	 */
+	public static String getRawGenotypeField(final VariantContext ctx,final int sampleIndex,final String formatKey) {
+		final GenotypesContext gc = ctx.getGenotypes();
+		if(!gc.isLazyWithData()) return null;
+		final Object data = LazyGenotypesContext.class.cast(gc).getUnparsedGenotypeData();
+		if(!(data instanceof String)) return null;
+		final String text = (String)data;
+		/* find the index of the key in the FORMAT column */
+		final int formatEnd = text.indexOf(VCFConstants.FIELD_SEPARATOR_CHAR);
+		if(formatEnd==-1) return null;
+		int keyIndex = 0;
+		int prev = 0;
+		for(;;) {
+			int colon = text.indexOf(VCFConstants.GENOTYPE_FIELD_SEPARATOR_CHAR, prev);
+			if(colon==-1 || colon > formatEnd) colon = formatEnd;
+			if(colon - prev == formatKey.length() && text.startsWith(formatKey, prev)) break;
+			if(colon==formatEnd) return null;
+			keyIndex++;
+			prev = colon + 1;
+			}
+		/* go to the sample column */
+		int start = formatEnd + 1;
+		for(int i=0;i< sampleIndex;i++) {
+			start = text.indexOf(VCFConstants.FIELD_SEPARATOR_CHAR, start) + 1;
+			if(start==0) throw new IllegalArgumentException("bad sample index "+sampleIndex);
+			}
+		int end = text.indexOf(VCFConstants.FIELD_SEPARATOR_CHAR, start);
+		if(end==-1) end = text.length();
+		/* go to the field */
+		for(int i=0;i< keyIndex;i++) {
+			start = text.indexOf(VCFConstants.GENOTYPE_FIELD_SEPARATOR_CHAR, start) + 1;
+			if(start==0 || start > end) return VCFConstants.MISSING_VALUE_v4;
+			}
+		int fieldEnd = text.indexOf(VCFConstants.GENOTYPE_FIELD_SEPARATOR_CHAR, start);
+		if(fieldEnd==-1 || fieldEnd > end) fieldEnd = end;
+		return text.substring(start, fieldEnd);
+		}
+
+	/**
+	 * decode the genotypes of a variant in the current thread, if they are still lazy.
+	 * The lazy genotypes produced by htsjdk's codecs are decoded by the codec of the input, which is
+	 * shared by all the variants and is not thread-safe: such a variant must be decoded by the thread
+	 * reading the input before it is sent to another thread.
+	 * @param ctx the variant
+	 * @return ctx
+	 */
+	public static VariantContext decodeGenotypes(final VariantContext ctx) {
+		final GenotypesContext gc = ctx.getGenotypes();
+		/* any access to the genotypes of a LazyGenotypesContext decodes them */
+		if(gc.isLazyWithData()) gc.iterator();
+		return ctx;
+		}
+	}
@@ -97,7 +97,7 @@ public abstract class VCFReaderFactory {
 	/** open new VCFReader */
 	public VCFReader open(final Path path,boolean requireIndex) {
 		if(BcfToolsUtils.isBcfToolsRequired(path)) {
-			return new BcfToolsReader(path.toString());
+			return new BcfReader(path);
 			}
 		
 		return new VCFFileReader(path, requireIndex);
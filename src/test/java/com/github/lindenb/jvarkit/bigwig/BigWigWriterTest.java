@@ -0,0 +1,178 @@
+package com.github.lindenb.jvarkit.bigwig;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.Inflater;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestSupport;
+
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+
+public class BigWigWriterTest {
+	private final TestSupport support = new TestSupport();
+
+	/** minimal reader of the file, following the offsets of the header and of the indexes */
+	private static class MiniReader {
+		final ByteBuffer buf;
+		final Map<String,Integer> name2tid = new HashMap<>();
+		final int zoomLevels;
+		MiniReader(final Path path) throws IOException {
+			this.buf = ByteBuffer.wrap(Files.readAllBytes(path)).order(ByteOrder.LITTLE_ENDIAN);
+			Assert.assertEquals(buf.getInt(0), 0x888FFC26);
+			Assert.assertEquals(buf.getInt(buf.limit()-4), 0x888FFC26);
+			this.zoomLevels = buf.getShort(6);
+			final int keySize = buf.getInt((int)buf.getLong(8) + 8);
+			readBpt((int)buf.getLong(8) + 32,keySize);
+			}
+		private void readBpt(int offset,final int keySize) {
+			final boolean isLeaf = buf.get(offset)==1;
+			final int count = buf.getShort(offset+2);
+			offset+=4;
+			for(int i=0;i< count;i++) {
+				final byte key[] = new byte[keySize];
+				for(int j=0;j< keySize;j++) key[j]=buf.get(offset+j);
+				offset+=keySize;
+				if(isLeaf) {
+					this.name2tid.put(new String(key).trim(), buf.getInt(offset));
+					offset+=8;
+					}
+				else
+					{
+					readBpt((int)buf.getLong(offset),keySize);
+					offset+=8;
+					}
+				}
+			}
+		/** collect the uncompressed blocks under a node of a R-tree */
+		void readRTree(int offset,final List<byte[]> blocks) throws Exception {
+			final boolean isLeaf = buf.get(offset)==1;
+			final int count = buf.getShort(offset+2);
+			offset+=4;
+			for(int i=0;i< count;i++) {
+				if(isLeaf) {
+					final long dataOffset = buf.getLong(offset+16);
+					final long dataSize = buf.getLong(offset+24);
+					final Inflater inflater = new Inflater();
+					inflater.setInput(buf.array(), (int)dataOffset, (int)dataSize);
+					final byte out[] = new byte[buf.getInt(52)];
+					final int n = inflater.inflate(out);
+					Assert.assertTrue(inflater.finished());
+					inflater.end();
+					final byte block[] = new byte[n];
+					System.arraycopy(out, 0, block, 0, n);
+					blocks.add(block);
+					offset+=32;
+					}
+				else
+					{
+					readRTree((int)buf.getLong(offset+16),blocks);
+					offset+=24;
+					}
+				}
+			}
+		List<byte[]> readBlocks(final int indexOffset) throws Exception {
+			Assert.assertEquals(buf.getInt(indexOffset), 0x2468ACE0);
+			final List<byte[]> blocks = new ArrayList<>();
+			readRTree(indexOffset+48,blocks);
+			return blocks;
+			}
+		}
+
+	@Test
+	public void testWriteRead() throws Exception {
+		try {
+			final List<SAMSequenceRecord> ssrs = new ArrayList<>();
+			for(int i=0;i< 600;i++) {
+				ssrs.add(new SAMSequenceRecord("chr"+i, 1_000_000));
+				}
+			final SAMSequenceDictionary dict = new SAMSequenceDictionary(ssrs);
+			final Path out = support.createTmpPath(".bw");
+			final Random rand = new Random(0L);
+			final List<int[]> expect = new ArrayList<>();
+			long bases = 0L;
+			try(BigWigWriter w = new BigWigWriter(out, dict)) {
+				for(int tid=0;tid< dict.size();tid+=7) {
+					int start = 0;
+					for(;;) {
+						start += rand.nextInt(10);
+						final int end = start + 1 + rand.nextInt(100);
+						if(end > 1_000_000) break;
+						final int value = rand.nextInt(1000);
+						w.add(tid, start, end, value);
+						expect.add(new int[] {tid,start,end,value});
+						bases += end - start;
+						start = end;
+						}
+					}
+				}
+			final MiniReader r = new MiniReader(out);
+			Assert.assertEquals(r.name2tid.size(), dict.size());
+			for(final SAMSequenceRecord ssr: dict.getSequences()) {
+				Assert.assertEquals(r.name2tid.get(ssr.getSequenceName()).intValue(), ssr.getSequenceIndex());
+				}
+			Assert.assertEquals(r.buf.getLong((int)r.buf.getLong(44)), bases);//total summary
+			int n = 0;
+			for(final byte[] block: r.readBlocks((int)r.buf.getLong(24))) {
+				final ByteBuffer b = ByteBuffer.wrap(block).order(ByteOrder.LITTLE_ENDIAN);
+				final int tid = b.getInt(0);
+				Assert.assertEquals(b.get(20), (byte)1);
+				final int count = b.getShort(22);
+				b.position(24);
+				for(int i=0;i< count;i++) {
+					final int expectItem[] = expect.get(n++);
+					Assert.assertEquals(tid, expectItem[0]);
+					Assert.assertEquals(b.getInt(), expectItem[1]);
+					Assert.assertEquals(b.getInt(), expectItem[2]);
+					Assert.assertEquals(b.getFloat(), (float)expectItem[3]);
+					}
+				}
+			Assert.assertEquals(n, expect.size());
+			Assert.assertTrue(r.zoomLevels > 0);
+			for(int z=0;z< r.zoomLevels;z++) {
+				final int reduction = r.buf.getInt(64 + z*24);
+				long validCount = 0L;
+				for(final byte[] block: r.readBlocks((int)r.buf.getLong(64 + z*24 + 16))) {
+					final ByteBuffer b = ByteBuffer.wrap(block).order(ByteOrder.LITTLE_ENDIAN);
+					while(b.hasRemaining()) {
+						b.getInt();
+						final int start = b.getInt();
+						final int end = b.getInt();
+						Assert.assertTrue(end - start <= reduction);
+						validCount += b.getInt();
+						b.position(b.position()+16);
+						}
+					}
+				Assert.assertEquals(validCount, bases);
+				}
+			}
+		finally {
+			support.removeTmpFiles();
+			}
+		}
+
+	@Test(expectedExceptions= {IllegalArgumentException.class})
+	public void testNotSorted() throws Exception {
+		try {
+			final SAMSequenceDictionary dict = new SAMSequenceDictionary(java.util.Arrays.asList(new SAMSequenceRecord("chr1", 1000)));
+			try(BigWigWriter w = new BigWigWriter(support.createTmpPath(".bw"), dict)) {
+				w.add("chr1", 100, 200, 1f);
+				w.add("chr1", 150, 250, 1f);
+				}
+			}
+		finally {
+			support.removeTmpFiles();
+			}
+		}
+	}
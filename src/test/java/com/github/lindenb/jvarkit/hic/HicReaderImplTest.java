@@ -0,0 +1,194 @@
+package com.github.lindenb.jvarkit.hic;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.zip.Deflater;
+import java.util.zip.InflaterInputStream;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class HicReaderImplTest {
+
+private static HicReaderImpl.DecodedBlock block(final int nItems) {
+	final HicReaderImpl.DecodedBlock b = new HicReaderImpl.DecodedBlock(nItems);
+	for(int i=0;i< nItems;i++) b.add(i, i, i);
+	return b;
+	}
+
+@Test
+public void testCacheEviction() {
+	final HicReaderImpl.DecodedBlock b1 = block(10);
+	final long n = b1.getSizeInBytes();
+	// room for two blocks
+	final HicReaderImpl.BlockCache cache = new HicReaderImpl.BlockCache(2*n+1);
+	cache.put(1L, b1);
+	cache.put(2L, block(10));
+	Assert.assertEquals(cache.size(), 2);
+	Assert.assertEquals(cache.getSizeInBytes(), 2*n);
+	// 1 becomes the most recently used
+	Assert.assertSame(cache.get(1L), b1);
+	cache.put(3L, block(10));
+	Assert.assertEquals(cache.size(), 2);
+	Assert.assertEquals(cache.getSizeInBytes(), 2*n);
+	Assert.assertNull(cache.get(2L));
+	Assert.assertNotNull(cache.get(1L));
+	Assert.assertNotNull(cache.get(3L));
+	// replacing a block doesn't count it twice
+	cache.put(3L, block(10));
+	Assert.assertEquals(cache.size(), 2);
+	Assert.assertEquals(cache.getSizeInBytes(), 2*n);
+	// a block larger than the cache is not stored
+	cache.put(4L, block(1000));
+	Assert.assertNull(cache.get(4L));
+	Assert.assertEquals(cache.getSizeInBytes(), 2*n);
+	cache.clear();
+	Assert.assertEquals(cache.size(), 0);
+	Assert.assertEquals(cache.getSizeInBytes(), 0L);
+	}
+
+@Test
+public void testCacheDisabled() {
+	final HicReaderImpl.BlockCache cache = new HicReaderImpl.BlockCache(0L);
+	cache.put(1L, block(0));
+	Assert.assertNull(cache.get(1L));
+	Assert.assertEquals(cache.getSizeInBytes(), 0L);
+	}
+
+/** build a block of type 1 (list of rows): 'nRows' rows of 'nCols' contacts */
+private static byte[] createRowsBlock(final int nRows,final int nCols,final boolean floatCounts) {
+	final ByteBuffer bb = ByteBuffer.allocate(20 + nRows * (4 + nCols * 6)).order(ByteOrder.LITTLE_ENDIAN);
+	bb.putInt(nRows * nCols);//nRecords
+	bb.putInt(10);//binXOffset
+	bb.putInt(20);//binYOffset
+	bb.put((byte)(floatCounts?1:0));//useShort: yes, 0 means 'short'
+	bb.put((byte)1);//type
+	bb.putShort((short)nRows);
+	for(int y=0;y< nRows;y++) {
+		bb.putShort((short)y);
+		bb.putShort((short)nCols);
+		for(int x=0;x< nCols;x++) {
+			bb.putShort((short)x);
+			if(floatCounts) {
+				bb.putFloat(x + y + 0.5f);
+				}
+			else
+				{
+				bb.putShort((short)(x + y));
+				}
+			}
+		}
+	return Arrays.copyOf(bb.array(), bb.position());
+	}
+
+private static byte[] deflate(final byte[] array) {
+	final Deflater deflater = new Deflater();
+	deflater.setInput(array);
+	deflater.finish();
+	final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+	final byte[] buff = new byte[1024];
+	while(!deflater.finished()) {
+		final int n = deflater.deflate(buff);
+		baos.write(buff, 0, n);
+		}
+	deflater.end();
+	return baos.toByteArray();
+	}
+
+/** the way the blocks were inflated before: an InflaterInputStream */
+private static byte[] inflateWithStream(final byte[] compressed) throws IOException {
+	try(InflaterInputStream in = new InflaterInputStream(new ByteArrayInputStream(compressed))) {
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		final byte[] buff = new byte[1024];
+		int n;
+		while((n=in.read(buff))!=-1) {
+			baos.write(buff, 0, n);
+			}
+		return baos.toByteArray();
+		}
+	}
+
+private static byte[] toArray(final ByteBuffer bb) {
+	final byte[] array = new byte[bb.remaining()];
+	bb.duplicate().get(array);
+	return array;
+	}
+
+@Test
+public void testInflateAndDecode() throws IOException {
+	for(final boolean floatCounts: new boolean[] {false,true}) {
+		// the second block is much larger than 4 times the compressed size
+		for(final int nRows: new int[] {2,500}) {
+			final int nCols = 20;
+			final byte[] compressed = deflate(createRowsBlock(nRows, nCols, floatCounts));
+			final ByteBuffer inflated = HicReaderImpl.inflate(compressed);
+			Assert.assertEquals(inflated.order(), ByteOrder.LITTLE_ENDIAN);
+			Assert.assertEquals(toArray(inflated), inflateWithStream(compressed));
+
+			final HicReaderImpl.DecodedBlock block = HicReaderImpl.decodeBlock(inflated, 8);
+			Assert.assertEquals(block.size, nRows * nCols);
+			int i=0;
+			for(int y=0;y< nRows;y++) {
+				for(int x=0;x< nCols;x++) {
+					Assert.assertEquals(block.binX[i], 10 + x);
+					Assert.assertEquals(block.binY[i], 20 + y);
+					Assert.assertEquals(block.counts[i], x + y + (floatCounts?0.5f:0f));
+					i++;
+					}
+				}
+			}
+		}
+	}
+
+@Test(expectedExceptions=IOException.class)
+public void testTruncatedBlock() throws IOException {
+	final byte[] compressed = deflate(createRowsBlock(100, 20, false));
+	HicReaderImpl.inflate(Arrays.copyOf(compressed, compressed.length/2));
+	}
+
+@Test
+public void testForEachInOrder() throws IOException {
+	final int nThreads = 4;
+	final int maxPending = 2 * nThreads;
+	final ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+	try {
+		final Random rand = new Random(0L);
+		final AtomicInteger submitted = new AtomicInteger(0);
+		final Iterator<Future<Integer>> futures = IntStream.range(0, 100).
+			mapToObj(I->{
+				submitted.incrementAndGet();
+				final int sleep = rand.nextInt(5);
+				return executor.submit(()->{
+					Thread.sleep(sleep);
+					return I;
+					});
+				}).
+			iterator();
+		final List<Integer> consumed = new ArrayList<>();
+		HicReaderImpl.forEachInOrder(futures, maxPending, I->{
+			// the futures are submitted lazily
+			Assert.assertTrue(submitted.get() - consumed.size() <= maxPending);
+			consumed.add(I);
+			});
+		Assert.assertEquals(consumed, IntStream.range(0, 100).boxed().collect(Collectors.toList()));
+		}
+	finally
+		{
+		executor.shutdownNow();
+		}
+	}
+}
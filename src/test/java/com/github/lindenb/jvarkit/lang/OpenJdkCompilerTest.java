@@ -0,0 +1,61 @@
+package com.github.lindenb.jvarkit.lang;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import htsjdk.samtools.util.IOUtil;
+
+public class OpenJdkCompilerTest {
+
+@SuppressWarnings("unchecked")
+private String run(final String className,final String code) throws Exception {
+	final Class<?> c = OpenJdkCompiler.getInstance().compileClass(className, code);
+	final Supplier<String> supplier = (Supplier<String>)c.getDeclaredConstructor().newInstance();
+	return supplier.get();
+	}
+
+@Test
+public void testCache() throws Exception {
+	final String userCode = "return \"Hello\";";
+	final String className = OpenJdkCompiler.createClassName(OpenJdkCompilerTest.class, userCode);
+	Assert.assertEquals(className, OpenJdkCompiler.createClassName(OpenJdkCompilerTest.class, userCode));
+	Assert.assertNotEquals(className, OpenJdkCompiler.createClassName(OpenJdkCompilerTest.class, "return null;"));
+	final String code = "public class "+className+" implements java.util.function.Supplier<String> {\n"+
+			"public String get() {"+userCode+"}\n"+
+			"}\n";
+	final File cacheDir = IOUtil.createTempDir("jvarkit", ".cache");
+	final String old = System.getProperty(OpenJdkCompiler.CACHE_PROPERTY);
+	try {
+		System.setProperty(OpenJdkCompiler.CACHE_PROPERTY, cacheDir.getPath());
+		Assert.assertEquals(run(className, code), "Hello");
+		final Path jar;
+		try(Stream<Path> st = Files.list(cacheDir.toPath())) {
+			jar = st.filter(P->P.getFileName().toString().endsWith(".jar")).findFirst().orElse(null);
+			}
+		Assert.assertNotNull(jar);
+		final long lastModified = Files.getLastModifiedTime(jar).toMillis();
+		// second invocation: the class is loaded from the cache
+		Assert.assertEquals(run(className, code), "Hello");
+		Assert.assertEquals(Files.getLastModifiedTime(jar).toMillis(), lastModified);
+		try(Stream<Path> st = Files.list(cacheDir.toPath())) {
+			Assert.assertEquals(st.count(), 1L);
+			}
+		}
+	finally {
+		if(old==null) {
+			System.clearProperty(OpenJdkCompiler.CACHE_PROPERTY);
+			}
+		else
+			{
+			System.setProperty(OpenJdkCompiler.CACHE_PROPERTY, old);
+			}
+		IOUtil.deleteDirectoryTree(cacheDir);
+		}
+	}
+}
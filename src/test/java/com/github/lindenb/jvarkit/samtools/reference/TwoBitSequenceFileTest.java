@@ -1,6 +1,8 @@
 package com.github.lindenb.jvarkit.samtools.reference;
 
 import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
 
 import org.testng.Assert;
 import org.testng.annotations.Test;
@@ -35,4 +37,31 @@ public void test01() throws IOException {
 		if(ref!=null) ref.close();
 		}
 	}
+
+@Test
+public void testMemoryMapped() throws IOException {
+	final String ref2bit =  support.resource("rotavirus_rf.2bit");
+	try(TwoBitSequenceFile stream = new TwoBitSequenceFile(ref2bit,true);
+		TwoBitSequenceFile mapped = new TwoBitSequenceFile(Paths.get(ref2bit),true,true)) {
+		Assert.assertFalse(stream.isMemoryMapped());
+		Assert.assertTrue(mapped.isMemoryMapped());
+		Assert.assertEquals(mapped.getSequenceDictionary().size(), stream.getSequenceDictionary().size());
+		final byte[] buffer = new byte[100];
+		for(final String contig: stream.getContigNamesInOrder()) {
+			final int len = stream.getSequenceDictionary().getSequence(contig).getSequenceLength();
+			Assert.assertEquals(mapped.getSequence(contig).getBases(), stream.getSequence(contig).getBases());
+			for(int start=1;start<=len;start+=7) {
+				for(int winLen=1;winLen<=buffer.length-2 && start+winLen-1 <= len;winLen+=13) {
+					final int end = start + winLen - 1;
+					final byte[] expect = stream.getSubsequenceAt(contig, start, end).getBases();
+					Assert.assertEquals(mapped.getSubsequenceAt(contig, start, end).getBases(), expect);
+					Assert.assertEquals(mapped.getBases(contig, start, end, buffer, 2), winLen);
+					Assert.assertEquals(Arrays.copyOfRange(buffer, 2, 2 + winLen), expect);
+					Assert.assertEquals(stream.getBases(contig, start, end, buffer, 1), winLen);
+					Assert.assertEquals(Arrays.copyOfRange(buffer, 1, 1 + winLen), expect);
+					}
+				}
+			}
+		}
+	}
 }
@@ -0,0 +1,56 @@
+package com.github.lindenb.jvarkit.samtools.util;
+
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class StreamingCoverageTest {
+	/** compare with a plain array */
+	@Test
+	public void testRandom() {
+		final Random rand = new Random(0L);
+		final int contigLength = 50_000;
+		final int expect[] = new int[contigLength+1];
+		final int observed[] = new int[contigLength+1];
+		final int lastEnd[] = new int[] {0};
+		final StreamingCoverage cov = new StreamingCoverage(contigLength, (S,E,D)->{
+			Assert.assertEquals(S, lastEnd[0]+1);
+			Assert.assertTrue(S<=E);
+			for(int i=S;i<=E;i++) observed[i]=D;
+			lastEnd[0]=E;
+			});
+		int start=1;
+		while(start< contigLength) {
+			start += rand.nextInt(100);
+			final int len = 1+ rand.nextInt(rand.nextInt(10)==0?5_000:150);
+			cov.flush(start);
+			cov.add(start, start+len-1);
+			for(int i=start;i<start+len && i<=contigLength;i++) expect[i]++;
+			}
+		cov.finish();
+		Assert.assertEquals(lastEnd[0], contigLength);
+		Assert.assertEquals(observed, expect);
+		}
+
+	/** runs of identical depth are merged */
+	@Test
+	public void testRuns() {
+		final StringBuilder sb = new StringBuilder();
+		final StreamingCoverage cov = new StreamingCoverage(100, (S,E,D)->sb.append(S).append("-").append(E).append(":").append(D).append(";"));
+		cov.add(10, 19);
+		cov.flush(20);
+		cov.add(20, 29);
+		cov.add(25, 39);
+		cov.finish();
+		Assert.assertEquals(sb.toString(), "1-9:0;10-24:1;25-29:2;30-39:1;40-100:0;");
+		}
+
+	@Test(expectedExceptions= {IllegalArgumentException.class})
+	public void testNotSorted() {
+		final StreamingCoverage cov = new StreamingCoverage(100, (S,E,D)->{});
+		cov.add(50, 60);
+		cov.flush(50);
+		cov.add(10, 20);
+		}
+	}
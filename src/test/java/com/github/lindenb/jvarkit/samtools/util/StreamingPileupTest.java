@@ -0,0 +1,77 @@
+package com.github.lindenb.jvarkit.samtools.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import htsjdk.samtools.util.Interval;
+
+public class StreamingPileupTest {
+	private List<Interval> randomIntervals(final Random rand,final int n,final int maxStep) {
+		final List<Interval> L = new ArrayList<>(n);
+		int start=1;
+		for(int i=0;i< n;i++) {
+			start += rand.nextInt(maxStep);
+			L.add(new Interval("chr1", start, start + rand.nextInt(200)));
+			}
+		return L;
+		}
+
+	/** same rows as Pileup on a deep pileup */
+	@Test
+	public void testSameAsPileup() {
+		final Random rand = new Random(0L);
+		for(final int maxStep: new int[] {1,3,50}) {
+			final Pileup<Interval> pileup = new Pileup<>();
+			final StreamingPileup<Interval> streaming = new StreamingPileup<>();
+			for(final Interval rgn: randomIntervals(rand, 5_000, maxStep)) {
+				pileup.add(rgn);
+				streaming.add(rgn);
+				}
+			Assert.assertEquals(streaming.getRowCount(), pileup.getRowCount());
+			Assert.assertEquals(streaming.getRows(), pileup.getRows());
+			}
+		}
+
+	@Test
+	public void testEvict() {
+		final Random rand = new Random(0L);
+		final StreamingPileup<Interval> streaming = new StreamingPileup<>();
+		final StreamingPileup<Interval> expect = new StreamingPileup<>();
+		final List<List<Interval>> evicted = new ArrayList<>();
+		int count = 0;
+		for(final Interval rgn: randomIntervals(rand, 10_000, 10)) {
+			streaming.evict(rgn.getStart(), (R,Y)->{
+				while(evicted.size()<=Y) evicted.add(new ArrayList<>());
+				evicted.get(Y).add(R);
+				});
+			Assert.assertEquals(streaming.add(rgn), expect.add(rgn));
+			count++;
+			}
+		streaming.evictAll((R,Y)->{
+			while(evicted.size()<=Y) evicted.add(new ArrayList<>());
+			evicted.get(Y).add(R);
+			});
+		Assert.assertEquals(evicted.stream().mapToInt(L->L.size()).sum(), count);
+		Assert.assertEquals(evicted, expect.getRows());
+		Assert.assertTrue(streaming.getRows().stream().allMatch(L->L.isEmpty()));
+		}
+
+	@Test
+	public void testMinDistance() {
+		final StreamingPileup<Interval> streaming = new StreamingPileup<>(R->R.getStart(),R->R.getEnd(),10);
+		Assert.assertEquals(streaming.add(new Interval("chr1",1,10)), 0);
+		Assert.assertEquals(streaming.add(new Interval("chr1",20,30)), 1);
+		Assert.assertEquals(streaming.add(new Interval("chr1",21,30)), 0);
+		}
+
+	@Test(expectedExceptions= {IllegalArgumentException.class})
+	public void testNotSorted() {
+		final StreamingPileup<Interval> streaming = new StreamingPileup<>();
+		streaming.add(new Interval("chr1",100,200));
+		streaming.add(new Interval("chr1",10,20));
+		}
+	}
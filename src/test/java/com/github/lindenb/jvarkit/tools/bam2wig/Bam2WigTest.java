@@ -0,0 +1,70 @@
+package com.github.lindenb.jvarkit.tools.bam2wig;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.AlsoTest;
+import com.github.lindenb.jvarkit.tools.tests.TestSupport;
+import com.github.lindenb.jvarkit.util.jcommander.LauncherTest;
+
+@AlsoTest(LauncherTest.class)
+public class Bam2WigTest {
+	private final TestSupport support = new TestSupport();
+	
+	@DataProvider(name="src1")
+	public Object[][] createData() {
+		return new Object[][] {
+			{"COVERAGE"},
+			{"CLIPPING"},
+			{"INSERTION"},
+			{"DELETION"},
+			{"READ_GROUPS"}
+			};
+		}
+	
+	private Path run(final String display,final int nThreads) throws IOException {
+		final Path out = support.createTmpPath(".wig");
+		Assert.assertEquals(new Bam2Wig().instanceMain(new String[] {
+			"-o",out.toString(),
+			"--display",display,
+			"--threads",String.valueOf(nThreads),
+			"-w","10","-s","5",
+			support.resource("S1.bam"),
+			support.resource("S2.bam"),
+			support.resource("S3.bam")
+			}),0);
+		return out;
+		}
+	
+	@Test(dataProvider="src1")
+	public void testThreads(final String display) throws IOException {
+		try {
+			final Path out1 = run(display,1);
+			final Path out2 = run(display,3);
+			Assert.assertTrue(Files.size(out1)>0L);
+			Assert.assertEquals(Files.readAllLines(out2), Files.readAllLines(out1));
+		} finally {
+			support.removeTmpFiles();
+		}
+	}
+	
+	@Test
+	public void testBigWig() throws IOException {
+		try {
+			final Path out = support.createTmpPath(".bw");
+			Assert.assertEquals(new Bam2Wig().instanceMain(new String[] {
+				"-o",out.toString(),
+				support.resource("S1.bam"),
+				support.resource("S2.bam")
+				}),0);
+			Assert.assertTrue(Files.size(out)>0L);
+		} finally {
+			support.removeTmpFiles();
+		}
+	}
+}
@@ -0,0 +1,55 @@
+package com.github.lindenb.jvarkit.tools.bamindexnames;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.AlsoTest;
+import com.github.lindenb.jvarkit.tools.tests.TestSupport;
+import com.github.lindenb.jvarkit.util.jcommander.LauncherTest;
+
+@AlsoTest(LauncherTest.class)
+public class BamIndexReadNamesTest {
+	private final TestSupport support = new TestSupport();
+
+	@DataProvider(name = "src1")
+	public Object[][] createData1() {
+		return new Object[][]{
+			{support.resource("S1.bam")},
+			{support.resource("toy.bam")}
+			};
+		}
+	
+	/** index a copy of the BAM and its bai, returns the content of the index */
+	private byte[] index(final String bam,final int nThreads) throws IOException {
+		final Path copy = support.createTmpPath(".bam");
+		Files.copy(Paths.get(bam), copy, StandardCopyOption.REPLACE_EXISTING);
+		final Path bai = support.deleteOnExit(copy.resolveSibling(copy.getFileName().toString()+".bai"));
+		Files.copy(Paths.get(bam+".bai"), bai, StandardCopyOption.REPLACE_EXISTING);
+		final Path indexFile = support.deleteOnExit(copy.resolveSibling(copy.getFileName().toString()+BaseBamIndexReadNames.NAME_IDX_EXTENSION));
+		Assert.assertEquals(new BamIndexReadNames().instanceMain(new String[] {
+			"--threads",String.valueOf(nThreads),
+			copy.toString()
+			}),0);
+		Assert.assertTrue(Files.exists(indexFile));
+		return Files.readAllBytes(indexFile);
+		}
+	
+	/** the index is the same with one or more threads */
+	@Test(dataProvider = "src1")
+	public void testThreads(final String bam) throws IOException {
+		try {
+			final byte[] expect = index(bam, 1);
+			Assert.assertEquals(index(bam, 3), expect);
+			}
+		finally {
+			support.removeTmpFiles();
+			}
+		}
+	}
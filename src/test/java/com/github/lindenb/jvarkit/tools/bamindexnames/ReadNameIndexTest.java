@@ -0,0 +1,52 @@
+package com.github.lindenb.jvarkit.tools.bamindexnames;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestSupport;
+
+public class ReadNameIndexTest {
+	private final TestSupport support = new TestSupport();
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		try {
+			final List<String> names = new ArrayList<>();
+			for(int i=0;i< 1000;i++) {
+				final String name = "READ:"+support.random.nextInt(500);
+				names.add(name);
+				}
+			Collections.sort(names);
+			final Path path = support.createTmpPath(".names.idx");
+			try(ReadNameIndex.Writer w = new ReadNameIndex.Writer(path)) {
+				for(int i=0;i< names.size();i++) {
+					w.add(names.get(i), i%3-1, i);
+					}
+				}
+			try(ReadNameIndex index = new ReadNameIndex(path)) {
+				Assert.assertEquals(index.size(), names.size());
+				final ReadNameIndex.Cursor cursor = index.cursor();
+				for(int x=0;x< 600;x++) {
+					final String name = "READ:"+x;
+					final List<NameAndPos> found = new ArrayList<>();
+					Assert.assertEquals(cursor.find(name, found::add), found.size());
+					for(int i=0;i< names.size();i++) {
+						if(!names.get(i).equals(name)) continue;
+						final int pos = i;
+						Assert.assertTrue(found.stream().anyMatch(N->N.name.equals(name) && N.pos==pos && N.tid==pos%3-1));
+						}
+					Assert.assertEquals(found.size(), names.stream().filter(S->S.equals(name)).count());
+					}
+				}
+			}
+		finally {
+			support.removeTmpFiles();
+			}
+		}
+	}
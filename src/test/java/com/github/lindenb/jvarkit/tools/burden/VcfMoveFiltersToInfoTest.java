@@ -0,0 +1,47 @@
+package com.github.lindenb.jvarkit.tools.burden;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.AlsoTest;
+import com.github.lindenb.jvarkit.tools.tests.TestSupport;
+import com.github.lindenb.jvarkit.util.jcommander.LauncherTest;
+
+@AlsoTest(LauncherTest.class)
+public class VcfMoveFiltersToInfoTest {
+	
+	private final TestSupport support = new TestSupport();
+
+	private List<String> run(final String inputFile,final int nThreads) throws IOException {
+		final Path output = support.createTmpPath(".vcf");
+		Assert.assertEquals(new VcfMoveFiltersToInfo().instanceMain(new String[] {
+        		"-o",output.toString(),
+        		"--threads",String.valueOf(nThreads),
+        		inputFile}),0);
+		support.assertIsVcf(output);
+		return support.variantStream(output).
+				map(V->V.getContig()+":"+V.getStart()+":"+V.getFilters()+":"+V.getAttribute("PREVIOUSLY_FILTERED_AS")).
+				collect(Collectors.toList());
+		}
+	
+	/** same output with one or more threads */
+	@Test
+	public void testThreads() 
+		throws IOException
+		{
+		try {
+			final String inputFile = support.resource("rotavirus_rf.vcf.gz");
+			final List<String> expect = run(inputFile, 1);
+			Assert.assertFalse(expect.isEmpty());
+			Assert.assertEquals(run(inputFile, 3), expect);
+			} 
+		finally {
+			support.removeTmpFiles();
+			}
+		}
+}
@@ -0,0 +1,114 @@
+package com.github.lindenb.jvarkit.tools.epistasis;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestSupport;
+
+import htsjdk.variant.variantcontext.Allele;
+import htsjdk.variant.variantcontext.Genotype;
+import htsjdk.variant.variantcontext.VariantContext;
+
+public class VcfEpistatis01Test {
+	private final TestSupport support = new TestSupport();
+	
+	/** S1,S3,S5 are cases */
+	private static final int[] CASES = new int[] {0,2,4};
+	private static final int[] CTRLS = new int[] {1,3};
+	
+	private Path createPedigree() throws IOException {
+		final Path ped = support.createTmpPath(".ped");
+		try(PrintWriter pw = new PrintWriter(Files.newBufferedWriter(ped))) {
+			for(int i=1;i<=5;i++) {
+				pw.println("F"+i+"\tS"+i+"\t0\t0\t0\t"+(i%2==1?2:1));
+				}
+			}
+		return ped;
+		}
+	
+	/** original scoring of an allele for a set of samples */
+	private int score(final VariantContext ctx,final Allele alt,final int[] samples,final int w1,final int w2) {
+		int score = 0;
+		for(final int idx: samples) {
+			final Genotype g = ctx.getGenotype(idx);
+			if(g==null || g.isFiltered()) continue;
+			final long n = g.getAlleles().stream().filter(A->A.equals(alt)).count();
+			if(n==1) score += w1;
+			else if(n>1) score += w2;
+			}
+		return score;
+		}
+	
+	private int score(final VariantContext ctx,final Allele alt) {
+		return score(ctx, alt, CASES, 10, 30) + score(ctx, alt, CTRLS, -10, -30);
+		}
+	
+	@Test
+	public void testEngine() throws IOException {
+		final List<VariantContext> variants = support.variantStream(Paths.get(support.resource("rotavirus_rf.vcf.gz"))).
+				filter(V->V.getGenotypes().stream().anyMatch(G->G.isCalled())).
+				collect(Collectors.toList());
+		final PairwiseEpistasisEngine engine = new PairwiseEpistasisEngine(CASES, CTRLS);
+		variants.forEach(V->engine.add(V));
+		Assert.assertEquals(engine.getVariantCount(), variants.size());
+		
+		/* brute force, same order as the original implementation */
+		int bestScore = Integer.MIN_VALUE;
+		int best[] = null;
+		for(int i=0;i< variants.size();i++) {
+			final VariantContext ctx1 = variants.get(i);
+			for(int j=i+1;j< variants.size();j++) {
+				final VariantContext ctx2 = variants.get(j);
+				for(int a1=1;a1< ctx1.getNAlleles();a1++) {
+					for(int a2=1;a2< ctx2.getNAlleles();a2++) {
+						final int s = score(ctx1, ctx1.getAlleles().get(a1)) + score(ctx2, ctx2.getAlleles().get(a2));
+						if(best==null || s > bestScore) {
+							bestScore = s;
+							best = new int[] {i,j,a1,a2};
+							}
+						}
+					}
+				}
+			}
+		Assert.assertNotNull(best);
+		for(int nThreads=1;nThreads<=3;nThreads+=2) {
+			final List<PairwiseEpistasisEngine.Pair> pairs = engine.search(0, 5, nThreads);
+			Assert.assertFalse(pairs.isEmpty());
+			final PairwiseEpistasisEngine.Pair p = pairs.get(0);
+			Assert.assertEquals(p.score, bestScore);
+			Assert.assertEquals(p.getVariant1(), best[0]);
+			Assert.assertEquals(p.getVariant2(), best[1]);
+			Assert.assertEquals(p.getAllele1(), best[2]);
+			Assert.assertEquals(p.getAllele2(), best[3]);
+			for(int i=0;i+1< pairs.size();i++) {
+				Assert.assertTrue(pairs.get(i).score >= pairs.get(i+1).score);
+				}
+			}
+		}
+	
+	@Test
+	public void testTool() throws IOException {
+		try {
+			final Path out = support.createTmpPath(".vcf");
+			Assert.assertEquals(new VcfEpistatis01().instanceMain(new String[] {
+					"-p",createPedigree().toString(),
+					"-j","2",
+					"-k","3",
+					"-o",out.toString(),
+					support.resource("rotavirus_rf.vcf.gz")
+					}),0);
+			support.assertIsVcf(out);
+			}
+		finally {
+			support.removeTmpFiles();
+			}
+		}
+	}
@@ -2,6 +2,8 @@ package com.github.lindenb.jvarkit.tools.misc;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
 
 import org.testng.Assert;
 import org.testng.annotations.DataProvider;
@@ -43,4 +45,34 @@ public class VCFPolyXTest {
 			support.removeTmpFiles();
 			}
 		}
+	
+	private List<String> run(final String vcf,final String ref,final int nThreads) throws IOException {
+		final Path out = support.createTmpPath(".vcf");
+		Assert.assertEquals( new VCFPolyX().instanceMain(new String[] {
+					"-o",out.toString(),
+					"-R",ref,
+					"-n","2",
+					"--threads",String.valueOf(nThreads),
+					vcf
+			}),0);
+		support.assertIsVcf(out);
+		return support.variantStream(out).
+				map(V->V.getContig()+":"+V.getStart()+":"+V.getFilters()+":"+V.getAttribute("POLYX")).
+				collect(Collectors.toList());
+		}
+	
+	/** same output with one or more threads */
+	@Test
+	public void testThreads() throws IOException {
+		try {
+			final String vcf = support.resource("rotavirus_rf.vcf.gz");
+			final String ref = support.resource("rotavirus_rf.fa");
+			final List<String> expect = run(vcf, ref, 1);
+			Assert.assertFalse(expect.isEmpty());
+			Assert.assertEquals(run(vcf, ref, 3), expect);
+			}
+		finally {
+			support.removeTmpFiles();
+			}
+		}
 }
@@ -45,4 +45,31 @@ public class SamJdkTest  {
 			support.removeTmpFiles();
 			}	
 		}
+	@Test(dataProvider="src1")
+	public void testThreads(final String inBam,final String expr) throws IOException {
+		try {
+			final Path out1 = support.createTmpPath(".bam");
+			Assert.assertEquals(new SamJdk().instanceMain(new String[] {
+	        		"-o",out1.toString(),
+	        		"-e",expr,
+	        		inBam
+					}),0);
+			final Path out2 = support.createTmpPath(".bam");
+			Assert.assertEquals(new SamJdk().instanceMain(new String[] {
+	        		"-o",out2.toString(),
+	        		"--threads","3",
+	        		"-e",expr,
+	        		inBam
+					}),0);
+			support.assertIsValidBam(out2);
+			Assert.assertEquals(
+				support.samStream(out2).map(R->R.getSAMString()).collect(Collectors.toList()),
+				support.samStream(out1).map(R->R.getSAMString()).collect(Collectors.toList())
+				);
+			}
+		finally
+			{
+			support.removeTmpFiles();
+			}	
+		}
 }
@@ -2,6 +2,7 @@ package com.github.lindenb.jvarkit.tools.vcfannot;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.stream.Collectors;
 
 import org.testng.Assert;
 import org.testng.annotations.DataProvider;
@@ -47,4 +48,40 @@ public class VCFPredictionsTest {
 			support.removeTmpFiles();
 			}
 		}
+	
+	/** same output when the genes are queried from the binary snapshot of the GTF */
+	@Test(dataProvider="data1")
+	public void testGtfCache(String vcfin) throws IOException
+		{
+		try {
+			final Path ref = support.getGRCh37Path().orElse(null);
+			if(ref==null) return;
+			final Path out1 = support.createTmpPath(".vcf");
+			Assert.assertEquals(new VCFPredictions().instanceMain(new String[] {
+				"-o",out1.toString(),
+				"--gtf",support.resource("Homo_sapiens.GRCh37.87.gtf.gz"),
+				"-R",ref.toString(),
+				vcfin
+				}),0);
+			final Path cache = support.createTmpPath(".gtfcache");
+			for(int pass=0;pass<2;++pass) {
+				final Path out2 = support.createTmpPath(".vcf");
+				Assert.assertEquals(new VCFPredictions().instanceMain(new String[] {
+					"-o",out2.toString(),
+					"--gtf",support.resource("Homo_sapiens.GRCh37.87.gtf.gz"),
+					"--gtf-cache",cache.toString(),
+					"-R",ref.toString(),
+					vcfin
+					}),0);
+				Assert.assertEquals(
+					support.variantStream(out2).map(V->V.toStringDecodeGenotypes()).collect(Collectors.toList()),
+					support.variantStream(out1).map(V->V.toStringDecodeGenotypes()).collect(Collectors.toList())
+					);
+				}
+			}
+		finally
+			{
+			support.removeTmpFiles();
+			}
+		}
 }
@@ -2,6 +2,7 @@ package com.github.lindenb.jvarkit.tools.vcffilterjs;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.stream.Collectors;
 
 import org.testng.Assert;
 import org.testng.annotations.DataProvider;
@@ -22,6 +23,16 @@ private final TestSupport support =new TestSupport();
 			{support.resource("rotavirus_rf.ann.vcf.gz"),"return variant.getContig().equals(\"RF01\");"}
 		};
 		}
+	
+	@DataProvider(name = "threads")
+	public Object[][] createDataThreads() {
+		return new Object[][] {
+			{support.resource("ExAC.r1.sites.vep.vcf.gz"),"return variant.getStart()%10==0;"},
+			{support.resource("rotavirus_rf.ann.vcf.gz"),"return variant.getContig().equals(\"RF01\");"},
+			/* genotypes are decoded lazily: this one must not share the codec between the threads */
+			{support.resource("rotavirus_rf.vcf.gz"),"return variant.getGenotypes().stream().anyMatch(G->G.isHomVar());"}
+		};
+		}
 
 	
 	@Test(dataProvider="src1")
@@ -42,4 +53,34 @@ private final TestSupport support =new TestSupport();
 			support.removeTmpFiles();
 			}
 		}
-}
\ No newline at end of file
+	
+	@Test(dataProvider="threads")
+	public void testThreads(final String inputFile,String expr) 
+		throws IOException
+		{
+		try {
+			final Path output1 = support.createTmpPath(".vcf");
+	        Assert.assertEquals(new VcfFilterJdk().instanceMain(new String[] {
+	        		"-o",output1.toString(),
+	        		"-e",expr,
+	        		inputFile}),
+	        		0);
+			final Path output2 = support.createTmpPath(".vcf");
+	        Assert.assertEquals(new VcfFilterJdk().instanceMain(new String[] {
+	        		"-o",output2.toString(),
+	        		"--threads","3",
+	        		"-e",expr,
+	        		inputFile}),
+	        		0);
+	        support.assertIsVcf(output2);
+	        Assert.assertEquals(
+	        	support.variantStream(output2).map(V->V.toStringDecodeGenotypes()).collect(Collectors.toList()),
+	        	support.variantStream(output1).map(V->V.toStringDecodeGenotypes()).collect(Collectors.toList())
+	        	);
+			} 
+		finally
+			{	
+			support.removeTmpFiles();
+			}
+		}
+}
@@ -3,12 +3,19 @@ package com.github.lindenb.jvarkit.tools.vcfstats;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 import org.testng.Assert;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
+import htsjdk.samtools.util.IOUtil;
+
 import com.github.lindenb.jvarkit.tools.tests.AlsoTest;
 import com.github.lindenb.jvarkit.tools.tests.TestSupport;
 import com.github.lindenb.jvarkit.util.jcommander.LauncherTest;
@@ -50,4 +57,53 @@ public class VcfStatsTest  {
 			support.removeTmpFiles();
 		}
 		}
+		
+	@DataProvider(name = "src2")
+	public Object[][] createData2() {
+		return support.toArrayArray(support.
+				allVcfOrBcf().
+				filter(support.vcfhasIndex).
+				map(F->new Object[] {F})
+				)
+				;
+		}
+	
+	private Map<String,String> readZip(final Path zip) throws IOException {
+		final Map<String,String> map = new HashMap<>();
+		try(ZipFile zf = new ZipFile(zip.toFile())) {
+			for(final ZipEntry e: Collections.list(zf.entries())) {
+				map.put(e.getName(), IOUtil.readFully(zf.getInputStream(e)));
+				}
+			}
+		return map;
+		}
+	
+	@Test(dataProvider="src2")
+	public void testThreads(final String inputFile) 
+		throws IOException
+		{
+		try {
+		final Path ped = support.createRandomPedigreeFromFile(inputFile);
+		final List<Map<String,String>> contents = new ArrayList<>();
+		for(int nThreads=1;nThreads<=3;nThreads+=2) {
+			final Path output = support.createTmpPath(".zip");
+			final List<String> args = new ArrayList<>();
+			args.add("-o");
+			args.add(output.toString());
+			args.add("--threads");
+			args.add(String.valueOf(nThreads));
+			if(ped!=null) {
+				args.add("--pedigree");
+				args.add(ped.toString());
+			}
+			args.add(inputFile);
+	        Assert.assertEquals(0,new VcfStats().instanceMain(args));
+	        support.assertZip(output);
+	        contents.add(readZip(output));
+			}
+		Assert.assertEquals(contents.get(1), contents.get(0));
+		} finally {
+			support.removeTmpFiles();
+		}
+		}
 	}
@@ -1,7 +1,13 @@
 package com.github.lindenb.jvarkit.tools.xcontamination;
 
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
 
 import org.testng.Assert;
 import org.testng.annotations.Test;
@@ -36,4 +42,33 @@ public void test01() throws IOException {
 		support.removeTmpFiles();
 		}
 	}
+
+private List<String> run(final String...opts) throws IOException {
+	final Path output = support.createTmpPath(".txt");
+	final List<String> args = new ArrayList<>(Arrays.asList(opts));
+	args.add("-o");
+	args.add(output.toString());
+	args.add(support.resource("rotavirus_rf.vcf.gz"));
+	for(int i=1;i<=5;i++) args.add(support.resource("S"+i+".bam"));
+	Assert.assertEquals(new XContaminations().instanceMain(args),0);
+	return Files.readAllLines(output).stream().
+		filter(L->!L.startsWith("##")).
+		collect(Collectors.toList());
+	}
+
+@Test	
+public void testSweep() throws IOException {
+	try {
+		Assert.assertEquals(run("-ov","-sample","--sweep","--threads","3","--sweep-buffer","5"),run("-ov","-sample"));
+		/* order of the rows of the table is not defined */
+		Assert.assertEquals(
+			new TreeSet<>(run("--sweep","--threads","2")),
+			new TreeSet<>(run())
+			);
+		} 
+	finally 
+		{
+		support.removeTmpFiles();
+		}
+	}
 }
@@ -1,5 +1,7 @@
 package com.github.lindenb.jvarkit.util;
 
+import java.util.stream.IntStream;
+
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
@@ -19,4 +21,99 @@ public void testWithInt() {
 	Assert.assertEquals(counter.getTotal(), 7);
 	Assert.assertEquals(counter.getMostFrequent(),Integer.valueOf(1));
 	}
+
+@Test
+public void testRehash() {
+	final Counter<String> counter=new Counter<>();
+	for(int i=0;i< 10_000;i++)
+		{
+		counter.incr("k"+(i%1000));
+		}
+	Assert.assertEquals(counter.getCountCategories(), 1000);
+	Assert.assertEquals(counter.count("k999"), 10);
+	Assert.assertEquals(counter.count("x"), 0);
+	Assert.assertTrue(counter.keySet().contains("k0"));
+	Assert.assertFalse(counter.keySet().contains("x"));
+	Assert.assertEquals(counter.getTotal(), 10_000);
+	}
+
+@Test
+public void testMerge() {
+	final Counter<String> c1=new Counter<>();
+	c1.incr("A",2);
+	c1.initializeIfNotExists("Z");
+	final Counter<String> c2=new Counter<>();
+	c2.incr("A");
+	c2.incr("B",3);
+	c2.merge(c1);
+	Assert.assertEquals(c2.count("A"), 3);
+	Assert.assertEquals(c2.count("B"), 3);
+	Assert.assertEquals(c2.count("Z"), 0);
+	Assert.assertTrue(c2.keySet().contains("Z"));
+	Assert.assertEquals(c2.getTotal(), 6);
+	}
+
+@Test
+public void testIndexed() {
+	final IndexedCounter<Character> c1 = IndexedCounter.ofAscii();
+	final Counter<Character> c2 = new Counter<>();
+	for(char c: "ACGTNNAAC".toCharArray()) {
+		c1.incr(c);
+		c2.incr(c);
+		}
+	c1.incrIndex('T');
+	c2.incr('T');
+	Assert.assertEquals(c1, c2);
+	Assert.assertEquals(c2, c1);
+	Assert.assertEquals(c1.hashCode(), c2.hashCode());
+	Assert.assertEquals(c1.count('A'), 3);
+	Assert.assertEquals(c1.countIndex('T'), 2);
+	Assert.assertEquals(c1.getMostFrequent(), Character.valueOf('A'));
+	Assert.assertEquals(c1.getTotal(), 10);
+	
+	final IndexedCounter<Integer> h = IndexedCounter.ofIntRange(-5, 5);
+	h.incr(-5);
+	h.incr(5,2);
+	Assert.assertEquals(h.count(5), 2);
+	Assert.assertEquals(h.count(100), 0);
+	Assert.assertEquals(h.getCountCategories(), 2);
+	try {
+		h.incr(6);
+		Assert.fail();
+		}
+	catch(final IllegalArgumentException err) {
+		// ok
+		}
+	}
+
+@Test
+public void testIndexedMergeDifferentDomains() {
+	// same size, but index 7 is the key 7 in 'a' and the key 12 in 'b'
+	final IndexedCounter<Integer> a = IndexedCounter.ofIntRange(0, 9);
+	final IndexedCounter<Integer> b = IndexedCounter.ofIntRange(5, 14);
+	a.incr(7,3);
+	b.incr(12);
+	b.merge(a);
+	Assert.assertEquals(b.count(7), 3);
+	Assert.assertEquals(b.count(12), 1);
+	Assert.assertEquals(b.getTotal(), 4);
+	
+	// same domain: fast path
+	final IndexedCounter<Integer> c = IndexedCounter.ofIntRange(5, 14);
+	c.incr(12,2);
+	c.merge(b);
+	Assert.assertEquals(c.count(7), 3);
+	Assert.assertEquals(c.count(12), 3);
+	Assert.assertEquals(c.getTotal(), 6);
+	}
+
+@Test
+public void testConcurrent() {
+	final ConcurrentCounter<Integer> counter=new ConcurrentCounter<>();
+	IntStream.range(0, 100_000).parallel().forEach(i->counter.incr(i%10));
+	Assert.assertEquals(counter.getTotal(), 100_000);
+	Assert.assertEquals(counter.count(3), 10_000);
+	final Counter<Integer> merged = new Counter<Integer>().merge(counter);
+	Assert.assertEquals(merged, counter);
+	}
 }
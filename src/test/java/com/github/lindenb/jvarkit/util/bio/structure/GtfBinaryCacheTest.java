@@ -0,0 +1,113 @@
+package com.github.lindenb.jvarkit.util.bio.structure;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.samtools.util.SimpleInterval;
+import com.github.lindenb.jvarkit.tools.tests.TestSupport;
+
+public class GtfBinaryCacheTest {
+private final TestSupport support =new TestSupport();
+
+@AfterClass
+public void removeTmpFiles() {
+	support.removeTmpFiles();
+	}
+
+@DataProvider(name = "src1")
+public Object[][] createData1() {
+	return new Object[][] {
+		{"Homo_sapiens.GRCh37.87.gtf.gz"},
+		{"gencode.v19.annotation.gtf"},
+		};
+	}
+
+private static String toString(final Gene g) {
+	final StringBuilder sb = new StringBuilder();
+	sb.append(g.getId()).append(" ").append(g.getContig()).append(":").append(g.getStart()).append("-").append(g.getEnd()).append(g.getStrand()).append(new TreeMap<>(g.getProperties()));
+	for(final Transcript t: g.getTranscripts()) {
+		sb.append(" ").append(t).append(t.getStrand()).append(new TreeMap<>(t.getProperties()));
+		sb.append(" coding:").append(t.isCoding());
+		t.getCodonStart().ifPresent(C->sb.append(" start:").append(C.getStart()).append("-").append(C.getEnd()));
+		t.getCodonStop().ifPresent(C->sb.append(" stop:").append(C.getStart()).append("-").append(C.getEnd()));
+		for(final Exon ex: t.getExons()) sb.append(" ").append(ex);
+		}
+	return sb.toString();
+	}
+
+@Test(dataProvider="src1")
+public void testSameAsGtf(final String fname) throws IOException {
+	final Path gtf = Paths.get(support.resource(fname));
+	final Path cachePath = support.createTmpPath(".gtfcache");
+	Assert.assertFalse(GtfBinaryCache.isUpToDate(cachePath, gtf));
+	
+	final List<Gene> expect;
+	try(GtfReader r= new GtfReader(gtf)) {
+		expect = r.getAllGenes();
+		}
+	Assert.assertFalse(expect.isEmpty());
+	for(int pass=0;pass<2;++pass) {
+		final List<Gene> genes;
+		try(GtfReader r= new GtfReader(gtf)) {
+			r.setBinaryCache(cachePath);
+			genes = r.getAllGenes();
+			}
+		Assert.assertTrue(GtfBinaryCache.isUpToDate(cachePath, gtf));
+		Assert.assertEquals(
+			genes.stream().map(G->toString(G)).collect(Collectors.toList()),
+			expect.stream().map(G->toString(G)).collect(Collectors.toList())
+			);
+		}
+	
+	try(GtfBinaryCache cache = new GtfBinaryCache(cachePath)) {
+		for(final Gene g: expect) {
+			final SimpleInterval q = new SimpleInterval(g.getContig(), g.getStart()+1, g.getStart()+1);
+			Assert.assertEquals(
+				cache.query(q).stream().map(G->toString(G)).sorted().collect(Collectors.toList()),
+				expect.stream().filter(G->G.overlaps(q)).map(G->toString(G)).sorted().collect(Collectors.toList())
+				);
+			}
+		cache.setContigNameConverter(C->C.equals("chr3") || C.equals("1")?"X":null);
+		final List<Gene> L = cache.getAllGenes();
+		Assert.assertFalse(L.isEmpty());
+		Assert.assertTrue(L.stream().allMatch(G->G.getContig().equals("X")));
+		Assert.assertEquals(cache.query(new SimpleInterval("X",1,Integer.MAX_VALUE-1)).size(), L.size());
+		}
+	}
+
+/** the checksum is only computed when the size is the same but the modification time differs */
+@Test
+public void testUpToDate() throws IOException {
+	final Path gtf = support.createTmpPath(".gtf");
+	Files.copy(Paths.get(support.resource("gencode.v19.annotation.gtf")), gtf, StandardCopyOption.REPLACE_EXISTING);
+	final Path cachePath = support.createTmpPath(".gtfcache");
+	GtfBinaryCache.build(gtf, cachePath);
+	try(GtfBinaryCache cache = new GtfBinaryCache(cachePath)) {
+		Assert.assertEquals(cache.getGtfSize(), Files.size(gtf));
+		Assert.assertEquals(cache.getGtfLastModified(), Files.getLastModifiedTime(gtf).toMillis());
+		}
+	Assert.assertTrue(GtfBinaryCache.isUpToDate(cachePath, gtf));
+	// touched: same content
+	Files.setLastModifiedTime(gtf, FileTime.fromMillis(Files.getLastModifiedTime(gtf).toMillis() + 60_000L));
+	Assert.assertTrue(GtfBinaryCache.isUpToDate(cachePath, gtf));
+	// same size, another modification time and another content
+	final byte[] array = Files.readAllBytes(gtf);
+	final FileTime time = Files.getLastModifiedTime(gtf);
+	array[array.length-2] = (byte)(array[array.length-2]=='A'?'C':'A');
+	Files.write(gtf, array);
+	Files.setLastModifiedTime(gtf, FileTime.fromMillis(time.toMillis() + 60_000L));
+	Assert.assertFalse(GtfBinaryCache.isUpToDate(cachePath, gtf));
+	}
+}
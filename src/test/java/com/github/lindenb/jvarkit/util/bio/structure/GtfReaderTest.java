@@ -2,6 +2,8 @@ package com.github.lindenb.jvarkit.util.bio.structure;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
 
 import org.testng.Assert;
 import org.testng.annotations.Test;
@@ -43,4 +45,30 @@ void test01() throws IOException {
 		
 		}
 	}
+
+@Test
+void testParallel() throws IOException {
+	for(final String fname: new String[] {"Homo_sapiens.GRCh37.87.gtf.gz","gencode.v19.annotation.gtf"}) {
+		final List<String> L1;
+		try(GtfReader gf = new GtfReader(support.resource(fname))) {
+			L1 = toStrings(gf.getAllGenes());
+			}
+		final List<String> L2;
+		try(GtfReader gf = new GtfReader(support.resource(fname))) {
+			gf.setThreads(3);
+			L2 = toStrings(gf.getAllGenes());
+			}
+		Assert.assertFalse(L1.isEmpty());
+		Assert.assertEquals(L2, L1);
+		}
+	}
+
+private static List<String> toStrings(final List<Gene> genes) {
+	return genes.stream().
+		flatMap(G->G.getTranscripts().stream()).
+		map(T->T.getGene().getId()+" "+T+" "+T.getStrand()+" "+new TreeMap<>(T.getProperties())+" "+T.isCoding()+" "+T.getExons()+" "+
+			T.getCodonStart().map(C->C.getStart()+"-"+C.getEnd()).orElse("")+" "+
+			T.getCodonStop().map(C->C.getStart()+"-"+C.getEnd()).orElse("")).
+		collect(Collectors.toList());
+	}
 }
@@ -0,0 +1,92 @@
+package com.github.lindenb.jvarkit.util.picard;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestSupport;
+
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.reference.ReferenceSequence;
+import htsjdk.samtools.reference.ReferenceSequenceFile;
+import htsjdk.samtools.reference.ReferenceSequenceFileFactory;
+
+public class PackedGenomicSequenceTest {
+	private final TestSupport support = new TestSupport();
+
+	/** in-memory reference with one contig */
+	private static class OneContigReference implements ReferenceSequenceFile {
+		final byte[] bases;
+		final SAMSequenceDictionary dict;
+		OneContigReference(final byte[] bases) {
+			this.bases = bases;
+			this.dict = new SAMSequenceDictionary(Arrays.asList(new SAMSequenceRecord("chr1", bases.length)));
+			}
+		@Override public SAMSequenceDictionary getSequenceDictionary() { return this.dict;}
+		@Override public ReferenceSequence nextSequence() { throw new UnsupportedOperationException();}
+		@Override public void reset() {}
+		@Override public boolean isIndexed() { return true;}
+		@Override public ReferenceSequence getSequence(final String contig) { return getSubsequenceAt(contig, 1, this.bases.length);}
+		@Override public ReferenceSequence getSubsequenceAt(final String contig,final long start,final long stop) {
+			return new ReferenceSequence(contig, 0, Arrays.copyOfRange(this.bases, (int)start-1, (int)stop));
+			}
+		@Override public void close() throws IOException {}
+		}
+
+	private void compare(final GenomicSequence expect,final PackedGenomicSequence packed,final Random rand) {
+		Assert.assertEquals(packed.length(), expect.length());
+		for(int i=0;i< expect.length();i++) {
+			Assert.assertEquals(packed.charAt(i), expect.charAt(i), "index "+i);
+			}
+		for(int n=0;n< 2_000;n++) {
+			final int start = rand.nextInt(expect.length());
+			final int end = start + rand.nextInt(rand.nextBoolean()?10:1_000);
+			final GenomicSequence.GCPercent gc1 = expect.getGCPercent(start, end);
+			final GenomicSequence.GCPercent gc2 = packed.getGCPercent(start, end);
+			Assert.assertEquals(gc2.getStart(), gc1.getStart());
+			Assert.assertEquals(gc2.getEnd(), gc1.getEnd());
+			Assert.assertEquals(gc2.getAllCount(), gc1.getAllCount());
+			Assert.assertEquals(gc2.getGCCount(), gc1.getGCCount());
+			Assert.assertEquals(gc2.getATCount(), gc1.getATCount());
+			Assert.assertEquals(gc2.getNCount(), gc1.getNCount());
+			Assert.assertEquals(new String(packed.getBases(start, end)), expect.subSequence(start, Math.min(end, expect.length())).toString());
+			}
+		}
+
+	@Test
+	public void testRotavirus() throws IOException {
+		final Random rand = new Random(0L);
+		try(ReferenceSequenceFile ref = ReferenceSequenceFileFactory.getReferenceSequenceFile(Paths.get(support.resource("rotavirus_rf.fa")))) {
+			final PackedGenomicSequence.Cache cache = new PackedGenomicSequence.Cache(ref, 2);
+			for(final SAMSequenceRecord ssr: ref.getSequenceDictionary().getSequences()) {
+				final PackedGenomicSequence packed = cache.get(ssr.getSequenceName());
+				Assert.assertSame(cache.get(ssr.getSequenceName()), packed);
+				compare(new GenomicSequence(ref, ssr.getSequenceName()), packed, rand);
+				}
+			}
+		}
+
+	/** lower case, N and IUPAC bases */
+	@Test
+	public void testOtherBases() throws IOException {
+		final Random rand = new Random(0L);
+		final String symbols = "ACGTacgtNnSsWwRY";
+		for(int length : new int[] {1,3,4,31,32,33,255,256,257,10_000}) {
+			final byte[] bases = new byte[length];
+			int i=0;
+			while(i< length) {
+				final byte b = (byte)symbols.charAt(rand.nextInt(rand.nextInt(3)==0?symbols.length():8));
+				final int n = 1 + rand.nextInt(rand.nextInt(10)==0?300:5);
+				for(int j=0;j< n && i< length;j++) bases[i++] = b;
+				}
+			try(OneContigReference ref = new OneContigReference(bases)) {
+				compare(new GenomicSequence(ref, "chr1"), new PackedGenomicSequence(ref, "chr1"), rand);
+				}
+			}
+		}
+	}
@@ -0,0 +1,135 @@
+package com.github.lindenb.jvarkit.variant.vcf;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestSupport;
+
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.variant.variantcontext.Genotype;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFFileReader;
+import htsjdk.variant.vcf.VCFReader;
+
+public class BcfReaderTest {
+private final TestSupport support  = new TestSupport();
+
+private List<VariantContext> toList(final CloseableIterator<VariantContext> iter) {
+	try {
+		return iter.stream().collect(Collectors.toList());
+		}
+	finally {
+		iter.close();
+		}
+	}
+
+/** toy.bcf was created from toy.vcf.gz with bcftools */
+@Test
+public void testSameAsVcf() throws IOException {
+	final Path bcf = Paths.get(support.resource("toy.bcf"));
+	final Path vcf = Paths.get(support.resource("toy.vcf.gz"));
+	try(BcfReader br = new BcfReader(bcf);
+		VCFFileReader vr = new VCFFileReader(vcf, false)) {
+		Assert.assertEquals(br.getHeader().getGenotypeSamples(), vr.getHeader().getGenotypeSamples());
+		final List<VariantContext> L1 = toList(br.iterator());
+		final List<VariantContext> L2 = toList(vr.iterator());
+		Assert.assertEquals(L1.size(), 5);
+		Assert.assertEquals(L1.size(), L2.size());
+		for(int i=0;i< L1.size();i++) {
+			final VariantContext v1 = L1.get(i);
+			final VariantContext v2 = L2.get(i);
+			Assert.assertEquals(v1.getContig(), v2.getContig());
+			Assert.assertEquals(v1.getStart(), v2.getStart());
+			Assert.assertEquals(v1.getEnd(), v2.getEnd());
+			Assert.assertEquals(v1.getID(), v2.getID());
+			Assert.assertEquals(v1.getAlleles(), v2.getAlleles());
+			Assert.assertEquals(v1.filtersWereApplied(), v2.filtersWereApplied());
+			Assert.assertEquals(v1.getPhredScaledQual(), v2.getPhredScaledQual(), 1E-6);
+			Assert.assertEquals(v1.getAttributes().keySet(), v2.getAttributes().keySet());
+			Assert.assertEquals(v1.getAttributeAsInt("DP", -1), v2.getAttributeAsInt("DP", -2));
+			Assert.assertEquals(v1.getAttributeAsIntList("DP4", -1), v2.getAttributeAsIntList("DP4", -2));
+			Assert.assertEquals(v1.getAttributeAsDouble("FQ", 0), v2.getAttributeAsDouble("FQ", 1), 1E-4);
+			Assert.assertEquals(v1.hasAttribute("INDEL"), v2.hasAttribute("INDEL"));
+			Assert.assertEquals(v1.getNSamples(), v2.getNSamples());
+			for(int j=0;j< v1.getNSamples();j++) {
+				final Genotype g1 = v1.getGenotype(j);
+				final Genotype g2 = v2.getGenotype(j);
+				Assert.assertEquals(g1.getSampleName(), g2.getSampleName());
+				Assert.assertEquals(g1.getAlleles(), g2.getAlleles());
+				Assert.assertEquals(g1.isPhased(), g2.isPhased());
+				Assert.assertEquals(g1.getPL(), g2.getPL());
+				}
+			}
+		}
+	}
+
+@Test
+public void testQuery() throws IOException {
+	final Path bcf = Paths.get(support.resource("toy.bcf"));
+	try(BcfReader br = new BcfReader(bcf)) {
+		Assert.assertTrue(br.isQueryable());
+		Assert.assertEquals(toList(br.query("ref", 1, 12)).size(), 1);
+		Assert.assertEquals(toList(br.query("ref", 15, 45)).size(), 1);
+		Assert.assertEquals(toList(br.query("ref2", 14, 14)).size(), 2);
+		Assert.assertEquals(toList(br.query("ref2", 17, 40)).size(), 1);
+		Assert.assertEquals(toList(br.query("ref2", 30, 40)).size(), 0);
+		Assert.assertEquals(toList(br.query("xxx", 1, 40)).size(), 0);
+		}
+	}
+
+@Test
+public void testFactory() throws IOException {
+	final Path bcf = Paths.get(support.resource("toy.bcf"));
+	try(VCFReader r = VCFReaderFactory.makeDefault().open(bcf,false)) {
+		Assert.assertTrue(r instanceof BcfReader);
+		}
+	}
+
+/** BCF files can be uncompressed: create one from toy.bcf */
+@Test
+public void testUncompressed() throws IOException {
+	try {
+		final Path bcf = Paths.get(support.resource("toy.bcf"));
+		final Path raw = support.createTmpPath(".bcf");
+		try(InputStream in = new BlockCompressedInputStream(bcf.toFile())) {
+			Files.copy(in, raw, StandardCopyOption.REPLACE_EXISTING);
+			}
+		try(BcfReader br1 = new BcfReader(bcf);
+			BcfReader br2 = new BcfReader(raw)) {
+			Assert.assertFalse(br2.isQueryable());
+			Assert.assertEquals(br2.getHeader().getGenotypeSamples(), br1.getHeader().getGenotypeSamples());
+			final List<VariantContext> L1 = toList(br1.iterator());
+			final List<VariantContext> L2 = toList(br2.iterator());
+			Assert.assertEquals(L2.size(), L1.size());
+			for(int i=0;i< L1.size();i++) {
+				Assert.assertEquals(L2.get(i).toStringWithoutGenotypes(), L1.get(i).toStringWithoutGenotypes());
+				Assert.assertEquals(L2.get(i).getGenotype(0).getAlleles(), L1.get(i).getGenotype(0).getAlleles());
+				}
+			}
+		}
+	finally {
+		support.removeTmpFiles();
+		}
+	}
+
+@Test
+public void testFormatFloat() {
+	Assert.assertEquals(BcfReader.formatFloat(1E-5f), "1e-05");
+	Assert.assertEquals(BcfReader.formatFloat(0.1f), "0.1");
+	Assert.assertEquals(BcfReader.formatFloat(1f), "1");
+	Assert.assertEquals(BcfReader.formatFloat(42.5f), "42.5");
+	Assert.assertEquals(BcfReader.formatFloat(3.14159265f), "3.14159");
+	Assert.assertEquals(BcfReader.formatFloat(1234567f), "1.23457e+06");
+	Assert.assertEquals(BcfReader.formatFloat(0.0001f), "0.0001");
+	}
+}
@@ -0,0 +1,79 @@
+package com.github.lindenb.jvarkit.variant.vcf;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestSupport;
+
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFFileReader;
+
+public class BufferedVCFReaderTest {
+private final TestSupport support  = new TestSupport();
+
+private List<String> toList(final CloseableIterator<VariantContext> iter) {
+	try {
+		// genotypes are part of the key: they must be decoded safely with the read-ahead
+		return iter.stream().map(V->V.getContig()+":"+V.getStart()+":"+V.getAlleles()+":"+
+				V.getGenotypes().stream().map(G->G.getGenotypeString()).collect(Collectors.joining(","))).
+				collect(Collectors.toList());
+		}
+	finally {
+		iter.close();
+		}
+	}
+
+@DataProvider(name = "src1")
+public Object[][] createData1() {
+	return new Object[][] {
+		{1,false},
+		{4,false},
+		{4,true},
+		};
+	}
+
+@Test(dataProvider="src1")
+public void testSameAsDelegate(final int nWindows,final boolean readAhead) throws IOException {
+	final Path vcf = Paths.get(support.resource("rotavirus_rf.vcf.gz"));
+	final Random rand = new Random(0L);
+	try(VCFFileReader expect = new VCFFileReader(vcf, true);
+		BufferedVCFReader r = new BufferedVCFReader(new VCFFileReader(vcf, true), 200)) {
+		r.setWindowCount(nWindows).setReadAhead(readAhead);
+		int pos = 1;
+		for(int i=0;i< 500;i++) {
+			final String contig = "RF0"+(1+rand.nextInt(3));
+			// mostly forward queries, sometimes a jump backward
+			pos = (rand.nextInt(10)==0 ? 1 + rand.nextInt(2000) : pos + rand.nextInt(50));
+			final int end = pos + rand.nextInt(20);
+			Assert.assertEquals(toList(r.query(contig, pos, end)), toList(expect.query(contig, pos, end)));
+			}
+		Assert.assertEquals(r.getHitCount() + r.getReloadCount(), 500L);
+		Assert.assertTrue(r.getHitCount() > 0L);
+		if(!readAhead) Assert.assertEquals(r.getReadAheadHitCount(), 0L);
+		}
+	}
+
+/** iterate over the whole file while a read-ahead may be pending, then query again */
+@Test
+public void testIteratorWithReadAhead() throws IOException {
+	final Path vcf = Paths.get(support.resource("rotavirus_rf.vcf.gz"));
+	try(VCFFileReader expect = new VCFFileReader(vcf, true);
+		BufferedVCFReader r = new BufferedVCFReader(new VCFFileReader(vcf, true), 200)) {
+		r.setReadAhead(true);
+		for(int i=0;i< 10;i++) {
+			Assert.assertEquals(toList(r.query("RF01", 1, 100)), toList(expect.query("RF01", 1, 100)));
+			Assert.assertEquals(toList(r.iterator()), toList(expect.iterator()));
+			Assert.assertEquals(toList(r.query("RF02", 1+i*100, 100+i*100)), toList(expect.query("RF02", 1+i*100, 100+i*100)));
+			}
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package com.github.lindenb.jvarkit.variant.vcf;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestSupport;
+
+import htsjdk.variant.variantcontext.Genotype;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFIterator;
+import htsjdk.variant.vcf.VCFIteratorBuilder;
+
+public class LazyGenotypesUtilsTest {
+private final TestSupport support  = new TestSupport();
+
+private List<VariantContext> readAll(final VCFIterator iter) {
+	final List<VariantContext> L = new ArrayList<>();
+	while(iter.hasNext()) L.add(iter.next());
+	iter.close();
+	return L;
+	}
+
+@Test
+public void testSameGenotypes() throws IOException {
+	final Path vcf = Paths.get(support.resource("rotavirus_rf.vcf.gz"));
+	final List<VariantContext> L1 = readAll(new VCFIteratorBuilder().open(vcf));
+	final List<VariantContext> L2 = readAll(new VCFIteratorBuilder().open(vcf));
+	Assert.assertFalse(L1.isEmpty());
+	Assert.assertEquals(L1.size(), L2.size());
+	for(int i=0;i< L1.size();i++) {
+		final VariantContext v1 = L1.get(i);
+		final VariantContext v2 = L2.get(i);
+		Assert.assertEquals(v1.getContig(), v2.getContig());
+		Assert.assertEquals(v1.getStart(), v2.getStart());
+		Assert.assertEquals(v1.getAlleles(), v2.getAlleles());
+		Assert.assertEquals(v1.getAttributes(), v2.getAttributes());
+		Assert.assertTrue(v1.getGenotypes().isLazyWithData());
+		/* raw access doesn't decode the genotypes */
+		final String gt = LazyGenotypesUtils.getRawGenotypeField(v1, 1, "GT");
+		final String pl = LazyGenotypesUtils.getRawGenotypeField(v1, 1, "PL");
+		Assert.assertNull(LazyGenotypesUtils.getRawGenotypeField(v1, 1, "XX"));
+		Assert.assertTrue(v1.getGenotypes().isLazyWithData());
+		LazyGenotypesUtils.decodeGenotypes(v1);
+		Assert.assertFalse(v1.getGenotypes().isLazyWithData());
+		Assert.assertNull(LazyGenotypesUtils.getRawGenotypeField(v1, 1, "GT"));
+		Assert.assertEquals(v1.getNSamples(), v2.getNSamples());
+		for(int j=0;j< v1.getNSamples();j++) {
+			final Genotype g1 = v1.getGenotype(j);
+			final Genotype g2 = v2.getGenotype(j);
+			Assert.assertEquals(g1.getSampleName(), g2.getSampleName());
+			Assert.assertEquals(g1.getAlleles(), g2.getAlleles());
+			Assert.assertEquals(g1.getPL(), g2.getPL());
+			}
+		Assert.assertEquals(gt, v2.getGenotype(1).getAlleles().stream().
+				map(A->A.isNoCall()?".":String.valueOf(v2.getAlleleIndex(A))).
+				collect(Collectors.joining("/")));
+		Assert.assertNotNull(pl);
+		}
+	}
+}